@@ -0,0 +1,90 @@
+package io.github.ankon.jnabserver.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.ankon.jnabserver.core.bunny.Bunny;
+import io.github.ankon.jnabserver.core.protocol.Packet;
+
+/**
+ * Benchmarks of the packet queue of a bunny shared by all benchmark threads, as when plugins queue packets while workers send them.<br/>
+ *
+ * Each operation queues a packet and takes one back, so that the queue stays short. Meant to be run at several thread counts (see
+ * {@link ContentionBenchmarks}).
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BunnyPacketQueueBenchmark
+{
+    /**
+     * Bunny shared by benchmark threads.
+     */
+    private Bunny bunny;
+
+    /**
+     * Packet to queue (already holding a ping interval block, so that queuing it does not modify it).
+     */
+    private Packet packet;
+
+    /**
+     * Creating the bunny and the packet.
+     */
+    @Setup
+    public void setup()
+    {
+	this.bunny = new Bunny(BurrowBenchmark.serialNumber(0));
+	this.packet = new Packet(PacketBenchmark.createPacket().generatePacket());
+    }
+
+    /**
+     * Queuing a packet, then taking the next packet to send.
+     *
+     * @return the packet taken.
+     */
+    @Benchmark
+    public Packet addPacket()
+    {
+	this.bunny.addPacket(this.packet);
+	return this.bunny.getNextPacket();
+    }
+
+    /**
+     * Forcing a packet, then taking the next packet to send.
+     *
+     * @return the packet taken.
+     */
+    @Benchmark
+    public Packet forcePacket()
+    {
+	this.bunny.forcePacket(this.packet);
+	return this.bunny.getNextPacket();
+    }
+
+    /**
+     * Taking the next packet to send while there are (almost always) none, as done for most pings.
+     *
+     * @return the packet taken (most of the time <tt>null</tt>).
+     */
+    @Benchmark
+    public Packet getNextPacket()
+    {
+	return this.bunny.getNextPacket();
+    }
+}
@@ -0,0 +1,137 @@
+package io.github.ankon.jnabserver.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.ankon.jnabserver.core.bunny.Bunny;
+import io.github.ankon.jnabserver.core.bunny.Burrow;
+import io.github.ankon.jnabserver.core.exceptions.NoSuchBunnyException;
+
+/**
+ * Benchmarks of bunny lookups and insertions in a burrow shared by all benchmark threads, as done by workers for each request.<br/>
+ *
+ * Meant to be run at several thread counts (see {@link ContentionBenchmarks}).
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BurrowBenchmark
+{
+    /**
+     * Number of bunnies in the burrow.
+     */
+    @Param({ "10000" })
+    public int bunnyCount;
+
+    /**
+     * Burrow shared by benchmark threads.
+     */
+    private Burrow burrow;
+
+    /**
+     * Bunnies of the burrow.
+     */
+    private Bunny[] bunnies;
+
+    /**
+     * Serial numbers of the bunnies of the burrow.
+     */
+    private String[] serialNumbers;
+
+    /**
+     * Serial numbers of bunnies which are not in the burrow.
+     */
+    private String[] unknownSerialNumbers;
+
+    /**
+     * Filling the burrow.
+     */
+    @Setup
+    public void setup()
+    {
+	this.burrow = new Burrow();
+	this.bunnies = new Bunny[this.bunnyCount];
+	this.serialNumbers = new String[this.bunnyCount];
+	this.unknownSerialNumbers = new String[this.bunnyCount];
+	for (int i = 0; i < this.bunnyCount; i++)
+	{
+	    this.serialNumbers[i] = serialNumber(i);
+	    this.unknownSerialNumbers[i] = serialNumber(this.bunnyCount + i);
+	    this.bunnies[i] = new Bunny(this.serialNumbers[i]);
+	    this.burrow.addBunny(this.bunnies[i]);
+	}
+    }
+
+    /**
+     * Building the serial number of a bunny, from its index.
+     *
+     * @param index the index of the bunny.
+     * @return the serial number of the bunny (a MAC address, in hexadecimal).
+     */
+    static String serialNumber(int index)
+    {
+	return String.format("0019db%06x", index);
+    }
+
+    /**
+     * Looking up a bunny of the burrow.
+     *
+     * @return the bunny found.
+     * @throws NoSuchBunnyException never, since the bunny is in the burrow.
+     */
+    @Benchmark
+    public Bunny getBunny() throws NoSuchBunnyException
+    {
+	return this.burrow.getBunny(this.serialNumbers[ThreadLocalRandom.current().nextInt(this.bunnyCount)]);
+    }
+
+    /**
+     * Looking up a bunny which is not in the burrow (e.g. a bunny booting for the first time).
+     *
+     * @return the exception thrown by the burrow.
+     */
+    @Benchmark
+    public NoSuchBunnyException getBunnyMiss()
+    {
+	try
+	{
+	    this.burrow.getBunny(this.unknownSerialNumbers[ThreadLocalRandom.current().nextInt(this.bunnyCount)]);
+	    throw new IllegalStateException("Unknown bunny found in the burrow");
+	}
+	catch (NoSuchBunnyException e)
+	{
+	    return e;
+	}
+    }
+
+    /**
+     * Adding (again) a bunny to the burrow.
+     *
+     * @return the bunny added.
+     */
+    @Benchmark
+    public Bunny addBunny()
+    {
+	Bunny bunny = this.bunnies[ThreadLocalRandom.current().nextInt(this.bunnyCount)];
+	this.burrow.addBunny(bunny);
+	return bunny;
+    }
+}
@@ -0,0 +1,53 @@
+package io.github.ankon.jnabserver.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.ankon.jnabserver.core.choreography.Choreography;
+
+/**
+ * Benchmark of choreography building: the 20 seconds red blinking choreography (ears down, belly leds blinking at 1Hz) is built and its
+ * data is retrieved.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChoreographyBenchmark
+{
+    /**
+     * Building a choreography and getting its data.
+     *
+     * @return the choreography data.
+     */
+    @Benchmark
+    public byte[] buildChoreography()
+    {
+	Choreography choreography = new Choreography("RedBlinking");
+	choreography.addTempoCommand(0, 100);
+	choreography.addAbsoluteEarMoveCommand(0, Choreography.EAR_LEFT, 10, Choreography.DIRECTION_FORWARD);
+	choreography.addAbsoluteEarMoveCommand(0, Choreography.EAR_RIGHT, 10, Choreography.DIRECTION_FORWARD);
+	choreography.addLedColorCommand(0, Choreography.LED_LEFT, 255, 0, 0);
+	for (int i = 0; i < 9; i++)
+	{
+	    choreography.addLedColorCommand(0, Choreography.LED_CENTER, 255, 0, 0);
+	    choreography.addLedColorCommand(0, Choreography.LED_RIGHT, 255, 0, 0);
+	    choreography.addLedColorCommand(1, Choreography.LED_LEFT, 0, 0, 0);
+	    choreography.addLedColorCommand(0, Choreography.LED_CENTER, 0, 0, 0);
+	    choreography.addLedColorCommand(0, Choreography.LED_RIGHT, 0, 0, 0);
+	    choreography.addLedColorCommand(1, Choreography.LED_LEFT, 255, 0, 0);
+	}
+	return choreography.getData();
+    }
+}
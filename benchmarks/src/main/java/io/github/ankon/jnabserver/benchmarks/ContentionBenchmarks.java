@@ -0,0 +1,90 @@
+package io.github.ankon.jnabserver.benchmarks;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Application running the contention benchmarks ({@link BurrowBenchmark}, {@link BunnyPacketQueueBenchmark} and
+ * {@link PluginDispatchBenchmark}) at increasing thread counts, so that changes to the concurrency model of bunnies can be measured.<br/>
+ *
+ * Usage: <tt>java -cp target/benchmarks.jar io.github.ankon.jnabserver.benchmarks.ContentionBenchmarks [threads [regexp [result]]]</tt>
+ * <ul>
+ * <li><tt>threads</tt>: comma-separated thread counts (default: <tt>1,2,4,8,16,32,64</tt>)</li>
+ * <li><tt>regexp</tt>: benchmarks to run (default: all contention benchmarks)</li>
+ * <li><tt>result</tt>: file where to write results, as JSON (default: <tt>contention.json</tt>)</li>
+ * </ul>
+ *
+ * Results only make sense at thread counts up to the number of available processors (beyond, threads are time-sliced).
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class ContentionBenchmarks
+{
+    /**
+     * Default thread counts.
+     */
+    private final static String DEFAULT_THREADS = "1,2,4,8,16,32,64";
+
+    /**
+     * Default benchmarks to run.
+     */
+    private final static String DEFAULT_BENCHMARKS = "BurrowBenchmark|BunnyPacketQueueBenchmark|PluginDispatchBenchmark";
+
+    /**
+     * Default file where to write results.
+     */
+    private final static String DEFAULT_RESULT = "contention.json";
+
+    /**
+     * Application's main.
+     *
+     * @param args thread counts, benchmarks to run and result file (all optional).
+     * @throws RunnerException if a benchmark fails.
+     * @throws FileNotFoundException if the result file can not be created.
+     */
+    public static void main(String[] args) throws RunnerException, FileNotFoundException
+    {
+	String threads = (args.length > 0) ? args[0] : DEFAULT_THREADS;
+	String benchmarks = (args.length > 1) ? args[1] : DEFAULT_BENCHMARKS;
+	String result = (args.length > 2) ? args[2] : DEFAULT_RESULT;
+
+	List<RunResult> results = new ArrayList<RunResult>();
+	for (String threadCount : threads.split(","))
+	{
+	    Options options = new OptionsBuilder().include(benchmarks).threads(Integer.parseInt(threadCount.trim())).build();
+	    Collection<RunResult> runResults = new Runner(options).run();
+	    results.addAll(runResults);
+	}
+
+	try (PrintStream out = new PrintStream(result))
+	{
+	    ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+	}
+
+	System.out.println();
+	System.out.println(String.format("%-50s %-28s %8s %14s %12s", "Benchmark", "Parameters", "Threads", "Score", "Error"));
+	for (RunResult runResult : results)
+	{
+	    String label = runResult.getParams().getBenchmark();
+	    label = label.substring(label.lastIndexOf('.', label.lastIndexOf('.') - 1) + 1);
+	    StringBuilder parameters = new StringBuilder();
+	    for (String key : runResult.getParams().getParamsKeys())
+		parameters.append(key).append('=').append(runResult.getParams().getParam(key)).append(' ');
+	    System.out.println(String.format("%-50s %-28s %8d %14.3f %12.3f %s", label, parameters.toString().trim(),
+		    runResult.getParams().getThreads(), runResult.getPrimaryResult().getScore(),
+		    runResult.getPrimaryResult().getScoreError(), runResult.getPrimaryResult().getScoreUnit()));
+	}
+    }
+}
@@ -0,0 +1,128 @@
+package io.github.ankon.jnabserver.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.github.ankon.jnabserver.core.exceptions.MalformedRequestException;
+import io.github.ankon.jnabserver.core.protocol.HTTPRequest;
+import io.github.ankon.jnabserver.core.protocol.RequestBody;
+
+/**
+ * Benchmarks of HTTP request parsing, for the requests bunnies send the most: pings, RFID tags and voice recordings (whose body is
+ * streamed).<br/>
+ *
+ * Each benchmark parses the request and looks up the parameters the server reads when routing it and handling it.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HTTPRequestBenchmark
+{
+    /**
+     * Size of the voice recording sent with record requests, in bytes.
+     */
+    private final static int RECORD_SIZE = 16 * 1024;
+
+    /**
+     * Kind of request to parse.
+     */
+    @Param({ "p4", "rfid", "record" })
+    public String request;
+
+    /**
+     * Raw request.
+     */
+    private byte[] requestData;
+
+    /**
+     * Buffer used to consume request bodies.
+     */
+    private byte[] bodyBuffer;
+
+    /**
+     * Building the raw request.
+     */
+    @Setup
+    public void setup()
+    {
+	this.requestData = createRequest(this.request);
+	this.bodyBuffer = new byte[8192];
+    }
+
+    /**
+     * Creating a raw request, as sent by a bunny.
+     *
+     * @param request the kind of request (<tt>p4</tt>, <tt>rfid</tt> or <tt>record</tt>).
+     * @return the raw request.
+     */
+    static byte[] createRequest(String request)
+    {
+	String header = "Host: r.nabaztag.com\r\nUser-Agent: MTL-Nabaztag/2.0\r\nPragma: no-cache\r\nAccept: */*\r\n";
+	if ("p4".equals(request))
+	    return ("GET /vl/p4.jsp?v=18673&m=00:19:db:00:11:22&st=1&sn=0019db001122&h=4&tc=7fffffff&sd=0 HTTP/1.0\r\n" + header + "\r\n")
+		    .getBytes(StandardCharsets.US_ASCII);
+	if ("rfid".equals(request))
+	    return ("GET /vl/rfid.jsp?v=18673&sn=0019db001122&h=4&t=d0021a0352ab1f07 HTTP/1.0\r\n" + header + "\r\n")
+		    .getBytes(StandardCharsets.US_ASCII);
+	if ("record".equals(request))
+	{
+	    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+	    byte[] requestHeader = ("POST /vl/record.jsp?sn=0019db001122&v=18673&h=4&m=0 HTTP/1.0\r\n" + header + "Content-Type: "
+		    + "application/octet-stream\r\nContent-Length: " + RECORD_SIZE + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+	    bos.write(requestHeader, 0, requestHeader.length);
+	    for (int i = 0; i < RECORD_SIZE; i++)
+		bos.write(i);
+	    return bos.toByteArray();
+	}
+	throw new IllegalArgumentException("Unknown request: " + request);
+    }
+
+    /**
+     * Parsing the request and reading the parameters looked up when handling it (streaming the body, if any).
+     *
+     * @param blackhole the sink of the values read.
+     * @throws MalformedRequestException if the request is not well-formed.
+     * @throws IOException if the body can not be read.
+     */
+    @Benchmark
+    public void parseRequest(Blackhole blackhole) throws MalformedRequestException, IOException
+    {
+	HTTPRequest request = new HTTPRequest(new ByteArrayInputStream(this.requestData));
+	blackhole.consume(request.getURLParam("requestfile"));
+	blackhole.consume(request.getURLParam("sn"));
+	blackhole.consume(request.getHeaderParam("Host"));
+
+	RequestBody body = request.getBody();
+	if (body == null) return;
+	try (InputStream in = body.openStream())
+	{
+	    int read;
+	    while ((read = in.read(this.bodyBuffer)) != -1)
+		blackhole.consume(read);
+	}
+	body.release();
+    }
+}
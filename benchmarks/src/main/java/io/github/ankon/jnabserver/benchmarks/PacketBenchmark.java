@@ -0,0 +1,197 @@
+package io.github.ankon.jnabserver.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.ankon.jnabserver.core.protocol.AmbientBlock;
+import io.github.ankon.jnabserver.core.protocol.MessageBlock;
+import io.github.ankon.jnabserver.core.protocol.Packet;
+import io.github.ankon.jnabserver.core.protocol.PacketHTTPResponse;
+
+/**
+ * Benchmarks of the packet codec: encoding and parsing of packets, encoding of responses, encoding of message blocks and update of
+ * ambient blocks.<br/>
+ *
+ * Packets are shaped like the ones sent by plugins: a message block playing a few sounds and a choreography, an ambient block and a ping
+ * interval block.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PacketBenchmark
+{
+    /**
+     * Packet to encode (a new message block being encoded at each call, since the packet is built from blocks).
+     */
+    private Packet packet;
+
+    /**
+     * Encoded packet, to parse.
+     */
+    private byte[] packetData;
+
+    /**
+     * Message block to encode.
+     */
+    private MessageBlock messageBlock;
+
+    /**
+     * Ambient block to update.
+     */
+    private AmbientBlock ambientBlock;
+
+    /**
+     * Nose value to set next.
+     */
+    private int noseValue;
+
+    /**
+     * Building the blocks and packets used by benchmarks.
+     */
+    @Setup
+    public void setup()
+    {
+	this.messageBlock = createMessageBlock();
+	this.ambientBlock = new AmbientBlock();
+	this.packet = createPacket(this.messageBlock, this.ambientBlock);
+	this.packetData = this.packet.generatePacket();
+	this.noseValue = 0;
+    }
+
+    /**
+     * Creating a packet like the ones sent by plugins.
+     *
+     * @return the packet.
+     */
+    static Packet createPacket()
+    {
+	return createPacket(createMessageBlock(), new AmbientBlock());
+    }
+
+    /**
+     * Creating a packet made of a message block, an ambient block and a ping interval block.
+     *
+     * @param messageBlock the message block.
+     * @param ambientBlock the ambient block.
+     * @return the packet.
+     */
+    private static Packet createPacket(MessageBlock messageBlock, AmbientBlock ambientBlock)
+    {
+	Packet packet = new Packet();
+	packet.addBlock(messageBlock);
+	packet.addBlock(ambientBlock);
+	packet.setPingIntervalBlock(10);
+	return packet;
+    }
+
+    /**
+     * Creating a message block like the ones sent by plugins.
+     *
+     * @return the message block.
+     */
+    static MessageBlock createMessageBlock()
+    {
+	MessageBlock messageBlock = new MessageBlock(1234);
+	messageBlock.addSetPaletteCommand(3);
+	messageBlock.addPlayChoreographyFromLibraryCommand("RedBlinking");
+	messageBlock.addPlaySoundCommand("broadcast/broad/config/notif/weather/sunny.mp3");
+	messageBlock.addWaitPreviousEndCommand();
+	messageBlock.addPlayLocalSoundCommand("files/sounds/weather/temperature.mp3");
+	messageBlock.addWaitPreviousEndCommand();
+	messageBlock.addPlayStreamCommand("http://radio.example.org:8000/stream.mp3");
+	return messageBlock;
+    }
+
+    /**
+     * Encoding a packet made of a message block, an ambient block and a ping interval block.
+     *
+     * @return the encoded packet.
+     */
+    @Benchmark
+    public byte[] generatePacket()
+    {
+	return this.packet.generatePacket();
+    }
+
+    /**
+     * Encoding a response (HTTP header and packet) into a new array of the exact size of the response.
+     *
+     * @return the encoded response.
+     * @throws IOException if the packet can not be encoded.
+     */
+    @Benchmark
+    public byte[] encodeResponse() throws IOException
+    {
+	return PacketHTTPResponse.encode(this.packet);
+    }
+
+    /**
+     * Encoding a response (HTTP header and packet) into a pooled buffer and giving the buffer back, as done when sending packets.
+     *
+     * @return the size of the encoded response.
+     * @throws IOException if the packet can not be encoded.
+     */
+    @Benchmark
+    public int encodeResponseToPooledBuffer() throws IOException
+    {
+	ByteBuffer response = PacketHTTPResponse.encodeToPooledBuffer(this.packet);
+	int size = response.remaining();
+	PacketHTTPResponse.releasePooledBuffer(response);
+	return size;
+    }
+
+    /**
+     * Parsing an encoded packet back into blocks (blocks being rebuilt when first needed).
+     *
+     * @return the parsed packet.
+     */
+    @Benchmark
+    public Packet parsePacket()
+    {
+	Packet packet = new Packet(this.packetData);
+	packet.isPingBlockPresent();
+	return packet;
+    }
+
+    /**
+     * Encoding (obfuscating) the commands of a message block.
+     *
+     * @return the encoded block data.
+     */
+    @Benchmark
+    public byte[] encodeMessageBlock()
+    {
+	return this.messageBlock.getData();
+    }
+
+    /**
+     * Setting the nose blinking status of an ambient block (cycling through the 3 values, which resizes the block data).
+     *
+     * @return the updated ambient block.
+     */
+    @Benchmark
+    public AmbientBlock setNoseValue()
+    {
+	this.noseValue = (this.noseValue + 1) % 3;
+	this.ambientBlock.setNoseValue(this.noseValue);
+	return this.ambientBlock;
+    }
+}
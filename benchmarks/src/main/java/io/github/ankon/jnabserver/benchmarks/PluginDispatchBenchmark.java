@@ -0,0 +1,191 @@
+package io.github.ankon.jnabserver.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.github.ankon.jnabserver.core.bunny.Bunny;
+import io.github.ankon.jnabserver.core.events.ClickEventListener;
+import io.github.ankon.jnabserver.core.events.PingEventListener;
+import io.github.ankon.jnabserver.core.plugins.AbstractPlugin;
+import io.github.ankon.jnabserver.core.server.MicroServer;
+
+/**
+ * Benchmarks of the dispatch of bunny events to plugins, including the accounting done for each plugin call (bunny statistics, plugin
+ * monitor and metrics of the micro server the bunny belongs to).<br/>
+ *
+ * Benchmark threads either share a single bunny or each handle their own bunny (all of them belonging to the same, not started, micro
+ * server). Meant to be run at several thread counts (see {@link ContentionBenchmarks}).
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class PluginDispatchBenchmark
+{
+    /**
+     * Amount of work done by plugins at each callback, in JMH tokens.
+     */
+    private final static int PLUGIN_WORK = 20;
+
+    /**
+     * Micro server shared by benchmark threads.
+     */
+    @State(Scope.Benchmark)
+    public static class ServerState
+    {
+	/**
+	 * Number of plugins attached to each bunny.
+	 */
+	@Param({ "1", "4", "16" })
+	public int pluginCount;
+
+	/**
+	 * <tt>true</tt> if benchmark threads share a single bunny, <tt>false</tt> if each thread handles its own bunny.
+	 */
+	@Param({ "true", "false" })
+	public boolean sharedBunny;
+
+	/**
+	 * Micro server the bunnies belong to (never started).
+	 */
+	private MicroServer microServer;
+
+	/**
+	 * Bunny shared by benchmark threads.
+	 */
+	private Bunny bunny;
+
+	/**
+	 * Number of bunnies created so far.
+	 */
+	private int bunnyCount;
+
+	/**
+	 * Creating the micro server and the shared bunny.
+	 */
+	@Setup
+	public void setup()
+	{
+	    File tmp = new File(System.getProperty("java.io.tmpdir"));
+	    this.microServer = new MicroServer("127.0.0.1", 0, tmp, tmp);
+	    this.bunnyCount = 0;
+	    this.bunny = this.createBunny();
+	}
+
+	/**
+	 * Creating a bunny of the micro server, with its plugins.
+	 *
+	 * @return the bunny.
+	 */
+	private synchronized Bunny createBunny()
+	{
+	    Bunny bunny = new Bunny(BurrowBenchmark.serialNumber(this.bunnyCount++));
+	    for (int i = 0; i < this.pluginCount; i++)
+		bunny.addPlugin(new BenchmarkPlugin("plugin" + i));
+	    this.microServer.getBurrow().addBunny(bunny);
+	    return bunny;
+	}
+    }
+
+    /**
+     * Bunny handled by a benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class BunnyState
+    {
+	/**
+	 * Bunny handled by the thread.
+	 */
+	private Bunny bunny;
+
+	/**
+	 * Getting the bunny handled by the thread.
+	 *
+	 * @param server the micro server shared by benchmark threads.
+	 */
+	@Setup
+	public void setup(ServerState server)
+	{
+	    this.bunny = server.sharedBunny ? server.bunny : server.createBunny();
+	}
+    }
+
+    /**
+     * Plugin doing a fixed amount of work when the bunny pings or is clicked.
+     */
+    public static class BenchmarkPlugin extends AbstractPlugin implements PingEventListener, ClickEventListener
+    {
+	/**
+	 * Creating a new plugin.
+	 *
+	 * @param pluginName the name of the plugin.
+	 */
+	public BenchmarkPlugin(String pluginName)
+	{
+	    super(pluginName, new String[0]);
+	}
+
+	/**
+	 * @see io.github.ankon.jnabserver.core.events.PingEventListener#onPing()
+	 */
+	public void onPing()
+	{
+	    Blackhole.consumeCPU(PLUGIN_WORK);
+	}
+
+	/**
+	 * @see io.github.ankon.jnabserver.core.events.ClickEventListener#onSingleClick()
+	 */
+	public void onSingleClick()
+	{
+	    Blackhole.consumeCPU(PLUGIN_WORK);
+	}
+
+	/**
+	 * @see io.github.ankon.jnabserver.core.events.ClickEventListener#onDoubleClick()
+	 */
+	public void onDoubleClick()
+	{
+	    Blackhole.consumeCPU(PLUGIN_WORK);
+	}
+    }
+
+    /**
+     * Handling a ping (no packet being queued, plugins are called).
+     *
+     * @param state the bunny handled by the thread.
+     */
+    @Benchmark
+    public void ping(BunnyState state)
+    {
+	state.bunny.handleEvent(Bunny.SIMPLE_PING_EVENT, null);
+    }
+
+    /**
+     * Handling a single click.
+     *
+     * @param state the bunny handled by the thread.
+     */
+    @Benchmark
+    public void singleClick(BunnyState state)
+    {
+	state.bunny.handleEvent(Bunny.SINGLE_CLICK_EVENT, null);
+    }
+}
@@ -0,0 +1,347 @@
+package io.github.ankon.jnabserver.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.github.ankon.jnabserver.core.bunny.Bunny;
+import io.github.ankon.jnabserver.core.choreography.Choreography;
+import io.github.ankon.jnabserver.core.plugins.AbstractPlugin;
+import io.github.ankon.jnabserver.core.server.MicroServer;
+import io.github.ankon.jnabserver.ext.helperPlugins.DicePlugin;
+import io.github.ankon.jnabserver.ext.helperPlugins.EchoPlugin;
+import io.github.ankon.jnabserver.ext.helperPlugins.NullPlugin;
+import io.github.ankon.jnabserver.ext.helperPlugins.TalkiePlugin;
+import io.github.ankon.jnabserver.ext.persistency.Serializer;
+
+/**
+ * Application measuring the startup of the server with large synthetic data sets, so that changes to <tt>ext.persistency</tt> (or to
+ * anything else run before the server is ready) can be measured.<br/>
+ *
+ * Usage: <tt>java -cp target/benchmarks.jar io.github.ankon.jnabserver.benchmarks.StartupBenchmark [bunnies [choreographies [runs
+ * [directory [result]]]]]</tt>
+ * <ul>
+ * <li><tt>bunnies</tt>: comma-separated sizes of the burrow (default: <tt>10000,100000,1000000</tt>)</li>
+ * <li><tt>choreographies</tt>: number of choreographies (default: 2000)</li>
+ * <li><tt>runs</tt>: number of measured startups per data set (default: 3)</li>
+ * <li><tt>directory</tt>: directory where data sets are generated, and kept for later runs (default: <tt>startup-data</tt>)</li>
+ * <li><tt>result</tt>: file where to write results, as JSON (default: <tt>startup.json</tt>)</li>
+ * </ul>
+ *
+ * Data sets are written with the {@link Serializer}, as <tt>jNab</tt> would: bunnies have 0 to 3 plugins (Talkie, with its
+ * <tt>receiver</tt> parameter set, Dice and Echo), and plugin jars declare the helper plugins of the server. Each startup runs in a new
+ * JVM (started with the options of this one, e.g. <tt>-Xmx</tt>), doing what <tt>jNab</tt> does before the server accepts requests:
+ * creating the server, loading choreographies, loading bunnies and starting the server. Time to ready is measured, then heap, metaspace
+ * and loaded classes after a full garbage collection.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class StartupBenchmark
+{
+    /**
+     * Default sizes of the burrow.
+     */
+    private final static String DEFAULT_BUNNIES = "10000,100000,1000000";
+
+    /**
+     * Default number of choreographies.
+     */
+    private final static String DEFAULT_CHOREOGRAPHIES = "2000";
+
+    /**
+     * Default number of measured startups per data set.
+     */
+    private final static String DEFAULT_RUNS = "3";
+
+    /**
+     * Default directory where data sets are generated.
+     */
+    private final static String DEFAULT_DIRECTORY = "startup-data";
+
+    /**
+     * Default file where to write results.
+     */
+    private final static String DEFAULT_RESULT = "startup.json";
+
+    /**
+     * First argument telling the JVM to measure a single startup.
+     */
+    private final static String MEASURE_ARGUMENT = "-measure";
+
+    /**
+     * Prefix of the result line written by a measured startup.
+     */
+    private final static String RESULT_PREFIX = "RESULT ";
+
+    /**
+     * Port to which measured servers are bound (on the loopback interface).
+     */
+    private final static int PORT = 18079;
+
+    /**
+     * Plugins available in data sets, as plugin jars declaring helper plugins: name, main class and parameters.
+     */
+    private final static String[][] PLUGINS = { { "Talkie_Plugin", TalkiePlugin.class.getName(), "receiver" },
+	    { "Dice_Plugin", DicePlugin.class.getName(), "" }, { "Echo_Plugin", EchoPlugin.class.getName(), "" },
+	    { "Null_Plugin", NullPlugin.class.getName(), "" } };
+
+    /**
+     * Application's main.
+     *
+     * @param args sizes of the burrow, number of choreographies, number of runs, data directory and result file (all optional).
+     * @throws Exception if a data set can not be generated or a startup can not be measured.
+     */
+    public static void main(String[] args) throws Exception
+    {
+	if (args.length == 2 && args[0].equals(MEASURE_ARGUMENT))
+	{
+	    measure(new File(args[1]));
+	    return;
+	}
+
+	String bunnies = (args.length > 0) ? args[0] : DEFAULT_BUNNIES;
+	int choreographyCount = Integer.parseInt((args.length > 1) ? args[1] : DEFAULT_CHOREOGRAPHIES);
+	int runs = Integer.parseInt((args.length > 2) ? args[2] : DEFAULT_RUNS);
+	File directory = new File((args.length > 3) ? args[3] : DEFAULT_DIRECTORY);
+	String result = (args.length > 4) ? args[4] : DEFAULT_RESULT;
+
+	List<String> results = new ArrayList<String>();
+	System.out.println(String.format("%10s %8s %5s %10s %10s %10s %10s %12s %12s %10s", "bunnies", "chors", "run", "chors", "bunnies",
+		"server", "ready", "heap", "metaspace", "classes"));
+	for (String size : bunnies.split(","))
+	{
+	    int bunnyCount = Integer.parseInt(size.trim());
+	    File dataSet = new File(directory, "bunnies-" + bunnyCount + "-chors-" + choreographyCount);
+	    generate(dataSet, bunnyCount, choreographyCount);
+
+	    List<Long> readyTimes = new ArrayList<Long>();
+	    for (int run = 1; run <= runs; run++)
+	    {
+		String json = fork(dataSet);
+		results.add(json);
+		readyTimes.add(getValue(json, "readyMs"));
+		System.out.println(String.format("%10d %8d %5d %8dms %8dms %8dms %8dms %10dMB %10dMB %10d", bunnyCount, choreographyCount,
+			run, getValue(json, "choreographiesMs"), getValue(json, "bunniesMs"), getValue(json, "serverMs"),
+			getValue(json, "readyMs"), getValue(json, "heapBytes") >> 20, getValue(json, "metaspaceBytes") >> 20,
+			getValue(json, "classes")));
+	    }
+	    Collections.sort(readyTimes);
+	    System.out.println(String.format("%10d %8d %5s %41s %8dms (median)", bunnyCount, choreographyCount, "", "",
+		    readyTimes.get(readyTimes.size() / 2)));
+	}
+
+	try (PrintStream out = new PrintStream(result))
+	{
+	    out.println("[");
+	    for (int i = 0; i < results.size(); i++)
+		out.println("  " + results.get(i) + ((i < results.size() - 1) ? "," : ""));
+	    out.println("]");
+	}
+    }
+
+    /**
+     * Internal method generating a data set, unless it has already been generated.
+     *
+     * @param dataSet the directory of the data set.
+     * @param bunnyCount the number of bunnies.
+     * @param choreographyCount the number of choreographies.
+     * @throws IOException if the data set can not be written.
+     */
+    private static void generate(File dataSet, int bunnyCount, int choreographyCount) throws IOException
+    {
+	File complete = new File(dataSet, "complete");
+	if (complete.exists()) return;
+
+	System.out.println("Generating " + bunnyCount + " bunnies and " + choreographyCount + " choreographies in " + dataSet);
+	new File(dataSet, "bunnies").mkdirs();
+	new File(dataSet, "choreographies").mkdirs();
+	File pluginsPath = new File(dataSet, "plugins");
+	pluginsPath.mkdirs();
+
+	// Bootcode served once the server is started
+	try (FileOutputStream out = new FileOutputStream(new File(dataSet, "bootcode.bin")))
+	{
+	    out.write(new byte[1024]);
+	}
+
+	// Plugin jars, only holding a manifest (main classes being loaded from the class path)
+	for (String[] plugin : PLUGINS)
+	{
+	    Manifest manifest = new Manifest();
+	    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+	    Attributes jNabSection = new Attributes();
+	    jNabSection.putValue("Plugin-Name", plugin[0]);
+	    jNabSection.putValue("Plugin-MainClass", plugin[1]);
+	    jNabSection.putValue("Plugin-Type", "");
+	    jNabSection.putValue("Plugin-Parameters", plugin[2]);
+	    jNabSection.putValue("Plugin-Actions", "");
+	    manifest.getEntries().put("jNab", jNabSection);
+	    new JarOutputStream(new FileOutputStream(new File(pluginsPath, plugin[0] + ".jar")), manifest).close();
+	}
+
+	Serializer serializer = new Serializer(dataSet);
+	for (int i = 0; i < choreographyCount; i++)
+	    serializer.saveChoreography(createChoreography(i));
+	for (int i = 0; i < bunnyCount; i++)
+	    serializer.saveBunny(createBunny(i, bunnyCount));
+
+	complete.createNewFile();
+    }
+
+    /**
+     * Internal method creating a choreography: the 20 seconds red blinking choreography, at a tempo depending on its index.
+     *
+     * @param index the index of the choreography.
+     * @return the choreography.
+     */
+    private static Choreography createChoreography(int index)
+    {
+	Choreography choreography = new Choreography(String.format("chor%05d", index));
+	choreography.addTempoCommand(0, 50 + index % 100);
+	choreography.addAbsoluteEarMoveCommand(0, Choreography.EAR_LEFT, 10, Choreography.DIRECTION_FORWARD);
+	choreography.addAbsoluteEarMoveCommand(0, Choreography.EAR_RIGHT, 10, Choreography.DIRECTION_FORWARD);
+	for (int i = 0; i < 9; i++)
+	{
+	    choreography.addLedColorCommand(0, Choreography.LED_CENTER, 255, 0, 0);
+	    choreography.addLedColorCommand(1, Choreography.LED_CENTER, 0, 0, 0);
+	}
+	return choreography;
+    }
+
+    /**
+     * Internal method creating a bunny, with 0 to 3 plugins depending on its index.
+     *
+     * @param index the index of the bunny.
+     * @param bunnyCount the number of bunnies (Talkie plugins being paired with another bunny of the burrow).
+     * @return the bunny.
+     */
+    private static Bunny createBunny(int index, int bunnyCount)
+    {
+	Bunny bunny = new Bunny(BurrowBenchmark.serialNumber(index));
+	bunny.setName("bunny" + index);
+	List<AbstractPlugin> plugins = new ArrayList<AbstractPlugin>();
+	if (index % 4 >= 1)
+	{
+	    TalkiePlugin talkie = new TalkiePlugin();
+	    talkie.setParameter("receiver", BurrowBenchmark.serialNumber((index + 1) % bunnyCount));
+	    plugins.add(talkie);
+	}
+	if (index % 4 >= 2) plugins.add(new DicePlugin());
+	if (index % 4 >= 3) plugins.add(new EchoPlugin());
+	for (AbstractPlugin plugin : plugins)
+	{
+	    plugin.setBunny(bunny);
+	    bunny.addPlugin(plugin);
+	}
+	return bunny;
+    }
+
+    /**
+     * Internal method measuring a startup in a new JVM, started with the options of this one.
+     *
+     * @param dataSet the directory of the data set.
+     * @return the result of the startup, as a JSON object.
+     * @throws IOException if the JVM can not be started, or gave no result.
+     * @throws InterruptedException if interrupted while waiting for the JVM.
+     */
+    private static String fork(File dataSet) throws IOException, InterruptedException
+    {
+	List<String> command = new ArrayList<String>();
+	command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+	command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+	command.add("-cp");
+	command.add(System.getProperty("java.class.path"));
+	command.add(StartupBenchmark.class.getName());
+	command.add(MEASURE_ARGUMENT);
+	command.add(dataSet.getPath());
+
+	Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+	String result = null;
+	try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream())))
+	{
+	    String line;
+	    while ((line = in.readLine()) != null)
+	    {
+		if (line.startsWith(RESULT_PREFIX))
+		    result = line.substring(RESULT_PREFIX.length());
+		else
+		    System.out.println(line);
+	    }
+	}
+	process.waitFor();
+	if (result == null) throw new IOException("Startup measurement failed (exit status " + process.exitValue() + ")");
+	return result;
+    }
+
+    /**
+     * Internal method getting a numeric field of a result.
+     *
+     * @param json the result, as a JSON object.
+     * @param name the name of the field.
+     * @return the value of the field.
+     */
+    private static long getValue(String json, String name)
+    {
+	Matcher matcher = Pattern.compile("\"" + name + "\":(\\d+)").matcher(json);
+	return matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    /**
+     * Internal method measuring a startup, as done by <tt>jNab</tt>, and writing its result.
+     *
+     * @param dataSet the directory of the data set.
+     * @throws Exception if the server does not start.
+     */
+    private static void measure(File dataSet) throws Exception
+    {
+	long start = System.nanoTime();
+	MicroServer microServer = new MicroServer("127.0.0.1", PORT, dataSet, new File(dataSet, "plugins"));
+	microServer.setErrorLoggingStream(System.err);
+	microServer.setInfoLoggingStream(null);
+	microServer.setDebugLoggingStream(null);
+	Serializer serializer = new Serializer(dataSet);
+
+	long choreographiesStart = System.nanoTime();
+	serializer.loadChoreographies(microServer.getChoregraphyLibrary());
+	long bunniesStart = System.nanoTime();
+	serializer.loadBunnies(microServer.getBurrow(), microServer.getPluginFactory());
+	long serverStart = System.nanoTime();
+	microServer.start();
+	while (!microServer.isRunning())
+	    Thread.sleep(1);
+	long ready = System.nanoTime();
+
+	// Measuring what is retained once startup garbage is collected
+	for (int i = 0; i < 3; i++)
+	    System.gc();
+	long metaspace = 0;
+	for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+	    if (pool.getName().equals("Metaspace")) metaspace = pool.getUsage().getUsed();
+
+	System.out.println(RESULT_PREFIX
+		+ String.format("{\"dataSet\":\"%s\",\"bunnies\":%d,\"choreographies\":%d,\"choreographiesMs\":%d,\"bunniesMs\":%d,"
+			+ "\"serverMs\":%d,\"readyMs\":%d,\"heapBytes\":%d,\"metaspaceBytes\":%d,\"classes\":%d}", dataSet.getName(),
+			microServer.getBurrow().getBunnyCount(), microServer.getChoregraphyLibrary().getChoreographies().size(),
+			(bunniesStart - choreographiesStart) / 1000000, (serverStart - bunniesStart) / 1000000,
+			(ready - serverStart) / 1000000, (ready - start) / 1000000,
+			ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(), metaspace,
+			ManagementFactory.getClassLoadingMXBean().getLoadedClassCount()));
+
+	microServer.stopServer();
+	System.exit(0);
+    }
+}
@@ -0,0 +1,121 @@
+package io.github.ankon.jnabserver.loadgen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal HTTP/1.0 client, sending a raw request on a new connection and reading the whole response (bunnies open a connection per
+ * request, and the server closes it after each response).
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class HTTPExchange
+{
+    /**
+     * Status code of the response (-1 if the status line could not be parsed).
+     */
+    private int status;
+
+    /**
+     * Body of the response.
+     */
+    private byte[] body;
+
+    /**
+     * Sending a request and reading the response.
+     *
+     * @param server the address of the server.
+     * @param request the raw request (header and body).
+     * @param timeout the connect and read timeout, in milliseconds.
+     * @param buffer the buffer used to read the response (reused between exchanges of the calling thread).
+     * @throws IOException if the connection fails, times out or is closed before any response.
+     */
+    public HTTPExchange(InetSocketAddress server, byte[] request, int timeout, ByteArrayOutputStream buffer) throws IOException
+    {
+	buffer.reset();
+	try (Socket socket = new Socket())
+	{
+	    socket.setSoTimeout(timeout);
+	    socket.setTcpNoDelay(true);
+	    socket.connect(server, timeout);
+	    OutputStream out = socket.getOutputStream();
+	    out.write(request);
+	    out.flush();
+
+	    InputStream in = socket.getInputStream();
+	    byte[] chunk = new byte[8192];
+	    int read;
+	    while ((read = in.read(chunk)) != -1)
+		buffer.write(chunk, 0, read);
+	}
+	if (buffer.size() == 0) throw new IOException("Connection closed without response");
+	this.parse(buffer.toByteArray());
+    }
+
+    /**
+     * Internal method splitting a raw response into status code and body.
+     *
+     * @param response the raw response.
+     */
+    private void parse(byte[] response)
+    {
+	this.status = -1;
+	this.body = new byte[0];
+
+	int headerEnd = -1;
+	for (int i = 0; i + 3 < response.length; i++)
+	{
+	    if (response[i] == '\r' && response[i + 1] == '\n' && response[i + 2] == '\r' && response[i + 3] == '\n')
+	    {
+		headerEnd = i;
+		break;
+	    }
+	}
+	if (headerEnd == -1) return;
+
+	// Status line: HTTP/1.x <code> <reason>
+	String header = new String(response, 0, headerEnd, StandardCharsets.ISO_8859_1);
+	String statusLine = header.split("\r\n", 2)[0];
+	String[] parts = statusLine.split(" ", 3);
+	if (parts.length >= 2 && parts[0].startsWith("HTTP/"))
+	{
+	    try
+	    {
+		this.status = Integer.parseInt(parts[1]);
+	    }
+	    catch (NumberFormatException e)
+	    {
+		this.status = -1;
+	    }
+	}
+
+	this.body = new byte[response.length - headerEnd - 4];
+	System.arraycopy(response, headerEnd + 4, this.body, 0, this.body.length);
+    }
+
+    /**
+     * Getting the status code of the response.
+     *
+     * @return the status code, or -1 if the status line could not be parsed.
+     */
+    public int getStatus()
+    {
+	return this.status;
+    }
+
+    /**
+     * Getting the body of the response.
+     *
+     * @return the body (empty if the response has no body).
+     */
+    public byte[] getBody()
+    {
+	return this.body;
+    }
+}
@@ -0,0 +1,550 @@
+package io.github.ankon.jnabserver.loadgen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.ankon.jnabserver.core.server.MicroServer;
+
+/**
+ * Load generator simulating a fleet of bunnies (see {@link VirtualBunny}) against a jNab server, either a remote one or one started
+ * locally, reporting periodically throughput, latency percentiles, error rate and the server-side state (bunnies, queued packets, active
+ * workers, shed requests, as exported by its <tt>/metrics</tt> route).<br/>
+ *
+ * Bunnies are started progressively over the ramp-up period, and driven by a fixed number of client threads, each performing one request
+ * at a time. A growing lag (delay between the date a request is due and the date it is sent) means that there are not enough client
+ * threads to sustain the load, not that the server is saturated.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class LoadGenerator
+{
+    /**
+     * Default values of the options, as <i>name</i>, <i>value</i> pairs.
+     */
+    private final static String[] DEFAULT_OPTIONS = { "server", "", "port", "18080", "engine", MicroServer.THREAD_ENGINE, "bunnies",
+	    "1000", "duration", "60", "rampup", "10", "pingscale", "1", "connections", "100", "click", "0.01", "rfid", "0.01", "record",
+	    "0.001", "recordsize", "32768", "bootcodesize", "100000", "timeout", "10000", "report", "5" };
+
+    /**
+     * Address of the server.
+     */
+    private InetSocketAddress server;
+
+    /**
+     * Number of virtual bunnies.
+     */
+    private int bunnyCount;
+
+    /**
+     * Duration over which bunnies are started, in seconds.
+     */
+    private int rampUp;
+
+    /**
+     * Factor applied to ping intervals sent by the server (e.g. 0.1 to ping 10 times faster than real bunnies).
+     */
+    private double pingScale;
+
+    /**
+     * Number of client threads.
+     */
+    private int connections;
+
+    /**
+     * Probability that a ping notifies a click.
+     */
+    private double clickProbability;
+
+    /**
+     * Probability that a bunny sends an RFID tag instead of pinging.
+     */
+    private double rfidProbability;
+
+    /**
+     * Probability that a bunny uploads a voice recording instead of pinging.
+     */
+    private double recordProbability;
+
+    /**
+     * Voice recording uploaded by bunnies.
+     */
+    private byte[] recordData;
+
+    /**
+     * Connect and read timeout, in milliseconds.
+     */
+    private int timeout;
+
+    /**
+     * Client-side statistics.
+     */
+    private LoadStatistics statistics;
+
+    /**
+     * Probe reading server-side metrics.
+     */
+    private ServerProbe probe;
+
+    /**
+     * Bunnies, scheduled by the date of their next request.
+     */
+    private DelayQueue<VirtualBunny> schedule;
+
+    /**
+     * Number of bunnies which have booted and located the server.
+     */
+    private AtomicInteger pingingBunnies;
+
+    /**
+     * Client threads.
+     */
+    private List<Thread> clients;
+
+    /**
+     * Flag telling client threads to go on.
+     */
+    private volatile boolean running;
+
+    /**
+     * Date the load started, in nanoseconds (as given by {@link System#nanoTime()}).
+     */
+    private long startTime;
+
+    /**
+     * Creating a new load generator, with default settings (1000 bunnies started over 10 seconds, driven by 100 client threads).
+     *
+     * @param server the address of the server.
+     */
+    public LoadGenerator(InetSocketAddress server)
+    {
+	this.server = server;
+	this.bunnyCount = 1000;
+	this.rampUp = 10;
+	this.pingScale = 1;
+	this.connections = 100;
+	this.clickProbability = 0.01;
+	this.rfidProbability = 0.01;
+	this.recordProbability = 0.001;
+	this.recordData = createData(32768);
+	this.timeout = 10000;
+	this.statistics = new LoadStatistics();
+	this.probe = new ServerProbe(server, this.timeout);
+	this.schedule = new DelayQueue<VirtualBunny>();
+	this.pingingBunnies = new AtomicInteger();
+	this.clients = new ArrayList<Thread>();
+	this.running = false;
+    }
+
+    /**
+     * Setting the number of virtual bunnies and the duration over which they are started.
+     *
+     * @param bunnyCount the number of bunnies.
+     * @param rampUp the duration over which bunnies are started, in seconds.
+     */
+    public void setBunnies(int bunnyCount, int rampUp)
+    {
+	this.bunnyCount = bunnyCount;
+	this.rampUp = rampUp;
+    }
+
+    /**
+     * Setting the factor applied to ping intervals sent by the server.
+     *
+     * @param pingScale the factor (e.g. 0.1 to ping 10 times faster than real bunnies).
+     */
+    public void setPingScale(double pingScale)
+    {
+	this.pingScale = pingScale;
+    }
+
+    /**
+     * Setting the number of client threads.
+     *
+     * @param connections the number of client threads (i.e. the maximum number of concurrent requests).
+     */
+    public void setConnections(int connections)
+    {
+	this.connections = connections;
+    }
+
+    /**
+     * Setting the mix of requests sent instead of plain pings.
+     *
+     * @param clickProbability the probability that a ping notifies a click.
+     * @param rfidProbability the probability that a bunny sends an RFID tag instead of pinging.
+     * @param recordProbability the probability that a bunny uploads a voice recording instead of pinging.
+     * @param recordSize the size of voice recordings, in bytes.
+     */
+    public void setRequestMix(double clickProbability, double rfidProbability, double recordProbability, int recordSize)
+    {
+	this.clickProbability = clickProbability;
+	this.rfidProbability = rfidProbability;
+	this.recordProbability = recordProbability;
+	this.recordData = createData(recordSize);
+    }
+
+    /**
+     * Setting the connect and read timeout of requests.
+     *
+     * @param timeout the timeout, in milliseconds.
+     */
+    public void setTimeout(int timeout)
+    {
+	this.timeout = timeout;
+	this.probe = new ServerProbe(this.server, timeout);
+    }
+
+    /**
+     * Getting the address of the server.
+     *
+     * @return the address of the server.
+     */
+    public InetSocketAddress getServer()
+    {
+	return this.server;
+    }
+
+    /**
+     * Getting the number of virtual bunnies.
+     *
+     * @return the number of bunnies.
+     */
+    public int getBunnyCount()
+    {
+	return this.bunnyCount;
+    }
+
+    /**
+     * Getting the factor applied to ping intervals sent by the server.
+     *
+     * @return the factor.
+     */
+    public double getPingScale()
+    {
+	return this.pingScale;
+    }
+
+    /**
+     * Getting the probability that a ping notifies a click.
+     *
+     * @return the probability.
+     */
+    public double getClickProbability()
+    {
+	return this.clickProbability;
+    }
+
+    /**
+     * Getting the probability that a bunny sends an RFID tag instead of pinging.
+     *
+     * @return the probability.
+     */
+    public double getRFIDProbability()
+    {
+	return this.rfidProbability;
+    }
+
+    /**
+     * Getting the probability that a bunny uploads a voice recording instead of pinging.
+     *
+     * @return the probability.
+     */
+    public double getRecordProbability()
+    {
+	return this.recordProbability;
+    }
+
+    /**
+     * Getting the voice recording uploaded by bunnies.
+     *
+     * @return the voice recording.
+     */
+    public byte[] getRecordData()
+    {
+	return this.recordData;
+    }
+
+    /**
+     * Getting the connect and read timeout of requests.
+     *
+     * @return the timeout, in milliseconds.
+     */
+    public int getTimeout()
+    {
+	return this.timeout;
+    }
+
+    /**
+     * Getting the client-side statistics.
+     *
+     * @return the statistics.
+     */
+    public LoadStatistics getStatistics()
+    {
+	return this.statistics;
+    }
+
+    /**
+     * Getting the probe reading server-side metrics.
+     *
+     * @return the probe.
+     */
+    public ServerProbe getProbe()
+    {
+	return this.probe;
+    }
+
+    /**
+     * Getting the number of bunnies which have booted and located the server.
+     *
+     * @return the number of pinging bunnies.
+     */
+    public int getPingingBunnyCount()
+    {
+	return this.pingingBunnies.get();
+    }
+
+    /**
+     * Internal method creating dummy data (e.g. a voice recording).
+     *
+     * @param size the size of the data, in bytes.
+     * @return the data.
+     */
+    private static byte[] createData(int size)
+    {
+	byte[] data = new byte[size];
+	new Random(size).nextBytes(data);
+	return data;
+    }
+
+    /**
+     * Starting the load: scheduling bunnies over the ramp-up period and starting client threads.
+     */
+    public synchronized void start()
+    {
+	this.startTime = System.nanoTime();
+	long rampUpNanos = TimeUnit.SECONDS.toNanos(this.rampUp);
+	for (int i = 0; i < this.bunnyCount; i++)
+	    this.schedule.add(new VirtualBunny(i, this.startTime + rampUpNanos * i / this.bunnyCount));
+
+	this.running = true;
+	for (int i = 0; i < this.connections; i++)
+	{
+	    Thread client = new Thread(this::runClient, "loadgen-client-" + i);
+	    client.setDaemon(true);
+	    this.clients.add(client);
+	    client.start();
+	}
+    }
+
+    /**
+     * Stopping the load, waiting for requests in progress to complete.
+     *
+     * @throws InterruptedException if interrupted while waiting for client threads.
+     */
+    public synchronized void stop() throws InterruptedException
+    {
+	this.running = false;
+	for (Thread client : this.clients)
+	    client.join();
+	this.clients.clear();
+    }
+
+    /**
+     * Internal method run by client threads: performing the requests of bunnies as they become due.
+     */
+    private void runClient()
+    {
+	Random random = ThreadLocalRandom.current();
+	ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	while (this.running)
+	{
+	    VirtualBunny bunny;
+	    try
+	    {
+		bunny = this.schedule.poll(100, TimeUnit.MILLISECONDS);
+	    }
+	    catch (InterruptedException e)
+	    {
+		return;
+	    }
+	    if (bunny == null) continue;
+
+	    this.statistics.requestLagged(System.nanoTime() - bunny.getNextRequest());
+	    if (bunny.step(this, random, buffer)) this.pingingBunnies.incrementAndGet();
+	    this.schedule.add(bunny);
+	}
+    }
+
+    /**
+     * Reporting the statistics since the last report, along with the server-side state.
+     *
+     * @param out the stream where to write the report.
+     * @param intervalSeconds the duration since the last report, in seconds.
+     */
+    public void report(PrintStream out, double intervalSeconds)
+    {
+	out.println(String.format("[%5ds] bunnies %d/%d  %s  | %s", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - this.startTime),
+		this.pingingBunnies.get(), this.bunnyCount, this.statistics.nextInterval().format(intervalSeconds), this.probe.report()));
+    }
+
+    /**
+     * Writing the summary of the whole run, per kind of request.
+     *
+     * @param out the stream where to write the summary.
+     */
+    public void summarize(PrintStream out)
+    {
+	double seconds = (System.nanoTime() - this.startTime) / 1e9;
+	out.println();
+	this.statistics.summarize(out);
+	out.println(String.format("%d requests in %.1f s (%.1f req/s), %d/%d bunnies pinging", this.statistics.getRequestCount(), seconds,
+		this.statistics.getRequestCount() / seconds, this.pingingBunnies.get(), this.bunnyCount));
+    }
+
+    /**
+     * Starting a server locally, with a synthetic bootcode and no plugins, logging errors only.
+     *
+     * @param port the port to which the server is bound (on the loopback interface).
+     * @param engine the engine handling client connections.
+     * @param bootcodeSize the size of the synthetic bootcode, in bytes.
+     * @return the started server.
+     * @throws IOException if the resources of the server can not be created.
+     * @throws InterruptedException if interrupted while waiting for the server to start.
+     */
+    public static MicroServer startLocalServer(int port, String engine, int bootcodeSize) throws IOException, InterruptedException
+    {
+	File root = Files.createTempDirectory("jnab-loadgen").toFile();
+	File pluginsPath = new File(root, "plugins");
+	pluginsPath.mkdirs();
+	try (FileOutputStream out = new FileOutputStream(new File(root, "bootcode.bin")))
+	{
+	    out.write(createData(bootcodeSize));
+	}
+
+	MicroServer microServer = new MicroServer("127.0.0.1", port, root, pluginsPath);
+	microServer.setEngine(engine);
+	microServer.setErrorLoggingStream(System.err);
+	microServer.setInfoLoggingStream(null);
+	microServer.setDebugLoggingStream(null);
+	microServer.start();
+	for (int i = 0; i < 100 && !microServer.isRunning(); i++)
+	    Thread.sleep(50);
+	if (!microServer.isRunning()) throw new IOException("Local server did not start");
+	return microServer;
+    }
+
+    /**
+     * Application's main. Options are given as <tt>-<i>name</i>=<i>value</i></tt>:
+     * <ul>
+     * <li><tt>-server=</tt><i>host</i>:<i>port</i> server to load (default: a server started locally)</li>
+     * <li><tt>-port=</tt><i>value</i> port of the local server (default: 18080)</li>
+     * <li><tt>-engine=</tt><i>value</i> engine of the local server (default: <tt>thread</tt>)</li>
+     * <li><tt>-bootcodesize=</tt><i>value</i> size of the synthetic bootcode of the local server, in bytes (default: 100000)</li>
+     * <li><tt>-bunnies=</tt><i>value</i> number of virtual bunnies (default: 1000)</li>
+     * <li><tt>-rampup=</tt><i>value</i> duration over which bunnies are started, in seconds (default: 10)</li>
+     * <li><tt>-duration=</tt><i>value</i> duration of the run, in seconds, ramp-up included (default: 60)</li>
+     * <li><tt>-pingscale=</tt><i>value</i> factor applied to ping intervals (default: 1, real bunnies pinging every 10 to 20 seconds)</li>
+     * <li><tt>-connections=</tt><i>value</i> number of client threads (default: 100)</li>
+     * <li><tt>-click=</tt><i>value</i>, <tt>-rfid=</tt><i>value</i>, <tt>-record=</tt><i>value</i> probabilities of clicks, RFID
+     * tags and voice recordings, per ping (default: 0.01, 0.01, 0.001)</li>
+     * <li><tt>-recordsize=</tt><i>value</i> size of voice recordings, in bytes (default: 32768)</li>
+     * <li><tt>-timeout=</tt><i>value</i> connect and read timeout, in milliseconds (default: 10000)</li>
+     * <li><tt>-report=</tt><i>value</i> report interval, in seconds (default: 5)</li>
+     * </ul>
+     *
+     * @param args command-line options.
+     * @throws Exception if the local server can not be started or if the run is interrupted.
+     */
+    public static void main(String[] args) throws Exception
+    {
+	Properties options = parseOptions(args, DEFAULT_OPTIONS);
+
+	MicroServer localServer = null;
+	InetSocketAddress server;
+	String serverOption = options.getProperty("server");
+	if (serverOption.isEmpty())
+	{
+	    int port = Integer.parseInt(options.getProperty("port"));
+	    localServer = startLocalServer(port, options.getProperty("engine"), Integer.parseInt(options.getProperty("bootcodesize")));
+	    server = new InetSocketAddress("127.0.0.1", port);
+	    System.out.println("<loadgen> Local server started on port " + port + " (" + options.getProperty("engine") + " engine)");
+	}
+	else
+	{
+	    int colon = serverOption.lastIndexOf(':');
+	    server = new InetSocketAddress(serverOption.substring(0, colon), Integer.parseInt(serverOption.substring(colon + 1)));
+	}
+
+	LoadGenerator generator = new LoadGenerator(server);
+	generator.setBunnies(Integer.parseInt(options.getProperty("bunnies")), Integer.parseInt(options.getProperty("rampup")));
+	generator.setPingScale(Double.parseDouble(options.getProperty("pingscale")));
+	generator.setConnections(Integer.parseInt(options.getProperty("connections")));
+	generator.setRequestMix(Double.parseDouble(options.getProperty("click")), Double.parseDouble(options.getProperty("rfid")),
+		Double.parseDouble(options.getProperty("record")), Integer.parseInt(options.getProperty("recordsize")));
+	generator.setTimeout(Integer.parseInt(options.getProperty("timeout")));
+
+	int duration = Integer.parseInt(options.getProperty("duration"));
+	int report = Integer.parseInt(options.getProperty("report"));
+	System.out.println("<loadgen> Simulating " + options.getProperty("bunnies") + " bunnies against " + server + " for " + duration
+		+ " s");
+
+	generator.start();
+	long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+	while (System.nanoTime() < end)
+	{
+	    long sleep = Math.min(TimeUnit.SECONDS.toNanos(report), end - System.nanoTime());
+	    TimeUnit.NANOSECONDS.sleep(sleep);
+	    generator.report(System.out, sleep / 1e9);
+	}
+	generator.stop();
+	generator.summarize(System.out);
+
+	if (localServer != null) localServer.stopServer();
+	System.exit(0);
+    }
+
+    /**
+     * Parsing command-line options given as <tt>-<i>name</i>=<i>value</i></tt>, exiting (after listing known options) if an option is
+     * unknown.
+     *
+     * @param args the command-line arguments.
+     * @param defaults the default values of the options, as <i>name</i>, <i>value</i> pairs.
+     * @return the values of the options, indexed by name.
+     */
+    static Properties parseOptions(String[] args, String[] defaults)
+    {
+	Properties options = new Properties();
+	for (int i = 0; i < defaults.length; i += 2)
+	    options.setProperty(defaults[i], defaults[i + 1]);
+
+	for (String arg : args)
+	{
+	    int equals = arg.indexOf('=');
+	    String name = (arg.startsWith("-") && equals != -1) ? arg.substring(1, equals) : null;
+	    if (name == null || !options.containsKey(name))
+	    {
+		System.err.println("<loadgen> Unknown option: " + arg + ", options (with their default value) are:");
+		for (int i = 0; i < defaults.length; i += 2)
+		    System.err.println("    -" + defaults[i] + "=" + defaults[i + 1]);
+		System.exit(-1);
+	    }
+	    options.setProperty(name, arg.substring(equals + 1));
+	}
+	return options;
+    }
+}
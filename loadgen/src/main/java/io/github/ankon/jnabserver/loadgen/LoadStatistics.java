@@ -0,0 +1,300 @@
+package io.github.ankon.jnabserver.loadgen;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.github.ankon.jnabserver.core.metrics.Histogram;
+
+/**
+ * Client-side statistics of a load run, per kind of request: latencies (from connection to end of response), and numbers of requests,
+ * errors (failed connections, timeouts, unexpected responses) and shed requests (<tt>503</tt> responses).<br/>
+ *
+ * Two sets of statistics are kept: cumulative ones, for the final summary, and interval ones, reset at each periodic report.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class LoadStatistics
+{
+    /**
+     * Bootcode request (<tt>/vl/bc.jsp</tt>).
+     */
+    public final static int BOOT_REQUEST = 0;
+
+    /**
+     * Locate request (<tt>/vl/locate.jsp</tt>).
+     */
+    public final static int LOCATE_REQUEST = 1;
+
+    /**
+     * Ping request (<tt>/vl/p4.jsp</tt>).
+     */
+    public final static int PING_REQUEST = 2;
+
+    /**
+     * RFID request (<tt>/vl/rfid.jsp</tt>).
+     */
+    public final static int RFID_REQUEST = 3;
+
+    /**
+     * Record request (<tt>/vl/record.jsp</tt>).
+     */
+    public final static int RECORD_REQUEST = 4;
+
+    /**
+     * Any other request (e.g. a choreography or a local file, when replaying captured traffic).
+     */
+    public final static int OTHER_REQUEST = 5;
+
+    /**
+     * Names of the kinds of requests, indexed by kind.
+     */
+    public final static String[] REQUEST_NAMES = { "boot", "locate", "ping", "rfid", "record", "other" };
+
+    /**
+     * Cumulative latencies, in nanoseconds, indexed by kind of request.
+     */
+    private Histogram[] latencies;
+
+    /**
+     * Latencies since the last report, in nanoseconds, all kinds of requests merged.
+     */
+    private Histogram intervalLatency;
+
+    /**
+     * Cumulative numbers of errors, indexed by kind of request.
+     */
+    private LongAdder[] errors;
+
+    /**
+     * Number of failed or shed requests since the last report, all kinds of requests merged.
+     */
+    private LongAdder intervalErrors;
+
+    /**
+     * Cumulative numbers of shed requests, indexed by kind of request.
+     */
+    private LongAdder[] shed;
+
+    /**
+     * Largest delay between the date a request was due and the date it was sent since the last report, in nanoseconds (a growing lag
+     * meaning that the load generator itself is saturated).
+     */
+    private volatile long intervalLag;
+
+    /**
+     * Creating new (empty) statistics.
+     */
+    public LoadStatistics()
+    {
+	int kinds = REQUEST_NAMES.length;
+	this.latencies = new Histogram[kinds];
+	this.errors = new LongAdder[kinds];
+	this.shed = new LongAdder[kinds];
+	for (int i = 0; i < kinds; i++)
+	{
+	    this.latencies[i] = new Histogram();
+	    this.errors[i] = new LongAdder();
+	    this.shed[i] = new LongAdder();
+	}
+	this.intervalLatency = new Histogram();
+	this.intervalErrors = new LongAdder();
+	this.intervalLag = 0;
+    }
+
+    /**
+     * Recording a successful request.
+     *
+     * @param kind the kind of request.
+     * @param latency the latency of the request, in nanoseconds.
+     */
+    public void requestSucceeded(int kind, long latency)
+    {
+	this.latencies[kind].record(latency);
+	this.intervalLatency.record(latency);
+    }
+
+    /**
+     * Recording a failed request (failed connection, timeout or unexpected response).
+     *
+     * @param kind the kind of request.
+     */
+    public void requestFailed(int kind)
+    {
+	this.errors[kind].increment();
+	this.intervalErrors.increment();
+    }
+
+    /**
+     * Recording a request shed by the server.
+     *
+     * @param kind the kind of request.
+     */
+    public void requestShed(int kind)
+    {
+	this.shed[kind].increment();
+	this.intervalErrors.increment();
+    }
+
+    /**
+     * Recording the delay between the date a request was due and the date it was sent.
+     *
+     * @param lag the delay, in nanoseconds.
+     */
+    public void requestLagged(long lag)
+    {
+	if (lag > this.intervalLag) this.intervalLag = lag;
+    }
+
+    /**
+     * Getting the cumulative latencies of a kind of request.
+     *
+     * @param kind the kind of request.
+     * @return the histogram of latencies, in nanoseconds.
+     */
+    public Histogram getLatency(int kind)
+    {
+	return this.latencies[kind];
+    }
+
+    /**
+     * Getting the cumulative number of errors of a kind of request.
+     *
+     * @param kind the kind of request.
+     * @return the number of errors.
+     */
+    public long getErrorCount(int kind)
+    {
+	return this.errors[kind].sum();
+    }
+
+    /**
+     * Getting the cumulative number of shed requests of a kind of request.
+     *
+     * @param kind the kind of request.
+     * @return the number of shed requests.
+     */
+    public long getShedCount(int kind)
+    {
+	return this.shed[kind].sum();
+    }
+
+    /**
+     * Getting the total number of requests (successful, failed or shed).
+     *
+     * @return the number of requests.
+     */
+    public long getRequestCount()
+    {
+	long count = 0;
+	for (int i = 0; i < REQUEST_NAMES.length; i++)
+	    count += this.latencies[i].getCount() + this.errors[i].sum() + this.shed[i].sum();
+	return count;
+    }
+
+    /**
+     * Getting the statistics since the last report, and starting a new interval.
+     *
+     * @return the statistics of the interval: all kinds of requests merged, errors including shed requests.
+     */
+    public Interval nextInterval()
+    {
+	// Values recorded while reading the histogram may be partially discarded, which is acceptable for a periodic report
+	Interval interval = new Interval();
+	Histogram latency = this.intervalLatency;
+	interval.successes = latency.getCount();
+	interval.errors = this.intervalErrors.sumThenReset();
+	interval.p50 = latency.getValueAtPercentile(50);
+	interval.p99 = latency.getValueAtPercentile(99);
+	interval.p999 = latency.getValueAtPercentile(99.9);
+	interval.max = latency.getMax();
+	latency.reset();
+	interval.lag = this.intervalLag;
+	this.intervalLag = 0;
+	return interval;
+    }
+
+    /**
+     * Writing the cumulative statistics, per kind of request.
+     *
+     * @param out the stream where to write the statistics.
+     */
+    public void summarize(PrintStream out)
+    {
+	out.println(String.format("%-8s %10s %8s %8s %10s %10s %10s %10s", "request", "ok", "errors", "shed", "p50", "p99", "p99.9",
+		"max"));
+	for (int kind = 0; kind < REQUEST_NAMES.length; kind++)
+	{
+	    Histogram latency = this.latencies[kind];
+	    out.println(String.format("%-8s %10d %8d %8d %10s %10s %10s %10s", REQUEST_NAMES[kind], latency.getCount(),
+		    this.errors[kind].sum(), this.shed[kind].sum(), millis(latency.getValueAtPercentile(50)),
+		    millis(latency.getValueAtPercentile(99)), millis(latency.getValueAtPercentile(99.9)), millis(latency.getMax())));
+	}
+    }
+
+    /**
+     * Formatting a duration in milliseconds.
+     *
+     * @param nanos the duration, in nanoseconds.
+     * @return the formatted duration.
+     */
+    public static String millis(long nanos)
+    {
+	return String.format("%.1fms", nanos / 1e6);
+    }
+
+    /**
+     * Statistics of a report interval.
+     */
+    public static class Interval
+    {
+	/**
+	 * Number of successful requests.
+	 */
+	public long successes;
+
+	/**
+	 * Number of failed or shed requests.
+	 */
+	public long errors;
+
+	/**
+	 * Median latency, in nanoseconds.
+	 */
+	public long p50;
+
+	/**
+	 * 99th percentile of latencies, in nanoseconds.
+	 */
+	public long p99;
+
+	/**
+	 * 99.9th percentile of latencies, in nanoseconds.
+	 */
+	public long p999;
+
+	/**
+	 * Largest latency, in nanoseconds.
+	 */
+	public long max;
+
+	/**
+	 * Largest delay between the date a request was due and the date it was sent, in nanoseconds.
+	 */
+	public long lag;
+
+	/**
+	 * Formatting the statistics of the interval: throughput, error rate, latency percentiles and lag.
+	 *
+	 * @param seconds the duration of the interval, in seconds.
+	 * @return the formatted statistics.
+	 */
+	public String format(double seconds)
+	{
+	    long requests = this.successes + this.errors;
+	    return String.format("%8.1f req/s  errors %5.2f%%  latency p50 %s p99 %s p99.9 %s max %s  lag %s", requests / seconds,
+		    (requests == 0) ? 0.0 : 100.0 * this.errors / requests, millis(this.p50), millis(this.p99), millis(this.p999),
+		    millis(this.max), millis(this.lag));
+	}
+    }
+}
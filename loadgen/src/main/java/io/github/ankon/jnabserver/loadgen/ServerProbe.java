@@ -0,0 +1,130 @@
+package io.github.ankon.jnabserver.loadgen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Probe reading the server-side metrics of the server under load, by scraping its <tt>/metrics</tt> route.<br/>
+ *
+ * Samples are summed per metric name, whatever their labels (e.g. <tt>jnab_requests_shed_total</tt> gives the number of requests shed
+ * whatever their class).
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class ServerProbe
+{
+    /**
+     * Request reading the metrics.
+     */
+    private final static byte[] METRICS_REQUEST = "GET /metrics HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Address of the server.
+     */
+    private InetSocketAddress server;
+
+    /**
+     * Connect and read timeout, in milliseconds.
+     */
+    private int timeout;
+
+    /**
+     * Buffer used to read responses.
+     */
+    private ByteArrayOutputStream buffer;
+
+    /**
+     * Number of packets queued on the server at the last report.
+     */
+    private long lastQueuedPackets;
+
+    /**
+     * Creating a new probe.
+     *
+     * @param server the address of the server.
+     * @param timeout the connect and read timeout, in milliseconds.
+     */
+    public ServerProbe(InetSocketAddress server, int timeout)
+    {
+	this.server = server;
+	this.timeout = timeout;
+	this.buffer = new ByteArrayOutputStream();
+	this.lastQueuedPackets = 0;
+    }
+
+    /**
+     * Reading the metrics of the server.
+     *
+     * @return the values of metrics, indexed by name (samples of a metric being summed over labels).
+     * @throws IOException if the metrics can not be read.
+     */
+    public synchronized Map<String, Double> read() throws IOException
+    {
+	HTTPExchange exchange = new HTTPExchange(this.server, METRICS_REQUEST, this.timeout, this.buffer);
+	if (exchange.getStatus() != 200) throw new IOException("Unexpected status: " + exchange.getStatus());
+
+	Map<String, Double> values = new HashMap<String, Double>();
+	for (String line : new String(exchange.getBody(), StandardCharsets.US_ASCII).split("\n"))
+	{
+	    if (line.isEmpty() || line.startsWith("#")) continue;
+
+	    // Sample lines: name{labels} value, the value being after the last space (label values may contain spaces)
+	    int valueStart = line.lastIndexOf(' ');
+	    if (valueStart == -1) continue;
+	    int nameEnd = line.indexOf('{');
+	    if (nameEnd == -1 || nameEnd > valueStart) nameEnd = valueStart;
+	    try
+	    {
+		double value = Double.parseDouble(line.substring(valueStart + 1));
+		values.merge(line.substring(0, nameEnd), value, Double::sum);
+	    }
+	    catch (NumberFormatException e)
+	    {
+		// Ignoring malformed samples
+	    }
+	}
+	return values;
+    }
+
+    /**
+     * Reporting the server-side state: bunnies, queued packets (and their growth since the last report), active workers and shed requests.
+     *
+     * @return the formatted state, or the reason why the metrics are unavailable.
+     */
+    public synchronized String report()
+    {
+	try
+	{
+	    Map<String, Double> metrics = this.read();
+	    long queuedPackets = getValue(metrics, "jnab_queued_packets");
+	    String state = String.format("server: bunnies %d  queued packets %d (%+d, max %d per bunny)  workers %d  shed %d",
+		    getValue(metrics, "jnab_bunnies"), queuedPackets, queuedPackets - this.lastQueuedPackets,
+		    getValue(metrics, "jnab_queued_packets_max"), getValue(metrics, "jnab_workers_active"),
+		    getValue(metrics, "jnab_requests_shed_total") + getValue(metrics, "jnab_connections_shed_total"));
+	    this.lastQueuedPackets = queuedPackets;
+	    return state;
+	}
+	catch (IOException e)
+	{
+	    return "server: metrics unavailable (" + e.getMessage() + ")";
+	}
+    }
+
+    /**
+     * Getting the value of a metric.
+     *
+     * @param values the values of metrics, as read by {@link #read()}.
+     * @param name the name of the metric.
+     * @return the value of the metric, or 0 if the metric is not exported.
+     */
+    public static long getValue(Map<String, Double> values, String name)
+    {
+	Double value = values.get(name);
+	return (value == null) ? 0 : value.longValue();
+    }
+}
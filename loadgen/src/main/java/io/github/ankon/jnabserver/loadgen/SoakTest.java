@@ -0,0 +1,509 @@
+package io.github.ankon.jnabserver.loadgen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import io.github.ankon.jnabserver.core.server.MicroServer;
+import io.github.ankon.jnabserver.ext.configuration.ServerConfigurationServer;
+import io.github.ankon.jnabserver.ext.persistency.Serializer;
+
+/**
+ * Soak test running a local server for hours, in order to detect slow leaks: a fleet of virtual bunnies (see {@link LoadGenerator})
+ * loads the server while plugins are repeatedly added to and removed from bunnies through the configuration server, and the JVM is
+ * sampled periodically (after a full garbage collection): heap, metaspace, threads, loaded classes, open file descriptors and packets
+ * queued on the server.<br/>
+ *
+ * The plugin is compiled when the test starts and only available from its plugin jar (not from the class path), so that each plugin
+ * creation loads its class as it does for real plugins. On single clicks, it queues a packet for its bunny.<br/>
+ *
+ * Once the warm-up is over, a metric is deemed to grow without bound if its lowest value over the last third of the samples exceeds its
+ * lowest value over the first third by more than both the tolerance and its slack. The test then exits with status 1.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class SoakTest
+{
+    /**
+     * Default values of the options, as <i>name</i>, <i>value</i> pairs.
+     */
+    private final static String[] DEFAULT_OPTIONS = { "port", "18080", "confport", "18081", "engine", MicroServer.THREAD_ENGINE,
+	    "bootcodesize", "100000", "bunnies", "1000", "rampup", "60", "duration", "14400", "warmup", "600", "pingscale", "0.1",
+	    "connections", "100", "click", "0.05", "rfid", "0.01", "record", "0.001", "recordsize", "32768", "timeout", "10000", "churn",
+	    "1000", "plugged", "100", "sample", "60", "tolerance", "0.05", "samples", "soak.csv" };
+
+    /**
+     * Name of the plugin added to and removed from bunnies.
+     */
+    private final static String PLUGIN_NAME = "Soak_Plugin";
+
+    /**
+     * Main class of the plugin.
+     */
+    private final static String PLUGIN_CLASS = "soak.SoakPlugin";
+
+    /**
+     * Source of the plugin.
+     */
+    private final static String PLUGIN_SOURCE = "package soak;\n" //
+	    + "import io.github.ankon.jnabserver.core.events.ClickEventListener;\n" //
+	    + "import io.github.ankon.jnabserver.core.plugins.AbstractPlugin;\n" //
+	    + "import io.github.ankon.jnabserver.core.protocol.Packet;\n" //
+	    + "import io.github.ankon.jnabserver.core.protocol.PingIntervalBlock;\n" //
+	    + "public class SoakPlugin extends AbstractPlugin implements ClickEventListener {\n" //
+	    + "    public SoakPlugin() { super(\"" + PLUGIN_NAME + "\", new String[] { \"message\" }); }\n" //
+	    + "    public void onSingleClick() {\n" //
+	    + "        Packet p = new Packet(); p.addBlock(new PingIntervalBlock(1)); this.bunny.addPacket(p);\n" //
+	    + "    }\n" //
+	    + "    public void onDoubleClick() {}\n" //
+	    + "}\n";
+
+    /**
+     * Heap metric (bytes used).
+     */
+    public final static int HEAP = 0;
+
+    /**
+     * Metaspace metric (bytes used).
+     */
+    public final static int METASPACE = 1;
+
+    /**
+     * Thread metric (live threads).
+     */
+    public final static int THREADS = 2;
+
+    /**
+     * Class metric (loaded classes).
+     */
+    public final static int CLASSES = 3;
+
+    /**
+     * File descriptor metric (open file descriptors, -1 if not supported by the JVM).
+     */
+    public final static int FILE_DESCRIPTORS = 4;
+
+    /**
+     * Queued packet metric (packets queued for all bunnies on the server).
+     */
+    public final static int QUEUED_PACKETS = 5;
+
+    /**
+     * Names of the metrics, indexed by metric.
+     */
+    public final static String[] METRIC_NAMES = { "heap", "metaspace", "threads", "classes", "fds", "queued" };
+
+    /**
+     * Growths tolerated whatever the tolerance, indexed by metric (absorbing the noise of small values).
+     */
+    private final static long[] METRIC_SLACKS = { 16 << 20, 4 << 20, 16, 200, 32, 1000 };
+
+    /**
+     * Server under test.
+     */
+    private MicroServer microServer;
+
+    /**
+     * Load generator simulating bunnies.
+     */
+    private LoadGenerator generator;
+
+    /**
+     * Address of the configuration server.
+     */
+    private InetSocketAddress configurationServer;
+
+    /**
+     * Number of bunnies with the plugin, beyond which plugins are removed.
+     */
+    private int pluggedBunnies;
+
+    /**
+     * Samples, as values indexed by metric, in order.
+     */
+    private List<long[]> samples;
+
+    /**
+     * Dates of samples, in seconds since the start of the test.
+     */
+    private List<Long> sampleDates;
+
+    /**
+     * Number of plugins added.
+     */
+    private volatile long added;
+
+    /**
+     * Number of plugins removed.
+     */
+    private volatile long removed;
+
+    /**
+     * Number of commands which failed (or of connections to the configuration server which failed).
+     */
+    private volatile long failed;
+
+    /**
+     * Flag telling the churn thread to go on.
+     */
+    private volatile boolean running;
+
+    /**
+     * Date the test started, in nanoseconds (as given by {@link System#nanoTime()}).
+     */
+    private long startTime;
+
+    /**
+     * Creating a new soak test.
+     *
+     * @param microServer the server under test (started locally).
+     * @param generator the load generator simulating bunnies.
+     * @param configurationServer the address of the configuration server of the server under test.
+     * @param pluggedBunnies the number of bunnies with the plugin, beyond which plugins are removed.
+     */
+    public SoakTest(MicroServer microServer, LoadGenerator generator, InetSocketAddress configurationServer, int pluggedBunnies)
+    {
+	this.microServer = microServer;
+	this.generator = generator;
+	this.configurationServer = configurationServer;
+	this.pluggedBunnies = pluggedBunnies;
+	this.samples = new ArrayList<long[]>();
+	this.sampleDates = new ArrayList<Long>();
+	this.startTime = System.nanoTime();
+    }
+
+    /**
+     * Compiling the plugin and writing its jar, holding its class and a manifest declaring it.
+     *
+     * @param pluginsPath the plugins path of the server.
+     * @throws IOException if the plugin can not be compiled (e.g. when running on a JRE instead of a JDK) or its jar written.
+     */
+    public static void createPluginJar(File pluginsPath) throws IOException
+    {
+	JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+	if (compiler == null) throw new IOException("No Java compiler available, a JDK is required");
+
+	File sourcePath = Files.createTempDirectory("jnab-soak").toFile();
+	File source = new File(sourcePath, "SoakPlugin.java");
+	Files.write(source.toPath(), PLUGIN_SOURCE.getBytes(StandardCharsets.US_ASCII));
+	if (compiler.run(null, null, null, "-cp", System.getProperty("java.class.path"), "-d", sourcePath.getPath(), source.getPath()) != 0)
+	    throw new IOException("Plugin compilation failed");
+
+	Manifest manifest = new Manifest();
+	manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+	Attributes jNabSection = new Attributes();
+	jNabSection.putValue("Plugin-Name", PLUGIN_NAME);
+	jNabSection.putValue("Plugin-MainClass", PLUGIN_CLASS);
+	jNabSection.putValue("Plugin-Type", "ClickEventListener");
+	jNabSection.putValue("Plugin-Parameters", "message");
+	jNabSection.putValue("Plugin-Actions", "");
+	manifest.getEntries().put("jNab", jNabSection);
+	try (JarOutputStream out = new JarOutputStream(new FileOutputStream(new File(pluginsPath, "soak.jar")), manifest))
+	{
+	    String entry = PLUGIN_CLASS.replace('.', '/') + ".class";
+	    out.putNextEntry(new JarEntry(entry));
+	    out.write(Files.readAllBytes(new File(sourcePath, entry).toPath()));
+	    out.closeEntry();
+	}
+    }
+
+    /**
+     * Starting the churn thread: every interval, the plugin is added to a random bunny, or removed from the bunny which got it first
+     * once <tt>pluggedBunnies</tt> bunnies have it.
+     *
+     * @param interval the interval between two commands, in milliseconds.
+     */
+    public void startChurn(int interval)
+    {
+	this.running = true;
+	Thread churn = new Thread(() -> this.runChurn(interval), "soak-churn");
+	churn.setDaemon(true);
+	churn.start();
+    }
+
+    /**
+     * Stopping the churn thread.
+     */
+    public void stopChurn()
+    {
+	this.running = false;
+    }
+
+    /**
+     * Internal method run by the churn thread, reconnecting to the configuration server after failures.
+     *
+     * @param interval the interval between two commands, in milliseconds.
+     */
+    private void runChurn(int interval)
+    {
+	Random random = new Random();
+	Deque<String> plugged = new ArrayDeque<String>();
+	while (this.running)
+	{
+	    try (Socket socket = new Socket())
+	    {
+		socket.connect(this.configurationServer, this.generator.getTimeout());
+		socket.setSoTimeout(this.generator.getTimeout());
+		Reader in = new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII);
+		PrintStream out = new PrintStream(socket.getOutputStream(), true, "US-ASCII");
+		readReply(in);
+
+		while (this.running)
+		{
+		    TimeUnit.MILLISECONDS.sleep(interval);
+		    if (plugged.size() >= this.pluggedBunnies)
+		    {
+			out.println("REMOVE bunny plugin: " + plugged.peekFirst() + " " + PLUGIN_NAME);
+			if (readReply(in).equals("OK"))
+			    this.removed++;
+			else
+			    this.failed++;
+			plugged.removeFirst();
+		    }
+		    else
+		    {
+			// Bunnies which have not located the server yet are not in the burrow
+			String serialNumber = String.format("0019db%06x", random.nextInt(this.generator.getBunnyCount()));
+			if (plugged.contains(serialNumber)) continue;
+			out.println("ADD bunny plugin: " + serialNumber + " " + PLUGIN_NAME);
+			String reply = readReply(in);
+			if (reply.equals("OK"))
+			{
+			    this.added++;
+			    plugged.addLast(serialNumber);
+			}
+			else if (!reply.equals("KO (no such bunny)")) this.failed++;
+		    }
+		}
+	    }
+	    catch (IOException e)
+	    {
+		this.failed++;
+	    }
+	    catch (InterruptedException e)
+	    {
+		return;
+	    }
+	}
+    }
+
+    /**
+     * Internal method reading the reply to a command of the configuration server, up to its next prompt.
+     *
+     * @param in the stream where to read the reply.
+     * @return the reply, without the prompt.
+     * @throws IOException if the connection failed.
+     */
+    private static String readReply(Reader in) throws IOException
+    {
+	StringBuilder reply = new StringBuilder();
+	while (true)
+	{
+	    int c = in.read();
+	    if (c == -1) throw new IOException("Connection closed by the configuration server");
+	    reply.append((char) c);
+	    int length = reply.length();
+	    if (length >= 2 && reply.charAt(length - 2) == '>' && reply.charAt(length - 1) == ' '
+		    && (length == 2 || reply.charAt(length - 3) == '\n'))
+		return reply.substring(0, length - 2).trim();
+	}
+    }
+
+    /**
+     * Sampling the JVM and the server, after a full garbage collection.
+     *
+     * @return the values of the metrics, indexed by metric.
+     */
+    public long[] sample()
+    {
+	System.gc();
+	System.gc();
+
+	long[] values = new long[METRIC_NAMES.length];
+	values[HEAP] = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+	    if (pool.getName().equals("Metaspace")) values[METASPACE] = pool.getUsage().getUsed();
+	values[THREADS] = ManagementFactory.getThreadMXBean().getThreadCount();
+	values[CLASSES] = ManagementFactory.getClassLoadingMXBean().getLoadedClassCount();
+	OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+	values[FILE_DESCRIPTORS] = (os instanceof com.sun.management.UnixOperatingSystemMXBean)
+		? ((com.sun.management.UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount() : -1;
+	values[QUEUED_PACKETS] = this.microServer.getBurrow().getQueuedPacketCount();
+
+	this.samples.add(values);
+	this.sampleDates.add(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - this.startTime));
+	return values;
+    }
+
+    /**
+     * Reporting the last sample, along with the plugin churn.
+     *
+     * @param out the stream where to write the report.
+     */
+    public void report(PrintStream out)
+    {
+	long[] values = this.samples.get(this.samples.size() - 1);
+	out.println(String.format("[%5ds] heap %dMB  metaspace %dMB  threads %d  classes %d  fds %d  queued %d  | plugins +%d -%d "
+		+ "(%d failed)", this.sampleDates.get(this.sampleDates.size() - 1), values[HEAP] >> 20, values[METASPACE] >> 20,
+		values[THREADS], values[CLASSES], values[FILE_DESCRIPTORS], values[QUEUED_PACKETS], this.added, this.removed, this.failed));
+    }
+
+    /**
+     * Writing the samples as CSV (date in seconds, then a column per metric).
+     *
+     * @param out the stream where to write the samples.
+     */
+    public void writeSamples(PrintStream out)
+    {
+	out.println("seconds," + String.join(",", METRIC_NAMES));
+	for (int i = 0; i < this.samples.size(); i++)
+	{
+	    StringBuilder line = new StringBuilder().append(this.sampleDates.get(i));
+	    for (long value : this.samples.get(i))
+		line.append(',').append(value);
+	    out.println(line);
+	}
+    }
+
+    /**
+     * Checking that no metric grows without bound, comparing the lowest values over the first and last thirds of the samples taken after
+     * the warm-up.
+     *
+     * @param out the stream where to write the verdict, per metric.
+     * @param warmup the warm-up duration, in seconds.
+     * @param tolerance the relative growth tolerated (e.g. 0.1 for 10%).
+     * @return <tt>true</tt> if no metric grows, <tt>false</tt> if some do (or if there are not enough samples to tell).
+     */
+    public boolean check(PrintStream out, long warmup, double tolerance)
+    {
+	List<long[]> steady = new ArrayList<long[]>();
+	for (int i = 0; i < this.samples.size(); i++)
+	    if (this.sampleDates.get(i) >= warmup) steady.add(this.samples.get(i));
+	if (steady.size() < 6)
+	{
+	    out.println("Not enough samples after the warm-up (" + steady.size() + ", 6 at least), run longer or sample more often");
+	    return false;
+	}
+
+	boolean stable = true;
+	int third = steady.size() / 3;
+	out.println();
+	out.println(String.format("%-10s %14s %14s %10s", "metric", "first", "last", "verdict"));
+	for (int metric = 0; metric < METRIC_NAMES.length; metric++)
+	{
+	    long first = Long.MAX_VALUE;
+	    long last = Long.MAX_VALUE;
+	    for (int i = 0; i < third; i++)
+	    {
+		first = Math.min(first, steady.get(i)[metric]);
+		last = Math.min(last, steady.get(steady.size() - 1 - i)[metric]);
+	    }
+	    boolean grows = first >= 0 && last - first > METRIC_SLACKS[metric] && last > first * (1 + tolerance);
+	    stable &= !grows;
+	    out.println(String.format("%-10s %14d %14d %10s", METRIC_NAMES[metric], first, last, grows ? "GROWS" : "ok"));
+	}
+	return stable;
+    }
+
+    /**
+     * Application's main. Options are given as <tt>-<i>name</i>=<i>value</i></tt>, the ones of {@link LoadGenerator} (except
+     * <tt>-server</tt>, the server being always started locally) and:
+     * <ul>
+     * <li><tt>-confport=</tt><i>value</i> port of the configuration server (default: 18081)</li>
+     * <li><tt>-duration=</tt><i>value</i> duration of the test, in seconds (default: 14400)</li>
+     * <li><tt>-warmup=</tt><i>value</i> duration of the warm-up, whose samples are not checked, in seconds (default: 600)</li>
+     * <li><tt>-churn=</tt><i>value</i> interval between two plugin additions or removals, in milliseconds (default: 1000)</li>
+     * <li><tt>-plugged=</tt><i>value</i> number of bunnies with the plugin, beyond which plugins are removed (default: 100)</li>
+     * <li><tt>-sample=</tt><i>value</i> sample interval, in seconds (default: 60)</li>
+     * <li><tt>-tolerance=</tt><i>value</i> relative growth tolerated (default: 0.05)</li>
+     * <li><tt>-samples=</tt><i>file</i> file where to write samples, as CSV (default: <tt>soak.csv</tt>)</li>
+     * </ul>
+     * Defaults differ from the ones of the load generator: bunnies ping 10 times faster, and click 5 times more often. The exit status is
+     * 1 if some metric grows without bound.
+     *
+     * @param args command-line options.
+     * @throws Exception if the local server or the plugin can not be set up, or if the test is interrupted.
+     */
+    public static void main(String[] args) throws Exception
+    {
+	Properties options = LoadGenerator.parseOptions(args, DEFAULT_OPTIONS);
+
+	int port = Integer.parseInt(options.getProperty("port"));
+	MicroServer microServer = LoadGenerator.startLocalServer(port, options.getProperty("engine"),
+		Integer.parseInt(options.getProperty("bootcodesize")));
+	createPluginJar(new File(microServer.getResourcesPath(), "plugins"));
+	int confPort = Integer.parseInt(options.getProperty("confport"));
+	ServerConfigurationServer configurationServer = new ServerConfigurationServer("127.0.0.1", confPort, microServer,
+		new Serializer(microServer.getResourcesPath()));
+	configurationServer.setDaemon(true);
+	configurationServer.start();
+	System.out.println("<soak> Local server started on port " + port + " (" + options.getProperty("engine")
+		+ " engine), configuration server on port " + confPort);
+
+	LoadGenerator generator = new LoadGenerator(new InetSocketAddress("127.0.0.1", port));
+	generator.setBunnies(Integer.parseInt(options.getProperty("bunnies")), Integer.parseInt(options.getProperty("rampup")));
+	generator.setPingScale(Double.parseDouble(options.getProperty("pingscale")));
+	generator.setConnections(Integer.parseInt(options.getProperty("connections")));
+	generator.setRequestMix(Double.parseDouble(options.getProperty("click")), Double.parseDouble(options.getProperty("rfid")),
+		Double.parseDouble(options.getProperty("record")), Integer.parseInt(options.getProperty("recordsize")));
+	generator.setTimeout(Integer.parseInt(options.getProperty("timeout")));
+
+	SoakTest test = new SoakTest(microServer, generator, new InetSocketAddress("127.0.0.1", confPort),
+		Integer.parseInt(options.getProperty("plugged")));
+	int duration = Integer.parseInt(options.getProperty("duration"));
+	int sample = Integer.parseInt(options.getProperty("sample"));
+	System.out.println("<soak> Simulating " + options.getProperty("bunnies") + " bunnies for " + duration + " s, sampling every "
+		+ sample + " s");
+
+	generator.start();
+	test.startChurn(Integer.parseInt(options.getProperty("churn")));
+	long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+	while (System.nanoTime() < end)
+	{
+	    long sleep = Math.min(TimeUnit.SECONDS.toNanos(sample), end - System.nanoTime());
+	    TimeUnit.NANOSECONDS.sleep(sleep);
+	    generator.report(System.out, sleep / 1e9);
+	    test.sample();
+	    test.report(System.out);
+	}
+	test.stopChurn();
+	generator.stop();
+	generator.summarize(System.out);
+
+	try (PrintStream out = new PrintStream(options.getProperty("samples")))
+	{
+	    test.writeSamples(out);
+	}
+	boolean stable = test.check(System.out, Long.parseLong(options.getProperty("warmup")),
+		Double.parseDouble(options.getProperty("tolerance")));
+	System.out.println(stable ? "<soak> No unbounded growth detected" : "<soak> FAILED: unbounded growth (or too few samples)");
+
+	microServer.stopServer();
+	System.exit(stable ? 0 : 1);
+    }
+}
@@ -0,0 +1,393 @@
+package io.github.ankon.jnabserver.loadgen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.ankon.jnabserver.core.server.MicroServer;
+import io.github.ankon.jnabserver.core.server.TrafficCapture;
+
+/**
+ * Replay of captured traffic (see {@link TrafficCapture}) against a jNab server, either a remote one or one started locally, at the
+ * captured pace, N times faster, or as fast as possible. Periodic reports and the final summary are the ones of the
+ * {@link LoadGenerator}.<br/>
+ *
+ * Responses are verified: requests must succeed (<tt>503</tt> responses being counted as shed), and event requests (pings, RFID tags
+ * and voice recordings) must be answered with a well-formed packet. Voice recordings are replayed as captured, or as dummy data of the
+ * same length if captured without their bodies.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class TrafficReplay
+{
+    /**
+     * Default values of the options, as <i>name</i>, <i>value</i> pairs.
+     */
+    private final static String[] DEFAULT_OPTIONS = { "capture", "", "speed", "1", "server", "", "port", "18080", "engine",
+	    MicroServer.THREAD_ENGINE, "bootcodesize", "100000", "connections", "64", "timeout", "10000", "report", "5" };
+
+    /**
+     * Address of the server.
+     */
+    private InetSocketAddress server;
+
+    /**
+     * Replay speed, relatively to the captured pace (0 meaning as fast as possible).
+     */
+    private double speed;
+
+    /**
+     * Maximum number of concurrent requests.
+     */
+    private int connections;
+
+    /**
+     * Connect and read timeout, in milliseconds.
+     */
+    private int timeout;
+
+    /**
+     * Client-side statistics.
+     */
+    private LoadStatistics statistics;
+
+    /**
+     * Probe reading server-side metrics.
+     */
+    private ServerProbe probe;
+
+    /**
+     * Number of requests answered with an unexpected response (included in the errors of the statistics).
+     */
+    private AtomicLong invalidResponses;
+
+    /**
+     * Number of requests replayed so far.
+     */
+    private AtomicLong replayedRequests;
+
+    /**
+     * Buffers used to read responses, one per client thread.
+     */
+    private ThreadLocal<ByteArrayOutputStream> buffers;
+
+    /**
+     * Date the replay started, in nanoseconds (as given by {@link System#nanoTime()}).
+     */
+    private long startTime;
+
+    /**
+     * Creating a new replay, at the captured pace with 64 concurrent requests at most.
+     *
+     * @param server the address of the server.
+     */
+    public TrafficReplay(InetSocketAddress server)
+    {
+	this.server = server;
+	this.speed = 1;
+	this.connections = 64;
+	this.timeout = 10000;
+	this.statistics = new LoadStatistics();
+	this.probe = new ServerProbe(server, this.timeout);
+	this.invalidResponses = new AtomicLong();
+	this.replayedRequests = new AtomicLong();
+	this.buffers = ThreadLocal.withInitial(ByteArrayOutputStream::new);
+    }
+
+    /**
+     * Setting the replay speed.
+     *
+     * @param speed the speed, relatively to the captured pace (e.g. 10 to replay 10 times faster, 0 to replay as fast as possible).
+     */
+    public void setSpeed(double speed)
+    {
+	this.speed = speed;
+    }
+
+    /**
+     * Setting the maximum number of concurrent requests.
+     *
+     * @param connections the number of client threads.
+     */
+    public void setConnections(int connections)
+    {
+	this.connections = connections;
+    }
+
+    /**
+     * Setting the connect and read timeout of requests.
+     *
+     * @param timeout the timeout, in milliseconds.
+     */
+    public void setTimeout(int timeout)
+    {
+	this.timeout = timeout;
+	this.probe = new ServerProbe(this.server, timeout);
+    }
+
+    /**
+     * Getting the client-side statistics.
+     *
+     * @return the statistics.
+     */
+    public LoadStatistics getStatistics()
+    {
+	return this.statistics;
+    }
+
+    /**
+     * Getting the number of requests answered with an unexpected response.
+     *
+     * @return the number of invalid responses.
+     */
+    public long getInvalidResponseCount()
+    {
+	return this.invalidResponses.get();
+    }
+
+    /**
+     * Replaying a capture file, requests being sent when due and at most <tt>connections</tt> at a time, and reporting periodically.
+     *
+     * @param capture the capture file.
+     * @param out the stream where to write reports.
+     * @param reportInterval the report interval, in seconds.
+     * @throws IOException if the capture file can not be read.
+     * @throws InterruptedException if interrupted while replaying.
+     */
+    public void replay(File capture, PrintStream out, int reportInterval) throws IOException, InterruptedException
+    {
+	ExecutorService clients = Executors.newFixedThreadPool(this.connections);
+	Semaphore slots = new Semaphore(this.connections);
+	long reportNanos = TimeUnit.SECONDS.toNanos(reportInterval);
+
+	this.startTime = System.nanoTime();
+	long lastReport = this.startTime;
+	long firstTimestamp = -1;
+	try (TrafficCapture.Reader reader = new TrafficCapture.Reader(capture))
+	{
+	    TrafficCapture.CapturedRequest request;
+	    while ((request = reader.next()) != null)
+	    {
+		if (firstTimestamp == -1) firstTimestamp = request.getTimestamp();
+
+		// Waiting for the request to be due (timestamps being in microseconds), reporting meanwhile
+		long due = System.nanoTime();
+		if (this.speed > 0) due = this.startTime + (long) ((request.getTimestamp() - firstTimestamp) * 1000 / this.speed);
+		while (true)
+		{
+		    long now = System.nanoTime();
+		    if (now - lastReport >= reportNanos)
+		    {
+			this.report(out, (now - lastReport) / 1e9);
+			lastReport = now;
+		    }
+		    if (now >= due) break;
+		    TimeUnit.NANOSECONDS.sleep(Math.min(due, lastReport + reportNanos) - now);
+		}
+
+		slots.acquire();
+		final TrafficCapture.CapturedRequest replayed = request;
+		final long dueTime = due;
+		clients.execute(() -> {
+		    try
+		    {
+			this.send(replayed, dueTime);
+		    }
+		    finally
+		    {
+			slots.release();
+		    }
+		});
+	    }
+	}
+	finally
+	{
+	    clients.shutdown();
+	    clients.awaitTermination(1, TimeUnit.HOURS);
+	}
+	this.report(out, (System.nanoTime() - lastReport) / 1e9);
+    }
+
+    /**
+     * Internal method sending a captured request, and verifying its response.
+     *
+     * @param request the captured request.
+     * @param due the date the request was due, in nanoseconds (as given by {@link System#nanoTime()}).
+     */
+    private void send(TrafficCapture.CapturedRequest request, long due)
+    {
+	long start = System.nanoTime();
+	this.statistics.requestLagged(start - due);
+	this.replayedRequests.incrementAndGet();
+
+	int kind = getKind(request.getHeader());
+	int status;
+	byte[] body;
+	try
+	{
+	    HTTPExchange exchange = new HTTPExchange(this.server, request.toByteArray(), this.timeout, this.buffers.get());
+	    status = exchange.getStatus();
+	    body = exchange.getBody();
+	}
+	catch (IOException e)
+	{
+	    this.statistics.requestFailed(kind);
+	    return;
+	}
+	long end = System.nanoTime();
+
+	if (status == 503)
+	    this.statistics.requestShed(kind);
+	else if (status != 200 || !isValidResponse(kind, body))
+	{
+	    this.invalidResponses.incrementAndGet();
+	    this.statistics.requestFailed(kind);
+	}
+	else
+	    this.statistics.requestSucceeded(kind, end - start);
+    }
+
+    /**
+     * Internal method finding the kind of a request, from the path of its request line.
+     *
+     * @param header the raw header of the request.
+     * @return the kind of request (see {@link LoadStatistics}).
+     */
+    private static int getKind(byte[] header)
+    {
+	String requestLine = new String(header, 0, Math.min(header.length, 256), StandardCharsets.ISO_8859_1);
+	int pathStart = requestLine.indexOf(' ') + 1;
+	int pathEnd = pathStart;
+	while (pathEnd < requestLine.length() && " ?\r\n".indexOf(requestLine.charAt(pathEnd)) == -1)
+	    pathEnd++;
+
+	switch (requestLine.substring(pathStart, pathEnd))
+	{
+	case "/vl/bc.jsp":
+	    return LoadStatistics.BOOT_REQUEST;
+	case "/vl/locate.jsp":
+	    return LoadStatistics.LOCATE_REQUEST;
+	case "/vl/p4.jsp":
+	    return LoadStatistics.PING_REQUEST;
+	case "/vl/rfid.jsp":
+	    return LoadStatistics.RFID_REQUEST;
+	case "/vl/record.jsp":
+	    return LoadStatistics.RECORD_REQUEST;
+	default:
+	    return LoadStatistics.OTHER_REQUEST;
+	}
+    }
+
+    /**
+     * Internal method verifying the body of a successful response.
+     *
+     * @param kind the kind of request.
+     * @param body the body of the response.
+     * @return <tt>true</tt> if the body is the expected one: a packet (header byte, blocks and footer) for event requests, anything for
+     *         other requests.
+     */
+    private static boolean isValidResponse(int kind, byte[] body)
+    {
+	if (kind != LoadStatistics.PING_REQUEST && kind != LoadStatistics.RFID_REQUEST && kind != LoadStatistics.RECORD_REQUEST)
+	    return true;
+	return body.length >= 3 && body[0] == (byte) 0x7F && body[body.length - 2] == (byte) 0xFF && body[body.length - 1] == (byte) 0x0A;
+    }
+
+    /**
+     * Reporting the statistics since the last report, along with the server-side state.
+     *
+     * @param out the stream where to write the report.
+     * @param intervalSeconds the duration since the last report, in seconds.
+     */
+    public void report(PrintStream out, double intervalSeconds)
+    {
+	out.println(String.format("[%5ds] replayed %d  %s  | %s", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - this.startTime),
+		this.replayedRequests.get(), this.statistics.nextInterval().format(intervalSeconds), this.probe.report()));
+    }
+
+    /**
+     * Writing the summary of the whole replay, per kind of request.
+     *
+     * @param out the stream where to write the summary.
+     */
+    public void summarize(PrintStream out)
+    {
+	double seconds = (System.nanoTime() - this.startTime) / 1e9;
+	out.println();
+	this.statistics.summarize(out);
+	out.println(String.format("%d requests replayed in %.1f s (%.1f req/s), %d invalid responses", this.replayedRequests.get(),
+		seconds, this.replayedRequests.get() / seconds, this.invalidResponses.get()));
+    }
+
+    /**
+     * Application's main. Options are given as <tt>-<i>name</i>=<i>value</i></tt>:
+     * <ul>
+     * <li><tt>-capture=</tt><i>file</i> capture file to replay (required)</li>
+     * <li><tt>-speed=</tt><i>value</i> replay speed, relatively to the captured pace (default: 1, 0 meaning as fast as possible)</li>
+     * <li><tt>-server=</tt><i>host</i>:<i>port</i> server to replay traffic against (default: a server started locally)</li>
+     * <li><tt>-port=</tt><i>value</i> port of the local server (default: 18080)</li>
+     * <li><tt>-engine=</tt><i>value</i> engine of the local server (default: <tt>thread</tt>)</li>
+     * <li><tt>-bootcodesize=</tt><i>value</i> size of the synthetic bootcode of the local server, in bytes (default: 100000)</li>
+     * <li><tt>-connections=</tt><i>value</i> maximum number of concurrent requests (default: 64)</li>
+     * <li><tt>-timeout=</tt><i>value</i> connect and read timeout, in milliseconds (default: 10000)</li>
+     * <li><tt>-report=</tt><i>value</i> report interval, in seconds (default: 5)</li>
+     * </ul>
+     * The exit status is 1 if some requests failed (shed requests aside).
+     *
+     * @param args command-line options.
+     * @throws Exception if the local server can not be started, if the capture can not be read or if the replay is interrupted.
+     */
+    public static void main(String[] args) throws Exception
+    {
+	Properties options = LoadGenerator.parseOptions(args, DEFAULT_OPTIONS);
+	File capture = new File(options.getProperty("capture"));
+	if (!capture.isFile())
+	{
+	    System.err.println("<replay> Capture file not found: " + capture);
+	    System.exit(-1);
+	}
+
+	MicroServer localServer = null;
+	InetSocketAddress server;
+	String serverOption = options.getProperty("server");
+	if (serverOption.isEmpty())
+	{
+	    int port = Integer.parseInt(options.getProperty("port"));
+	    localServer = LoadGenerator.startLocalServer(port, options.getProperty("engine"),
+		    Integer.parseInt(options.getProperty("bootcodesize")));
+	    server = new InetSocketAddress("127.0.0.1", port);
+	    System.out.println("<replay> Local server started on port " + port + " (" + options.getProperty("engine") + " engine)");
+	}
+	else
+	{
+	    int colon = serverOption.lastIndexOf(':');
+	    server = new InetSocketAddress(serverOption.substring(0, colon), Integer.parseInt(serverOption.substring(colon + 1)));
+	}
+
+	TrafficReplay replay = new TrafficReplay(server);
+	replay.setSpeed(Double.parseDouble(options.getProperty("speed")));
+	replay.setConnections(Integer.parseInt(options.getProperty("connections")));
+	replay.setTimeout(Integer.parseInt(options.getProperty("timeout")));
+
+	System.out.println("<replay> Replaying " + capture + " against " + server + " (speed " + options.getProperty("speed") + ")");
+	replay.replay(capture, System.out, Integer.parseInt(options.getProperty("report")));
+	replay.summarize(System.out);
+
+	long errors = 0;
+	for (int kind = 0; kind < LoadStatistics.REQUEST_NAMES.length; kind++)
+	    errors += replay.getStatistics().getErrorCount(kind);
+
+	if (localServer != null) localServer.stopServer();
+	System.exit((errors == 0) ? 0 : 1);
+    }
+}
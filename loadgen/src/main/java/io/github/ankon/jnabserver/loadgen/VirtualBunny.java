@@ -0,0 +1,291 @@
+package io.github.ankon.jnabserver.loadgen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import io.github.ankon.jnabserver.core.protocol.Block;
+
+/**
+ * Virtual bunny, speaking the protocol of a real one: it first boots (<tt>/vl/bc.jsp</tt>), then locates its server
+ * (<tt>/vl/locate.jsp</tt>), then pings it periodically (<tt>/vl/p4.jsp</tt>), occasionally notifying a click, an RFID tag
+ * (<tt>/vl/rfid.jsp</tt>) or uploading a voice recording (<tt>/vl/record.jsp</tt>).<br/>
+ *
+ * As real bunnies, it follows the ping interval block of the packets sent back by the server (e.g. pinging again after 1 second while
+ * the server drains packets queued for it). A virtual bunny performs one request at a time, and is scheduled by the date of its next
+ * request.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class VirtualBunny implements Delayed
+{
+    /**
+     * State of a bunny which has not booted yet.
+     */
+    private final static int BOOTING = 0;
+
+    /**
+     * State of a bunny which has booted, but not located its server yet.
+     */
+    private final static int LOCATING = 1;
+
+    /**
+     * State of a bunny which pings its server.
+     */
+    private final static int PINGING = 2;
+
+    /**
+     * Firmware version sent in requests.
+     */
+    private final static String VERSION = "18673";
+
+    /**
+     * Default ping interval, in seconds, until the server sends one.
+     */
+    private final static int DEFAULT_PING_INTERVAL = 10;
+
+    /**
+     * Serial number of the bunny.
+     */
+    private String serialNumber;
+
+    /**
+     * MAC address of the bunny (its serial number, with colons).
+     */
+    private String macAddress;
+
+    /**
+     * Current state of the bunny.
+     */
+    private int state;
+
+    /**
+     * Ping interval, in seconds, as last sent by the server.
+     */
+    private int pingInterval;
+
+    /**
+     * Date of the next request, in nanoseconds (as given by {@link System#nanoTime()}).
+     */
+    private volatile long nextRequest;
+
+    /**
+     * Creating a new virtual bunny, not booted yet.
+     *
+     * @param index the index of the bunny in the fleet, from which its serial number is built.
+     * @param firstRequest the date of the first request, in nanoseconds (as given by {@link System#nanoTime()}).
+     */
+    public VirtualBunny(int index, long firstRequest)
+    {
+	this.serialNumber = String.format("0019db%06x", index);
+	StringBuilder mac = new StringBuilder();
+	for (int i = 0; i < 12; i += 2)
+	    mac.append(i == 0 ? "" : ":").append(this.serialNumber, i, i + 2);
+	this.macAddress = mac.toString();
+	this.state = BOOTING;
+	this.pingInterval = DEFAULT_PING_INTERVAL;
+	this.nextRequest = firstRequest;
+    }
+
+    /**
+     * Getting the serial number of the bunny.
+     *
+     * @return the serial number.
+     */
+    public String getSerialNumber()
+    {
+	return this.serialNumber;
+    }
+
+    /**
+     * Testing if the bunny has booted and located its server.
+     *
+     * @return <tt>true</tt> if the bunny pings its server, <tt>false</tt> if not.
+     */
+    public boolean isPinging()
+    {
+	return this.state == PINGING;
+    }
+
+    /**
+     * Getting the date of the next request.
+     *
+     * @return the date of the next request, in nanoseconds (as given by {@link System#nanoTime()}).
+     */
+    public long getNextRequest()
+    {
+	return this.nextRequest;
+    }
+
+    /**
+     * Performing the next request of the bunny, and scheduling the following one.
+     *
+     * @param generator the load generator the bunny belongs to.
+     * @param random the random generator of the calling thread.
+     * @param buffer the buffer used to read responses (reused between requests of the calling thread).
+     * @return <tt>true</tt> if the bunny has just located its server (i.e. starts pinging), <tt>false</tt> if not.
+     */
+    public boolean step(LoadGenerator generator, Random random, ByteArrayOutputStream buffer)
+    {
+	LoadStatistics statistics = generator.getStatistics();
+	String host = generator.getServer().getHostString();
+
+	int kind;
+	byte[] request;
+	switch (this.state)
+	{
+	case BOOTING:
+	    kind = LoadStatistics.BOOT_REQUEST;
+	    request = this.get(host, "/vl/bc.jsp?v=0.0.0.10&m=" + this.macAddress + "&l=00:00:00:00:00:00&p=00:00:00:00:00:00&h=4");
+	    break;
+	case LOCATING:
+	    kind = LoadStatistics.LOCATE_REQUEST;
+	    request = this.get(host, "/vl/locate.jsp?sn=" + this.serialNumber + "&h=4&v=" + VERSION);
+	    break;
+	default:
+	    double draw = random.nextDouble();
+	    if (draw < generator.getRFIDProbability())
+	    {
+		kind = LoadStatistics.RFID_REQUEST;
+		request = this.get(host, "/vl/rfid.jsp?v=" + VERSION + "&sn=" + this.serialNumber + "&h=4&t=d00218" + String.format("%010x",
+			random.nextLong() & 0xFFFFFFFFFFL));
+	    }
+	    else if (draw < generator.getRFIDProbability() + generator.getRecordProbability())
+	    {
+		kind = LoadStatistics.RECORD_REQUEST;
+		request = this.post(host, "/vl/record.jsp?sn=" + this.serialNumber + "&v=" + VERSION + "&h=4&m=0",
+			generator.getRecordData());
+	    }
+	    else
+	    {
+		// Clicks are notified along with pings
+		boolean click = draw < generator.getRFIDProbability() + generator.getRecordProbability() + generator.getClickProbability();
+		kind = LoadStatistics.PING_REQUEST;
+		request = this.get(host, "/vl/p4.jsp?v=" + VERSION + "&m=" + this.macAddress + "&st=1&sn=" + this.serialNumber
+			+ "&h=4&tc=7fffffff&sd=" + (click ? "3" : "0"));
+	    }
+	}
+
+	long start = System.nanoTime();
+	int status;
+	byte[] body;
+	try
+	{
+	    HTTPExchange exchange = new HTTPExchange(generator.getServer(), request, generator.getTimeout(), buffer);
+	    status = exchange.getStatus();
+	    body = exchange.getBody();
+	}
+	catch (IOException e)
+	{
+	    status = -1;
+	    body = null;
+	}
+	long end = System.nanoTime();
+
+	boolean located = false;
+	if (status == 200)
+	{
+	    statistics.requestSucceeded(kind, end - start);
+	    if (this.state == BOOTING)
+		this.state = LOCATING;
+	    else if (this.state == LOCATING)
+	    {
+		this.state = PINGING;
+		located = true;
+	    }
+	    else
+		this.readPingInterval(body);
+
+	    // Booting and locating are immediately followed by the next step
+	    if (this.state != PINGING || located)
+	    {
+		this.nextRequest = end;
+		return located;
+	    }
+	}
+	else if (status == 503)
+	    statistics.requestShed(kind);
+	else
+	    statistics.requestFailed(kind);
+
+	// Waiting for the ping interval (scaled), also after failures, as real bunnies do
+	this.nextRequest = end + (long) (this.pingInterval * generator.getPingScale() * 1000000000L);
+	return located;
+    }
+
+    /**
+     * Internal method reading the ping interval block of a packet sent by the server, if any.
+     *
+     * @param packet the packet (header byte, blocks, and footer).
+     */
+    private void readPingInterval(byte[] packet)
+    {
+	if (packet == null || packet.length == 0 || packet[0] != (byte) 0x7F) return;
+
+	// Blocks: type (1 byte), size (3 bytes) and data, until the footer
+	int pos = 1;
+	while (pos + 4 <= packet.length && packet[pos] != (byte) 0xFF)
+	{
+	    byte type = packet[pos];
+	    int size = ((packet[pos + 1] & 0xFF) << 16) | ((packet[pos + 2] & 0xFF) << 8) | (packet[pos + 3] & 0xFF);
+	    pos += 4;
+	    if (type == Block.PING_INTERVAL_BLOCK_TYPE && size >= 1 && pos < packet.length)
+	    {
+		int interval = packet[pos] & 0xFF;
+		if (interval > 0) this.pingInterval = interval;
+	    }
+	    pos += size;
+	}
+    }
+
+    /**
+     * Internal method building a GET request.
+     *
+     * @param host the host name of the server.
+     * @param url the URL (path and parameters).
+     * @return the raw request.
+     */
+    private byte[] get(String host, String url)
+    {
+	return ("GET " + url + " HTTP/1.0\r\nHost: " + host + "\r\nUser-Agent: MTL-Nabaztag/2.0\r\nPragma: no-cache\r\nAccept: */*\r\n\r\n")
+		.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Internal method building a POST request.
+     *
+     * @param host the host name of the server.
+     * @param url the URL (path and parameters).
+     * @param data the body of the request.
+     * @return the raw request.
+     */
+    private byte[] post(String host, String url, byte[] data)
+    {
+	byte[] header = ("POST " + url + " HTTP/1.0\r\nHost: " + host + "\r\nUser-Agent: MTL-Nabaztag/2.0\r\nContent-Type: "
+		+ "application/octet-stream\r\nContent-Length: " + data.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+	byte[] request = new byte[header.length + data.length];
+	System.arraycopy(header, 0, request, 0, header.length);
+	System.arraycopy(data, 0, request, header.length, data.length);
+	return request;
+    }
+
+    /**
+     * @see java.util.concurrent.Delayed#getDelay(java.util.concurrent.TimeUnit)
+     */
+    public long getDelay(TimeUnit unit)
+    {
+	return unit.convert(this.nextRequest - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @see java.lang.Comparable#compareTo(java.lang.Object)
+     */
+    public int compareTo(Delayed o)
+    {
+	return Long.compare(this.nextRequest, ((VirtualBunny) o).nextRequest);
+    }
+}
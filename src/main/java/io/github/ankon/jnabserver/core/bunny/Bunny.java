@@ -1,23 +1,31 @@
 package io.github.ankon.jnabserver.core.bunny;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Supplier;
 
 import io.github.ankon.jnabserver.core.events.ClickEventListener;
 import io.github.ankon.jnabserver.core.events.EarsEventListener;
 import io.github.ankon.jnabserver.core.events.PingEventListener;
 import io.github.ankon.jnabserver.core.events.RFIDEventListener;
 import io.github.ankon.jnabserver.core.events.RecordEventListener;
+import io.github.ankon.jnabserver.core.events.RecordStreamEventListener;
 import io.github.ankon.jnabserver.core.events.StopEventListener;
 import io.github.ankon.jnabserver.core.exceptions.NoSuchPluginException;
+import io.github.ankon.jnabserver.core.logging.Logger;
+import io.github.ankon.jnabserver.core.logging.Tracer;
 import io.github.ankon.jnabserver.core.plugins.AbstractPlugin;
+import io.github.ankon.jnabserver.core.plugins.PluginCounters;
+import io.github.ankon.jnabserver.core.profiling.RequestProfiler;
 import io.github.ankon.jnabserver.core.protocol.HTTPRequest;
 import io.github.ankon.jnabserver.core.protocol.MessageBlock;
 import io.github.ankon.jnabserver.core.protocol.Packet;
 import io.github.ankon.jnabserver.core.protocol.PingIntervalBlock;
+import io.github.ankon.jnabserver.core.protocol.RequestBody;
 
 /**
  * Wrapping class for bunnies.
@@ -78,6 +86,21 @@ public class Bunny
      */
     private static final String ID_SLEEP = "7FFFFFFE";
 
+    /**
+     * Logger used by bunnies not attached to a micro server, discarding all messages.
+     */
+    private static final Logger DETACHED_LOGGER = new Logger();
+
+    /**
+     * Packet data notifying bunnies to wake up (and to ping immediately after), encoded once.
+     */
+    private static final byte[] WAKE_UP_PACKET_DATA = encodeMessagePacket(ID_ACTIVATE, true);
+
+    /**
+     * Packet data notifying bunnies to go to sleep, encoded once.
+     */
+    private static final byte[] SLEEP_PACKET_DATA = encodeMessagePacket(ID_SLEEP, false);
+
     /**
      * Set of all plugins attached to the bunny.
      */
@@ -148,6 +171,11 @@ public class Bunny
      */
     private List<Packet> packetsToSend;
 
+    /**
+     * Operational statistics of the bunny.
+     */
+    private BunnyStatistics statistics;
+
     /**
      * Creating a new bunny instance, using a given serial number.
      *
@@ -178,6 +206,7 @@ public class Bunny
 	this.lastPlayedMessage = "0";
 	this.connectionStatus = true;
 	this.pingInterval = DEFAULT_PING_INTERVAL;
+	this.statistics = new BunnyStatistics();
     }
 
     /**
@@ -211,13 +240,27 @@ public class Bunny
     }
 
     /**
-     * Setting the burrow where the bunny is stored.
+     * Setting the burrow where the bunny is stored, resolving the counters of the plugins of the bunny on the server hosting the burrow.
      *
      * @param burrow the burrow where the bunny is stored.
      */
-    public void setBurrow(Burrow burrow)
+    public synchronized void setBurrow(Burrow burrow)
     {
 	this.burrow = burrow;
+	for (AbstractPlugin plugin : this.allPlugins)
+	    this.resolveCounters(plugin);
+    }
+
+    /**
+     * Internal method resolving the counters of the calls to a plugin, if the bunny is stored in a burrow hosted by a server.
+     *
+     * @param plugin the plugin.
+     */
+    private void resolveCounters(AbstractPlugin plugin)
+    {
+	Burrow burrow = this.burrow;
+	if (burrow != null && burrow.getMicroServer() != null)
+	    plugin.setCounters(burrow.getMicroServer().getPluginCounters(plugin.getName()));
     }
 
     /**
@@ -230,6 +273,106 @@ public class Bunny
 	return this.burrow;
     }
 
+    /**
+     * Internal method getting the logger of the micro server the bunny belongs to.
+     *
+     * @return the logger of the micro server, or a logger discarding all messages if the bunny is not attached to a micro server.
+     */
+    private Logger getLogger()
+    {
+	Burrow burrow = this.burrow;
+	if (burrow == null || burrow.getMicroServer() == null) return DETACHED_LOGGER;
+	return burrow.getMicroServer().getLogger();
+    }
+
+    /**
+     * Internal method getting the tracer of the micro server the bunny belongs to.
+     *
+     * @return the tracer of the micro server, or <tt>null</tt> if the bunny is not attached to a micro server.
+     */
+    private Tracer getTracer()
+    {
+	Burrow burrow = this.burrow;
+	if (burrow == null || burrow.getMicroServer() == null) return null;
+	return burrow.getMicroServer().getTracer();
+    }
+
+    /**
+     * Internal method logging a debug message about the bunny, also recording it in the trace of the bunny if it is traced.
+     *
+     * @param message the supplier of the message (built only if debug messages are logged or if the bunny is traced).
+     */
+    private void debug(Supplier<String> message)
+    {
+	Logger logger = this.getLogger();
+	Tracer tracer = this.getTracer();
+	boolean traced = tracer != null && tracer.isTraced(this.serialNumber);
+	if (!traced && !logger.isDebugEnabled()) return;
+
+	String text = message.get();
+	logger.debug("<bunny/" + this.serialNumber + "> " + text);
+	if (traced) tracer.trace(this.serialNumber, text);
+    }
+
+    /**
+     * Internal method recording an entry in the trace of the bunny, if it is traced.
+     *
+     * @param message the supplier of the entry (built only if the bunny is traced).
+     */
+    private void trace(Supplier<String> message)
+    {
+	Tracer tracer = this.getTracer();
+	if (tracer != null) tracer.trace(this.serialNumber, message);
+    }
+
+    /**
+     * Internal method calling a plugin back, accounting for the time spent in the plugin.
+     *
+     * @param plugin the plugin to call.
+     * @param callbackName the name of the callback method (e.g. <tt>onPing</tt>).
+     * @param callback the call to the callback method of the plugin.
+     */
+    private void callPlugin(AbstractPlugin plugin, String callbackName, Runnable callback)
+    {
+	this.debug(() -> "Calling " + plugin.getName() + " plugin");
+	long start = System.nanoTime();
+	Object event = RequestProfiler.begin(RequestProfiler.PLUGIN_DISPATCHED_EVENT);
+	try
+	{
+	    callback.run();
+	}
+	finally
+	{
+	    RequestProfiler.pluginDispatched(event, plugin.getName(), callbackName, this.serialNumber);
+	    long time = System.nanoTime() - start;
+	    this.statistics.pluginCalled(time);
+	    Burrow burrow = this.burrow;
+	    PluginCounters counters = plugin.getCounters();
+	    if (burrow != null && burrow.getMicroServer() != null && counters != null)
+		burrow.getMicroServer().recordPluginCall(counters, plugin.getName(), callbackName, this.serialNumber, time);
+	}
+    }
+
+    /**
+     * Getting the operational statistics of the bunny.
+     *
+     * @return the statistics of the bunny.
+     */
+    public BunnyStatistics getStatistics()
+    {
+	return this.statistics;
+    }
+
+    /**
+     * Getting the number of packets waiting to be sent to the bunny.
+     *
+     * @return the number of packets waiting to be sent to the bunny.
+     */
+    public int getQueuedPacketCount()
+    {
+	return this.packetsToSend.size();
+    }
+
     /**
      * Getting the set of plugins belonging to the bunny.
      *
@@ -266,20 +409,12 @@ public class Bunny
     {
 	if (this.allPlugins.remove(plugin))
 	{
-	    for (Class<?> i : plugin.getClass().getInterfaces())
-	    {
-		if (i.getName().equals("jNab.core.events.ClickEventListener"))
-		    this.clickEventPlugins.remove(plugin);
-		else if (i.getName().equals("jNab.core.events.PingEventListener"))
-		    this.pingEventPlugins.remove(plugin);
-		else if (i.getName().equals("jNab.core.events.EarsEventListener"))
-		    this.earsEventPlugins.remove(plugin);
-		else if (i.getName().equals("jNab.core.events.StopEventListener"))
-		    this.stopEventPlugins.remove(plugin);
-		else if (i.getName().equals("jNab.core.events.RecordEventListener"))
-		    this.recordEventPlugins.remove(plugin);
-		else if (i.getName().equals("jNab.core.events.RFIDEventListener")) this.RFIDEventPlugins.remove(plugin);
-	    }
+	    if (plugin instanceof ClickEventListener) this.clickEventPlugins.remove(plugin);
+	    if (plugin instanceof PingEventListener) this.pingEventPlugins.remove(plugin);
+	    if (plugin instanceof EarsEventListener) this.earsEventPlugins.remove(plugin);
+	    if (plugin instanceof StopEventListener) this.stopEventPlugins.remove(plugin);
+	    if (plugin instanceof RecordEventListener || plugin instanceof RecordStreamEventListener) this.recordEventPlugins.remove(plugin);
+	    if (plugin instanceof RFIDEventListener) this.RFIDEventPlugins.remove(plugin);
 	}
 	plugin.setBunny(null);
     }
@@ -293,20 +428,13 @@ public class Bunny
     {
 	if (this.allPlugins.add(plugin))
 	{
-	    for (Class<?> i : plugin.getClass().getInterfaces())
-	    {
-		if (i.getName().equals("jNab.core.events.ClickEventListener"))
-		    this.clickEventPlugins.add(plugin);
-		else if (i.getName().equals("jNab.core.events.PingEventListener"))
-		    this.pingEventPlugins.add(plugin);
-		else if (i.getName().equals("jNab.core.events.EarsEventListener"))
-		    this.earsEventPlugins.add(plugin);
-		else if (i.getName().equals("jNab.core.events.StopEventListener"))
-		    this.stopEventPlugins.add(plugin);
-		else if (i.getName().equals("jNab.core.events.RecordEventListener"))
-		    this.recordEventPlugins.add(plugin);
-		else if (i.getName().equals("jNab.core.events.RFIDEventListener")) this.RFIDEventPlugins.add(plugin);
-	    }
+	    if (plugin instanceof ClickEventListener) this.clickEventPlugins.add(plugin);
+	    if (plugin instanceof PingEventListener) this.pingEventPlugins.add(plugin);
+	    if (plugin instanceof EarsEventListener) this.earsEventPlugins.add(plugin);
+	    if (plugin instanceof StopEventListener) this.stopEventPlugins.add(plugin);
+	    if (plugin instanceof RecordEventListener || plugin instanceof RecordStreamEventListener) this.recordEventPlugins.add(plugin);
+	    if (plugin instanceof RFIDEventListener) this.RFIDEventPlugins.add(plugin);
+	    this.resolveCounters(plugin);
 	}
 	plugin.setBunny(this);
     }
@@ -382,6 +510,8 @@ public class Bunny
 	if (!packet.isPingBlockPresent()) packet.addBlock(new PingIntervalBlock(this.pingInterval));
 
 	this.packetsToSend.add(packet);
+	this.statistics.packetQueued(this.packetsToSend.size());
+	this.trace(() -> "Packet queued:\n" + packet);
     }
 
     /**
@@ -392,6 +522,8 @@ public class Bunny
     public void forcePacket(Packet packet)
     {
 	this.packetsToSend.add(0, packet);
+	this.statistics.packetQueued(this.packetsToSend.size());
+	this.trace(() -> "Packet forced:\n" + packet);
     }
 
     /**
@@ -419,11 +551,7 @@ public class Bunny
     {
 	// Sending a new packet notifying the bunny to wake up,
 	// and asking the bunny to ping immediately after
-	Packet p = new Packet();
-	MessageBlock mb = new MessageBlock(Integer.parseInt(ID_ACTIVATE, 16));
-	p.addBlock(mb);
-	p.addBlock(new PingIntervalBlock(1));
-	forcePacket(p);
+	forcePacket(new Packet(WAKE_UP_PACKET_DATA));
     }
 
     /**
@@ -432,10 +560,22 @@ public class Bunny
     public void goToSleep()
     {
 	// Sending a new packet notifying the bunny to go to sleep
+	forcePacket(new Packet(SLEEP_PACKET_DATA));
+    }
+
+    /**
+     * Internal method encoding a packet made of a message block holding a single ID.
+     *
+     * @param id the ID to send to the bunny (hexadecimal).
+     * @param pingNow <tt>true</tt> if the bunny has to ping immediately after, <tt>false</tt> if not.
+     * @return the encoded packet.
+     */
+    private static byte[] encodeMessagePacket(String id, boolean pingNow)
+    {
 	Packet p = new Packet();
-	MessageBlock mb = new MessageBlock(Integer.parseInt(ID_SLEEP, 16));
-	p.addBlock(mb);
-	forcePacket(p);
+	p.addBlock(new MessageBlock(Integer.parseInt(id, 16)));
+	if (pingNow) p.addBlock(new PingIntervalBlock(1));
+	return p.generatePacket();
     }
 
     /**
@@ -450,13 +590,7 @@ public class Bunny
 	switch (eventType)
 	{
 	case SIMPLE_PING_EVENT: // Simple ping, notifying that it is still connected
-	    try
-	    {
-		this.getBurrow().getMicroServer().getDebugLoggingStream()
-			.println("<bunny/" + this.serialNumber + "> Handling a ping event");
-	    }
-	    catch (NullPointerException e)
-	    {}
+	    this.debug(() -> "Handling a ping event");
 
 	    // TODO is connection status really necessary ?
 	    this.connectionStatus = true;
@@ -465,13 +599,7 @@ public class Bunny
 	    {
 		// Until the list of packets to send is empty, no plugin is called and the packets ar sent
 		// one by one forcing the bunny to re-ping each immediately after
-		try
-		{
-		    this.getBurrow().getMicroServer().getDebugLoggingStream().println(
-			    "<bunny/" + this.serialNumber + "> Draining outgoing packets");
-		}
-		catch (NullPointerException e)
-		{}
+		this.debug(() -> "Draining outgoing packets");
 		Packet packet = this.getNextPacket();
 		packet.setPingIntervalBlock(1);
 		this.forcePacket(packet);
@@ -482,131 +610,53 @@ public class Bunny
 		// So, the event has to be notified to registered plugins
 		for (AbstractPlugin plugin : this.pingEventPlugins)
 		{
-		    try
-		    {
-			this.getBurrow().getMicroServer().getDebugLoggingStream().println(
-				"<bunny/" + this.serialNumber + "> Calling " + plugin.getName() + " plugin");
-		    }
-		    catch (NullPointerException e)
-		    {}
-		    ((PingEventListener) plugin).onPing();
+		    this.callPlugin(plugin, "onPing", () -> ((PingEventListener) plugin).onPing());
 		}
 	    }
 	    return;
 
 	case SINGLE_CLICK_EVENT: // Single click
-	    try
-	    {
-		this.getBurrow().getMicroServer().getDebugLoggingStream().println(
-			"<bunny/" + this.serialNumber + "> Handling a single-click event");
-	    }
-	    catch (NullPointerException e)
-	    {}
+	    this.debug(() -> "Handling a single-click event");
 	    for (AbstractPlugin plugin : this.clickEventPlugins)
 	    {
-		try
-		{
-		    this.getBurrow().getMicroServer().getDebugLoggingStream().println(
-			    "<bunny/" + this.serialNumber + "> Calling " + plugin.getName() + " plugin");
-		}
-		catch (NullPointerException e)
-		{}
-		((ClickEventListener) plugin).onSingleClick();
+		this.callPlugin(plugin, "onSingleClick", () -> ((ClickEventListener) plugin).onSingleClick());
 	    }
 	    return;
 
 	case DOUBLE_CLICK_EVENT: // Double click
-	    try
-	    {
-		this.getBurrow().getMicroServer().getDebugLoggingStream().println(
-			"<bunny/" + this.serialNumber + "> Handling a double-click event");
-	    }
-	    catch (NullPointerException e)
-	    {}
+	    this.debug(() -> "Handling a double-click event");
 	    for (AbstractPlugin plugin : this.clickEventPlugins)
 	    {
-		try
-		{
-		    this.getBurrow().getMicroServer().getDebugLoggingStream().println(
-			    "<bunny/" + this.serialNumber + "> Calling " + plugin.getName() + " plugin");
-		}
-		catch (NullPointerException e)
-		{}
-		((ClickEventListener) plugin).onDoubleClick();
+		this.callPlugin(plugin, "onDoubleClick", () -> ((ClickEventListener) plugin).onDoubleClick());
 	    }
 	    return;
 
 	case STOP_EVENT: // Single click while playing
-	    try
-	    {
-		this.getBurrow().getMicroServer().getDebugLoggingStream().println(
-			"<bunny/" + this.serialNumber + "> Handling a single-click while playing event");
-	    }
-	    catch (NullPointerException e)
-	    {}
+	    this.debug(() -> "Handling a single-click while playing event");
 	    for (AbstractPlugin plugin : this.stopEventPlugins)
 	    {
-		try
-		{
-		    this.getBurrow().getMicroServer().getDebugLoggingStream().println(
-			    "<bunny/" + this.serialNumber + "> Calling " + plugin.getName() + " plugin");
-		}
-		catch (NullPointerException e)
-		{}
-		((StopEventListener) plugin).onSingleClickWhilePlaying();
+		this.callPlugin(plugin, "onSingleClickWhilePlaying", () -> ((StopEventListener) plugin).onSingleClickWhilePlaying());
 	    }
 	    return;
 
 	case END_OF_MESSAGE_EVENT: // End of message playing
-	    try
-	    {
-		this.getBurrow().getMicroServer().getDebugLoggingStream().println(
-			"<bunny/" + this.serialNumber + "> Handling an end-of-message event");
-	    }
-	    catch (NullPointerException e)
-	    {}
+	    this.debug(() -> "Handling an end-of-message event");
 	    for (AbstractPlugin plugin : this.stopEventPlugins)
 	    {
-		try
-		{
-		    this.getBurrow().getMicroServer().getDebugLoggingStream().println(
-			    "<bunny/" + this.serialNumber + "> Calling " + plugin.getName() + " plugin");
-		}
-		catch (NullPointerException e)
-		{}
-		((StopEventListener) plugin).onEndOfMessage();
+		this.callPlugin(plugin, "onEndOfMessage", () -> ((StopEventListener) plugin).onEndOfMessage());
 	    }
 	    return;
 
 	case EARS_MOVE_EVENT: // Ears move
 	    int rightEar = (Integer) eventParams[0];
 	    int leftEar = (Integer) eventParams[1];
-	    try
-	    {
-		this.getBurrow().getMicroServer().getDebugLoggingStream().println(
-			"<bunny/" + this.serialNumber + "> Handling an ears move event (Left=" + leftEar + ", Right=" + rightEar + ")");
-	    }
-	    catch (NullPointerException e)
-	    {}
+	    this.debug(() -> "Handling an ears move event (Left=" + leftEar + ", Right=" + rightEar + ")");
 	    for (AbstractPlugin plugin : this.earsEventPlugins)
 	    {
-		try
-		{
-		    this.getBurrow().getMicroServer().getDebugLoggingStream().println(
-			    "<bunny/" + this.serialNumber + "> Calling " + plugin.getName() + " plugin");
-		}
-		catch (NullPointerException e)
-		{}
-		((EarsEventListener) plugin).onEarsMove(rightEar, leftEar);
+		this.callPlugin(plugin, "onEarsMove", () -> ((EarsEventListener) plugin).onEarsMove(rightEar, leftEar));
 	    }
 	default:
-	    try
-	    {
-		this.getBurrow().getMicroServer().getDebugLoggingStream().println(
-			"<bunny/" + this.serialNumber + "> Ignoring an unknown event");
-	    }
-	    catch (NullPointerException e)
-	    {}
+	    this.debug(() -> "Ignoring an unknown event");
 	    return;
 	}
     }
@@ -620,6 +670,8 @@ public class Bunny
     {
 	// Refreshing the connection status
 	this.connectionStatus = true;
+	long now = System.currentTimeMillis();
+	this.statistics.requestReceived(now);
 
 	// Updating the ID of the last played message
 	if (request.getURLParam("requestfile").equals("/vl/p4.jsp")) this.lastPlayedMessage = request.getURLParam("tc");
@@ -632,9 +684,11 @@ public class Bunny
 	// Case 1: ping request
 	if (request.getURLParam("requestfile").equals("/vl/p4.jsp"))
 	{
+	    this.statistics.pingReceived(now);
 	    try
 	    {
 		int eventType = Integer.parseInt(request.getURLParam("sd").substring(0, 1));
+		if (eventType != SIMPLE_PING_EVENT) this.statistics.eventReceived();
 		if (eventType == EARS_MOVE_EVENT)
 		{
 		    Integer[] eventParams = { Integer.parseInt(request.getURLParam("sd").charAt(1) + "", 16),
@@ -652,69 +706,85 @@ public class Bunny
 	else if (request.getURLParam("requestfile").equals("/vl/rfid.jsp"))
 	{
 	    String tagId = request.getURLParam("t");
-	    try
-	    {
-		this.getBurrow().getMicroServer().getDebugLoggingStream().println(
-			"<bunny/" + this.serialNumber + "> Handling a RFID event (tagID = " + tagId + ")");
-	    }
-	    catch (NullPointerException e)
-	    {}
+	    this.statistics.eventReceived();
+	    this.debug(() -> "Handling a RFID event (tagID = " + tagId + ")");
 	    for (AbstractPlugin plugin : this.RFIDEventPlugins)
 	    {
-		try
-		{
-		    this.getBurrow().getMicroServer().getDebugLoggingStream().println(
-			    "<bunny/" + this.serialNumber + "> Calling " + plugin.getName() + " plugin");
-		}
-		catch (NullPointerException e)
-		{}
-		((RFIDEventListener) plugin).onRfid(tagId);
+		this.callPlugin(plugin, "onRfid", () -> ((RFIDEventListener) plugin).onRfid(tagId));
 	    }
 	}
 
 	// Case 3: Record request, simple click
 	else if (request.getURLParam("requestfile").equals("/vl/record.jsp") && request.getURLParam("m").equals("0"))
+	{
+	    this.debug(() -> "Handling a single-click record event");
+	    this.dispatchRecordEvent(request, false);
+	}
+
+	// Case 4: Record request, double click
+	else if (request.getURLParam("requestfile").equals("/vl/record.jsp") && request.getURLParam("m").equals("1"))
+	{
+	    this.debug(() -> "Handling a double-click record event");
+	    this.dispatchRecordEvent(request, true);
+	}
+    }
+
+    /**
+     * Internal method dispatching recorded data to the attached plugins. Plugins implementing <tt>RecordStreamEventListener</tt> stream
+     * the data, the other ones receive it as a whole. Data is only spilled (to memory or to a temporary file) if it has to be read several
+     * times.
+     *
+     * @param request the record request coming from the bunny.
+     * @param doubleClick <tt>true</tt> for a double-click record event, <tt>false</tt> for a single-click one.
+     */
+    private void dispatchRecordEvent(HTTPRequest request, boolean doubleClick)
+    {
+	this.statistics.recordReceived();
+	RequestBody body = request.getBody();
+	AbstractPlugin[] plugins = this.recordEventPlugins.toArray(new AbstractPlugin[0]);
+
+	if (body != null && plugins.length > 1)
 	{
 	    try
 	    {
-		this.getBurrow().getMicroServer().getDebugLoggingStream().println(
-			"<bunny/" + this.serialNumber + "> Handling a single-click record event");
+		body.spill();
 	    }
-	    catch (NullPointerException e)
-	    {}
-	    for (AbstractPlugin plugin : this.recordEventPlugins)
+	    catch (IOException e)
 	    {
-		try
-		{
-		    this.getBurrow().getMicroServer().getDebugLoggingStream().println(
-			    "<bunny/" + this.serialNumber + "> Calling " + plugin.getName() + " plugin");
-		}
-		catch (NullPointerException e)
-		{}
-		((RecordEventListener) plugin).onSimpleRecord(request.getPostData());
+		this.debug(() -> "Unable to read recorded data, ignoring record event");
+		return;
 	    }
 	}
 
-	// Case 4: Record request, double click
-	else if (request.getURLParam("requestfile").equals("/vl/record.jsp") && request.getURLParam("m").equals("1"))
+	byte[] data = null;
+	for (AbstractPlugin plugin : plugins)
 	{
-	    try
+	    if (plugin instanceof RecordStreamEventListener)
 	    {
-		this.getBurrow().getMicroServer().getDebugLoggingStream().println(
-			"<bunny/" + this.serialNumber + "> Handling a double-click record event");
+		if (doubleClick)
+		    this.callPlugin(plugin, "onDoubleRecord", () -> ((RecordStreamEventListener) plugin).onDoubleRecord(body));
+		else
+		    this.callPlugin(plugin, "onSimpleRecord", () -> ((RecordStreamEventListener) plugin).onSimpleRecord(body));
 	    }
-	    catch (NullPointerException e)
-	    {}
-	    for (AbstractPlugin plugin : this.recordEventPlugins)
+	    else if (plugin instanceof RecordEventListener)
 	    {
-		try
+		if (data == null && body != null)
 		{
-		    this.getBurrow().getMicroServer().getDebugLoggingStream().println(
-			    "<bunny/" + this.serialNumber + "> Calling " + plugin.getName() + " plugin");
+		    try
+		    {
+			data = body.toByteArray();
+		    }
+		    catch (IOException e)
+		    {
+			this.debug(() -> "Unable to read recorded data, ignoring record event for plugin " + plugin.getName());
+			continue;
+		    }
 		}
-		catch (NullPointerException e)
-		{}
-		((RecordEventListener) plugin).onDoubleRecord(request.getPostData());
+		byte[] recordedData = data;
+		if (doubleClick)
+		    this.callPlugin(plugin, "onDoubleRecord", () -> ((RecordEventListener) plugin).onDoubleRecord(recordedData));
+		else
+		    this.callPlugin(plugin, "onSimpleRecord", () -> ((RecordEventListener) plugin).onSimpleRecord(recordedData));
 	    }
 	}
     }
@@ -0,0 +1,264 @@
+package io.github.ankon.jnabserver.core.bunny;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Operational statistics of a bunny (or aggregated over a burrow), updated on the hot path.<br/>
+ *
+ * Counters are striped, since requests of a single bunny may be processed concurrently (e.g. a record request and a ping), and dates are
+ * plain volatile fields, the last writer winning.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class BunnyStatistics
+{
+    /**
+     * Date of the last request sent by the bunny, in milliseconds since the epoch (0 if the bunny has not been seen yet).
+     */
+    private volatile long lastSeen;
+
+    /**
+     * Date of the last ping request sent by the bunny, in milliseconds since the epoch (0 if the bunny has not pinged yet).
+     */
+    private volatile long lastPing;
+
+    /**
+     * Delay between the last two ping requests sent by the bunny, in milliseconds (0 if unknown).
+     */
+    private volatile long pingPeriod;
+
+    /**
+     * Number of ping requests.
+     */
+    private LongAdder pings;
+
+    /**
+     * Number of events (clicks, ears moves, RFID tags, end of messages) notified by the bunny.
+     */
+    private LongAdder events;
+
+    /**
+     * Number of voice recordings sent by the bunny.
+     */
+    private LongAdder records;
+
+    /**
+     * Number of response bytes sent to the bunny.
+     */
+    private LongAdder bytesSent;
+
+    /**
+     * Number of plugin calls on behalf of the bunny.
+     */
+    private LongAdder pluginCalls;
+
+    /**
+     * Time spent in plugins on behalf of the bunny, in nanoseconds.
+     */
+    private LongAdder pluginTime;
+
+    /**
+     * Largest number of packets observed waiting to be sent to the bunny.
+     */
+    private AtomicInteger maxQueuedPackets;
+
+    /**
+     * Creating new (empty) statistics.
+     */
+    public BunnyStatistics()
+    {
+	this.lastSeen = 0;
+	this.lastPing = 0;
+	this.pingPeriod = 0;
+	this.pings = new LongAdder();
+	this.events = new LongAdder();
+	this.records = new LongAdder();
+	this.bytesSent = new LongAdder();
+	this.pluginCalls = new LongAdder();
+	this.pluginTime = new LongAdder();
+	this.maxQueuedPackets = new AtomicInteger();
+    }
+
+    /**
+     * Accounting for a request sent by the bunny.
+     *
+     * @param now the current date, in milliseconds since the epoch.
+     */
+    void requestReceived(long now)
+    {
+	this.lastSeen = now;
+    }
+
+    /**
+     * Accounting for a ping request sent by the bunny, updating the observed ping period.
+     *
+     * @param now the current date, in milliseconds since the epoch.
+     */
+    void pingReceived(long now)
+    {
+	this.pings.increment();
+	long lastPing = this.lastPing;
+	if (lastPing != 0) this.pingPeriod = now - lastPing;
+	this.lastPing = now;
+    }
+
+    /**
+     * Accounting for an event notified by the bunny.
+     */
+    void eventReceived()
+    {
+	this.events.increment();
+    }
+
+    /**
+     * Accounting for a voice recording sent by the bunny.
+     */
+    void recordReceived()
+    {
+	this.records.increment();
+    }
+
+    /**
+     * Accounting for a plugin call on behalf of the bunny.
+     *
+     * @param time the time spent in the plugin, in nanoseconds.
+     */
+    void pluginCalled(long time)
+    {
+	this.pluginCalls.increment();
+	this.pluginTime.add(time);
+    }
+
+    /**
+     * Accounting for the number of packets waiting to be sent to the bunny, after a packet has been queued.
+     *
+     * @param queuedPackets the number of packets waiting to be sent.
+     */
+    void packetQueued(int queuedPackets)
+    {
+	int max = this.maxQueuedPackets.get();
+	while (queuedPackets > max && !this.maxQueuedPackets.compareAndSet(max, queuedPackets))
+	    max = this.maxQueuedPackets.get();
+    }
+
+    /**
+     * Accounting for a response sent to the bunny.
+     *
+     * @param length the length of the response, in bytes.
+     */
+    public void responseSent(long length)
+    {
+	this.bytesSent.add(length);
+    }
+
+    /**
+     * Adding the statistics of a bunny to aggregated statistics (counters being summed, dates and maximums being kept if greater). The
+     * ping period is not aggregated.
+     *
+     * @param statistics the statistics of the bunny.
+     */
+    void accumulate(BunnyStatistics statistics)
+    {
+	this.lastSeen = Math.max(this.lastSeen, statistics.lastSeen);
+	this.lastPing = Math.max(this.lastPing, statistics.lastPing);
+	this.pings.add(statistics.pings.sum());
+	this.events.add(statistics.events.sum());
+	this.records.add(statistics.records.sum());
+	this.bytesSent.add(statistics.bytesSent.sum());
+	this.pluginCalls.add(statistics.pluginCalls.sum());
+	this.pluginTime.add(statistics.pluginTime.sum());
+	this.packetQueued(statistics.maxQueuedPackets.get());
+    }
+
+    /**
+     * Getting the date of the last request sent by the bunny.
+     *
+     * @return the date of the last request, in milliseconds since the epoch (0 if the bunny has not been seen yet).
+     */
+    public long getLastSeen()
+    {
+	return this.lastSeen;
+    }
+
+    /**
+     * Getting the delay between the last two ping requests sent by the bunny.
+     *
+     * @return the observed ping period, in milliseconds (0 if unknown).
+     */
+    public long getPingPeriod()
+    {
+	return this.pingPeriod;
+    }
+
+    /**
+     * Getting the number of ping requests sent by the bunny.
+     *
+     * @return the number of ping requests.
+     */
+    public long getPingCount()
+    {
+	return this.pings.sum();
+    }
+
+    /**
+     * Getting the number of events notified by the bunny.
+     *
+     * @return the number of events.
+     */
+    public long getEventCount()
+    {
+	return this.events.sum();
+    }
+
+    /**
+     * Getting the number of voice recordings sent by the bunny.
+     *
+     * @return the number of voice recordings.
+     */
+    public long getRecordCount()
+    {
+	return this.records.sum();
+    }
+
+    /**
+     * Getting the number of response bytes sent to the bunny.
+     *
+     * @return the number of bytes sent.
+     */
+    public long getBytesSent()
+    {
+	return this.bytesSent.sum();
+    }
+
+    /**
+     * Getting the number of plugin calls on behalf of the bunny.
+     *
+     * @return the number of plugin calls.
+     */
+    public long getPluginCallCount()
+    {
+	return this.pluginCalls.sum();
+    }
+
+    /**
+     * Getting the time spent in plugins on behalf of the bunny.
+     *
+     * @return the time spent in plugins, in nanoseconds.
+     */
+    public long getPluginTime()
+    {
+	return this.pluginTime.sum();
+    }
+
+    /**
+     * Getting the largest number of packets observed waiting to be sent to the bunny.
+     *
+     * @return the largest number of queued packets.
+     */
+    public int getMaxQueuedPackets()
+    {
+	return this.maxQueuedPackets.get();
+    }
+}
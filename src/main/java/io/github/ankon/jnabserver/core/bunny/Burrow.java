@@ -106,6 +106,64 @@ public class Burrow
 	return this.bunnies.values();
     }
 
+    /**
+     * Getting the number of bunnies currently in the burrow.
+     * 
+     * @return the number of bunnies currently in the burrow.
+     */
+    public int getBunnyCount()
+    {
+	return this.bunnies.size();
+    }
+
+    /**
+     * Getting the number of packets waiting to be sent to the bunnies of the burrow.
+     * 
+     * @return the total number of packets waiting to be sent.
+     */
+    public long getQueuedPacketCount()
+    {
+	long count = 0;
+	synchronized (this.bunnies)
+	{
+	    for (Bunny bunny : this.bunnies.values())
+		count += bunny.getQueuedPacketCount();
+	}
+	return count;
+    }
+
+    /**
+     * Getting the largest number of packets waiting to be sent to a single bunny of the burrow.
+     * 
+     * @return the largest number of packets waiting to be sent to a bunny.
+     */
+    public long getMaxQueuedPacketCount()
+    {
+	long max = 0;
+	synchronized (this.bunnies)
+	{
+	    for (Bunny bunny : this.bunnies.values())
+		max = Math.max(max, bunny.getQueuedPacketCount());
+	}
+	return max;
+    }
+
+    /**
+     * Getting the statistics of the bunnies of the burrow, aggregated (bunnies removed from the burrow are not accounted for).
+     * 
+     * @return new statistics, aggregating the ones of the bunnies currently in the burrow.
+     */
+    public BunnyStatistics getStatistics()
+    {
+	BunnyStatistics statistics = new BunnyStatistics();
+	synchronized (this.bunnies)
+	{
+	    for (Bunny bunny : this.bunnies.values())
+		statistics.accumulate(bunny.getStatistics());
+	}
+	return statistics;
+    }
+
     /**
      * Getting a bunny from the burrow, given its serial number.
      * 
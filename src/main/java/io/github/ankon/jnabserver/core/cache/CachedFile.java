@@ -0,0 +1,281 @@
+package io.github.ankon.jnabserver.core.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * File whose content is kept in memory, and reloaded only when the file is modified (i.e. when its last modification time or its length
+ * changes).
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class CachedFile
+{
+    /**
+     * Cached file.
+     */
+    private File file;
+
+    /**
+     * Indicator used to know if the content is kept off-heap (in a direct buffer).
+     */
+    private boolean direct;
+
+    /**
+     * Current content of the file (<tt>null</tt> if not loaded yet).
+     */
+    private volatile Content content;
+
+    /**
+     * Creating a new cached file (the content is loaded when first requested).
+     *
+     * @param file the file to cache.
+     * @param direct <tt>true</tt> if the content has to be kept off-heap, <tt>false</tt> if not.
+     */
+    public CachedFile(File file, boolean direct)
+    {
+	this.file = file;
+	this.direct = direct;
+	this.content = null;
+    }
+
+    /**
+     * Getting the cached file.
+     *
+     * @return the cached file.
+     */
+    public File getFile()
+    {
+	return this.file;
+    }
+
+    /**
+     * Getting the current content of the file, reloading it if the file has been modified since it was loaded.
+     *
+     * @return the current content of the file, or <tt>null</tt> if the file does not exist.
+     * @throws IOException if an I/O error occurs while reloading the file.
+     */
+    public Content getContent() throws IOException
+    {
+	long lastModified = this.file.lastModified();
+	long length = this.file.length();
+	Content content = this.content;
+	if (content != null && content.lastModified == lastModified && content.length == length) return content;
+	return this.reload();
+    }
+
+    /**
+     * Getting the content of the file as last loaded, without checking if the file has been modified.
+     *
+     * @return the content of the file as last loaded, or <tt>null</tt> if not loaded yet.
+     */
+    Content getLoadedContent()
+    {
+	return this.content;
+    }
+
+    /**
+     * Internal method reloading the content of the file (unless another thread reloaded it meanwhile).
+     *
+     * @return the new content of the file, or <tt>null</tt> if the file does not exist.
+     * @throws IOException if an I/O error occurs while reading the file.
+     */
+    private synchronized Content reload() throws IOException
+    {
+	if (!this.file.isFile())
+	{
+	    this.content = null;
+	    return null;
+	}
+
+	long lastModified = this.file.lastModified();
+	long length = this.file.length();
+	Content content = this.content;
+	if (content != null && content.lastModified == lastModified && content.length == length) return content;
+
+	FileInputStream fis = new FileInputStream(this.file);
+	try
+	{
+	    FileChannel channel = fis.getChannel();
+	    long size = channel.size();
+	    if (size > Integer.MAX_VALUE) throw new IOException("File too large to be cached: " + this.file);
+	    ByteBuffer buffer = this.direct ? ByteBuffer.allocateDirect((int) size) : ByteBuffer.allocate((int) size);
+	    while (buffer.hasRemaining())
+	    {
+		if (channel.read(buffer) == -1) break;
+	    }
+	    buffer.flip();
+	    // The file length is the one read, in case the file has been modified meanwhile
+	    content = new Content(buffer.asReadOnlyBuffer(), lastModified, buffer.limit() == length ? length : -1);
+	}
+	finally
+	{
+	    fis.close();
+	}
+	this.content = content;
+	return content;
+    }
+
+    /**
+     * Immutable snapshot of the content of a cached file.
+     */
+    public static class Content
+    {
+	/**
+	 * Format of HTTP dates.
+	 */
+	private final static String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+	/**
+	 * Content of the file (read-only).
+	 */
+	private ByteBuffer data;
+
+	/**
+	 * Last modification time of the file when loaded, in milliseconds.
+	 */
+	private long lastModified;
+
+	/**
+	 * Length of the file when loaded (-1 if the file was modified while loaded, so that it is reloaded on next request).
+	 */
+	private long length;
+
+	/**
+	 * Entity tag of the content.
+	 */
+	private String eTag;
+
+	/**
+	 * Last modification time of the file, formatted as an HTTP date.
+	 */
+	private String lastModifiedDate;
+
+	/**
+	 * Creating a new content snapshot.
+	 *
+	 * @param data the content of the file (read-only).
+	 * @param lastModified the last modification time of the file, in milliseconds.
+	 * @param length the length of the file.
+	 */
+	private Content(ByteBuffer data, long lastModified, long length)
+	{
+	    this.data = data;
+	    this.lastModified = lastModified;
+	    this.length = length;
+	    this.eTag = "\"" + Integer.toHexString(data.remaining()) + "-" + Long.toHexString(lastModified) + "\"";
+	    this.lastModifiedDate = formatDate(lastModified);
+	}
+
+	/**
+	 * Getting the content of the file.
+	 *
+	 * @return a read-only buffer holding the content of the file (its position and limit can be changed by the caller).
+	 */
+	public ByteBuffer getData()
+	{
+	    return this.data.duplicate();
+	}
+
+	/**
+	 * Getting the size of the content.
+	 *
+	 * @return the size of the content, in bytes.
+	 */
+	public int getSize()
+	{
+	    return this.data.remaining();
+	}
+
+	/**
+	 * Getting the last modification time of the file when loaded.
+	 *
+	 * @return the last modification time of the file, in milliseconds.
+	 */
+	public long getLastModified()
+	{
+	    return this.lastModified;
+	}
+
+	/**
+	 * Getting the last modification time of the file when loaded, formatted as an HTTP date.
+	 *
+	 * @return the last modification time of the file, as an HTTP date.
+	 */
+	public String getLastModifiedDate()
+	{
+	    return this.lastModifiedDate;
+	}
+
+	/**
+	 * Getting the entity tag of the content (derived from the size of the content and the last modification time of the file).
+	 *
+	 * @return the entity tag of the content, quoted.
+	 */
+	public String getETag()
+	{
+	    return this.eTag;
+	}
+
+	/**
+	 * Checking if the content is not modified according to the conditional header fields of a request.
+	 *
+	 * @param ifNoneMatch the value of the <tt>If-None-Match</tt> header field (may be <tt>null</tt>).
+	 * @param ifModifiedSince the value of the <tt>If-Modified-Since</tt> header field (may be <tt>null</tt>).
+	 * @return <tt>true</tt> if the copy of the client is up to date, <tt>false</tt> if not.
+	 */
+	public boolean isNotModified(String ifNoneMatch, String ifModifiedSince)
+	{
+	    // If-None-Match takes precedence over If-Modified-Since
+	    if (ifNoneMatch != null)
+	    {
+		for (String tag : ifNoneMatch.split(","))
+		{
+		    tag = tag.trim();
+		    if (tag.startsWith("W/")) tag = tag.substring(2);
+		    if (tag.equals("*") || tag.equals(this.eTag)) return true;
+		}
+		return false;
+	    }
+
+	    if (ifModifiedSince != null)
+	    {
+		try
+		{
+		    SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+		    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		    // HTTP dates have a one second resolution
+		    return this.lastModified / 1000 <= format.parse(ifModifiedSince.trim()).getTime() / 1000;
+		}
+		catch (ParseException e)
+		{
+		    return false;
+		}
+	    }
+
+	    return false;
+	}
+
+	/**
+	 * Internal method formatting a time as an HTTP date.
+	 *
+	 * @param time the time to format, in milliseconds.
+	 * @return the time, as an HTTP date.
+	 */
+	private static String formatDate(long time)
+	{
+	    SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+	    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+	    return format.format(new Date(time));
+	}
+    }
+}
@@ -0,0 +1,257 @@
+package io.github.ankon.jnabserver.core.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of file contents kept off-heap, bounded by a total size in bytes.<br/>
+ *
+ * Files are identified by their canonical path, and reloaded when modified. When the total size of cached contents exceeds the maximum
+ * size, least recently used files are evicted. Files larger than an eighth of the maximum size are never cached, so that a single large
+ * file can not flush the whole cache.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class FileCache
+{
+    /**
+     * Default maximum size of the cache, in bytes.
+     */
+    public final static long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+
+    /**
+     * Ratio between the maximum size of the cache and the maximum size of a cached file.
+     */
+    private final static int MAX_ENTRY_RATIO = 8;
+
+    /**
+     * Cached files, indexed by canonical path, from the least recently used to the most recently used.
+     */
+    private LinkedHashMap<String, Entry> entries;
+
+    /**
+     * Maximum size of the cache, in bytes (0 or less meaning that the cache is disabled).
+     */
+    private volatile long maxSize;
+
+    /**
+     * Total size of cached contents, in bytes.
+     */
+    private long size;
+
+    /**
+     * Number of requests served from the cache.
+     */
+    private AtomicLong hits;
+
+    /**
+     * Number of requests that required loading a file.
+     */
+    private AtomicLong misses;
+
+    /**
+     * Number of files evicted from the cache.
+     */
+    private AtomicLong evictions;
+
+    /**
+     * Creating a new (empty) file cache.
+     *
+     * @param maxSize the maximum size of the cache, in bytes (0 or less meaning that the cache is disabled).
+     */
+    public FileCache(long maxSize)
+    {
+	this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	this.maxSize = maxSize;
+	this.size = 0;
+	this.hits = new AtomicLong();
+	this.misses = new AtomicLong();
+	this.evictions = new AtomicLong();
+    }
+
+    /**
+     * Setting the maximum size of the cache, evicting files if needed.
+     *
+     * @param maxSize the maximum size of the cache, in bytes (0 or less meaning that the cache is disabled).
+     */
+    public synchronized void setMaxSize(long maxSize)
+    {
+	this.maxSize = maxSize;
+	this.evict(null);
+    }
+
+    /**
+     * Getting the maximum size of the cache.
+     *
+     * @return the maximum size of the cache, in bytes.
+     */
+    public long getMaxSize()
+    {
+	return this.maxSize;
+    }
+
+    /**
+     * Getting the content of a file, from the cache if it is up to date, otherwise from the disk (caching it).
+     *
+     * @param file the file to read.
+     * @return the current content of the file, or <tt>null</tt> if the file does not exist or can not be cached (the cache being disabled or
+     *         the file being too large).
+     * @throws IOException if an I/O error occurs while reading the file.
+     */
+    public CachedFile.Content getContent(File file) throws IOException
+    {
+	long maxSize = this.maxSize;
+	if (maxSize <= 0) return null;
+	if (!file.isFile() || file.length() > maxSize / MAX_ENTRY_RATIO)
+	{
+	    this.misses.incrementAndGet();
+	    return null;
+	}
+
+	String path = file.getCanonicalPath();
+	Entry entry;
+	synchronized (this)
+	{
+	    entry = this.entries.get(path);
+	    if (entry == null)
+	    {
+		entry = new Entry(new CachedFile(new File(path), true));
+		this.entries.put(path, entry);
+	    }
+	}
+
+	CachedFile.Content loadedContent = entry.cachedFile.getLoadedContent();
+	CachedFile.Content content = entry.cachedFile.getContent();
+	if (content != null && content == loadedContent)
+	{
+	    this.hits.incrementAndGet();
+	    return content;
+	}
+	this.misses.incrementAndGet();
+
+	// Accounting for the new content
+	synchronized (this)
+	{
+	    if (this.entries.get(path) != entry) return content;
+	    if (content == null)
+	    {
+		this.entries.remove(path);
+		this.size -= entry.charge;
+		return null;
+	    }
+	    this.size += content.getSize() - entry.charge;
+	    entry.charge = content.getSize();
+	    this.evict(path);
+	}
+	return content;
+    }
+
+    /**
+     * Internal method evicting least recently used files until the total size of cached contents fits the maximum size.
+     *
+     * @param keptPath the canonical path of a file not to evict (may be <tt>null</tt>).
+     */
+    private void evict(String keptPath)
+    {
+	Iterator<Map.Entry<String, Entry>> iterator = this.entries.entrySet().iterator();
+	while (this.size > Math.max(0, this.maxSize) && iterator.hasNext())
+	{
+	    Map.Entry<String, Entry> eldest = iterator.next();
+	    if (eldest.getKey().equals(keptPath)) continue;
+	    iterator.remove();
+	    this.size -= eldest.getValue().charge;
+	    this.evictions.incrementAndGet();
+	}
+    }
+
+    /**
+     * Removing all files from the cache.
+     */
+    public synchronized void clear()
+    {
+	this.entries.clear();
+	this.size = 0;
+    }
+
+    /**
+     * Getting the total size of cached contents.
+     *
+     * @return the total size of cached contents, in bytes.
+     */
+    public synchronized long getSize()
+    {
+	return this.size;
+    }
+
+    /**
+     * Getting the number of cached files.
+     *
+     * @return the number of cached files.
+     */
+    public synchronized int getEntryCount()
+    {
+	return this.entries.size();
+    }
+
+    /**
+     * Getting the number of requests served from the cache.
+     *
+     * @return the number of cache hits.
+     */
+    public long getHits()
+    {
+	return this.hits.get();
+    }
+
+    /**
+     * Getting the number of requests that required loading a file (including files that can not be cached).
+     *
+     * @return the number of cache misses.
+     */
+    public long getMisses()
+    {
+	return this.misses.get();
+    }
+
+    /**
+     * Getting the number of files evicted from the cache.
+     *
+     * @return the number of evictions.
+     */
+    public long getEvictions()
+    {
+	return this.evictions.get();
+    }
+
+    /**
+     * Cached file, along with the size it is charged for.
+     */
+    private static class Entry
+    {
+	/**
+	 * Cached file.
+	 */
+	private CachedFile cachedFile;
+
+	/**
+	 * Size charged for the cached file, in bytes.
+	 */
+	private long charge;
+
+	/**
+	 * Creating a new entry, not charged yet.
+	 *
+	 * @param cachedFile the cached file.
+	 */
+	private Entry(CachedFile cachedFile)
+	{
+	    this.cachedFile = cachedFile;
+	    this.charge = 0;
+	}
+    }
+}
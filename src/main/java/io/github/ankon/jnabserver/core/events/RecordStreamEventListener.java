@@ -0,0 +1,26 @@
+package io.github.ankon.jnabserver.core.events;
+
+import io.github.ankon.jnabserver.core.protocol.RequestBody;
+
+/**
+ * Interface for plugins handling voice recording events, streaming recorded data instead of receiving it as a whole.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public interface RecordStreamEventListener
+{
+    /**
+     * Callback method used to process a voice recording event (single long click).
+     *
+     * @param data recorded voice data (WAV), to be streamed during the call
+     */
+    public void onSimpleRecord(RequestBody data);
+
+    /**
+     * Callback method used to process a voice recording event (double long click).
+     *
+     * @param data recorded voice data (WAV), to be streamed during the call
+     */
+    public void onDoubleRecord(RequestBody data);
+}
@@ -0,0 +1,198 @@
+package io.github.ankon.jnabserver.core.logging;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appender writing log messages from its own thread.<br/>
+ *
+ * Messages are buffered in a bounded ring buffer, never blocking the threads logging them (messages being dropped when the buffer is
+ * full). The appender thread drains the buffer in batches, writing the consecutive messages of a batch targeting the same stream at once.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+class AsyncAppender implements Runnable
+{
+    /**
+     * Maximum number of messages written per batch.
+     */
+    private final static int MAX_BATCH_SIZE = 256;
+
+    /**
+     * Maximum time to wait for a message, in milliseconds, before checking if the appender has been stopped.
+     */
+    private final static long POLL_TIMEOUT = 100;
+
+    /**
+     * Line separator appended to messages.
+     */
+    private final static String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    /**
+     * Messages waiting to be written.
+     */
+    private ArrayBlockingQueue<Message> buffer;
+
+    /**
+     * Thread writing messages.
+     */
+    private Thread thread;
+
+    /**
+     * Indicator used to stop the appender.
+     */
+    private volatile boolean keepRunning;
+
+    /**
+     * Number of messages dropped because the buffer was full.
+     */
+    private AtomicLong droppedMessages;
+
+    /**
+     * Creating a new appender (not started yet).
+     *
+     * @param bufferSize the maximum number of messages waiting to be written.
+     */
+    AsyncAppender(int bufferSize)
+    {
+	this.buffer = new ArrayBlockingQueue<Message>(bufferSize);
+	this.thread = new Thread(this, "jNab-logging");
+	this.thread.setDaemon(true);
+	this.keepRunning = true;
+	this.droppedMessages = new AtomicLong();
+    }
+
+    /**
+     * Starting the thread writing messages.
+     */
+    void start()
+    {
+	this.thread.start();
+    }
+
+    /**
+     * Stopping the appender, once all buffered messages are written.
+     */
+    void shutdown()
+    {
+	this.keepRunning = false;
+	try
+	{
+	    this.thread.join();
+	}
+	catch (InterruptedException e)
+	{
+	    Thread.currentThread().interrupt();
+	}
+    }
+
+    /**
+     * Buffering a message.
+     *
+     * @param stream the stream where to write the message.
+     * @param message the message.
+     * @return <tt>true</tt> if the message has been buffered, <tt>false</tt> if it has been dropped (the buffer being full, or the appender
+     *         being stopped).
+     */
+    boolean append(PrintStream stream, String message)
+    {
+	if (this.keepRunning && this.buffer.offer(new Message(stream, message))) return true;
+	this.droppedMessages.incrementAndGet();
+	return false;
+    }
+
+    /**
+     * Getting the number of messages dropped because the buffer was full.
+     *
+     * @return the number of dropped messages.
+     */
+    long getDroppedMessages()
+    {
+	return this.droppedMessages.get();
+    }
+
+    /**
+     * @see java.lang.Runnable#run()
+     */
+    public void run()
+    {
+	List<Message> batch = new ArrayList<Message>(MAX_BATCH_SIZE);
+	StringBuilder text = new StringBuilder();
+
+	while (this.keepRunning || !this.buffer.isEmpty())
+	{
+	    try
+	    {
+		Message first = this.buffer.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+		if (first == null) continue;
+		batch.add(first);
+	    }
+	    catch (InterruptedException e)
+	    {
+		continue;
+	    }
+	    this.buffer.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+	    // Writing consecutive messages targeting the same stream at once
+	    PrintStream stream = null;
+	    for (Message message : batch)
+	    {
+		if (message.stream != stream)
+		{
+		    flush(stream, text);
+		    stream = message.stream;
+		}
+		text.append(message.text).append(LINE_SEPARATOR);
+	    }
+	    flush(stream, text);
+	    batch.clear();
+	}
+    }
+
+    /**
+     * Internal method writing buffered text to a stream.
+     *
+     * @param stream the stream where to write the text (may be <tt>null</tt> if there is no text).
+     * @param text the text to write, cleared once written.
+     */
+    private static void flush(PrintStream stream, StringBuilder text)
+    {
+	if (text.length() == 0) return;
+	stream.print(text);
+	stream.flush();
+	text.setLength(0);
+    }
+
+    /**
+     * Message waiting to be written.
+     */
+    private static class Message
+    {
+	/**
+	 * Stream where to write the message.
+	 */
+	private PrintStream stream;
+
+	/**
+	 * Text of the message.
+	 */
+	private String text;
+
+	/**
+	 * Creating a new message.
+	 *
+	 * @param stream the stream where to write the message.
+	 * @param text the text of the message.
+	 */
+	private Message(PrintStream stream, String text)
+	{
+	    this.stream = stream;
+	    this.text = text;
+	}
+    }
+}
@@ -0,0 +1,299 @@
+package io.github.ankon.jnabserver.core.logging;
+
+import java.io.PrintStream;
+import java.util.function.Supplier;
+
+/**
+ * Logging facade of the micro server.<br/>
+ *
+ * Messages have one of three levels (error, info, debug), each of them written to its own stream. A level is enabled if it is not above
+ * the level of the logger and if its stream is set: messages of disabled levels are discarded before being formatted, and messages given
+ * as suppliers are only built if their level is enabled.<br/>
+ *
+ * Messages are either written by the calling thread, or handed over to an asynchronous appender writing them in batches from its own
+ * thread, so that workers do not contend on the lock of the logging streams.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class Logger
+{
+    /**
+     * Level of error messages.
+     */
+    public final static int ERROR = 0;
+
+    /**
+     * Level of informative messages.
+     */
+    public final static int INFO = 1;
+
+    /**
+     * Level of debug messages.
+     */
+    public final static int DEBUG = 2;
+
+    /**
+     * Names of levels, indexed by level.
+     */
+    public final static String[] LEVEL_NAMES = { "error", "info", "debug" };
+
+    /**
+     * Default maximum number of messages waiting to be written by an asynchronous appender.
+     */
+    public final static int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * Streams where to write messages, indexed by level (<tt>null</tt> meaning that the level is disabled).
+     */
+    private volatile PrintStream[] streams;
+
+    /**
+     * Most detailed level of written messages.
+     */
+    private volatile int level;
+
+    /**
+     * Appender writing messages asynchronously, or <tt>null</tt> if messages are written by the calling thread.
+     */
+    private volatile AsyncAppender appender;
+
+    /**
+     * Creating a new logger, initially without any stream (i.e. discarding all messages) and writing messages synchronously.
+     */
+    public Logger()
+    {
+	this.streams = new PrintStream[LEVEL_NAMES.length];
+	this.level = DEBUG;
+	this.appender = null;
+    }
+
+    /**
+     * Getting the level matching a name.
+     *
+     * @param name the name of the level (<tt>error</tt>, <tt>info</tt> or <tt>debug</tt>).
+     * @return the level, or -1 if the name is unknown.
+     */
+    public static int getLevel(String name)
+    {
+	for (int level = 0; level < LEVEL_NAMES.length; level++)
+	    if (LEVEL_NAMES[level].equalsIgnoreCase(name)) return level;
+	return -1;
+    }
+
+    /**
+     * Setting the stream where to write messages of a given level.
+     *
+     * @param level the level of messages.
+     * @param stream the stream where to write messages, or <tt>null</tt> to discard them.
+     */
+    public synchronized void setStream(int level, PrintStream stream)
+    {
+	PrintStream[] streams = this.streams.clone();
+	streams[level] = stream;
+	this.streams = streams;
+    }
+
+    /**
+     * Getting the stream where messages of a given level are written.
+     *
+     * @param level the level of messages.
+     * @return the stream where messages are written, or <tt>null</tt> if the level is disabled.
+     */
+    public PrintStream getStream(int level)
+    {
+	return (level <= this.level) ? this.streams[level] : null;
+    }
+
+    /**
+     * Setting the most detailed level of written messages.
+     *
+     * @param level the level (e.g. {@link #INFO} to discard debug messages).
+     */
+    public void setLevel(int level)
+    {
+	this.level = level;
+    }
+
+    /**
+     * Getting the most detailed level of written messages.
+     *
+     * @return the level of the logger.
+     */
+    public int getLevel()
+    {
+	return this.level;
+    }
+
+    /**
+     * Testing if messages of a given level are written.
+     *
+     * @param level the level of messages.
+     * @return <tt>true</tt> if the level is enabled, <tt>false</tt> if its messages are discarded.
+     */
+    public boolean isEnabled(int level)
+    {
+	return level <= this.level && this.streams[level] != null;
+    }
+
+    /**
+     * Testing if debug messages are written.
+     *
+     * @return <tt>true</tt> if debug messages are written, <tt>false</tt> if they are discarded.
+     */
+    public boolean isDebugEnabled()
+    {
+	return this.isEnabled(DEBUG);
+    }
+
+    /**
+     * Logging a message.
+     *
+     * @param level the level of the message.
+     * @param message the message.
+     */
+    public void log(int level, String message)
+    {
+	if (level > this.level) return;
+	PrintStream stream = this.streams[level];
+	if (stream == null) return;
+	this.write(level, stream, message);
+    }
+
+    /**
+     * Logging a message, built only if its level is enabled.
+     *
+     * @param level the level of the message.
+     * @param message the supplier of the message.
+     */
+    public void log(int level, Supplier<String> message)
+    {
+	if (level > this.level) return;
+	PrintStream stream = this.streams[level];
+	if (stream == null) return;
+	this.write(level, stream, message.get());
+    }
+
+    /**
+     * Logging an error message.
+     *
+     * @param message the message.
+     */
+    public void error(String message)
+    {
+	this.log(ERROR, message);
+    }
+
+    /**
+     * Logging an error message, built only if errors are logged.
+     *
+     * @param message the supplier of the message.
+     */
+    public void error(Supplier<String> message)
+    {
+	this.log(ERROR, message);
+    }
+
+    /**
+     * Logging an informative message.
+     *
+     * @param message the message.
+     */
+    public void info(String message)
+    {
+	this.log(INFO, message);
+    }
+
+    /**
+     * Logging an informative message, built only if informative messages are logged.
+     *
+     * @param message the supplier of the message.
+     */
+    public void info(Supplier<String> message)
+    {
+	this.log(INFO, message);
+    }
+
+    /**
+     * Logging a debug message.
+     *
+     * @param message the message.
+     */
+    public void debug(String message)
+    {
+	this.log(DEBUG, message);
+    }
+
+    /**
+     * Logging a debug message, built only if debug messages are logged.
+     *
+     * @param message the supplier of the message.
+     */
+    public void debug(Supplier<String> message)
+    {
+	this.log(DEBUG, message);
+    }
+
+    /**
+     * Internal method writing a message, either directly or through the asynchronous appender. Error messages that can not be buffered
+     * (the buffer being full) are written directly, other ones are dropped.
+     *
+     * @param level the level of the message.
+     * @param stream the stream where to write the message.
+     * @param message the message.
+     */
+    private void write(int level, PrintStream stream, String message)
+    {
+	AsyncAppender appender = this.appender;
+	if (appender == null || (!appender.append(stream, message) && level == ERROR)) stream.println(message);
+    }
+
+    /**
+     * Setting whether messages are written asynchronously. Messages buffered by a previous appender are written before it is stopped.
+     *
+     * @param bufferSize the maximum number of messages waiting to be written (0 or less meaning that messages are written by the calling
+     *            thread).
+     */
+    public synchronized void setAsynchronous(int bufferSize)
+    {
+	AsyncAppender previous = this.appender;
+	if (bufferSize > 0)
+	{
+	    AsyncAppender appender = new AsyncAppender(bufferSize);
+	    appender.start();
+	    this.appender = appender;
+	}
+	else
+	    this.appender = null;
+	if (previous != null) previous.shutdown();
+    }
+
+    /**
+     * Testing if messages are written asynchronously.
+     *
+     * @return <tt>true</tt> if messages are written asynchronously, <tt>false</tt> if they are written by the calling thread.
+     */
+    public boolean isAsynchronous()
+    {
+	return this.appender != null;
+    }
+
+    /**
+     * Getting the number of messages dropped by the current asynchronous appender, its buffer being full.
+     *
+     * @return the number of dropped messages (0 if messages are written synchronously).
+     */
+    public long getDroppedMessages()
+    {
+	AsyncAppender appender = this.appender;
+	return (appender == null) ? 0 : appender.getDroppedMessages();
+    }
+
+    /**
+     * Stopping the asynchronous appender if any, after writing buffered messages. Messages are then written synchronously.
+     */
+    public void shutdown()
+    {
+	this.setAsynchronous(0);
+    }
+}
@@ -0,0 +1,264 @@
+package io.github.ankon.jnabserver.core.logging;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Targeted tracing of bunnies.<br/>
+ *
+ * Tracing can be switched on for a set of bunnies (identified by their serial number), independently of the level of the logger. Traces
+ * (requests, plugins called, packets queued, responses sent, ...) of a traced bunny are recorded in a bounded in-memory buffer, the oldest
+ * entries being overwritten, which can be dumped on demand. Tracing costs a single map lookup for bunnies that are not traced.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class Tracer
+{
+    /**
+     * Default maximum number of entries kept per traced bunny.
+     */
+    public final static int DEFAULT_BUFFER_SIZE = 256;
+
+    /**
+     * Number of bytes per line of hexadecimal dumps.
+     */
+    private final static int HEX_DUMP_WIDTH = 16;
+
+    /**
+     * Trace buffers, indexed by serial number (including bunnies whose tracing has been switched off, until cleared).
+     */
+    private ConcurrentHashMap<String, TraceBuffer> buffers;
+
+    /**
+     * Maximum number of entries kept per traced bunny.
+     */
+    private volatile int bufferSize;
+
+    /**
+     * Creating a new tracer, initially tracing no bunny.
+     */
+    public Tracer()
+    {
+	this.buffers = new ConcurrentHashMap<String, TraceBuffer>();
+	this.bufferSize = DEFAULT_BUFFER_SIZE;
+    }
+
+    /**
+     * Setting the maximum number of entries kept per traced bunny (taking effect for bunnies whose tracing is switched on afterwards).
+     *
+     * @param bufferSize the maximum number of entries kept per traced bunny.
+     */
+    public void setBufferSize(int bufferSize)
+    {
+	this.bufferSize = Math.max(1, bufferSize);
+    }
+
+    /**
+     * Switching tracing on for a bunny. Entries recorded before tracing was last switched off are kept.
+     *
+     * @param serialNumber the serial number of the bunny.
+     */
+    public void enable(String serialNumber)
+    {
+	TraceBuffer buffer = this.buffers.get(serialNumber);
+	if (buffer == null)
+	{
+	    TraceBuffer newBuffer = new TraceBuffer(this.bufferSize);
+	    buffer = this.buffers.putIfAbsent(serialNumber, newBuffer);
+	    if (buffer == null) buffer = newBuffer;
+	}
+	buffer.enabled = true;
+    }
+
+    /**
+     * Switching tracing off for a bunny. Recorded entries are kept until cleared.
+     *
+     * @param serialNumber the serial number of the bunny.
+     */
+    public void disable(String serialNumber)
+    {
+	TraceBuffer buffer = this.buffers.get(serialNumber);
+	if (buffer != null) buffer.enabled = false;
+    }
+
+    /**
+     * Discarding the entries recorded for a bunny, and switching its tracing off.
+     *
+     * @param serialNumber the serial number of the bunny.
+     */
+    public void clear(String serialNumber)
+    {
+	this.buffers.remove(serialNumber);
+    }
+
+    /**
+     * Testing if a bunny is traced.
+     *
+     * @param serialNumber the serial number of the bunny (may be <tt>null</tt>).
+     * @return <tt>true</tt> if tracing is switched on for the bunny, <tt>false</tt> if not.
+     */
+    public boolean isTraced(String serialNumber)
+    {
+	if (serialNumber == null || this.buffers.isEmpty()) return false;
+	TraceBuffer buffer = this.buffers.get(serialNumber);
+	return buffer != null && buffer.enabled;
+    }
+
+    /**
+     * Getting the serial numbers of traced bunnies.
+     *
+     * @return the (sorted) serial numbers of the bunnies for which tracing is switched on.
+     */
+    public Set<String> getTracedBunnies()
+    {
+	Set<String> tracedBunnies = new TreeSet<String>();
+	for (String serialNumber : this.buffers.keySet())
+	    if (this.isTraced(serialNumber)) tracedBunnies.add(serialNumber);
+	return tracedBunnies;
+    }
+
+    /**
+     * Recording an entry in the trace of a bunny, if it is traced.
+     *
+     * @param serialNumber the serial number of the bunny (may be <tt>null</tt>).
+     * @param message the entry.
+     */
+    public void trace(String serialNumber, String message)
+    {
+	if (serialNumber == null || this.buffers.isEmpty()) return;
+	TraceBuffer buffer = this.buffers.get(serialNumber);
+	if (buffer != null && buffer.enabled) buffer.add(message);
+    }
+
+    /**
+     * Recording an entry in the trace of a bunny, built only if the bunny is traced.
+     *
+     * @param serialNumber the serial number of the bunny (may be <tt>null</tt>).
+     * @param message the supplier of the entry.
+     */
+    public void trace(String serialNumber, Supplier<String> message)
+    {
+	if (serialNumber == null || this.buffers.isEmpty()) return;
+	TraceBuffer buffer = this.buffers.get(serialNumber);
+	if (buffer != null && buffer.enabled) buffer.add(message.get());
+    }
+
+    /**
+     * Getting the entries recorded for a bunny, from the oldest to the most recent, each of them prefixed by its date.
+     *
+     * @param serialNumber the serial number of the bunny.
+     * @return the recorded entries (empty if the bunny has never been traced, or has been cleared).
+     */
+    public List<String> dump(String serialNumber)
+    {
+	List<String> entries = new ArrayList<String>();
+	TraceBuffer buffer = this.buffers.get(serialNumber);
+	if (buffer == null) return entries;
+
+	SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+	synchronized (buffer)
+	{
+	    int length = buffer.messages.length;
+	    for (int i = 0; i < buffer.size; i++)
+	    {
+		int index = (buffer.next - buffer.size + i + length) % length;
+		entries.add(dateFormat.format(new Date(buffer.dates[index])) + " " + buffer.messages[index]);
+	    }
+	}
+	return entries;
+    }
+
+    /**
+     * Formatting bytes as an hexadecimal dump, along with their printable ASCII characters.
+     *
+     * @param data the bytes to format.
+     * @return the hexadecimal dump (one line per 16 bytes).
+     */
+    public static String toHexDump(byte[] data)
+    {
+	StringBuilder dump = new StringBuilder();
+	for (int offset = 0; offset < data.length; offset += HEX_DUMP_WIDTH)
+	{
+	    if (offset > 0) dump.append('\n');
+	    dump.append(String.format("%04x ", offset));
+	    StringBuilder text = new StringBuilder();
+	    for (int i = offset; i < offset + HEX_DUMP_WIDTH; i++)
+	    {
+		if (i < data.length)
+		{
+		    dump.append(String.format(" %02x", data[i] & 0xFF));
+		    text.append((data[i] >= 0x20 && data[i] < 0x7F) ? (char) data[i] : '.');
+		}
+		else
+		    dump.append("   ");
+	    }
+	    dump.append("  ").append(text);
+	}
+	return dump.toString();
+    }
+
+    /**
+     * Bounded buffer of trace entries, overwriting the oldest ones.
+     */
+    private static class TraceBuffer
+    {
+	/**
+	 * Indicator used to know if entries are recorded.
+	 */
+	private volatile boolean enabled;
+
+	/**
+	 * Recorded entries.
+	 */
+	private String[] messages;
+
+	/**
+	 * Dates of recorded entries, in milliseconds since the epoch.
+	 */
+	private long[] dates;
+
+	/**
+	 * Index where to record the next entry.
+	 */
+	private int next;
+
+	/**
+	 * Number of entries kept.
+	 */
+	private int size;
+
+	/**
+	 * Creating a new (empty) buffer.
+	 *
+	 * @param size the maximum number of entries kept.
+	 */
+	private TraceBuffer(int size)
+	{
+	    this.enabled = false;
+	    this.messages = new String[size];
+	    this.dates = new long[size];
+	    this.next = 0;
+	    this.size = 0;
+	}
+
+	/**
+	 * Recording an entry.
+	 *
+	 * @param message the entry.
+	 */
+	private synchronized void add(String message)
+	{
+	    this.messages[this.next] = message;
+	    this.dates[this.next] = System.currentTimeMillis();
+	    this.next = (this.next + 1) % this.messages.length;
+	    if (this.size < this.messages.length) this.size++;
+	}
+    }
+}
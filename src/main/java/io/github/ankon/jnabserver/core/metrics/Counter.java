@@ -0,0 +1,53 @@
+package io.github.ankon.jnabserver.core.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter (e.g. a number of requests or of bytes sent), striped so that concurrent increments do not contend.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class Counter
+{
+    /**
+     * Current value of the counter.
+     */
+    private LongAdder value;
+
+    /**
+     * Creating a new counter, starting from 0.
+     */
+    public Counter()
+    {
+	this.value = new LongAdder();
+    }
+
+    /**
+     * Incrementing the counter by one.
+     */
+    public void increment()
+    {
+	this.value.increment();
+    }
+
+    /**
+     * Incrementing the counter by a given amount.
+     *
+     * @param amount the amount to add (non-negative).
+     */
+    public void add(long amount)
+    {
+	this.value.add(amount);
+    }
+
+    /**
+     * Getting the current value of the counter.
+     *
+     * @return the current value of the counter.
+     */
+    public long get()
+    {
+	return this.value.sum();
+    }
+}
@@ -0,0 +1,18 @@
+package io.github.ankon.jnabserver.core.metrics;
+
+/**
+ * Interface for values sampled when metrics are rendered (e.g. the number of bunnies in the burrow), rather than maintained on the hot
+ * path.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public interface Gauge
+{
+    /**
+     * Sampling the current value.
+     *
+     * @return the current value.
+     */
+    public long getValue();
+}
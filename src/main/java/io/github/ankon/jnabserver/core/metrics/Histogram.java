@@ -0,0 +1,195 @@
+package io.github.ankon.jnabserver.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values (e.g. latencies in nanoseconds), with fixed log-linear buckets.<br/>
+ *
+ * As in HDR histograms, each power of two is split into 32 linear buckets, so that percentiles are computed with a relative error lower than
+ * 4% whatever the magnitude of values, using a fixed amount of memory. Values up to 2<sup>36</sup> (about 68 seconds, for nanoseconds) are
+ * bucketed, larger ones being counted in the last bucket. Recording a value only costs a few atomic increments, and never blocks.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class Histogram
+{
+    /**
+     * Number of bits used to index linear buckets within a power of two.
+     */
+    private final static int SUB_BUCKET_BITS = 5;
+
+    /**
+     * Number of linear buckets per power of two.
+     */
+    private final static int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Exponent of the largest power of two bucketed.
+     */
+    private final static int MAX_EXPONENT = 36;
+
+    /**
+     * Total number of buckets.
+     */
+    private final static int BUCKET_COUNT = SUB_BUCKET_COUNT * (MAX_EXPONENT - SUB_BUCKET_BITS + 2);
+
+    /**
+     * Number of values recorded in each bucket.
+     */
+    private AtomicLongArray buckets;
+
+    /**
+     * Number of recorded values.
+     */
+    private LongAdder count;
+
+    /**
+     * Sum of recorded values.
+     */
+    private LongAdder sum;
+
+    /**
+     * Largest recorded value.
+     */
+    private AtomicLong max;
+
+    /**
+     * Creating a new (empty) histogram.
+     */
+    public Histogram()
+    {
+	this.buckets = new AtomicLongArray(BUCKET_COUNT);
+	this.count = new LongAdder();
+	this.sum = new LongAdder();
+	this.max = new AtomicLong();
+    }
+
+    /**
+     * Internal method getting the index of the bucket of a value.
+     *
+     * @param value the value (non-negative).
+     * @return the index of the bucket.
+     */
+    private static int getBucketIndex(long value)
+    {
+	if (value < SUB_BUCKET_COUNT) return (int) value;
+	int exponent = 63 - Long.numberOfLeadingZeros(value);
+	if (exponent > MAX_EXPONENT) return BUCKET_COUNT - 1;
+	int shift = exponent - SUB_BUCKET_BITS;
+	return SUB_BUCKET_COUNT * (shift + 1) + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    /**
+     * Internal method getting the largest value of a bucket.
+     *
+     * @param index the index of the bucket.
+     * @return the largest value counted in the bucket.
+     */
+    private static long getBucketUpperBound(int index)
+    {
+	if (index < SUB_BUCKET_COUNT) return index;
+	int shift = index / SUB_BUCKET_COUNT - 1;
+	return ((long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT + 1) << shift) - 1;
+    }
+
+    /**
+     * Recording a value.
+     *
+     * @param value the value (negative values being recorded as 0).
+     */
+    public void record(long value)
+    {
+	if (value < 0) value = 0;
+	this.buckets.incrementAndGet(getBucketIndex(value));
+	this.count.increment();
+	this.sum.add(value);
+	long max = this.max.get();
+	while (value > max && !this.max.compareAndSet(max, value))
+	    max = this.max.get();
+    }
+
+    /**
+     * Getting the number of recorded values.
+     *
+     * @return the number of recorded values.
+     */
+    public long getCount()
+    {
+	return this.count.sum();
+    }
+
+    /**
+     * Getting the sum of recorded values.
+     *
+     * @return the sum of recorded values.
+     */
+    public long getSum()
+    {
+	return this.sum.sum();
+    }
+
+    /**
+     * Getting the mean of recorded values.
+     *
+     * @return the mean of recorded values (0 if no value has been recorded).
+     */
+    public long getMean()
+    {
+	long count = this.count.sum();
+	return (count == 0) ? 0 : this.sum.sum() / count;
+    }
+
+    /**
+     * Getting the largest recorded value.
+     *
+     * @return the largest recorded value (0 if no value has been recorded).
+     */
+    public long getMax()
+    {
+	return this.max.get();
+    }
+
+    /**
+     * Getting the value below which a given percentage of recorded values fall.
+     *
+     * @param percentile the percentage (e.g. 99.9).
+     * @return the value at the given percentile (i.e. the upper bound of its bucket, at most the largest recorded value), or 0 if no value
+     *         has been recorded.
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+	// Counting values from the buckets themselves, since they may be updated concurrently
+	long[] counts = new long[BUCKET_COUNT];
+	long total = 0;
+	for (int i = 0; i < BUCKET_COUNT; i++)
+	{
+	    counts[i] = this.buckets.get(i);
+	    total += counts[i];
+	}
+	if (total == 0) return 0;
+
+	long rank = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100.0) / 100.0));
+	long seen = 0;
+	for (int i = 0; i < BUCKET_COUNT; i++)
+	{
+	    seen += counts[i];
+	    if (seen >= rank) return Math.min(getBucketUpperBound(i), this.max.get());
+	}
+	return this.max.get();
+    }
+
+    /**
+     * Discarding all recorded values. Values recorded concurrently may be partially discarded.
+     */
+    public void reset()
+    {
+	for (int i = 0; i < BUCKET_COUNT; i++)
+	    this.buckets.set(i, 0);
+	this.count.reset();
+	this.sum.reset();
+	this.max.set(0);
+    }
+}
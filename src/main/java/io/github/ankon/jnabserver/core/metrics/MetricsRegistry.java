@@ -0,0 +1,424 @@
+package io.github.ankon.jnabserver.core.metrics;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Registry of the metrics exported by the server, rendered in the Prometheus text exposition format.<br/>
+ *
+ * Metrics are grouped in families (sharing a name, a type and a help text), whose samples are distinguished by a single label. Sample
+ * names and labels are formatted once, when metrics are registered, so that rendering only appends values. Counters maintained on the hot
+ * path are looked up without locking once created.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class MetricsRegistry
+{
+    /**
+     * Type of counter families.
+     */
+    private final static String COUNTER_TYPE = "counter";
+
+    /**
+     * Type of gauge families.
+     */
+    private final static String GAUGE_TYPE = "gauge";
+
+    /**
+     * Type of summary families.
+     */
+    private final static String SUMMARY_TYPE = "summary";
+
+    /**
+     * Quantiles rendered for summaries.
+     */
+    private final static double[] QUANTILES = { 0.5, 0.99, 0.999 };
+
+    /**
+     * Ratio between nanoseconds and seconds, the unit of exported durations.
+     */
+    private final static double NANOSECONDS_PER_SECOND = 1e9;
+
+    /**
+     * Families, indexed by name.
+     */
+    private ConcurrentHashMap<String, Family> families;
+
+    /**
+     * Families, in registration order.
+     */
+    private List<Family> orderedFamilies;
+
+    /**
+     * Buffer reused to render metrics.
+     */
+    private StringBuilder buffer;
+
+    /**
+     * Creating a new (empty) registry.
+     */
+    public MetricsRegistry()
+    {
+	this.families = new ConcurrentHashMap<String, Family>();
+	this.orderedFamilies = new CopyOnWriteArrayList<Family>();
+	this.buffer = new StringBuilder(4096);
+    }
+
+    /**
+     * Getting (creating it if needed) an unlabelled counter.
+     *
+     * @param name the name of the counter.
+     * @param help the help text of the counter.
+     * @return the counter.
+     */
+    public Counter counter(String name, String help)
+    {
+	return this.counter(name, help, null, null);
+    }
+
+    /**
+     * Getting (creating it if needed) a labelled counter.
+     *
+     * @param name the name of the counter family.
+     * @param help the help text of the counter family.
+     * @param label the name of the label distinguishing counters of the family.
+     * @param value the value of the label for this counter.
+     * @return the counter.
+     */
+    public Counter counter(String name, String help, String label, String value)
+    {
+	return this.getSample(this.getFamily(name, COUNTER_TYPE, help, 1), label, value, null, null).counter;
+    }
+
+    /**
+     * Getting (creating it if needed) a labelled counter of nanoseconds, exported in seconds.
+     *
+     * @param name the name of the counter family (which should end with <tt>_seconds_total</tt>).
+     * @param help the help text of the counter family.
+     * @param label the name of the label distinguishing counters of the family.
+     * @param value the value of the label for this counter.
+     * @return the counter, to be incremented by durations in nanoseconds.
+     */
+    public Counter timeCounter(String name, String help, String label, String value)
+    {
+	return this.getSample(this.getFamily(name, COUNTER_TYPE, help, NANOSECONDS_PER_SECOND), label, value, null, null).counter;
+    }
+
+    /**
+     * Registering a counter maintained outside the registry, sampled when metrics are rendered.
+     *
+     * @param name the name of the counter family.
+     * @param help the help text of the counter family.
+     * @param label the name of the label distinguishing counters of the family (<tt>null</tt> if unlabelled).
+     * @param value the value of the label for this counter (<tt>null</tt> if unlabelled).
+     * @param counter the current value of the counter.
+     */
+    public void counter(String name, String help, String label, String value, Gauge counter)
+    {
+	this.getSample(this.getFamily(name, COUNTER_TYPE, help, 1), label, value, counter, null);
+    }
+
+    /**
+     * Registering an unlabelled gauge.
+     *
+     * @param name the name of the gauge.
+     * @param help the help text of the gauge.
+     * @param gauge the gauge, sampled when metrics are rendered.
+     */
+    public void gauge(String name, String help, Gauge gauge)
+    {
+	this.gauge(name, help, null, null, gauge);
+    }
+
+    /**
+     * Registering a labelled gauge.
+     *
+     * @param name the name of the gauge family.
+     * @param help the help text of the gauge family.
+     * @param label the name of the label distinguishing gauges of the family.
+     * @param value the value of the label for this gauge.
+     * @param gauge the gauge, sampled when metrics are rendered.
+     */
+    public void gauge(String name, String help, String label, String value, Gauge gauge)
+    {
+	this.getSample(this.getFamily(name, GAUGE_TYPE, help, 1), label, value, gauge, null);
+    }
+
+    /**
+     * Registering a labelled histogram of durations in nanoseconds, exported in seconds as a summary (median, 99th and 99.9th
+     * percentiles, sum and count).
+     *
+     * @param name the name of the summary family (which should end with <tt>_seconds</tt>).
+     * @param help the help text of the summary family.
+     * @param label the name of the label distinguishing summaries of the family.
+     * @param value the value of the label for this summary.
+     * @param histogram the histogram, sampled when metrics are rendered.
+     */
+    public void summary(String name, String help, String label, String value, Histogram histogram)
+    {
+	this.getSample(this.getFamily(name, SUMMARY_TYPE, help, NANOSECONDS_PER_SECOND), label, value, null, histogram);
+    }
+
+    /**
+     * Internal method getting a family, creating it if needed.
+     *
+     * @param name the name of the family.
+     * @param type the type of the family.
+     * @param help the help text of the family.
+     * @param scale the ratio between recorded values and exported ones.
+     * @return the family.
+     * @throws IllegalArgumentException if a family with the same name but another type has already been registered.
+     */
+    private Family getFamily(String name, String type, String help, double scale)
+    {
+	Family family = this.families.get(name);
+	if (family == null)
+	{
+	    synchronized (this.families)
+	    {
+		family = this.families.get(name);
+		if (family == null)
+		{
+		    family = new Family(name, type, help, scale);
+		    this.families.put(name, family);
+		    this.orderedFamilies.add(family);
+		}
+	    }
+	}
+	if (!family.type.equals(type) || family.scale != scale) throw new IllegalArgumentException("Metric " + name + " is not a " + type);
+	return family;
+    }
+
+    /**
+     * Internal method getting a sample of a family, creating it if needed (a sample registered with a gauge or a histogram replacing the
+     * previous one, if any).
+     *
+     * @param family the family.
+     * @param label the name of the label distinguishing samples of the family (<tt>null</tt> if unlabelled).
+     * @param value the value of the label for this sample (<tt>null</tt> if unlabelled).
+     * @param gauge the gauge sampled when rendering, or <tt>null</tt> if the sample is a counter or a histogram.
+     * @param histogram the histogram sampled when rendering, or <tt>null</tt> if the sample is a counter or a gauge.
+     * @return the sample.
+     */
+    private Sample getSample(Family family, String label, String value, Gauge gauge, Histogram histogram)
+    {
+	String key = (value == null) ? "" : value;
+	Sample sample = family.samples.get(key);
+	if (sample != null && gauge == null && histogram == null) return sample;
+
+	synchronized (family)
+	{
+	    sample = family.samples.get(key);
+	    if (sample != null && gauge == null && histogram == null) return sample;
+
+	    Sample newSample = new Sample(family, label, value, gauge, histogram);
+	    family.samples.put(key, newSample);
+	    if (sample != null)
+		family.orderedSamples.set(family.orderedSamples.indexOf(sample), newSample);
+	    else
+		family.orderedSamples.add(newSample);
+	    return newSample;
+	}
+    }
+
+    /**
+     * Rendering all metrics in the Prometheus text exposition format (version 0.0.4).
+     *
+     * @return the rendered metrics, encoded in ASCII.
+     */
+    public synchronized byte[] render()
+    {
+	StringBuilder buffer = this.buffer;
+	buffer.setLength(0);
+	for (Family family : this.orderedFamilies)
+	{
+	    if (family.orderedSamples.isEmpty()) continue;
+	    buffer.append(family.header);
+	    for (Sample sample : family.orderedSamples)
+		sample.render(buffer, family.scale);
+	}
+
+	byte[] data = new byte[buffer.length()];
+	for (int i = 0; i < data.length; i++)
+	    data[i] = (byte) buffer.charAt(i);
+	return data;
+    }
+
+    /**
+     * Internal method formatting a label, escaping its value as required by the exposition format.
+     *
+     * @param label the name of the label.
+     * @param value the value of the label.
+     * @return the formatted label.
+     */
+    private static String formatLabel(String label, String value)
+    {
+	StringBuilder buffer = new StringBuilder(label).append("=\"");
+	for (int i = 0; i < value.length(); i++)
+	{
+	    char c = value.charAt(i);
+	    if (c == '\\' || c == '"')
+		buffer.append('\\').append(c);
+	    else if (c == '\n')
+		buffer.append("\\n");
+	    else if (c < 0x20 || c > 0x7E)
+		buffer.append('?');
+	    else
+		buffer.append(c);
+	}
+	return buffer.append('"').toString();
+    }
+
+    /**
+     * Family of metrics sharing a name, a type and a help text.
+     */
+    private static class Family
+    {
+	/**
+	 * Name of the family.
+	 */
+	private String name;
+
+	/**
+	 * Type of the family.
+	 */
+	private String type;
+
+	/**
+	 * Ratio between recorded values and exported ones.
+	 */
+	private double scale;
+
+	/**
+	 * Help and type lines of the family.
+	 */
+	private String header;
+
+	/**
+	 * Samples of the family, indexed by label value (the empty string for an unlabelled sample).
+	 */
+	private ConcurrentHashMap<String, Sample> samples;
+
+	/**
+	 * Samples of the family, in registration order.
+	 */
+	private List<Sample> orderedSamples;
+
+	/**
+	 * Creating a new family, without samples.
+	 *
+	 * @param name the name of the family.
+	 * @param type the type of the family.
+	 * @param help the help text of the family.
+	 * @param scale the ratio between recorded values and exported ones.
+	 */
+	private Family(String name, String type, String help, double scale)
+	{
+	    this.name = name;
+	    this.type = type;
+	    this.scale = scale;
+	    this.header = "# HELP " + name + " " + help + "\n# TYPE " + name + " " + type + "\n";
+	    this.samples = new ConcurrentHashMap<String, Sample>();
+	    this.orderedSamples = new CopyOnWriteArrayList<Sample>();
+	}
+    }
+
+    /**
+     * Sample of a family, backed by a counter, a gauge or a histogram.
+     */
+    private static class Sample
+    {
+	/**
+	 * Counter holding the value of the sample, if maintained by the registry.
+	 */
+	private Counter counter;
+
+	/**
+	 * Gauge sampled when rendering, if any.
+	 */
+	private Gauge gauge;
+
+	/**
+	 * Histogram sampled when rendering, if any.
+	 */
+	private Histogram histogram;
+
+	/**
+	 * Name and labels of the sample, followed by a space.
+	 */
+	private String prefix;
+
+	/**
+	 * Names and labels of the quantile samples, sum and count of a histogram.
+	 */
+	private String[] histogramPrefixes;
+
+	/**
+	 * Creating a new sample.
+	 *
+	 * @param family the family of the sample.
+	 * @param label the name of the label distinguishing samples of the family (<tt>null</tt> if unlabelled).
+	 * @param value the value of the label for this sample (<tt>null</tt> if unlabelled).
+	 * @param gauge the gauge sampled when rendering, or <tt>null</tt>.
+	 * @param histogram the histogram sampled when rendering, or <tt>null</tt>.
+	 */
+	private Sample(Family family, String label, String value, Gauge gauge, Histogram histogram)
+	{
+	    this.counter = (gauge == null && histogram == null) ? new Counter() : null;
+	    this.gauge = gauge;
+	    this.histogram = histogram;
+
+	    String labels = (label == null) ? "" : formatLabel(label, value);
+	    this.prefix = family.name + (labels.isEmpty() ? "" : "{" + labels + "}") + " ";
+	    if (histogram != null)
+	    {
+		this.histogramPrefixes = new String[QUANTILES.length + 2];
+		String separator = labels.isEmpty() ? "" : ",";
+		for (int i = 0; i < QUANTILES.length; i++)
+		    this.histogramPrefixes[i] = family.name + "{" + labels + separator + "quantile=\"" + QUANTILES[i] + "\"} ";
+		String suffix = (labels.isEmpty() ? "" : "{" + labels + "}") + " ";
+		this.histogramPrefixes[QUANTILES.length] = family.name + "_sum" + suffix;
+		this.histogramPrefixes[QUANTILES.length + 1] = family.name + "_count" + suffix;
+	    }
+	}
+
+	/**
+	 * Rendering the sample.
+	 *
+	 * @param buffer the buffer where to render the sample.
+	 * @param scale the ratio between recorded values and exported ones.
+	 */
+	private void render(StringBuilder buffer, double scale)
+	{
+	    if (this.histogram != null)
+	    {
+		for (int i = 0; i < QUANTILES.length; i++)
+		    appendValue(buffer.append(this.histogramPrefixes[i]), this.histogram.getValueAtPercentile(QUANTILES[i] * 100), scale);
+		appendValue(buffer.append(this.histogramPrefixes[QUANTILES.length]), this.histogram.getSum(), scale);
+		buffer.append(this.histogramPrefixes[QUANTILES.length + 1]).append(this.histogram.getCount()).append('\n');
+		return;
+	    }
+
+	    long value = (this.counter != null) ? this.counter.get() : this.gauge.getValue();
+	    appendValue(buffer.append(this.prefix), value, scale);
+	}
+
+	/**
+	 * Appending a value, scaled, followed by an end of line.
+	 *
+	 * @param buffer the buffer where to append the value.
+	 * @param value the recorded value.
+	 * @param scale the ratio between recorded values and exported ones.
+	 */
+	private static void appendValue(StringBuilder buffer, long value, double scale)
+	{
+	    if (scale == 1)
+		buffer.append(value);
+	    else
+		buffer.append(value / scale);
+	    buffer.append('\n');
+	}
+    }
+}
@@ -31,6 +31,11 @@ public abstract class AbstractPlugin
      */
     protected Map<String, Couple<Boolean, String>> parameters;
 
+    /**
+     * Counters of the calls to this plugin (<tt>null</tt> until the plugin is added to a bunny of a server).
+     */
+    private volatile PluginCounters counters;
+
     /**
      * Creating a new plugin instance.
      * 
@@ -70,6 +75,26 @@ public abstract class AbstractPlugin
 	return this.bunny;
     }
 
+    /**
+     * Setting the counters of the calls to this plugin (done by the bunny to which the plugin is added).
+     * 
+     * @param counters the counters of the calls to this plugin.
+     */
+    public void setCounters(PluginCounters counters)
+    {
+	this.counters = counters;
+    }
+
+    /**
+     * Getting the counters of the calls to this plugin.
+     * 
+     * @return the counters of the calls to this plugin, or <tt>null</tt> if the plugin has not been added to a bunny of a server.
+     */
+    public PluginCounters getCounters()
+    {
+	return this.counters;
+    }
+
     /**
      * Checking that a parameter is available for this plugin.
      * 
@@ -0,0 +1,55 @@
+package io.github.ankon.jnabserver.core.plugins;
+
+import io.github.ankon.jnabserver.core.metrics.Counter;
+
+/**
+ * Counters of the calls to a plugin, exported by the server. They are resolved once, when the plugin is added to a bunny of the server,
+ * so that accounting for a call does not look them up.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class PluginCounters
+{
+    /**
+     * Number of calls to the plugin.
+     */
+    private Counter calls;
+
+    /**
+     * Time spent in calls to the plugin, in nanoseconds.
+     */
+    private Counter time;
+
+    /**
+     * Number of slow calls to the plugin.
+     */
+    private Counter slowCalls;
+
+    /**
+     * Creating new plugin counters.
+     *
+     * @param calls the number of calls to the plugin.
+     * @param time the time spent in calls to the plugin, in nanoseconds.
+     * @param slowCalls the number of slow calls to the plugin.
+     */
+    public PluginCounters(Counter calls, Counter time, Counter slowCalls)
+    {
+	this.calls = calls;
+	this.time = time;
+	this.slowCalls = slowCalls;
+    }
+
+    /**
+     * Accounting for a call to the plugin.
+     *
+     * @param time the time spent in the plugin, in nanoseconds.
+     * @param slow <tt>true</tt> if the call is a slow one, <tt>false</tt> if not.
+     */
+    public void called(long time, boolean slow)
+    {
+	this.calls.increment();
+	this.time.add(time);
+	if (slow) this.slowCalls.increment();
+    }
+}
@@ -0,0 +1,252 @@
+package io.github.ankon.jnabserver.core.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.github.ankon.jnabserver.core.logging.Logger;
+import io.github.ankon.jnabserver.core.metrics.Histogram;
+
+/**
+ * Monitor timing plugin callbacks, so that slow plugins (delaying the responses sent to bunnies, as they are called on the request thread)
+ * can be spotted.<br/>
+ *
+ * Each plugin (identified by its name, whatever the bunny it belongs to) gets a latency histogram per callback. Calls lasting longer than
+ * the slow threshold are logged and counted.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class PluginMonitor
+{
+    /**
+     * Default slow threshold, in milliseconds.
+     */
+    public final static int DEFAULT_SLOW_THRESHOLD = 100;
+
+    /**
+     * Timings, indexed by plugin name.
+     */
+    private ConcurrentHashMap<String, PluginTiming> timings;
+
+    /**
+     * Duration from which calls are considered slow, in nanoseconds (0 or less meaning that slow calls are not detected).
+     */
+    private volatile long slowThreshold;
+
+    /**
+     * Logger where to report slow calls.
+     */
+    private Logger logger;
+
+    /**
+     * Creating a new monitor, using the default slow threshold.
+     *
+     * @param logger the logger where to report slow calls.
+     */
+    public PluginMonitor(Logger logger)
+    {
+	this.timings = new ConcurrentHashMap<String, PluginTiming>();
+	this.logger = logger;
+	this.setSlowThreshold(DEFAULT_SLOW_THRESHOLD);
+    }
+
+    /**
+     * Setting the duration from which calls are considered slow.
+     *
+     * @param slowThreshold the slow threshold, in milliseconds (0 or less meaning that slow calls are not detected).
+     */
+    public void setSlowThreshold(int slowThreshold)
+    {
+	this.slowThreshold = slowThreshold * 1000000L;
+    }
+
+    /**
+     * Getting the duration from which calls are considered slow.
+     *
+     * @return the slow threshold, in milliseconds.
+     */
+    public int getSlowThreshold()
+    {
+	return (int) (this.slowThreshold / 1000000L);
+    }
+
+    /**
+     * Recording a plugin call.
+     *
+     * @param pluginName the name of the plugin.
+     * @param callback the name of the callback (e.g. <tt>onPing</tt>).
+     * @param serialNumber the serial number of the bunny the plugin belongs to.
+     * @param time the duration of the call, in nanoseconds.
+     * @return <tt>true</tt> if the call is slow, <tt>false</tt> if not.
+     */
+    public boolean record(String pluginName, String callback, String serialNumber, long time)
+    {
+	PluginTiming timing = this.timings.get(pluginName);
+	if (timing == null)
+	{
+	    PluginTiming newTiming = new PluginTiming(pluginName);
+	    timing = this.timings.putIfAbsent(pluginName, newTiming);
+	    if (timing == null) timing = newTiming;
+	}
+	timing.record(callback, time);
+
+	long slowThreshold = this.slowThreshold;
+	if (slowThreshold <= 0 || time < slowThreshold) return false;
+
+	timing.slowCalls.increment();
+	this.logger.info(() -> "<jNab/plugins> Slow plugin call: " + pluginName + "." + callback + " took " + time / 1000000 + " ms (bunny "
+		+ serialNumber + ")");
+	return true;
+    }
+
+    /**
+     * Getting the timings of plugins, from the one having spent the most time in callbacks to the one having spent the least.
+     *
+     * @return the timings of plugins, sorted by decreasing cumulative time.
+     */
+    public List<PluginTiming> getTimings()
+    {
+	List<PluginTiming> timings = new ArrayList<PluginTiming>(this.timings.values());
+	Collections.sort(timings, (t1, t2) -> Long.compare(t2.getTotalTime(), t1.getTotalTime()));
+	return timings;
+    }
+
+    /**
+     * Discarding all recorded timings.
+     */
+    public void reset()
+    {
+	this.timings.clear();
+    }
+
+    /**
+     * Timing of the callbacks of a plugin.
+     */
+    public static class PluginTiming
+    {
+	/**
+	 * Name of the plugin.
+	 */
+	private String pluginName;
+
+	/**
+	 * Latencies of calls, in nanoseconds, indexed by callback name.
+	 */
+	private ConcurrentHashMap<String, Histogram> latencies;
+
+	/**
+	 * Number of calls.
+	 */
+	private LongAdder calls;
+
+	/**
+	 * Cumulative time spent in calls, in nanoseconds.
+	 */
+	private LongAdder totalTime;
+
+	/**
+	 * Number of slow calls.
+	 */
+	private LongAdder slowCalls;
+
+	/**
+	 * Creating a new (empty) timing.
+	 *
+	 * @param pluginName the name of the plugin.
+	 */
+	private PluginTiming(String pluginName)
+	{
+	    this.pluginName = pluginName;
+	    this.latencies = new ConcurrentHashMap<String, Histogram>();
+	    this.calls = new LongAdder();
+	    this.totalTime = new LongAdder();
+	    this.slowCalls = new LongAdder();
+	}
+
+	/**
+	 * Recording a call.
+	 *
+	 * @param callback the name of the callback.
+	 * @param time the duration of the call, in nanoseconds.
+	 */
+	private void record(String callback, long time)
+	{
+	    Histogram latency = this.latencies.get(callback);
+	    if (latency == null)
+	    {
+		Histogram newLatency = new Histogram();
+		latency = this.latencies.putIfAbsent(callback, newLatency);
+		if (latency == null) latency = newLatency;
+	    }
+	    latency.record(time);
+	    this.calls.increment();
+	    this.totalTime.add(time);
+	}
+
+	/**
+	 * Getting the name of the plugin.
+	 *
+	 * @return the name of the plugin.
+	 */
+	public String getPluginName()
+	{
+	    return this.pluginName;
+	}
+
+	/**
+	 * Getting the names of the callbacks called so far.
+	 *
+	 * @return the names of the callbacks, sorted.
+	 */
+	public List<String> getCallbacks()
+	{
+	    List<String> callbacks = new ArrayList<String>(this.latencies.keySet());
+	    Collections.sort(callbacks);
+	    return callbacks;
+	}
+
+	/**
+	 * Getting the latencies of the calls to a callback.
+	 *
+	 * @param callback the name of the callback.
+	 * @return the histogram of latencies, in nanoseconds, or <tt>null</tt> if the callback has not been called.
+	 */
+	public Histogram getLatency(String callback)
+	{
+	    return this.latencies.get(callback);
+	}
+
+	/**
+	 * Getting the number of calls.
+	 *
+	 * @return the number of calls.
+	 */
+	public long getCallCount()
+	{
+	    return this.calls.sum();
+	}
+
+	/**
+	 * Getting the cumulative time spent in calls.
+	 *
+	 * @return the cumulative time, in nanoseconds.
+	 */
+	public long getTotalTime()
+	{
+	    return this.totalTime.sum();
+	}
+
+	/**
+	 * Getting the number of slow calls.
+	 *
+	 * @return the number of slow calls.
+	 */
+	public long getSlowCallCount()
+	{
+	    return this.slowCalls.sum();
+	}
+    }
+}
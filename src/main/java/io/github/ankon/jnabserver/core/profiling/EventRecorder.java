@@ -0,0 +1,76 @@
+package io.github.ankon.jnabserver.core.profiling;
+
+/**
+ * Interface for recorders of request lifecycle events (see {@link RequestProfiler}). Events spanning a phase are begun first, the returned
+ * handle being passed back when the phase ends.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+interface EventRecorder
+{
+    /**
+     * Recording that a connection has been accepted.
+     *
+     * @param remoteAddress the address of the client (converted to a string only if the event is recorded).
+     * @param engine the engine handling the connection.
+     */
+    public void requestAccepted(Object remoteAddress, String engine);
+
+    /**
+     * Beginning an event spanning a phase of a request.
+     *
+     * @param eventType the type of the event (one of the <tt>RequestProfiler.<i>XY</i>_EVENT</tt> values).
+     * @return the handle of the event, or <tt>null</tt> if events are not recorded.
+     */
+    public Object begin(int eventType);
+
+    /**
+     * Ending an event spanning the parsing of a request.
+     *
+     * @param event the handle of the event.
+     * @param path the path of the request.
+     * @param serialNumber the serial number of the bunny, if any.
+     * @param bodyLength the length of the request body, in bytes.
+     */
+    public void requestParsed(Object event, String path, String serialNumber, long bodyLength);
+
+    /**
+     * Ending an event spanning the processing of a request by the handler of its route.
+     *
+     * @param event the handle of the event.
+     * @param route the name of the route.
+     * @param serialNumber the serial number of the bunny, if any.
+     */
+    public void requestRouted(Object event, String route, String serialNumber);
+
+    /**
+     * Ending an event spanning a plugin call.
+     *
+     * @param event the handle of the event.
+     * @param plugin the name of the plugin.
+     * @param callback the name of the callback.
+     * @param serialNumber the serial number of the bunny.
+     */
+    public void pluginDispatched(Object event, String plugin, String callback, String serialNumber);
+
+    /**
+     * Ending an event spanning the encoding of a packet.
+     *
+     * @param event the handle of the event.
+     * @param serialNumber the serial number of the bunny.
+     * @param bytes the length of the encoded response, in bytes.
+     * @param defaultPacket <tt>true</tt> if the packet is a (pre-encoded) default packet, <tt>false</tt> if not.
+     */
+    public void packetEncoded(Object event, String serialNumber, long bytes, boolean defaultPacket);
+
+    /**
+     * Ending an event spanning the sending of a response (or its hand-off to the pacing scheduler).
+     *
+     * @param event the handle of the event.
+     * @param response the kind of response.
+     * @param bytes the number of bytes of the response body.
+     * @param paced <tt>true</tt> if the response is sent by the pacing scheduler, <tt>false</tt> if not.
+     */
+    public void responseSent(Object event, String response, long bytes, boolean paced);
+}
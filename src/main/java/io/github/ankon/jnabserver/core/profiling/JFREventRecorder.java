@@ -0,0 +1,310 @@
+package io.github.ankon.jnabserver.core.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorder emitting request lifecycle events through Java Flight Recorder. This class is only loaded (by {@link RequestProfiler}) if Flight
+ * Recorder is available.<br/>
+ *
+ * Events are only allocated while they are enabled (i.e. while a recording including them is running).
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+class JFREventRecorder implements EventRecorder
+{
+    /**
+     * Event instances used to check if events are enabled, indexed by event type.
+     */
+    private final Event[] templates;
+
+    /**
+     * Event instance used to check if request accepted events are enabled.
+     */
+    private final Event acceptedTemplate;
+
+    /**
+     * Creating a new recorder.
+     */
+    JFREventRecorder()
+    {
+	this.templates = new Event[] { new RequestParsedEvent(), new RequestRoutedEvent(), new PluginDispatchedEvent(),
+		new PacketEncodedEvent(), new ResponseSentEvent() };
+	this.acceptedTemplate = new RequestAcceptedEvent();
+    }
+
+    /**
+     * @see EventRecorder#requestAccepted(Object, String)
+     */
+    public void requestAccepted(Object remoteAddress, String engine)
+    {
+	if (!this.acceptedTemplate.isEnabled()) return;
+	RequestAcceptedEvent event = new RequestAcceptedEvent();
+	event.remoteAddress = String.valueOf(remoteAddress);
+	event.engine = engine;
+	event.commit();
+    }
+
+    /**
+     * @see EventRecorder#begin(int)
+     */
+    public Object begin(int eventType)
+    {
+	if (!this.templates[eventType].isEnabled()) return null;
+
+	Event event;
+	switch (eventType)
+	{
+	case RequestProfiler.REQUEST_PARSED_EVENT:
+	    event = new RequestParsedEvent();
+	    break;
+	case RequestProfiler.REQUEST_ROUTED_EVENT:
+	    event = new RequestRoutedEvent();
+	    break;
+	case RequestProfiler.PLUGIN_DISPATCHED_EVENT:
+	    event = new PluginDispatchedEvent();
+	    break;
+	case RequestProfiler.PACKET_ENCODED_EVENT:
+	    event = new PacketEncodedEvent();
+	    break;
+	default:
+	    event = new ResponseSentEvent();
+	    break;
+	}
+	event.begin();
+	return event;
+    }
+
+    /**
+     * @see EventRecorder#requestParsed(Object, String, String, long)
+     */
+    public void requestParsed(Object handle, String path, String serialNumber, long bodyLength)
+    {
+	RequestParsedEvent event = (RequestParsedEvent) handle;
+	event.end();
+	if (!event.shouldCommit()) return;
+	event.path = path;
+	event.serialNumber = serialNumber;
+	event.bodyLength = bodyLength;
+	event.commit();
+    }
+
+    /**
+     * @see EventRecorder#requestRouted(Object, String, String)
+     */
+    public void requestRouted(Object handle, String route, String serialNumber)
+    {
+	RequestRoutedEvent event = (RequestRoutedEvent) handle;
+	event.end();
+	if (!event.shouldCommit()) return;
+	event.route = route;
+	event.serialNumber = serialNumber;
+	event.commit();
+    }
+
+    /**
+     * @see EventRecorder#pluginDispatched(Object, String, String, String)
+     */
+    public void pluginDispatched(Object handle, String plugin, String callback, String serialNumber)
+    {
+	PluginDispatchedEvent event = (PluginDispatchedEvent) handle;
+	event.end();
+	if (!event.shouldCommit()) return;
+	event.plugin = plugin;
+	event.callback = callback;
+	event.serialNumber = serialNumber;
+	event.commit();
+    }
+
+    /**
+     * @see EventRecorder#packetEncoded(Object, String, long, boolean)
+     */
+    public void packetEncoded(Object handle, String serialNumber, long bytes, boolean defaultPacket)
+    {
+	PacketEncodedEvent event = (PacketEncodedEvent) handle;
+	event.end();
+	if (!event.shouldCommit()) return;
+	event.serialNumber = serialNumber;
+	event.bytes = bytes;
+	event.defaultPacket = defaultPacket;
+	event.commit();
+    }
+
+    /**
+     * @see EventRecorder#responseSent(Object, String, long, boolean)
+     */
+    public void responseSent(Object handle, String response, long bytes, boolean paced)
+    {
+	ResponseSentEvent event = (ResponseSentEvent) handle;
+	event.end();
+	if (!event.shouldCommit()) return;
+	event.response = response;
+	event.bytes = bytes;
+	event.paced = paced;
+	event.commit();
+    }
+
+    /**
+     * Event notifying that a connection has been accepted.
+     */
+    @Name("jnab.RequestAccepted")
+    @Label("Request Accepted")
+    @Category({ "jNab", "Requests" })
+    @Description("Connection accepted by the micro server")
+    static class RequestAcceptedEvent extends Event
+    {
+	/**
+	 * Address of the client.
+	 */
+	@Label("Remote Address")
+	String remoteAddress;
+
+	/**
+	 * Engine handling the connection.
+	 */
+	@Label("Engine")
+	String engine;
+    }
+
+    /**
+     * Event spanning the parsing of a request.
+     */
+    @Name("jnab.RequestParsed")
+    @Label("Request Parsed")
+    @Category({ "jNab", "Requests" })
+    @Description("Parsing of the request header")
+    static class RequestParsedEvent extends Event
+    {
+	/**
+	 * Path of the request.
+	 */
+	@Label("Path")
+	String path;
+
+	/**
+	 * Serial number of the bunny.
+	 */
+	@Label("Serial Number")
+	String serialNumber;
+
+	/**
+	 * Length of the request body.
+	 */
+	@Label("Body Length")
+	@DataAmount
+	long bodyLength;
+    }
+
+    /**
+     * Event spanning the processing of a request by the handler of its route.
+     */
+    @Name("jnab.RequestRouted")
+    @Label("Request Routed")
+    @Category({ "jNab", "Requests" })
+    @Description("Processing of the request by the handler of its route")
+    static class RequestRoutedEvent extends Event
+    {
+	/**
+	 * Name of the route.
+	 */
+	@Label("Route")
+	String route;
+
+	/**
+	 * Serial number of the bunny.
+	 */
+	@Label("Serial Number")
+	String serialNumber;
+    }
+
+    /**
+     * Event spanning a plugin call.
+     */
+    @Name("jnab.PluginDispatched")
+    @Label("Plugin Dispatched")
+    @Category({ "jNab", "Plugins" })
+    @Description("Call of a plugin on behalf of a bunny")
+    static class PluginDispatchedEvent extends Event
+    {
+	/**
+	 * Name of the plugin.
+	 */
+	@Label("Plugin")
+	String plugin;
+
+	/**
+	 * Name of the callback.
+	 */
+	@Label("Callback")
+	String callback;
+
+	/**
+	 * Serial number of the bunny.
+	 */
+	@Label("Serial Number")
+	String serialNumber;
+    }
+
+    /**
+     * Event spanning the encoding of a packet.
+     */
+    @Name("jnab.PacketEncoded")
+    @Label("Packet Encoded")
+    @Category({ "jNab", "Responses" })
+    @Description("Encoding of the packet sent to a bunny")
+    static class PacketEncodedEvent extends Event
+    {
+	/**
+	 * Serial number of the bunny.
+	 */
+	@Label("Serial Number")
+	String serialNumber;
+
+	/**
+	 * Length of the encoded response.
+	 */
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+
+	/**
+	 * Whether the packet is a pre-encoded default packet.
+	 */
+	@Label("Default Packet")
+	boolean defaultPacket;
+    }
+
+    /**
+     * Event spanning the sending of a response.
+     */
+    @Name("jnab.ResponseSent")
+    @Label("Response Sent")
+    @Category({ "jNab", "Responses" })
+    @Description("Sending of a response body (or its hand-off to the pacing scheduler)")
+    static class ResponseSentEvent extends Event
+    {
+	/**
+	 * Kind of response.
+	 */
+	@Label("Response")
+	String response;
+
+	/**
+	 * Number of bytes of the response body.
+	 */
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+
+	/**
+	 * Whether the response is sent by the pacing scheduler.
+	 */
+	@Label("Paced")
+	boolean paced;
+    }
+}
@@ -0,0 +1,168 @@
+package io.github.ankon.jnabserver.core.profiling;
+
+/**
+ * Emitter of Java Flight Recorder events along the lifecycle of requests (connection accepted, request parsed and routed, plugins
+ * dispatched, packet encoded, response sent), so that the server can be profiled in production.<br/>
+ *
+ * Events are only committed while a recording is running, and cost a few allocations otherwise (usually removed by the JIT compiler). On
+ * JVMs without Flight Recorder, events are silently dropped. Events spanning a phase are begun with {@link #begin(int)}, the returned
+ * handle being passed to the method ending them.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public final class RequestProfiler
+{
+    /**
+     * Type of events spanning the parsing of a request.
+     */
+    public final static int REQUEST_PARSED_EVENT = 0;
+
+    /**
+     * Type of events spanning the processing of a request by the handler of its route.
+     */
+    public final static int REQUEST_ROUTED_EVENT = 1;
+
+    /**
+     * Type of events spanning a plugin call.
+     */
+    public final static int PLUGIN_DISPATCHED_EVENT = 2;
+
+    /**
+     * Type of events spanning the encoding of a packet.
+     */
+    public final static int PACKET_ENCODED_EVENT = 3;
+
+    /**
+     * Type of events spanning the sending of a response.
+     */
+    public final static int RESPONSE_SENT_EVENT = 4;
+
+    /**
+     * Recorder used to emit events (<tt>null</tt> if Flight Recorder is not available).
+     */
+    private final static EventRecorder RECORDER = createRecorder();
+
+    /**
+     * Preventing instantiation.
+     */
+    private RequestProfiler()
+    {}
+
+    /**
+     * Internal method creating the Flight Recorder based recorder, looking it up at runtime so that the server still runs on JVMs without
+     * Flight Recorder.
+     *
+     * @return a new recorder, or <tt>null</tt> if Flight Recorder is not available.
+     */
+    private static EventRecorder createRecorder()
+    {
+	try
+	{
+	    Class.forName("jdk.jfr.Event");
+	    Class<?> recorderClass = Class.forName("io.github.ankon.jnabserver.core.profiling.JFREventRecorder");
+	    return (EventRecorder) recorderClass.getDeclaredConstructor().newInstance();
+	}
+	catch (Throwable e)
+	{
+	    return null;
+	}
+    }
+
+    /**
+     * Checking if events can be emitted (i.e. Flight Recorder is available).
+     *
+     * @return <tt>true</tt> if Flight Recorder is available, <tt>false</tt> if not.
+     */
+    public static boolean isAvailable()
+    {
+	return RECORDER != null;
+    }
+
+    /**
+     * Emitting an event notifying that a connection has been accepted.
+     *
+     * @param remoteAddress the address of the client (converted to a string only if the event is recorded).
+     * @param engine the engine handling the connection.
+     */
+    public static void requestAccepted(Object remoteAddress, String engine)
+    {
+	if (RECORDER != null) RECORDER.requestAccepted(remoteAddress, engine);
+    }
+
+    /**
+     * Beginning an event spanning a phase of a request.
+     *
+     * @param eventType the type of the event (one of the <tt><i>XY</i>_EVENT</tt> values, as defined by constant fields).
+     * @return the handle of the event, or <tt>null</tt> if Flight Recorder is not available.
+     */
+    public static Object begin(int eventType)
+    {
+	return (RECORDER == null) ? null : RECORDER.begin(eventType);
+    }
+
+    /**
+     * Ending an event spanning the parsing of a request.
+     *
+     * @param event the handle of the event.
+     * @param path the path of the request.
+     * @param serialNumber the serial number of the bunny, if any.
+     * @param bodyLength the length of the request body, in bytes.
+     */
+    public static void requestParsed(Object event, String path, String serialNumber, long bodyLength)
+    {
+	if (event != null) RECORDER.requestParsed(event, path, serialNumber, bodyLength);
+    }
+
+    /**
+     * Ending an event spanning the processing of a request by the handler of its route.
+     *
+     * @param event the handle of the event.
+     * @param route the name of the route.
+     * @param serialNumber the serial number of the bunny, if any.
+     */
+    public static void requestRouted(Object event, String route, String serialNumber)
+    {
+	if (event != null) RECORDER.requestRouted(event, route, serialNumber);
+    }
+
+    /**
+     * Ending an event spanning a plugin call.
+     *
+     * @param event the handle of the event.
+     * @param plugin the name of the plugin.
+     * @param callback the name of the callback.
+     * @param serialNumber the serial number of the bunny.
+     */
+    public static void pluginDispatched(Object event, String plugin, String callback, String serialNumber)
+    {
+	if (event != null) RECORDER.pluginDispatched(event, plugin, callback, serialNumber);
+    }
+
+    /**
+     * Ending an event spanning the encoding of a packet.
+     *
+     * @param event the handle of the event.
+     * @param serialNumber the serial number of the bunny.
+     * @param bytes the length of the encoded response, in bytes.
+     * @param defaultPacket <tt>true</tt> if the packet is a (pre-encoded) default packet, <tt>false</tt> if not.
+     */
+    public static void packetEncoded(Object event, String serialNumber, long bytes, boolean defaultPacket)
+    {
+	if (event != null) RECORDER.packetEncoded(event, serialNumber, bytes, defaultPacket);
+    }
+
+    /**
+     * Ending an event spanning the sending of a response (or its hand-off to the pacing scheduler). The route and the bunny are the ones
+     * of the enclosing request routed event, on the same thread.
+     *
+     * @param event the handle of the event.
+     * @param response the kind of response (e.g. the simple name of the response class).
+     * @param bytes the number of bytes of the response body.
+     * @param paced <tt>true</tt> if the response is sent by the pacing scheduler, <tt>false</tt> if not.
+     */
+    public static void responseSent(Object event, String response, long bytes, boolean paced)
+    {
+	if (event != null) RECORDER.responseSent(event, response, bytes, paced);
+    }
+}
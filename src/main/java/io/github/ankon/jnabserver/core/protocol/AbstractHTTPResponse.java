@@ -3,10 +3,17 @@ package io.github.ankon.jnabserver.core.protocol;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import io.github.ankon.jnabserver.core.profiling.RequestProfiler;
 
 /**
- * Abstract representation of HTTP responses sent to bunnies. The upload rate is throttled to prevent random behaviour from the bunny.
- * 
+ * Abstract representation of HTTP responses sent to bunnies. The upload rate is throttled to prevent random behaviour from the bunny,
+ * either by the pacing scheduler shared by all responses if any has been installed, or by pausing the sending thread between chunks.
  * 
  * @author Sylvain Gizard
  * @author Sebastien Jean
@@ -23,6 +30,11 @@ public abstract class AbstractHTTPResponse
      */
     private static final int BUFFER_SIZE = 1000;
 
+    /**
+     * Pacing scheduler shared by all responses (<tt>null</tt> meaning that the sending thread is paused between chunks).
+     */
+    private static volatile PacingScheduler pacingScheduler = null;
+
     /**
      * Output stream used to send the response to the bunny.
      */
@@ -39,7 +51,28 @@ public abstract class AbstractHTTPResponse
     }
 
     /**
-     * Internal method sending response through the output stream used to communicate with the bunny.
+     * Installing the pacing scheduler shared by all responses.
+     * 
+     * @param scheduler the pacing scheduler to use, or <tt>null</tt> to pause the sending thread between chunks.
+     */
+    public static void setPacingScheduler(PacingScheduler scheduler)
+    {
+	pacingScheduler = scheduler;
+    }
+
+    /**
+     * Getting the pacing scheduler shared by all responses.
+     * 
+     * @return the pacing scheduler in use, or <tt>null</tt> if none has been installed.
+     */
+    public static PacingScheduler getPacingScheduler()
+    {
+	return pacingScheduler;
+    }
+
+    /**
+     * Internal method sending response through the output stream used to communicate with the bunny. If the output stream is an
+     * asynchronous sink, the response may still be in progress when this method returns; the input stream is then closed once sent.
      * 
      * @param in the input stream where to read data to send.
      * @throws IOException if some I/O error occurs while writing response data.
@@ -47,29 +80,275 @@ public abstract class AbstractHTTPResponse
      */
     protected final void sendResponse(InputStream in) throws IOException
     {
+	Object event = RequestProfiler.begin(RequestProfiler.RESPONSE_SENT_EVENT);
+	PacingScheduler scheduler = pacingScheduler;
+	if (scheduler != null)
+	{
+	    long length = (event == null) ? 0 : in.available();
+	    this.sendPacedResponse(scheduler, Channels.newChannel(in));
+	    this.responseSent(event, length, true);
+	    return;
+	}
+
+	byte[] buffer = new byte[BUFFER_SIZE];
+	long length = 0;
 	while (true)
 	{
 	    int available = in.available();
 
 	    if (available > 0)
 	    {
-		int bufferSize = available;
-		if (available > BUFFER_SIZE) bufferSize = BUFFER_SIZE;
-		byte[] buffer = new byte[bufferSize];
-		in.read(buffer);
-		this.out.write(buffer);
+		int read = in.read(buffer, 0, Math.min(available, BUFFER_SIZE));
+		if (read == -1) break;
+		this.out.write(buffer, 0, read);
 		this.out.flush();
-		try
-		{
-		    Thread.sleep(THROTTLE_RATE);
-		}
-		catch (InterruptedException e)
-		{
-		    // Ignoring this exception
-		}
+		length += read;
+		throttle();
 		continue;
 	    }
 	    break;
 	}
+	this.responseSent(event, length, false);
+    }
+
+    /**
+     * Internal method sending the remaining content of a file through the output stream used to communicate with the bunny. If the output
+     * stream is also a channel, data is transferred from the file to the channel without being copied to the heap, otherwise it is copied
+     * through the stream. The file channel is closed once sent (which may happen after this method returns, if the output stream is an
+     * asynchronous sink).
+     * 
+     * @param in the file channel where to read data to send, from its current position.
+     * @throws IOException if some I/O error occurs while reading file data or writing response data.
+     */
+    protected final void sendResponse(FileChannel in) throws IOException
+    {
+	Object event = RequestProfiler.begin(RequestProfiler.RESPONSE_SENT_EVENT);
+	long length = (event == null) ? 0 : in.size() - in.position();
+	PacingScheduler scheduler = pacingScheduler;
+	if (scheduler != null)
+	{
+	    this.sendPacedResponse(scheduler, in);
+	    this.responseSent(event, length, true);
+	    return;
+	}
+
+	try
+	{
+	    this.sendThrottledResponse(in);
+	}
+	finally
+	{
+	    in.close();
+	}
+	this.responseSent(event, length, false);
+    }
+
+    /**
+     * Internal method sending the remaining content of a file, pausing the sending thread between chunks.
+     * 
+     * @param in the file channel where to read data to send, from its current position.
+     * @throws IOException if some I/O error occurs while reading file data or writing response data.
+     */
+    private void sendThrottledResponse(FileChannel in) throws IOException
+    {
+	if (!(this.out instanceof WritableByteChannel))
+	{
+	    byte[] buffer = new byte[BUFFER_SIZE];
+	    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+	    while (true)
+	    {
+		byteBuffer.clear();
+		int read = in.read(byteBuffer);
+		if (read == -1) break;
+		if (read == 0) continue;
+		this.out.write(buffer, 0, read);
+		this.out.flush();
+		throttle();
+	    }
+	    return;
+	}
+
+	// Transferring to the socket itself if the stream wraps one, since file content is otherwise copied to the heap
+	WritableByteChannel channel = (WritableByteChannel) this.out;
+	DirectChannelSink directSink = (channel instanceof DirectChannelSink) ? (DirectChannelSink) channel : null;
+	if (directSink != null) channel = directSink.getChannel();
+
+	long position = in.position();
+	long size = in.size();
+	while (position < size)
+	{
+	    long transferred = in.transferTo(position, Math.min(BUFFER_SIZE, size - position), channel);
+	    if (directSink != null) directSink.transferred(transferred);
+	    // The file has been truncated meanwhile
+	    if (transferred <= 0 && in.size() <= position) break;
+	    position += transferred;
+	    throttle();
+	}
+	in.position(position);
+    }
+
+    /**
+     * Internal method sending the remaining content of a buffer through the output stream used to communicate with the bunny. The buffer
+     * must not be modified until sent (which may happen after this method returns, if the output stream is an asynchronous sink).
+     * 
+     * @param in the buffer holding data to send, from its current position.
+     * @throws IOException if some I/O error occurs while writing response data.
+     */
+    protected final void sendResponse(ByteBuffer in) throws IOException
+    {
+	Object event = RequestProfiler.begin(RequestProfiler.RESPONSE_SENT_EVENT);
+	long total = in.remaining();
+	PacingScheduler scheduler = pacingScheduler;
+	if (scheduler != null)
+	{
+	    this.sendPacedResponse(scheduler, new ByteBufferChannel(in));
+	    this.responseSent(event, total, true);
+	    return;
+	}
+
+	byte[] buffer = null;
+	while (in.hasRemaining())
+	{
+	    int length = Math.min(BUFFER_SIZE, in.remaining());
+	    if (this.out instanceof WritableByteChannel)
+	    {
+		ByteBuffer chunk = in.duplicate();
+		chunk.limit(chunk.position() + length);
+		while (chunk.hasRemaining())
+		    ((WritableByteChannel) this.out).write(chunk);
+		in.position(in.position() + length);
+	    }
+	    else
+	    {
+		if (buffer == null) buffer = new byte[BUFFER_SIZE];
+		in.get(buffer, 0, length);
+		this.out.write(buffer, 0, length);
+	    }
+	    this.out.flush();
+	    throttle();
+	}
+	this.responseSent(event, total, false);
+    }
+
+    /**
+     * Internal method sending a whole (small) response at once, without throttling (e.g. packets, whose size is far below the upload
+     * rate of bunnies).
+     * 
+     * @param data the response data.
+     * @throws IOException if some I/O error occurs while writing response data.
+     */
+    protected final void sendResponse(byte[] data) throws IOException
+    {
+	this.sendResponse(data, 0, data.length);
+    }
+
+    /**
+     * Internal method sending a whole (small) response at once, without throttling. The data is written before this method returns, so
+     * the array may be reused afterwards (e.g. a pooled buffer).
+     * 
+     * @param data the array holding the response data.
+     * @param offset the offset of the response data within the array.
+     * @param length the length of the response data.
+     * @throws IOException if some I/O error occurs while writing response data.
+     */
+    protected final void sendResponse(byte[] data, int offset, int length) throws IOException
+    {
+	Object event = RequestProfiler.begin(RequestProfiler.RESPONSE_SENT_EVENT);
+	this.out.write(data, offset, length);
+	this.out.flush();
+	this.responseSent(event, length, false);
+    }
+
+    /**
+     * Internal method ending the event spanning the sending of the response, if profiled.
+     * 
+     * @param event the handle of the event (<tt>null</tt> if not profiled).
+     * @param length the number of bytes of the response body.
+     * @param paced <tt>true</tt> if the response is sent by the pacing scheduler, <tt>false</tt> if not.
+     */
+    private void responseSent(Object event, long length, boolean paced)
+    {
+	if (event != null) RequestProfiler.responseSent(event, this.getClass().getSimpleName(), length, paced);
+    }
+
+    /**
+     * Internal method sending response data through the pacing scheduler.
+     * 
+     * @param scheduler the pacing scheduler to use.
+     * @param in the channel where to read data to send.
+     * @throws IOException if some I/O error occurs while reading or writing response data.
+     */
+    private void sendPacedResponse(PacingScheduler scheduler, ReadableByteChannel in) throws IOException
+    {
+	if (this.out instanceof WritableByteChannel)
+	    scheduler.transfer(in, (WritableByteChannel) this.out, this.out);
+	else
+	    scheduler.transfer(in, Channels.newChannel(this.out), this.out);
+    }
+
+    /**
+     * Internal method pausing between two chunks of a response.
+     */
+    private static void throttle()
+    {
+	try
+	{
+	    Thread.sleep(THROTTLE_RATE);
+	}
+	catch (InterruptedException e)
+	{
+	    // Ignoring this exception
+	}
+    }
+
+    /**
+     * Channel reading the remaining content of a buffer.
+     */
+    private static class ByteBufferChannel implements ReadableByteChannel
+    {
+	/**
+	 * Buffer where to read data.
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Creating a new channel reading the remaining content of a buffer.
+	 * 
+	 * @param buffer the buffer where to read data.
+	 */
+	private ByteBufferChannel(ByteBuffer buffer)
+	{
+	    this.buffer = buffer;
+	}
+
+	/**
+	 * @see java.nio.channels.ReadableByteChannel#read(java.nio.ByteBuffer)
+	 */
+	public int read(ByteBuffer dst)
+	{
+	    if (!this.buffer.hasRemaining()) return -1;
+	    int length = Math.min(dst.remaining(), this.buffer.remaining());
+	    ByteBuffer chunk = this.buffer.duplicate();
+	    chunk.limit(chunk.position() + length);
+	    dst.put(chunk);
+	    this.buffer.position(this.buffer.position() + length);
+	    return length;
+	}
+
+	/**
+	 * @see java.nio.channels.Channel#isOpen()
+	 */
+	public boolean isOpen()
+	{
+	    return true;
+	}
+
+	/**
+	 * @see java.nio.channels.Channel#close()
+	 */
+	public void close()
+	{
+	    // Nothing to release
+	}
     }
 }
@@ -0,0 +1,33 @@
+package io.github.ankon.jnabserver.core.protocol;
+
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Channel used to send responses, whose closing can be deferred until pending transfers are complete. When responses are sent through such
+ * a channel, paced transfers are performed asynchronously (i.e. the response returns before all data has been sent).<br/>
+ *
+ * Writes only block while the channel is congested (i.e. too much data is waiting to be sent to a slow client). Writers that must not
+ * block, such as the threads writing chunks of paced transfers, check for congestion first and defer their write.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public interface AsynchronousSink extends WritableByteChannel
+{
+    /**
+     * Notifying that a transfer to this channel has started, so that closing is deferred until the transfer is released.
+     */
+    public void retain();
+
+    /**
+     * Notifying that a transfer to this channel is complete.
+     */
+    public void release();
+
+    /**
+     * Testing if the channel is congested, in which case the next write blocks until the client has caught up.
+     *
+     * @return <tt>true</tt> if the channel is congested, <tt>false</tt> if not.
+     */
+    public boolean isCongested();
+}
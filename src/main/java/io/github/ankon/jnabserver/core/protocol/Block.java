@@ -29,6 +29,11 @@ public class Block
      */
     public final static byte MESSAGE_BLOCK_TYPE = (byte) 0x0A;
 
+    /**
+     * Maximum size of a block, its size being encoded on 3 bytes within packets.
+     */
+    public final static int MAX_SIZE = 0xFFFFFF;
+
     /**
      * Type of the block :<br/>
      * <ul>
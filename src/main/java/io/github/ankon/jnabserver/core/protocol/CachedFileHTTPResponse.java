@@ -0,0 +1,54 @@
+package io.github.ankon.jnabserver.core.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+import io.github.ankon.jnabserver.core.cache.CachedFile;
+
+/**
+ * Class used to send the content of a file cached in memory. Conditional requests (i.e. having an <tt>If-None-Match</tt> or an
+ * <tt>If-Modified-Since</tt> header field) are answered with <tt>304 Not Modified</tt> if the copy of the bunny is up to date.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class CachedFileHTTPResponse extends AbstractHTTPResponse
+{
+    /**
+     * Creating a new response instance, in order to send the content of a cached file to the bunny.
+     *
+     * @param out the output stream used to communicate with the bunny.
+     * @param content the content of the cached file.
+     * @param request the request of the bunny.
+     * @throws IOException if an IO error occured while sending response data bytes.
+     */
+    public CachedFileHTTPResponse(OutputStream out, CachedFile.Content content, HTTPRequest request) throws IOException
+    {
+	super(out);
+
+	boolean notModified = content.isNotModified(request.getHeaderParam("If-None-Match"), request.getHeaderParam("If-Modified-Since"));
+
+	String httpHeader;
+	if (notModified)
+	    httpHeader = "HTTP/1.0 304 Not Modified\r\n";
+	else
+	    httpHeader = "HTTP/1.0 200 OK\r\n" + "Content-length: " + content.getSize() + "\r\n";
+	httpHeader += "ETag: " + content.getETag() + "\r\n" + "Last-Modified: " + content.getLastModifiedDate() + "\r\n" + "\r\n";
+
+	byte[] httpHeaderBytes = null;
+	try
+	{
+	    httpHeaderBytes = httpHeader.getBytes("US-ASCII");
+	}
+	catch (UnsupportedEncodingException e)
+	{
+	    // This exception can not occur since every platform should support ASCII encoding.
+	}
+
+	this.out.write(httpHeaderBytes);
+	this.out.flush();
+
+	if (!notModified) this.sendResponse(content.getData());
+    }
+}
@@ -0,0 +1,28 @@
+package io.github.ankon.jnabserver.core.protocol;
+
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Channel used to send responses, wrapping a socket channel (e.g. to count sent bytes). The socket channel is exposed so that file content
+ * can be transferred to it directly: file channels only transfer their content without copying it to the heap when the target is a socket
+ * or file channel, not a wrapper.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public interface DirectChannelSink extends WritableByteChannel
+{
+    /**
+     * Getting the wrapped channel, where file content can be transferred directly.
+     *
+     * @return the wrapped channel.
+     */
+    public WritableByteChannel getChannel();
+
+    /**
+     * Notifying that bytes have been transferred directly to the wrapped channel.
+     *
+     * @param length the number of transferred bytes.
+     */
+    public void transferred(long length);
+}
@@ -1,21 +1,71 @@
 package io.github.ankon.jnabserver.core.protocol;
 
-import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
-import java.util.Properties;
 
 import io.github.ankon.jnabserver.core.exceptions.MalformedRequestException;
 
 /**
- * Wrapping object for requests coming from bunnies.
- * 
+ * Wrapping object for requests coming from bunnies.<br/>
+ *
+ * The header is read in bulk into a buffer reused by the reading thread, and parsed line by line: the request line, the URL parameters and
+ * the header fields are only recorded as offsets in flat arrays. Strings are only built for the parameters and fields that are actually
+ * looked up. Header field names are case-insensitive. The body, if any, is not read along with the header but streamed by its consumer.
+ *
  * @author Juha-Pekka Rajaniemi
  * @author Sylvain Gizard
  * @author Sebastien Jean
  */
 public class HTTPRequest extends AbstractRequest
 {
+    /**
+     * Maximum size of the request line (method, URL and protocol version).
+     */
+    private final static int MAX_REQUEST_LINE_SIZE = 4096;
+
+    /**
+     * Maximum size of the header (request line and header fields).
+     */
+    private final static int MAX_HEADER_SIZE = 16384;
+
+    /**
+     * Initial size of the buffer where the header is read (grown up to {@link #MAX_HEADER_SIZE} for larger headers).
+     */
+    private final static int INITIAL_HEADER_BUFFER_SIZE = 1024;
+
+    /**
+     * Maximum number of URL parameters.
+     */
+    private final static int MAX_URL_PARAMS = 64;
+
+    /**
+     * Maximum number of header fields.
+     */
+    private final static int MAX_HEADER_FIELDS = 64;
+
+    /**
+     * Default maximum size of request bodies.
+     */
+    public final static int DEFAULT_MAX_BODY_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Maximum size of request bodies.
+     */
+    private static volatile int maxBodySize = DEFAULT_MAX_BODY_SIZE;
+
+    /**
+     * Name of the pseudo URL parameter holding the requested file (i.e. the URL without parameters).
+     */
+    private final static String REQUEST_FILE_PARAM = "requestfile";
+
+    /**
+     * Name of the pseudo header field holding the request line.
+     */
+    private final static String REQUEST_LINE_FIELD = "request";
+
     /**
      * Method of the request, either POST or GET.
      */
@@ -27,23 +77,54 @@ public class HTTPRequest extends AbstractRequest
     private String url;
 
     /**
-     * Parsed parameters from the URL.
+     * Header of the request, as received.
+     */
+    private byte[] header;
+
+    /**
+     * Offsets of the request line in the header: start and end of the method, of the URL, of the requested file, and of the protocol
+     * version.
+     */
+    private int[] requestLine;
+
+    /**
+     * Offsets of URL parameters in the header, as (name start, name end, value start, value end) quadruplets.
      */
-    private Properties urlParams;
+    private int[] urlParams;
 
     /**
-     * Parsed fields from the header.
+     * Number of URL parameters.
      */
-    private Properties headerFields;
+    private int urlParamCount;
 
     /**
-     * Byte array containing the POST data.
+     * URL parameter values, indexed like URL parameters (built when first looked up).
      */
-    private byte[] postData;
+    private String[] urlParamValues;
+
+    /**
+     * Requested file (built when first looked up).
+     */
+    private String requestFile;
+
+    /**
+     * Offsets of header fields in the header, as (name start, name end, value start, value end) quadruplets.
+     */
+    private int[] headerFields;
+
+    /**
+     * Number of header fields.
+     */
+    private int headerFieldCount;
+
+    /**
+     * Body of the request (<tt>null</tt> if the request has no body).
+     */
+    private RequestBody body;
 
     /**
      * Creating a new HTTP request instance by reading the data from an input stream and parsing it.
-     * 
+     *
      * @param in the stream used to read the request.
      * @throws MalformedRequestException if the data read from the input stream is not a well-formed request.
      */
@@ -58,124 +139,267 @@ public class HTTPRequest extends AbstractRequest
      */
     protected void readIncomingRequestFromInputStream(InputStream in) throws MalformedRequestException
     {
+	this.requestLine = new int[8];
+	this.urlParams = new int[4 * 8];
+	this.urlParamCount = 0;
+	this.headerFields = new int[4 * 8];
+	this.headerFieldCount = 0;
+
 	try
 	{
-	    char c;
-	    boolean isFirstLineRead = false;
-	    String line = "";
-	    this.headerFields = new Properties();
+	    byte[] buffer = new byte[INITIAL_HEADER_BUFFER_SIZE];
+	    int length = 0;
+	    int scanned = 0;
+	    int lineStart = 0;
+	    int lineCount = 0;
+	    int headerEnd = -1;
 
-	    // Reading the header fields
-	    while ((c = (char) in.read()) != -1)
+	    // Reading the header, parsing each line as soon as it is complete
+	    while (headerEnd == -1)
 	    {
-		line += (char) c;
-
-		// End of header fields
-		if (line.equals("\r\n")) break;
+		if (length == buffer.length)
+		{
+		    if (buffer.length >= MAX_HEADER_SIZE) throw new MalformedRequestException();
+		    buffer = Arrays.copyOf(buffer, Math.min(MAX_HEADER_SIZE, buffer.length * 2));
+		}
+		int read = in.read(buffer, length, buffer.length - length);
+		if (read == -1) throw new MalformedRequestException();
+		length += read;
 
-		// New line
-		if (line.endsWith("\r\n"))
+		for (; scanned < length; scanned++)
 		{
-		    // Stripping the \r\n
-		    line = line.substring(0, line.length() - 2);
+		    if (buffer[scanned] != '\n') continue;
+		    int lineEnd = (scanned > lineStart && buffer[scanned - 1] == '\r') ? scanned - 1 : scanned;
+
 		    // Request line
-		    if (!isFirstLineRead)
+		    if (lineCount == 0)
 		    {
-			this.headerFields.setProperty("request", line);
-			line = "";
-			isFirstLineRead = true;
+			if (lineEnd - lineStart > MAX_REQUEST_LINE_SIZE) throw new MalformedRequestException();
+			this.parseRequestLine(buffer, lineStart, lineEnd);
 		    }
-		    // Http header parameter
-		    else
+		    // End of header fields
+		    else if (lineEnd == lineStart)
 		    {
-			String name = line.substring(0, line.indexOf(':'));
-			String value = line.substring(line.indexOf(':') + 1).trim();
-			this.headerFields.setProperty(name, value);
-			line = "";
+			headerEnd = scanned + 1;
+			break;
 		    }
+		    // Http header field
+		    else
+			this.parseHeaderField(buffer, lineStart, lineEnd);
+
+		    lineCount++;
+		    lineStart = scanned + 1;
 		}
 
+		if (lineCount == 0 && scanned - lineStart > MAX_REQUEST_LINE_SIZE) throw new MalformedRequestException();
 	    }
 
-	    // Splitting the message into substrings.
-	    String[] tokens = this.headerFields.getProperty("request").split(" ");
+	    // Keeping the header (offsets being relative to its start)
+	    this.header = Arrays.copyOf(buffer, headerEnd);
+	    this.method = this.getString(this.requestLine[0], this.requestLine[1]);
 
-	    // if there is incoming data, saving it (e.g. recorded data)
-	    if (this.headerFields.getProperty("Content-length") != null)
+	    // if there is incoming data, streaming it (e.g. recorded data)
+	    String contentLengthField = this.getHeaderParam("Content-length");
+	    if (contentLengthField != null)
 	    {
+		int contentLength = Integer.parseInt(contentLengthField);
+		if (contentLength < 0 || contentLength > maxBodySize) throw new MalformedRequestException();
 
-		try
-		{
-		    int contentLength = Integer.parseInt(this.headerFields.getProperty("Content-length"));
+		// Part of the body may already have been read along with the header
+		byte[] buffered = Arrays.copyOfRange(buffer, headerEnd, headerEnd + Math.min(length - headerEnd, contentLength));
+		this.body = new RequestBody(buffered, in, contentLength);
+	    }
+	}
+	catch (IOException e)
+	{
+	    throw new MalformedRequestException();
+	}
+	catch (NumberFormatException e)
+	{
+	    throw new MalformedRequestException();
+	}
+    }
+
+    /**
+     * Internal method parsing the request line, recording offsets of its elements and of URL parameters.
+     *
+     * @param buffer the buffer holding the header.
+     * @param start the start of the request line.
+     * @param end the end of the request line (excluding line terminator).
+     * @throws MalformedRequestException if the request line is not well-formed.
+     */
+    private void parseRequestLine(byte[] buffer, int start, int end) throws MalformedRequestException
+    {
+	// Splitting the line into method, URL and protocol version
+	int methodEnd = indexOf(buffer, start, end, (byte) ' ');
+	if (methodEnd <= start) throw new MalformedRequestException();
+	int urlStart = methodEnd + 1;
+	int urlEnd = indexOf(buffer, urlStart, end, (byte) ' ');
+	if (urlEnd <= urlStart) throw new MalformedRequestException();
+	int versionStart = urlEnd + 1;
+	int versionEnd = indexOf(buffer, versionStart, end, (byte) ' ');
+	if (versionEnd == -1) versionEnd = end;
+	if (versionEnd == versionStart) throw new MalformedRequestException();
 
-		    BufferedInputStream bis = new BufferedInputStream(in, 4096);
-		    this.postData = new byte[contentLength];
+	int requestFileEnd = indexOf(buffer, urlStart, urlEnd, (byte) '?');
+	if (requestFileEnd == -1) requestFileEnd = urlEnd;
 
-		    for (int j = 0; j < contentLength; j++)
-			this.postData[j] = (byte) bis.read();
+	this.requestLine[0] = start;
+	this.requestLine[1] = methodEnd;
+	this.requestLine[2] = urlStart;
+	this.requestLine[3] = urlEnd;
+	this.requestLine[4] = urlStart;
+	this.requestLine[5] = requestFileEnd;
+	this.requestLine[6] = versionStart;
+	this.requestLine[7] = versionEnd;
 
-		}
-		catch (Throwable e)
-		{
-		    throw new MalformedRequestException();
-		}
+	// Parsing URL parameters
+	int paramStart = requestFileEnd + 1;
+	while (paramStart < urlEnd)
+	{
+	    int paramEnd = indexOf(buffer, paramStart, urlEnd, (byte) '&');
+	    if (paramEnd == -1) paramEnd = urlEnd;
+	    if (paramEnd > paramStart)
+	    {
+		if (this.urlParamCount == MAX_URL_PARAMS) throw new MalformedRequestException();
+		int nameEnd = indexOf(buffer, paramStart, paramEnd, (byte) '=');
+		// if the value if empty
+		int valueStart = (nameEnd == -1) ? paramEnd : nameEnd + 1;
+		if (nameEnd == -1) nameEnd = paramEnd;
+		this.urlParams = record(this.urlParams, this.urlParamCount++, paramStart, nameEnd, valueStart, paramEnd);
 	    }
+	    paramStart = paramEnd + 1;
+	}
+    }
 
-	    // Parsing the URL
-	    this.urlParams = new Properties();
-	    this.url = tokens[1];
-	    this.protocol = tokens[2];
-	    String[] urlParts = tokens[1].split("\\?");
+    /**
+     * Internal method parsing a header field, recording offsets of its name and value.
+     *
+     * @param buffer the buffer holding the header.
+     * @param start the start of the header field line.
+     * @param end the end of the header field line (excluding line terminator).
+     * @throws MalformedRequestException if the header field is not well-formed.
+     */
+    private void parseHeaderField(byte[] buffer, int start, int end) throws MalformedRequestException
+    {
+	if (this.headerFieldCount == MAX_HEADER_FIELDS) throw new MalformedRequestException();
+	int colon = indexOf(buffer, start, end, (byte) ':');
+	if (colon == -1) throw new MalformedRequestException();
 
-	    this.urlParams.setProperty("requestfile", urlParts[0]);
-	    this.method = tokens[0];
+	// Trimming name and value
+	int nameStart = start;
+	int nameEnd = colon;
+	while (nameStart < nameEnd && buffer[nameStart] <= ' ')
+	    nameStart++;
+	while (nameEnd > nameStart && buffer[nameEnd - 1] <= ' ')
+	    nameEnd--;
+	int valueStart = colon + 1;
+	int valueEnd = end;
+	while (valueStart < valueEnd && buffer[valueStart] <= ' ')
+	    valueStart++;
+	while (valueEnd > valueStart && buffer[valueEnd - 1] <= ' ')
+	    valueEnd--;
 
-	    // Parsing URL parameters
-	    if (urlParts.length > 1)
-	    {
-		String[] params = urlParts[1].split("&");
+	this.headerFields = record(this.headerFields, this.headerFieldCount++, nameStart, nameEnd, valueStart, valueEnd);
+    }
 
-		for (String element : params)
-		{
-		    String[] params2 = element.split("=");
-		    // if the value if empty
-		    String value = "";
-		    if (params2.length == 2) value = params2[1];
-		    this.urlParams.setProperty(params2[0], value);
-		}
-	    }
+    /**
+     * Internal method recording a quadruplet of offsets in a flat array, growing it if needed.
+     *
+     * @param offsets the array of offsets.
+     * @param index the index of the quadruplet.
+     * @param nameStart the start of the name.
+     * @param nameEnd the end of the name.
+     * @param valueStart the start of the value.
+     * @param valueEnd the end of the value.
+     * @return the array of offsets (which may have been reallocated).
+     */
+    private static int[] record(int[] offsets, int index, int nameStart, int nameEnd, int valueStart, int valueEnd)
+    {
+	if (4 * index + 4 > offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+	offsets[4 * index] = nameStart;
+	offsets[4 * index + 1] = nameEnd;
+	offsets[4 * index + 2] = valueStart;
+	offsets[4 * index + 3] = valueEnd;
+	return offsets;
+    }
+
+    /**
+     * Internal method looking for a byte in a range of a buffer.
+     *
+     * @param buffer the buffer.
+     * @param start the start of the range.
+     * @param end the end of the range.
+     * @param b the byte to look for.
+     * @return the index of the first occurence of the byte in the range, or -1 if not found.
+     */
+    private static int indexOf(byte[] buffer, int start, int end, byte b)
+    {
+	for (int i = start; i < end; i++)
+	{
+	    if (buffer[i] == b) return i;
 	}
-	catch (Throwable e)
+	return -1;
+    }
+
+    /**
+     * Internal method comparing a range of the header with a name.
+     *
+     * @param start the start of the range.
+     * @param end the end of the range.
+     * @param name the name to compare with.
+     * @param ignoreCase <tt>true</tt> if the comparison is case-insensitive, <tt>false</tt> if not.
+     * @return <tt>true</tt> if the range holds the name, <tt>false</tt> if not.
+     */
+    private boolean matches(int start, int end, String name, boolean ignoreCase)
+    {
+	if (end - start != name.length()) return false;
+	for (int i = start; i < end; i++)
 	{
-	    throw new MalformedRequestException();
+	    char c = (char) (this.header[i] & 0xff);
+	    char n = name.charAt(i - start);
+	    if (c == n) continue;
+	    if (!ignoreCase || Character.toLowerCase(c) != Character.toLowerCase(n)) return false;
 	}
+	return true;
+    }
 
+    /**
+     * Internal method building a string from a range of the header.
+     *
+     * @param start the start of the range.
+     * @param end the end of the range.
+     * @return the string held in the range.
+     */
+    private String getString(int start, int end)
+    {
+	return new String(this.header, start, end - start, StandardCharsets.ISO_8859_1);
     }
 
     /**
      * Getting an header field value.
-     * 
-     * @param headerFieldName the name of the header field.
-     * @return the value of the header field.
-     * @throws NoSuchElementException if the header field does not exists.
+     *
+     * @param headerFieldName the name of the header field (case-insensitive).
+     * @return the value of the header field, or <tt>null</tt> if the request has no such field.
+     * @throws NoSuchElementException if the request has not been parsed.
      */
     public String getHeaderParam(String headerFieldName) throws NoSuchElementException
     {
-	String value = null;
-	try
-	{
-	    value = this.headerFields.getProperty(headerFieldName);
-	}
-	catch (NullPointerException e)
+	if (this.header == null) throw new NoSuchElementException(headerFieldName);
+
+	// Last occurence of a field wins
+	for (int i = this.headerFieldCount - 1; i >= 0; i--)
 	{
-	    throw new NoSuchElementException(headerFieldName);
+	    if (this.matches(this.headerFields[4 * i], this.headerFields[4 * i + 1], headerFieldName, true))
+		return this.getString(this.headerFields[4 * i + 2], this.headerFields[4 * i + 3]);
 	}
-	return value;
+	if (headerFieldName.equals(REQUEST_LINE_FIELD)) return this.getString(this.requestLine[0], this.requestLine[7]);
+	return null;
     }
 
     /**
      * Getting the type of the request.
-     * 
+     *
      * @return the type of the request (either POST or GET).
      */
     public String getMethod()
@@ -185,44 +409,102 @@ public class HTTPRequest extends AbstractRequest
 
     /**
      * Getting the requested URL.
-     * 
+     *
      * @return the requested URL.
      */
     public String getURL()
     {
+	if (this.url == null && this.header != null) this.url = this.getString(this.requestLine[2], this.requestLine[3]);
 	return this.url;
     }
 
+    /**
+     * Getting the header of the request, as received (request line and header fields, up to the empty line). The returned array is the
+     * one used by the request, and must not be modified.
+     *
+     * @return the raw header, or <tt>null</tt> if the request has not been parsed.
+     */
+    public byte[] getRawHeader()
+    {
+	return this.header;
+    }
+
     /**
      * Getting an URL parameter value.
-     * 
+     *
      * @param urlParameterName the name of the parameter.
-     * @return the value of the parameter.
-     * @throws NoSuchElementException if the parameter does not exists.
+     * @return the value of the parameter, or <tt>null</tt> if the URL has no such parameter.
+     * @throws NoSuchElementException if the request has not been parsed.
      */
     public String getURLParam(String urlParameterName) throws NoSuchElementException
     {
+	if (this.header == null) throw new NoSuchElementException(urlParameterName);
 
-	String value = null;
-	try
+	if (urlParameterName.equals(REQUEST_FILE_PARAM))
 	{
-	    value = this.urlParams.getProperty(urlParameterName);
+	    if (this.requestFile == null) this.requestFile = this.getString(this.requestLine[4], this.requestLine[5]);
+	    return this.requestFile;
 	}
-	catch (NullPointerException e)
+
+	// Last occurence of a parameter wins
+	for (int i = this.urlParamCount - 1; i >= 0; i--)
 	{
-	    throw new NoSuchElementException(urlParameterName);
+	    if (!this.matches(this.urlParams[4 * i], this.urlParams[4 * i + 1], urlParameterName, false)) continue;
+	    if (this.urlParamValues == null) this.urlParamValues = new String[this.urlParamCount];
+	    if (this.urlParamValues[i] == null) this.urlParamValues[i] = this.getString(this.urlParams[4 * i + 2], this.urlParams[4 * i + 3]);
+	    return this.urlParamValues[i];
 	}
-	return value;
+	return null;
     }
 
     /**
-     * Getting the POST data.
-     * 
-     * @return the POST data.
+     * Setting the maximum size of request bodies (requests with larger bodies being considered as malformed).
+     *
+     * @param size the maximum size of request bodies, in bytes.
      */
+    public static void setMaxBodySize(int size)
+    {
+	maxBodySize = size;
+    }
+
+    /**
+     * Getting the maximum size of request bodies.
+     *
+     * @return the maximum size of request bodies, in bytes.
+     */
+    public static int getMaxBodySize()
+    {
+	return maxBodySize;
+    }
+
+    /**
+     * Getting the body of the request, to be streamed.
+     *
+     * @return the body of the request, or <tt>null</tt> if the request has no body.
+     */
+    public RequestBody getBody()
+    {
+	return this.body;
+    }
+
+    /**
+     * Getting the POST data, as a whole.
+     *
+     * @return the POST data, or <tt>null</tt> if the request has no body or if the body could not be read.
+     * @deprecated the whole body is held on the heap, use {@link #getBody()} to stream it instead.
+     */
+    @Deprecated
     public byte[] getPostData()
     {
-	return this.postData;
+	if (this.body == null) return null;
+	try
+	{
+	    return this.body.toByteArray();
+	}
+	catch (IOException e)
+	{
+	    return null;
+	}
     }
 
     /**
@@ -230,6 +512,10 @@ public class HTTPRequest extends AbstractRequest
      */
     public String toString()
     {
-	return "Request with params: " + this.urlParams.toString();
+	StringBuilder params = new StringBuilder("{").append(REQUEST_FILE_PARAM).append('=').append(this.getURLParam(REQUEST_FILE_PARAM));
+	for (int i = 0; i < this.urlParamCount; i++)
+	    params.append(", ").append(this.getString(this.urlParams[4 * i], this.urlParams[4 * i + 1])).append('=').append(
+		    this.getString(this.urlParams[4 * i + 2], this.urlParams[4 * i + 3]));
+	return "Request with params: " + params.append('}');
     }
 }
@@ -7,9 +7,11 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileChannel;
 
 /**
- * Class used to send a local file response.
+ * Class used to send a local file response. File content is transferred straight from the file channel when the output stream is also a
+ * channel, and copied through a stream otherwise.
  * 
  * @author Juha-Pekka Rajaniemi
  * @author Sylvain Gizard
@@ -59,7 +61,9 @@ public class LocalFileHTTPResponse extends AbstractHTTPResponse
 	    return;
 	}
 
-	String httpHeader = "HTTP/1.0 200 OK\r\n" + "Content-length: " + file.length() + "\r\n" + "\r\n";
+	FileChannel fileChannel = fis.getChannel();
+
+	String httpHeader = "HTTP/1.0 200 OK\r\n" + "Content-length: " + fileChannel.size() + "\r\n" + "\r\n";
 	byte[] httpHeaderBytes = null;
 	try
 	{
@@ -73,15 +77,7 @@ public class LocalFileHTTPResponse extends AbstractHTTPResponse
 	this.out.write(httpHeaderBytes);
 	out.flush();
 
-	this.sendResponse(fis);
-
-	try
-	{
-	    fis.close();
-	}
-	catch (IOException e)
-	{
-	    // Ignoring this exception
-	}
+	// The file is closed once sent
+	this.sendResponse(fileChannel);
     }
 }
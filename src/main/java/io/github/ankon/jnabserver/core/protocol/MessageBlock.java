@@ -159,7 +159,8 @@ public class MessageBlock extends Block
      */
     public byte[] getData()
     {
-	this.encodeBlock();
+	// Blocks created from existing data have no commands to encode
+	if (this.commands != null) this.encodeBlock();
 	return super.getData();
     }
 
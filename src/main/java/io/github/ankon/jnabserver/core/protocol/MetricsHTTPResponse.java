@@ -0,0 +1,41 @@
+package io.github.ankon.jnabserver.core.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Class used to send server metrics to a monitoring system, in the Prometheus text exposition format.<br/>
+ *
+ * As the client is not a bunny, the response is not throttled: it is written at once.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class MetricsHTTPResponse extends AbstractHTTPResponse
+{
+    /**
+     * Sending rendered metrics.
+     *
+     * @param out the output stream used to communicate with the client.
+     * @param metrics the rendered metrics, encoded in ASCII.
+     * @throws IOException if an IO error occured while sending response data bytes.
+     */
+    public MetricsHTTPResponse(OutputStream out, byte[] metrics) throws IOException
+    {
+	super(out);
+	String httpHeader = "HTTP/1.0 200 OK\r\n" + "Content-Type: text/plain; version=0.0.4\r\n" + "Content-Length: " + metrics.length
+		+ "\r\n" + "\r\n";
+	byte[] httpHeaderBytes = null;
+	try
+	{
+	    httpHeaderBytes = httpHeader.getBytes("US-ASCII");
+	}
+	catch (UnsupportedEncodingException e)
+	{
+	    // This exception can not occur since every platform should support ASCII encoding.
+	}
+	this.out.write(httpHeaderBytes);
+	this.sendResponse(metrics);
+    }
+}
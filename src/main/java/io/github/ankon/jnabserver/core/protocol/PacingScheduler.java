@@ -0,0 +1,739 @@
+package io.github.ankon.jnabserver.core.protocol;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Scheduler pacing the upload of responses to bunnies, shared by all transfers.<br/>
+ *
+ * Each transfer owns a token bucket, refilled at the rate configured for its route or bunny. A single tick thread drives a timer wheel
+ * where transfers wait until their bucket holds enough tokens to send their next chunk. Chunks of transfers to asynchronous sinks are then
+ * written by a handful of writer threads (deferring chunks while the sink is congested), so that thousands of concurrent downloads do not
+ * require as many threads; chunks of transfers to blocking streams are written by the thread that started the transfer, which is parked
+ * in between, so that a stalled bunny never blocks a shared thread.<br/>
+ *
+ * Only the <tt>nio</tt> engine hands asynchronous sinks to responses, so it is the only one serving many downloads from a handful of
+ * threads. With the blocking engines (<tt>thread</tt>, <tt>pool</tt> and <tt>virtual</tt>), each paced transfer still holds the worker
+ * that started it until complete (parked between chunks, which is only cheap for virtual threads), so that the number of concurrent
+ * downloads is bounded by the number of workers.<br/>
+ *
+ * The rate applying to a transfer is the one of the bunny bound to the current thread if any, otherwise the one of the route bound to the
+ * current thread if any, otherwise the default rate (matching the legacy pace of 1000 bytes every 25 ms).
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class PacingScheduler
+{
+    /**
+     * Default upload rate, in bytes per second.
+     */
+    public final static int DEFAULT_RATE = 40000;
+
+    /**
+     * Default number of threads writing chunks to asynchronous sinks.
+     */
+    public final static int DEFAULT_WRITER_THREADS = 2;
+
+    /**
+     * Duration of a tick of the timer wheel, in milliseconds.
+     */
+    private final static int TICK_DURATION = 5;
+
+    /**
+     * Number of slots of the timer wheel.
+     */
+    private final static int WHEEL_SIZE = 512;
+
+    /**
+     * Size of chunks written to bunnies (a transfer waits until its bucket holds that many tokens, unless its rate allows larger chunks).
+     */
+    private final static int CHUNK_SIZE = 1000;
+
+    /**
+     * Maximum number of consecutive ticks a file transfer may write nothing before failing (a sink accepting no data for 10 seconds).
+     */
+    private final static int MAX_STALLED_TICKS = 2000;
+
+    /**
+     * Number of threads writing chunks to asynchronous sinks.
+     */
+    private int writerThreads;
+
+    /**
+     * Timer wheel, each slot holding transfers waiting for a tick congruent to the slot index (only accessed by the tick thread).
+     */
+    private List<Transfer>[] wheel;
+
+    /**
+     * Transfers to be inserted in the timer wheel by the tick thread.
+     */
+    private Queue<Transfer> incomingTransfers;
+
+    /**
+     * Current tick of the timer wheel.
+     */
+    private volatile long currentTick;
+
+    /**
+     * Thread driving the timer wheel.
+     */
+    private Thread tickThread;
+
+    /**
+     * Executor running chunk writes to asynchronous sinks.
+     */
+    private ExecutorService writers;
+
+    /**
+     * Indicator used to know if the scheduler is running.
+     */
+    private volatile boolean running;
+
+    /**
+     * Default upload rate, in bytes per second.
+     */
+    private volatile int defaultRate;
+
+    /**
+     * Upload rates, in bytes per second, indexed by route name.
+     */
+    private Map<String, Integer> routeRates;
+
+    /**
+     * Upload rates, in bytes per second, indexed by bunny serial number.
+     */
+    private Map<String, Integer> bunnyRates;
+
+    /**
+     * Route name and bunny serial number bound to the current thread.
+     */
+    private ThreadLocal<String[]> context;
+
+    /**
+     * Number of transfers in progress.
+     */
+    private AtomicInteger activeTransfers;
+
+    /**
+     * Number of completed transfers.
+     */
+    private AtomicLong completedTransfers;
+
+    /**
+     * Number of bytes sent by all transfers.
+     */
+    private AtomicLong bytesSent;
+
+    /**
+     * Sum of the achieved rates of completed transfers, in bytes per second.
+     */
+    private AtomicLong achievedRates;
+
+    /**
+     * Time when the scheduler has been started (in nanoseconds).
+     */
+    private volatile long startTime;
+
+    /**
+     * Creating a new pacing scheduler.
+     *
+     * @param writerThreads the number of threads writing chunks to asynchronous sinks.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public PacingScheduler(int writerThreads)
+    {
+	this.writerThreads = Math.max(1, writerThreads);
+	this.wheel = new List[WHEEL_SIZE];
+	for (int i = 0; i < WHEEL_SIZE; i++)
+	    this.wheel[i] = new ArrayList<Transfer>();
+	this.incomingTransfers = new ConcurrentLinkedQueue<Transfer>();
+	this.currentTick = 0;
+	this.running = false;
+	this.defaultRate = DEFAULT_RATE;
+	this.routeRates = new ConcurrentHashMap<String, Integer>();
+	this.bunnyRates = new ConcurrentHashMap<String, Integer>();
+	this.context = new ThreadLocal<String[]>();
+	this.activeTransfers = new AtomicInteger();
+	this.completedTransfers = new AtomicLong();
+	this.bytesSent = new AtomicLong();
+	this.achievedRates = new AtomicLong();
+    }
+
+    /**
+     * Starting the tick thread and the writer threads.
+     */
+    public synchronized void start()
+    {
+	if (this.running) return;
+	this.running = true;
+	this.startTime = System.nanoTime();
+
+	final AtomicInteger threadCount = new AtomicInteger();
+	this.writers = Executors.newFixedThreadPool(this.writerThreads, new ThreadFactory()
+	{
+	    public Thread newThread(Runnable r)
+	    {
+		Thread thread = new Thread(r, "jNab-pacing-writer-" + threadCount.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	    }
+	});
+
+	this.tickThread = new Thread("jNab-pacing-tick")
+	{
+	    public void run()
+	    {
+		PacingScheduler.this.runTicks();
+	    }
+	};
+	this.tickThread.setDaemon(true);
+	this.tickThread.start();
+    }
+
+    /**
+     * Stopping the scheduler. Transfers still in progress are aborted.
+     */
+    public synchronized void shutdown()
+    {
+	if (!this.running) return;
+	this.running = false;
+	LockSupport.unpark(this.tickThread);
+	try
+	{
+	    this.tickThread.join(1000);
+	}
+	catch (InterruptedException e)
+	{
+	    Thread.currentThread().interrupt();
+	}
+	this.writers.shutdown();
+    }
+
+    /**
+     * Setting the default upload rate.
+     *
+     * @param rate the default upload rate, in bytes per second.
+     */
+    public void setDefaultRate(int rate)
+    {
+	if (rate <= 0) throw new IllegalArgumentException("rate must be positive");
+	this.defaultRate = rate;
+    }
+
+    /**
+     * Getting the default upload rate.
+     *
+     * @return the default upload rate, in bytes per second.
+     */
+    public int getDefaultRate()
+    {
+	return this.defaultRate;
+    }
+
+    /**
+     * Setting the upload rate of a route.
+     *
+     * @param route the route name.
+     * @param rate the upload rate, in bytes per second (0 or less meaning the default rate).
+     */
+    public void setRouteRate(String route, int rate)
+    {
+	if (rate > 0)
+	    this.routeRates.put(route, rate);
+	else
+	    this.routeRates.remove(route);
+    }
+
+    /**
+     * Setting the upload rate of a bunny (e.g. to match the buffering capacity of its firmware).
+     *
+     * @param serialNumber the bunny serial number.
+     * @param rate the upload rate, in bytes per second (0 or less meaning the rate of the route).
+     */
+    public void setBunnyRate(String serialNumber, int rate)
+    {
+	if (rate > 0)
+	    this.bunnyRates.put(serialNumber, rate);
+	else
+	    this.bunnyRates.remove(serialNumber);
+    }
+
+    /**
+     * Getting the upload rate applying to a transfer.
+     *
+     * @param route the route name (may be <tt>null</tt>).
+     * @param serialNumber the bunny serial number (may be <tt>null</tt>).
+     * @return the upload rate, in bytes per second.
+     */
+    public int getRate(String route, String serialNumber)
+    {
+	Integer rate = null;
+	if (serialNumber != null) rate = this.bunnyRates.get(serialNumber);
+	if (rate == null && route != null) rate = this.routeRates.get(route);
+	return (rate == null) ? this.defaultRate : rate.intValue();
+    }
+
+    /**
+     * Binding a route and a bunny to the current thread, so that transfers started by this thread use their upload rate.
+     *
+     * @param route the route name (may be <tt>null</tt>).
+     * @param serialNumber the bunny serial number (may be <tt>null</tt>).
+     */
+    public void bind(String route, String serialNumber)
+    {
+	this.context.set(new String[] { route, serialNumber });
+    }
+
+    /**
+     * Unbinding route and bunny from the current thread.
+     */
+    public void unbind()
+    {
+	this.context.remove();
+    }
+
+    /**
+     * Getting the number of transfers in progress.
+     *
+     * @return the number of transfers in progress.
+     */
+    public int getActiveTransfers()
+    {
+	return this.activeTransfers.get();
+    }
+
+    /**
+     * Getting the number of completed transfers.
+     *
+     * @return the number of completed transfers.
+     */
+    public long getCompletedTransfers()
+    {
+	return this.completedTransfers.get();
+    }
+
+    /**
+     * Getting the number of bytes sent by all transfers.
+     *
+     * @return the number of bytes sent.
+     */
+    public long getBytesSent()
+    {
+	return this.bytesSent.get();
+    }
+
+    /**
+     * Getting the overall throughput achieved since the scheduler has been started.
+     *
+     * @return the overall throughput, in bytes per second.
+     */
+    public long getThroughput()
+    {
+	long elapsed = System.nanoTime() - this.startTime;
+	if (!this.running || elapsed <= 0) return 0;
+	return this.bytesSent.get() * 1000000000L / elapsed;
+    }
+
+    /**
+     * Getting the average rate achieved by completed transfers.
+     *
+     * @return the average achieved rate, in bytes per second.
+     */
+    public long getAverageTransferRate()
+    {
+	long completed = this.completedTransfers.get();
+	return (completed == 0) ? 0 : this.achievedRates.get() / completed;
+    }
+
+    /**
+     * Sending the content of a channel to a sink, at the upload rate bound to the current thread. The source is closed once the transfer is
+     * complete.<br/>
+     *
+     * If the sink is asynchronous, the transfer is performed by writer threads and this method returns once it has been scheduled, the sink
+     * being retained until the transfer is complete. Otherwise, chunks are written by the current thread, which is parked in between, and
+     * this method returns once the transfer is complete.
+     *
+     * @param source the channel where to read data to send.
+     * @param sink the channel where to write data.
+     * @param flushable the object to flush after each chunk (may be <tt>null</tt>).
+     * @throws IOException if some I/O error occurs while reading or writing data (of the first chunk for asynchronous sinks).
+     */
+    public void transfer(ReadableByteChannel source, WritableByteChannel sink, Flushable flushable) throws IOException
+    {
+	if (!this.running) throw new IOException("Pacing scheduler is not running");
+
+	String[] binding = this.context.get();
+	int rate = (binding == null) ? this.defaultRate : this.getRate(binding[0], binding[1]);
+	Transfer transfer = new Transfer(source, sink, flushable, rate);
+	this.activeTransfers.incrementAndGet();
+
+	if (transfer.asynchronous)
+	{
+	    ((AsynchronousSink) sink).retain();
+	    transfer.step();
+	    if (transfer.failure != null) throw transfer.failure;
+	    return;
+	}
+
+	transfer.step();
+	while (!transfer.done)
+	{
+	    transfer.permits.acquireUninterruptibly();
+	    transfer.step();
+	}
+	if (transfer.failure != null) throw transfer.failure;
+    }
+
+    /**
+     * Internal method driving the timer wheel (run by the tick thread).
+     */
+    private void runTicks()
+    {
+	long tickNanos = TimeUnit.MILLISECONDS.toNanos(TICK_DURATION);
+	long nextTick = System.nanoTime() + tickNanos;
+
+	while (this.running)
+	{
+	    long delay;
+	    while ((delay = nextTick - System.nanoTime()) > 0 && this.running)
+		LockSupport.parkNanos(delay);
+	    if (!this.running) break;
+	    nextTick += tickNanos;
+	    long tick = ++this.currentTick;
+
+	    // Inserting transfers that have been rescheduled since the previous tick
+	    Transfer transfer;
+	    while ((transfer = this.incomingTransfers.poll()) != null)
+	    {
+		long dueTick = Math.max(transfer.dueTick, tick);
+		this.wheel[(int) (dueTick % WHEEL_SIZE)].add(transfer);
+	    }
+
+	    // Firing transfers that are due
+	    Iterator<Transfer> slot = this.wheel[(int) (tick % WHEEL_SIZE)].iterator();
+	    while (slot.hasNext())
+	    {
+		transfer = slot.next();
+		if (transfer.dueTick > tick) continue;
+		slot.remove();
+		this.fire(transfer);
+	    }
+	}
+
+	// Aborting transfers still in progress
+	IOException aborted = new IOException("Pacing scheduler has been stopped");
+	Transfer transfer;
+	while ((transfer = this.incomingTransfers.poll()) != null)
+	    transfer.complete(aborted);
+	for (int i = 0; i < WHEEL_SIZE; i++)
+	{
+	    for (Transfer waiting : this.wheel[i])
+		waiting.complete(aborted);
+	    this.wheel[i].clear();
+	}
+    }
+
+    /**
+     * Internal method triggering the next chunk of a transfer.
+     *
+     * @param transfer the transfer whose next chunk is due.
+     */
+    private void fire(Transfer transfer)
+    {
+	if (!transfer.asynchronous)
+	{
+	    transfer.permits.release();
+	    return;
+	}
+	try
+	{
+	    this.writers.execute(transfer);
+	}
+	catch (RejectedExecutionException e)
+	{
+	    transfer.complete(new IOException("Pacing scheduler has been stopped"));
+	}
+    }
+
+    /**
+     * Paced transfer of a channel content to a sink.
+     */
+    private class Transfer implements Runnable
+    {
+	/**
+	 * Channel where to read data to send.
+	 */
+	private ReadableByteChannel source;
+
+	/**
+	 * Channel where to write data.
+	 */
+	private WritableByteChannel sink;
+
+	/**
+	 * Object to flush after each chunk (may be <tt>null</tt>).
+	 */
+	private Flushable flushable;
+
+	/**
+	 * Indicator used to know if chunks are written by writer threads.
+	 */
+	private boolean asynchronous;
+
+	/**
+	 * Buffer holding the chunk being sent.
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Number of tokens added to the bucket at each tick (possibly less than one, for rates below one byte per tick).
+	 */
+	private double refill;
+
+	/**
+	 * Tokens available in the bucket (one token per byte).
+	 */
+	private double tokens;
+
+	/**
+	 * Minimum number of tokens required before sending a chunk (the capacity of the bucket being the size of the buffer).
+	 */
+	private int threshold;
+
+	/**
+	 * Number of consecutive attempts to transfer file content that wrote nothing.
+	 */
+	private int stalledTicks;
+
+	/**
+	 * Tick when tokens have last been added to the bucket.
+	 */
+	private long lastTick;
+
+	/**
+	 * Tick when the next chunk is due.
+	 */
+	private volatile long dueTick;
+
+	/**
+	 * Permits granted by the tick thread to the thread writing the chunks, for synchronous transfers.
+	 */
+	private Semaphore permits;
+
+	/**
+	 * Indicator used to know if the transfer is complete.
+	 */
+	private volatile boolean done;
+
+	/**
+	 * Error that occured during the transfer, if any.
+	 */
+	private volatile IOException failure;
+
+	/**
+	 * Number of bytes sent.
+	 */
+	private long sent;
+
+	/**
+	 * Time when the transfer has been started (in nanoseconds).
+	 */
+	private long transferStartTime;
+
+	/**
+	 * Creating a new transfer.
+	 *
+	 * @param source the channel where to read data to send.
+	 * @param sink the channel where to write data.
+	 * @param flushable the object to flush after each chunk (may be <tt>null</tt>).
+	 * @param rate the upload rate, in bytes per second.
+	 */
+	private Transfer(ReadableByteChannel source, WritableByteChannel sink, Flushable flushable, int rate)
+	{
+	    this.source = source;
+	    this.sink = sink;
+	    this.flushable = flushable;
+	    this.asynchronous = sink instanceof AsynchronousSink;
+	    this.refill = (double) rate * TICK_DURATION / 1000;
+	    int capacity = (int) Math.max(CHUNK_SIZE, Math.ceil(this.refill));
+	    this.buffer = ByteBuffer.allocate(capacity);
+	    this.threshold = CHUNK_SIZE;
+	    this.tokens = capacity;
+	    this.lastTick = PacingScheduler.this.currentTick;
+	    this.permits = this.asynchronous ? null : new Semaphore(0);
+	    this.done = false;
+	    this.sent = 0;
+	    this.transferStartTime = System.nanoTime();
+	}
+
+	/**
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run()
+	{
+	    this.step();
+	}
+
+	/**
+	 * Sending the next chunk, then either completing the transfer or scheduling the next chunk.
+	 */
+	private void step()
+	{
+	    if (this.done) return;
+	    try
+	    {
+		long tick = PacingScheduler.this.currentTick;
+		this.tokens = Math.min(this.buffer.capacity(), this.tokens + this.refill * (tick - this.lastTick));
+		this.lastTick = tick;
+		int length = (int) this.tokens;
+
+		// The client does not keep up, trying again at the next tick instead of blocking a writer thread
+		if (this.asynchronous && ((AsynchronousSink) this.sink).isCongested())
+		{
+		    this.reschedule(tick + 1);
+		    return;
+		}
+
+		boolean endOfData;
+		int written;
+		if (this.source instanceof FileChannel && !this.asynchronous)
+		{
+		    // Transferring file content straight to the sink (or to the socket it wraps, so that it is not copied to the heap)
+		    FileChannel file = (FileChannel) this.source;
+		    long position = file.position();
+		    long remaining = file.size() - position;
+		    if (this.sink instanceof DirectChannelSink)
+		    {
+			DirectChannelSink directSink = (DirectChannelSink) this.sink;
+			written = (int) file.transferTo(position, Math.min(length, remaining), directSink.getChannel());
+			directSink.transferred(written);
+		    }
+		    else
+			written = (int) file.transferTo(position, Math.min(length, remaining), this.sink);
+		    file.position(position + written);
+		    endOfData = (written >= remaining);
+
+		    // Nothing written although data remains, trying again at the next tick (up to a point)
+		    if (written <= 0 && !endOfData)
+		    {
+			if (++this.stalledTicks > MAX_STALLED_TICKS)
+			    throw new IOException("File transfer stalled (" + remaining + " bytes remaining)");
+			this.reschedule(tick + 1);
+			return;
+		    }
+		    this.stalledTicks = 0;
+		}
+		else
+		{
+		    this.buffer.clear();
+		    this.buffer.limit(length);
+		    endOfData = false;
+		    while (this.buffer.hasRemaining())
+		    {
+			if (this.source.read(this.buffer) == -1)
+			{
+			    endOfData = true;
+			    break;
+			}
+		    }
+		    this.buffer.flip();
+		    written = this.buffer.remaining();
+		    while (this.buffer.hasRemaining())
+			this.sink.write(this.buffer);
+		}
+		if (this.flushable != null && written > 0) this.flushable.flush();
+
+		this.tokens -= written;
+		this.sent += written;
+		PacingScheduler.this.bytesSent.addAndGet(written);
+
+		if (endOfData)
+		{
+		    this.complete(null);
+		    return;
+		}
+
+		// Waiting until the bucket holds enough tokens for the next chunk
+		double missing = this.threshold - this.tokens;
+		long ticks = (missing <= 0) ? 1 : (long) Math.ceil(missing / this.refill);
+		this.reschedule(tick + Math.max(1, ticks));
+	    }
+	    catch (IOException e)
+	    {
+		this.complete(e);
+	    }
+	}
+
+	/**
+	 * Internal method scheduling the next chunk of the transfer.
+	 *
+	 * @param dueTick the tick when the next chunk is due.
+	 */
+	private void reschedule(long dueTick)
+	{
+	    this.dueTick = dueTick;
+	    PacingScheduler.this.incomingTransfers.add(this);
+	    if (!PacingScheduler.this.running) this.complete(new IOException("Pacing scheduler has been stopped"));
+	}
+
+	/**
+	 * Completing (or aborting) the transfer.
+	 *
+	 * @param e the error that occured during the transfer, or <tt>null</tt> if it succeeded.
+	 */
+	private synchronized void complete(IOException e)
+	{
+	    if (this.done) return;
+	    this.failure = e;
+	    this.done = true;
+	    this.closeSource();
+	    PacingScheduler.this.activeTransfers.decrementAndGet();
+	    if (e == null)
+	    {
+		long elapsed = System.nanoTime() - this.transferStartTime;
+		PacingScheduler.this.completedTransfers.incrementAndGet();
+		if (elapsed > 0) PacingScheduler.this.achievedRates.addAndGet(this.sent * 1000000000L / elapsed);
+	    }
+	    if (this.asynchronous)
+		((AsynchronousSink) this.sink).release();
+	    else
+		this.permits.release();
+	}
+
+	/**
+	 * Internal method closing the source of the transfer.
+	 */
+	private void closeSource()
+	{
+	    try
+	    {
+		this.source.close();
+	    }
+	    catch (IOException e)
+	    {
+		// Ignoring this exception
+	    }
+	}
+    }
+}
@@ -1,8 +1,7 @@
 package io.github.ankon.jnabserver.core.protocol;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -26,12 +25,12 @@ public class Packet
     protected static final byte[] footerBytes = new byte[] { (byte) 0xFF, (byte) 0x0A };
 
     /**
-     * List of blocks embedded within this packet.
+     * List of blocks embedded within this packet (<tt>null</tt> until first needed, if the packet has been created from raw data).
      */
     protected List<Block> blocks;
 
     /**
-     * Data to send to bunny.
+     * Data to send to bunny, if the packet has been created from raw data and not modified since (<tt>null</tt> otherwise).
      */
     protected byte[] data;
 
@@ -56,22 +55,23 @@ public class Packet
     }
 
     /**
-     * Creating a new packet instance, with existing data.
+     * Creating a new packet instance, with existing data. Blocks are only rebuilt from the data when first needed, and unless the packet
+     * is modified, the data is sent as is (without being encoded again), which allows sending pre-built packets cheaply.
      * 
-     * @param data packet raw data.
+     * @param data packet raw data (which must not be modified afterwards, and may be shared by several packets).
      */
     public Packet(byte[] data)
     {
-	this();
 	this.data = data;
-	this.parseBlocks();
     }
 
     /**
-     * Internal method used to rebuild blocks from raw data.
+     * Internal method rebuilding blocks from raw data, if not done yet.
      */
     private void parseBlocks()
     {
+	if (this.blocks != null) return;
+	this.blocks = new ArrayList<Block>();
 	int pos = 1;
 
 	// read while there is more than two int's left
@@ -80,7 +80,7 @@ public class Packet
 
 	    byte type = this.data[pos];
 
-	    int size = this.data[pos + 3] + (255 * this.data[pos + 2]) + (255 * 255 * this.data[pos + 1]);
+	    int size = ((this.data[pos + 1] & 0xFF) << 16) | ((this.data[pos + 2] & 0xFF) << 8) | (this.data[pos + 3] & 0xFF);
 	    pos += 4;
 
 	    byte[] raw = new byte[size];
@@ -117,7 +117,9 @@ public class Packet
     public void addBlock(Block e)
     {
 	// Appending the block at the end of the list
+	this.parseBlocks();
 	this.blocks.add(e);
+	this.data = null;
 
 	// Checking the type of the block
 	if (e.type == 3) this.pingPacketPresent = true;
@@ -131,6 +133,7 @@ public class Packet
      */
     public boolean isPingBlockPresent()
     {
+	this.parseBlocks();
 	return this.pingPacketPresent;
     }
 
@@ -142,6 +145,10 @@ public class Packet
      */
     public void setPingIntervalBlock(int pingInterval)
     {
+	// Pre-built packets already holding the same ping interval are kept as is
+	if (this.data != null && this.hasRawPingInterval(pingInterval)) return;
+
+	this.parseBlocks();
 	for (int i = 0; i < this.blocks.size(); i++)
 	{
 	    if (this.blocks.get(i).type == Block.PING_INTERVAL_BLOCK_TYPE)
@@ -152,6 +159,25 @@ public class Packet
 	}
 	this.blocks.add(new PingIntervalBlock(pingInterval));
 	this.pingPacketPresent = true;
+	this.data = null;
+    }
+
+    /**
+     * Internal method testing, without rebuilding blocks, if the raw data of the packet holds a ping interval block with a given value.
+     * 
+     * @param pingInterval the ping interval.
+     * @return <tt>true</tt> if the raw data holds a ping interval block with this value, <tt>false</tt> if not.
+     */
+    private boolean hasRawPingInterval(int pingInterval)
+    {
+	int pos = 1;
+	while (pos < this.data.length - 2)
+	{
+	    int size = ((this.data[pos + 1] & 0xFF) << 16) | ((this.data[pos + 2] & 0xFF) << 8) | (this.data[pos + 3] & 0xFF);
+	    if (this.data[pos] == Block.PING_INTERVAL_BLOCK_TYPE) return size == 1 && this.data[pos + 4] == (byte) pingInterval;
+	    pos += 4 + size;
+	}
+	return false;
     }
 
     /**
@@ -161,84 +187,31 @@ public class Packet
      */
     public boolean isAmbientBlockPresent()
     {
+	this.parseBlocks();
 	return this.ambientBlockPresent;
     }
 
     /**
-     * Generating a byte array from the list of blocks
+     * Generating a byte array from the list of blocks (or copying the raw data of the packet, if not modified since its creation), see
+     * {@link PacketEncoder}.
      * 
-     * @return The byte array corresponding to this packet
+     * @return The byte array corresponding to this packet (<tt>null</tt> if a block is too large to be encoded)
      */
     public byte[] generatePacket()
     {
-	ByteArrayOutputStream bos = new ByteArrayOutputStream();
-
-	// Adding the header byte
-	bos.write(Packet.headerByte);
-
-	// For each embedded block
-	for (Block block : this.blocks)
-	{
-	    // Adding type of block
-	    bos.write(block.getType());
-
-	    // In case of a MessageBlock, encoding the data
-	    // if (block.getType() == Block.MESSAGE_BLOCK_TYPE) ((MessageBlock) block).encodeBlock();
-
-	    // Adding length of the block
-	    ByteArrayOutputStream bos2 = new ByteArrayOutputStream();
-	    DataOutputStream dos = new DataOutputStream(bos2);
-	    try
-	    {
-		dos.writeInt(block.getSize());
-	    }
-	    catch (IOException e)
-	    {
-		return null;
-	    }
-	    byte[] sizeBytes = bos2.toByteArray();
-	    try
-	    {
-		dos.close();
-		bos2.close();
-	    }
-	    catch (IOException e)
-	    {
-		// Ignoring the exception
-	    }
-	    bos.write(sizeBytes, 1, 3);
-
-	    // Adding the raw data to the packet
-	    try
-	    {
-		bos.write(block.getData());
-	    }
-	    catch (IOException e)
-	    {
-		return null;
-	    }
-	}
+	if (this.data != null) return this.data.clone();
 
-	// Adding the footer bytes
 	try
 	{
-	    bos.write(Packet.footerBytes);
+	    PacketEncoder encoder = new PacketEncoder(this);
+	    byte[] result = new byte[encoder.getSize()];
+	    encoder.encode(ByteBuffer.wrap(result));
+	    return result;
 	}
 	catch (IOException e)
 	{
 	    return null;
 	}
-
-	byte[] result = bos.toByteArray();
-	try
-	{
-	    bos.close();
-	}
-	catch (IOException e)
-	{
-	    // Ignoring the exception
-	}
-	return result;
     }
 
     /**
@@ -246,6 +219,7 @@ public class Packet
      */
     public String toString()
     {
+	this.parseBlocks();
 	String res = "Packet :\n";
 	for (Block b : this.blocks)
 	{
@@ -0,0 +1,123 @@
+package io.github.ankon.jnabserver.core.protocol;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Class encoding a packet in a single pass.<br/>
+ *
+ * The data of each block is fetched once (message blocks being encoded at this time) and its size checked against the 3-byte size field,
+ * so that the exact size of the encoded packet is known before any byte is written. The packet is then written directly into a buffer,
+ * possibly after a header depending on this size (e.g. the HTTP header of a response), without any intermediate stream or copy.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class PacketEncoder
+{
+    /**
+     * Raw data of the packet, if created from raw data and not modified since (<tt>null</tt> otherwise).
+     */
+    private final byte[] raw;
+
+    /**
+     * Types of the blocks to encode.
+     */
+    private final byte[] types;
+
+    /**
+     * Sizes of the blocks to encode.
+     */
+    private final int[] sizes;
+
+    /**
+     * Data of the blocks to encode.
+     */
+    private final byte[][] data;
+
+    /**
+     * Size of the encoded packet.
+     */
+    private final int size;
+
+    /**
+     * Creating a new encoder for a packet, fetching the data of its blocks. The packet must not be modified until encoded.
+     *
+     * @param packet the packet to encode.
+     * @throws IOException if a block is too large to be encoded.
+     */
+    public PacketEncoder(Packet packet) throws IOException
+    {
+	this.raw = packet.data;
+	if (this.raw != null)
+	{
+	    this.types = null;
+	    this.sizes = null;
+	    this.data = null;
+	    this.size = this.raw.length;
+	    return;
+	}
+
+	int count = packet.blocks.size();
+	this.types = new byte[count];
+	this.sizes = new int[count];
+	this.data = new byte[count][];
+
+	// Header byte and footer bytes, then type, size and data of each block
+	long size = 1 + Packet.footerBytes.length;
+	for (int i = 0; i < count; i++)
+	{
+	    Block block = packet.blocks.get(i);
+
+	    // Getting the data first, since message blocks are encoded (and their size computed) at this time
+	    this.data[i] = block.getData();
+	    this.types[i] = block.getType();
+	    this.sizes[i] = block.getSize();
+	    if (this.sizes[i] < 0 || this.sizes[i] > Block.MAX_SIZE || this.data[i].length > Block.MAX_SIZE)
+		throw new IOException("Block too large to be encoded (type " + this.types[i] + ", " + this.data[i].length + " bytes)");
+	    size += 4 + this.data[i].length;
+	}
+	if (size > Integer.MAX_VALUE) throw new IOException("Packet too large to be encoded (" + size + " bytes)");
+	this.size = (int) size;
+    }
+
+    /**
+     * Getting the size of the encoded packet.
+     *
+     * @return the size of the encoded packet, in bytes.
+     */
+    public int getSize()
+    {
+	return this.size;
+    }
+
+    /**
+     * Writing the encoded packet into a buffer, from its current position (which is moved past the packet).
+     *
+     * @param buffer the buffer where to write the packet.
+     * @throws BufferOverflowException if the remaining space of the buffer is smaller than the encoded packet (nothing being written).
+     */
+    public void encode(ByteBuffer buffer)
+    {
+	if (buffer.remaining() < this.size) throw new BufferOverflowException();
+
+	if (this.raw != null)
+	{
+	    buffer.put(this.raw);
+	    return;
+	}
+
+	buffer.put(Packet.headerByte);
+	for (int i = 0; i < this.data.length; i++)
+	{
+	    int blockSize = this.sizes[i];
+	    buffer.put(this.types[i]);
+	    buffer.put((byte) (blockSize >>> 16));
+	    buffer.put((byte) (blockSize >>> 8));
+	    buffer.put((byte) blockSize);
+	    buffer.put(this.data[i]);
+	}
+	buffer.put(Packet.footerBytes);
+    }
+}
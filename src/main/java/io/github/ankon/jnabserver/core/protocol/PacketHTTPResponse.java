@@ -1,21 +1,60 @@
 package io.github.ankon.jnabserver.core.protocol;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * Class used to send a packet back to a bunny.
- * 
+ * Class used to send a packet back to a bunny.<br/>
+ *
+ * Responses are encoded as a whole (HTTP header and packet) in a single pass, into a buffer borrowed from a small pool shared by all
+ * sending threads, and written at once. Default packets, sent in response to most pings, are encoded once per ping interval and then
+ * reused.
+ *
  * @author Sylvain Gizard
  * @author Sebastien Jean
  */
 public class PacketHTTPResponse extends AbstractHTTPResponse
 {
+    /**
+     * Size of pooled buffers (larger responses being encoded into buffers allocated for the occasion).
+     */
+    private final static int POOLED_BUFFER_SIZE = 4096;
+
+    /**
+     * Maximum number of buffers kept in the pool (buffers released while the pool is full being dropped).
+     */
+    private final static int MAX_POOLED_BUFFERS = 64;
+
+    /**
+     * Start of the HTTP header, up to the content length.
+     */
+    private final static byte[] HEADER_START = "HTTP/1.0 200 OK\r\nContent-length: ".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * End of the HTTP header, after the content length.
+     */
+    private final static byte[] HEADER_END = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Encoded responses carrying a default packet, indexed by ping interval (lazily filled).
+     */
+    private final static AtomicReferenceArray<byte[]> DEFAULT_RESPONSES = new AtomicReferenceArray<byte[]>(256);
+
+    /**
+     * Buffers where responses are encoded, shared by all threads (so that their number does not grow with the number of request
+     * threads).
+     */
+    private final static BlockingQueue<ByteBuffer> POOLED_BUFFERS = new ArrayBlockingQueue<ByteBuffer>(MAX_POOLED_BUFFERS);
+
     /**
      * Sending a packet to the Nabaztag.
-     * 
+     *
      * @param out the stream to communicate with the bunny.
      * @param packet the packet to send.
      * @throws IOException if an IO error occured while sending response data bytes.
@@ -24,33 +63,195 @@ public class PacketHTTPResponse extends AbstractHTTPResponse
     {
 	super(out);
 
-	// Generating packet data
-	byte[] data = packet.generatePacket();
-
-	// Buffering header
-	String httpHeader = "HTTP/1.0 200 OK\r\n" + "Content-length: " + data.length + "\r\n" + "\r\n";
-	byte[] httpHeaderBytes = null;
+	ByteBuffer response = encodeToPooledBuffer(packet);
 	try
 	{
-	    httpHeaderBytes = httpHeader.getBytes("US-ASCII");
+	    this.sendResponse(response.array(), response.arrayOffset() + response.position(), response.remaining());
 	}
-	catch (UnsupportedEncodingException e)
+	finally
 	{
-	    // This exception can not occur since every platform should support ASCII encoding.
+	    releasePooledBuffer(response);
 	}
+    }
 
-	this.out.write(httpHeaderBytes);
-	this.out.flush();
+    /**
+     * Sending an already encoded response (see {@link #encode(Packet)}) to the Nabaztag.
+     *
+     * @param out the stream to communicate with the bunny.
+     * @param response the encoded response (HTTP header and packet).
+     * @throws IOException if an IO error occured while sending response data bytes.
+     */
+    public PacketHTTPResponse(OutputStream out, byte[] response) throws IOException
+    {
+	super(out);
 
-	ByteArrayInputStream bis = new ByteArrayInputStream(data);
-	this.sendResponse(bis);
-	try
+	// Packets are small, sending the whole response with a single write
+	this.sendResponse(response);
+    }
+
+    /**
+     * Sending an already encoded response (see {@link #encodeToPooledBuffer(Packet)}) to the Nabaztag. The response is written before
+     * the constructor returns, so the buffer may be reused afterwards.
+     *
+     * @param out the stream to communicate with the bunny.
+     * @param response the buffer holding the encoded response, from its position to its limit (which are left unchanged).
+     * @throws IOException if an IO error occured while sending response data bytes.
+     */
+    public PacketHTTPResponse(OutputStream out, ByteBuffer response) throws IOException
+    {
+	super(out);
+
+	if (response.hasArray())
+	    this.sendResponse(response.array(), response.arrayOffset() + response.position(), response.remaining());
+	else
+	{
+	    byte[] data = new byte[response.remaining()];
+	    response.duplicate().get(data);
+	    this.sendResponse(data);
+	}
+    }
+
+    /**
+     * Encoding a response carrying a packet into a new array, of the exact size of the response.
+     *
+     * @param packet the packet to send.
+     * @return the encoded response (HTTP header and packet).
+     * @throws IOException if the packet can not be encoded.
+     */
+    public static byte[] encode(Packet packet) throws IOException
+    {
+	PacketEncoder encoder = new PacketEncoder(packet);
+	byte[] response = new byte[getResponseSize(encoder)];
+	encode(encoder, ByteBuffer.wrap(response));
+	return response;
+    }
+
+    /**
+     * Encoding a response carrying a packet into a buffer, from its current position (which is moved past the response).
+     *
+     * @param packet the packet to send.
+     * @param buffer the buffer where to write the response.
+     * @return the size of the encoded response, in bytes.
+     * @throws IOException if the packet can not be encoded.
+     * @throws BufferOverflowException if the remaining space of the buffer is smaller than the response (nothing being written).
+     */
+    public static int encode(Packet packet, ByteBuffer buffer) throws IOException
+    {
+	return encode(new PacketEncoder(packet), buffer);
+    }
+
+    /**
+     * Encoding a response carrying a packet into a pooled buffer (or into a new buffer if the response does not fit). The buffer should
+     * be given back with {@link #releasePooledBuffer(ByteBuffer)} once the response has been sent, and not used afterwards.
+     *
+     * @param packet the packet to send.
+     * @return the buffer holding the encoded response, from its position to its limit.
+     * @throws IOException if the packet can not be encoded.
+     */
+    public static ByteBuffer encodeToPooledBuffer(Packet packet) throws IOException
+    {
+	PacketEncoder encoder = new PacketEncoder(packet);
+	int size = getResponseSize(encoder);
+	ByteBuffer buffer = null;
+	if (size <= POOLED_BUFFER_SIZE) buffer = POOLED_BUFFERS.poll();
+	if (buffer == null) buffer = ByteBuffer.allocate(Math.max(size, POOLED_BUFFER_SIZE));
+	buffer.clear();
+	encode(encoder, buffer);
+	buffer.flip();
+	return buffer;
+    }
+
+    /**
+     * Giving back a buffer returned by {@link #encodeToPooledBuffer(Packet)}, so that it can be reused by another response. Buffers of
+     * another size (e.g. wrapping an already encoded response) are ignored, as are buffers released while the pool is full.
+     *
+     * @param buffer the buffer to give back.
+     */
+    public static void releasePooledBuffer(ByteBuffer buffer)
+    {
+	if (buffer.capacity() == POOLED_BUFFER_SIZE && buffer.hasArray()) POOLED_BUFFERS.offer(buffer);
+    }
+
+    /**
+     * Internal method encoding a response into a buffer, from its current position: the HTTP header is written first, followed by the
+     * packet.
+     *
+     * @param encoder the encoder of the packet to send.
+     * @param buffer the buffer where to write the response.
+     * @return the size of the encoded response, in bytes.
+     * @throws BufferOverflowException if the remaining space of the buffer is smaller than the response (nothing being written).
+     */
+    private static int encode(PacketEncoder encoder, ByteBuffer buffer)
+    {
+	int size = getResponseSize(encoder);
+	if (buffer.remaining() < size) throw new BufferOverflowException();
+
+	buffer.put(HEADER_START);
+
+	// Writing the content length digits, from the least significant one
+	int length = encoder.getSize();
+	int position = buffer.position();
+	int digits = getDigitCount(length);
+	for (int i = digits - 1; i >= 0; i--)
 	{
-	    bis.close();
+	    buffer.put(position + i, (byte) ('0' + length % 10));
+	    length /= 10;
 	}
-	catch (IOException e)
+	buffer.position(position + digits);
+
+	buffer.put(HEADER_END);
+	encoder.encode(buffer);
+	return size;
+    }
+
+    /**
+     * Internal method computing the size of a response.
+     *
+     * @param encoder the encoder of the packet to send.
+     * @return the size of the response (HTTP header and packet), in bytes.
+     */
+    private static int getResponseSize(PacketEncoder encoder)
+    {
+	return HEADER_START.length + getDigitCount(encoder.getSize()) + HEADER_END.length + encoder.getSize();
+    }
+
+    /**
+     * Internal method counting the decimal digits of a positive value.
+     *
+     * @param value the value.
+     * @return the number of decimal digits of the value.
+     */
+    private static int getDigitCount(int value)
+    {
+	int digits = 1;
+	while (value >= 10)
+	{
+	    value /= 10;
+	    digits++;
+	}
+	return digits;
+    }
+
+    /**
+     * Getting the encoded response carrying a default packet, i.e. a ping interval block followed by an empty ambient block.
+     *
+     * @param pingInterval the ping interval, in seconds.
+     * @return the encoded response (which must not be modified).
+     * @throws IOException if the packet can not be encoded.
+     */
+    public static byte[] getDefaultResponse(int pingInterval) throws IOException
+    {
+	// Ping interval blocks hold a single byte
+	int index = pingInterval & 0xFF;
+	byte[] response = DEFAULT_RESPONSES.get(index);
+	if (response == null)
 	{
-	    // Ignoring this exception
+	    Packet packet = new Packet();
+	    packet.addBlock(new PingIntervalBlock(pingInterval));
+	    packet.addBlock(new AmbientBlock());
+	    response = encode(packet);
+	    DEFAULT_RESPONSES.set(index, response);
 	}
+	return response;
     }
 }
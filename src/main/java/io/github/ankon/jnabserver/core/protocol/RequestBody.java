@@ -0,0 +1,440 @@
+package io.github.ankon.jnabserver.core.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Body of a request (e.g. recorded voice data), streamed from the connection instead of being held on the heap.<br/>
+ *
+ * The body can be read only once, unless it has been spilled first: small bodies are then kept in memory, larger ones are written to a
+ * temporary file, deleted when the body is released. The body can also be copied to another stream as it is read (e.g. to capture it),
+ * without being read any further.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class RequestBody
+{
+    /**
+     * Maximum size of bodies kept in memory when spilled.
+     */
+    private final static int MEMORY_THRESHOLD = 64 * 1024;
+
+    /**
+     * Size of the buffer used to copy data.
+     */
+    private final static int COPY_BUFFER_SIZE = 8192;
+
+    /**
+     * Length of the body, in bytes.
+     */
+    private int length;
+
+    /**
+     * Stream where to read the body, if not consumed or spilled yet.
+     */
+    private InputStream in;
+
+    /**
+     * Content of the body, if spilled to memory.
+     */
+    private byte[] data;
+
+    /**
+     * Temporary file holding the body, if spilled to disk.
+     */
+    private File spillFile;
+
+    /**
+     * Stream where to copy the body as it is read (<tt>null</tt> if none, or once closed).
+     */
+    private OutputStream copy;
+
+    /**
+     * Creating a new request body.
+     *
+     * @param buffered the part of the body already read along with the request header.
+     * @param in the stream where to read the remaining part of the body.
+     * @param length the length of the body, in bytes.
+     */
+    RequestBody(byte[] buffered, InputStream in, int length)
+    {
+	this.length = length;
+	InputStream remaining = new BoundedInputStream(in, length - buffered.length);
+	this.in = (buffered.length == 0) ? remaining : new SequenceInputStream(new ByteArrayInputStream(buffered), remaining);
+	this.data = null;
+	this.spillFile = null;
+	this.copy = null;
+    }
+
+    /**
+     * Getting the length of the body.
+     *
+     * @return the length of the body, in bytes.
+     */
+    public int getLength()
+    {
+	return this.length;
+    }
+
+    /**
+     * Opening a stream reading the body. Unless the body has been spilled, it can be opened only once.
+     *
+     * @return a stream reading the body.
+     * @throws IOException if the body has already been read, or if the spill file can not be opened.
+     */
+    public synchronized InputStream openStream() throws IOException
+    {
+	if (this.data != null) return new ByteArrayInputStream(this.data);
+	if (this.spillFile != null) return new FileInputStream(this.spillFile);
+	if (this.in == null) throw new IOException("Request body has already been read");
+	InputStream stream = this.in;
+	this.in = null;
+	return stream;
+    }
+
+    /**
+     * Opening a channel reading the body. Unless the body has been spilled, it can be opened only once.
+     *
+     * @return a channel reading the body.
+     * @throws IOException if the body has already been read, or if the spill file can not be opened.
+     */
+    public ReadableByteChannel openChannel() throws IOException
+    {
+	return Channels.newChannel(this.openStream());
+    }
+
+    /**
+     * Copying the body to another stream as it is read, whoever reads it. The stream is closed once the whole body has been read, or when
+     * the body is released (a truncated body being then partly copied). Copying to a stream which fails stops the copy, without failing
+     * the reading of the body.
+     *
+     * @param copy the stream where to copy the body.
+     * @throws IOException if the body has already been read (or spilled), or is already copied.
+     */
+    public synchronized void tee(OutputStream copy) throws IOException
+    {
+	if (this.in == null || this.data != null || this.spillFile != null) throw new IOException("Request body has already been read");
+	if (this.copy != null) throw new IOException("Request body is already copied");
+	this.copy = copy;
+	this.in = new TeeInputStream(this.in, this.length);
+    }
+
+    /**
+     * Spilling the body (to memory if small enough, otherwise to a temporary file), so that it can be read several times.
+     *
+     * @throws IOException if an I/O error occurs while reading the body or writing the temporary file.
+     */
+    public synchronized void spill() throws IOException
+    {
+	if (this.data != null || this.spillFile != null) return;
+	InputStream stream = this.openStream();
+
+	if (this.length <= MEMORY_THRESHOLD)
+	{
+	    byte[] data = new byte[this.length];
+	    int position = 0;
+	    while (position < this.length)
+	    {
+		int read = stream.read(data, position, this.length - position);
+		if (read == -1) throw new IOException("Request body is truncated");
+		position += read;
+	    }
+	    this.data = data;
+	    return;
+	}
+
+	File spillFile = File.createTempFile("jNab-body", ".tmp");
+	try
+	{
+	    copy(stream, spillFile);
+	}
+	catch (IOException e)
+	{
+	    spillFile.delete();
+	    throw e;
+	}
+	this.spillFile = spillFile;
+    }
+
+    /**
+     * Writing the body to a file (streaming it directly, unless it has been spilled).
+     *
+     * @param file the file where to write the body.
+     * @throws IOException if an I/O error occurs while reading the body or writing the file.
+     */
+    public void writeTo(File file) throws IOException
+    {
+	copy(this.openStream(), file);
+    }
+
+    /**
+     * Getting the whole body as a byte array (which spills the body).
+     *
+     * @return the content of the body.
+     * @throws IOException if an I/O error occurs while reading the body.
+     */
+    public synchronized byte[] toByteArray() throws IOException
+    {
+	this.spill();
+	if (this.data != null) return this.data.clone();
+
+	byte[] data = new byte[this.length];
+	InputStream stream = new FileInputStream(this.spillFile);
+	try
+	{
+	    int position = 0;
+	    while (position < this.length)
+	    {
+		int read = stream.read(data, position, this.length - position);
+		if (read == -1) throw new IOException("Request body is truncated");
+		position += read;
+	    }
+	}
+	finally
+	{
+	    stream.close();
+	}
+	return data;
+    }
+
+    /**
+     * Releasing resources held by the body (i.e. deleting the temporary file it may have been spilled to). A body which has not been read
+     * is discarded from the connection, since closing a connection with unread data resets it (and the client may then lose the
+     * response).
+     */
+    public synchronized void release()
+    {
+	if (this.in != null)
+	{
+	    try
+	    {
+		byte[] buffer = new byte[COPY_BUFFER_SIZE];
+		while (this.in.read(buffer) != -1)
+		{
+		    // Discarding data
+		}
+	    }
+	    catch (IOException e)
+	    {
+		// Ignoring the exception, the connection is closed anyway
+	    }
+	}
+	this.in = null;
+	this.data = null;
+	this.closeCopy();
+	if (this.spillFile != null)
+	{
+	    this.spillFile.delete();
+	    this.spillFile = null;
+	}
+    }
+
+    /**
+     * Internal method copying data read from the body to the copy stream, if any.
+     *
+     * @param b the data read.
+     * @param off the offset of the data in <tt>b</tt>.
+     * @param len the length of the data.
+     */
+    private synchronized void copy(byte[] b, int off, int len)
+    {
+	if (this.copy == null) return;
+	try
+	{
+	    this.copy.write(b, off, len);
+	}
+	catch (IOException e)
+	{
+	    this.closeCopy();
+	}
+    }
+
+    /**
+     * Internal method closing the copy stream, if any.
+     */
+    private synchronized void closeCopy()
+    {
+	if (this.copy == null) return;
+	try
+	{
+	    this.copy.close();
+	}
+	catch (IOException e)
+	{
+	    // Ignoring the exception, the copy is stopped anyway
+	}
+	this.copy = null;
+    }
+
+    /**
+     * Internal method copying a stream to a file, closing the stream.
+     *
+     * @param stream the stream where to read data.
+     * @param file the file where to write data.
+     * @throws IOException if an I/O error occurs while reading or writing data.
+     */
+    private static void copy(InputStream stream, File file) throws IOException
+    {
+	OutputStream out = new FileOutputStream(file);
+	try
+	{
+	    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+	    int read;
+	    while ((read = stream.read(buffer)) != -1)
+		out.write(buffer, 0, read);
+	}
+	finally
+	{
+	    out.close();
+	    stream.close();
+	}
+    }
+
+    /**
+     * Stream reading a given number of bytes from another stream, which is not closed afterwards (since it belongs to the connection).
+     */
+    private static class BoundedInputStream extends InputStream
+    {
+	/**
+	 * Stream where to read data.
+	 */
+	private InputStream in;
+
+	/**
+	 * Number of bytes remaining to be read.
+	 */
+	private int remaining;
+
+	/**
+	 * Creating a new bounded stream.
+	 *
+	 * @param in the stream where to read data.
+	 * @param length the number of bytes to read.
+	 */
+	private BoundedInputStream(InputStream in, int length)
+	{
+	    this.in = in;
+	    this.remaining = length;
+	}
+
+	/**
+	 * @see java.io.InputStream#read()
+	 */
+	public int read() throws IOException
+	{
+	    if (this.remaining <= 0) return -1;
+	    int b = this.in.read();
+	    if (b == -1) throw new IOException("Request body is truncated");
+	    this.remaining--;
+	    return b;
+	}
+
+	/**
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+	    if (this.remaining <= 0) return -1;
+	    if (len == 0) return 0;
+	    int read = this.in.read(b, off, Math.min(len, this.remaining));
+	    if (read == -1) throw new IOException("Request body is truncated");
+	    this.remaining -= read;
+	    return read;
+	}
+
+	/**
+	 * @see java.io.InputStream#available()
+	 */
+	public int available() throws IOException
+	{
+	    return Math.min(this.in.available(), this.remaining);
+	}
+
+	/**
+	 * @see java.io.InputStream#close()
+	 */
+	public void close()
+	{
+	    this.remaining = 0;
+	}
+    }
+
+    /**
+     * Stream reading the body, copying data to the copy stream of the body as it is read, and closing the copy stream once the whole body
+     * has been read.
+     */
+    private class TeeInputStream extends InputStream
+    {
+	/**
+	 * Stream where to read the body.
+	 */
+	private InputStream in;
+
+	/**
+	 * Number of bytes remaining to be read.
+	 */
+	private int remaining;
+
+	/**
+	 * Creating a new copying stream.
+	 *
+	 * @param in the stream where to read the body.
+	 * @param length the length of the body, in bytes.
+	 */
+	private TeeInputStream(InputStream in, int length)
+	{
+	    this.in = in;
+	    this.remaining = length;
+	    if (length == 0) RequestBody.this.closeCopy();
+	}
+
+	/**
+	 * @see java.io.InputStream#read()
+	 */
+	public int read() throws IOException
+	{
+	    byte[] b = new byte[1];
+	    return (this.read(b, 0, 1) == -1) ? -1 : (b[0] & 0xFF);
+	}
+
+	/**
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+	    int read = this.in.read(b, off, len);
+	    if (read > 0)
+	    {
+		RequestBody.this.copy(b, off, read);
+		this.remaining -= read;
+		if (this.remaining <= 0) RequestBody.this.closeCopy();
+	    }
+	    return read;
+	}
+
+	/**
+	 * @see java.io.InputStream#available()
+	 */
+	public int available() throws IOException
+	{
+	    return this.in.available();
+	}
+
+	/**
+	 * @see java.io.InputStream#close()
+	 */
+	public void close() throws IOException
+	{
+	    this.in.close();
+	}
+    }
+}
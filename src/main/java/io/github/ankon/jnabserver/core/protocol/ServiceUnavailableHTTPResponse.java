@@ -0,0 +1,38 @@
+package io.github.ankon.jnabserver.core.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Class used to tell the bunny that the server is overloaded and that the request has to be retried later.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class ServiceUnavailableHTTPResponse extends AbstractHTTPResponse
+{
+    /**
+     * Creating a new response instance, in order to shed a request.
+     *
+     * @param out the output stream used to communicate with the bunny.
+     * @param retryAfter the delay, in seconds, after which the request can be retried.
+     * @throws IOException if an IO error occured while sending response data bytes.
+     */
+    public ServiceUnavailableHTTPResponse(OutputStream out, int retryAfter) throws IOException
+    {
+	super(out);
+	String httpHeader = "HTTP/1.0 503 Service Unavailable\r\n" + "Retry-After: " + retryAfter + "\r\n" + "\r\n";
+	byte[] httpHeaderBytes = null;
+	try
+	{
+	    httpHeaderBytes = httpHeader.getBytes("US-ASCII");
+	}
+	catch (UnsupportedEncodingException e)
+	{
+	    // This exception can not occur since every platform should support ASCII encoding.
+	}
+	this.sendResponse(new ByteArrayInputStream(httpHeaderBytes));
+    }
+}
@@ -0,0 +1,132 @@
+package io.github.ankon.jnabserver.core.server;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for requests processed by the micro server.<br/>
+ *
+ * Requests are grouped in route classes, each of them having its own concurrency limit, so that a burst of expensive requests (e.g. the
+ * whole fleet fetching its bootcode after a power outage) can not starve cheap ones (pings). Requests exceeding the limit of their class
+ * are shed, and counted as such.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class AdmissionController
+{
+    /**
+     * Route class for bootcode requests.
+     */
+    public final static int BOOTCODE_ROUTE = 0;
+
+    /**
+     * Route class for local file requests.
+     */
+    public final static int LOCAL_FILE_ROUTE = 1;
+
+    /**
+     * Route class for event (ping, rfid, record) requests.
+     */
+    public final static int EVENT_ROUTE = 2;
+
+    /**
+     * Names of route classes, indexed by route class.
+     */
+    public final static String[] ROUTE_NAMES = { "bootcode", "local file", "event" };
+
+    /**
+     * Permits available for each route class (<tt>null</tt> meaning unlimited).
+     */
+    private volatile Semaphore[] permits;
+
+    /**
+     * Number of requests rejected for each route class.
+     */
+    private AtomicLong[] rejectedRequests;
+
+    /**
+     * Number of connections rejected because the worker pool was saturated.
+     */
+    private AtomicLong rejectedConnections;
+
+    /**
+     * Creating a new admission controller, initially without any limit.
+     */
+    public AdmissionController()
+    {
+	this.permits = new Semaphore[ROUTE_NAMES.length];
+	this.rejectedRequests = new AtomicLong[ROUTE_NAMES.length];
+	for (int i = 0; i < ROUTE_NAMES.length; i++)
+	    this.rejectedRequests[i] = new AtomicLong();
+	this.rejectedConnections = new AtomicLong();
+    }
+
+    /**
+     * Setting the maximum number of requests of a given route class processed concurrently. Limits are meant to be set before the micro
+     * server is started.
+     *
+     * @param route the route class.
+     * @param limit the maximum number of concurrent requests (0 or less meaning unlimited).
+     */
+    public synchronized void setLimit(int route, int limit)
+    {
+	Semaphore[] newPermits = this.permits.clone();
+	newPermits[route] = (limit > 0) ? new Semaphore(limit) : null;
+	this.permits = newPermits;
+    }
+
+    /**
+     * Trying to admit a request, given its route class. Each admitted request must be notified to be complete using {@link #release(int)}.
+     *
+     * @param route the route class of the request.
+     * @return <tt>true</tt> if the request is admitted, <tt>false</tt> if it has to be shed.
+     */
+    public boolean tryAcquire(int route)
+    {
+	Semaphore semaphore = this.permits[route];
+	if (semaphore == null || semaphore.tryAcquire()) return true;
+	this.rejectedRequests[route].incrementAndGet();
+	return false;
+    }
+
+    /**
+     * Notifying that an admitted request is complete.
+     *
+     * @param route the route class of the request.
+     */
+    public void release(int route)
+    {
+	Semaphore semaphore = this.permits[route];
+	if (semaphore != null) semaphore.release();
+    }
+
+    /**
+     * Notifying that a connection has been rejected because no worker was available.
+     */
+    public void connectionRejected()
+    {
+	this.rejectedConnections.incrementAndGet();
+    }
+
+    /**
+     * Getting the number of requests of a given route class that have been shed.
+     *
+     * @param route the route class.
+     * @return the number of requests of the route class that have been shed.
+     */
+    public long getRejectedRequests(int route)
+    {
+	return this.rejectedRequests[route].get();
+    }
+
+    /**
+     * Getting the number of connections that have been rejected because no worker was available.
+     *
+     * @return the number of connections that have been rejected.
+     */
+    public long getRejectedConnections()
+    {
+	return this.rejectedConnections.get();
+    }
+}
@@ -0,0 +1,51 @@
+package io.github.ankon.jnabserver.core.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import io.github.ankon.jnabserver.core.cache.CachedFile;
+import io.github.ankon.jnabserver.core.protocol.CachedFileHTTPResponse;
+import io.github.ankon.jnabserver.core.protocol.HTTPRequest;
+import io.github.ankon.jnabserver.core.protocol.LocalFileHTTPResponse;
+
+/**
+ * Handler sending its bootcode to a bunny (<tt>/vl/bc.jsp</tt>).
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class BootcodeRouteHandler implements RouteHandler
+{
+    /**
+     * @see RouteHandler#handle(HTTPRequest, OutputStream, Worker)
+     */
+    public void handle(HTTPRequest request, OutputStream outStream, Worker worker)
+    {
+	MicroServer microServer = worker.getMicroServer();
+	if (!worker.admit(AdmissionController.BOOTCODE_ROUTE, outStream)) return;
+
+	microServer.getLogger().info(() -> "<jNab/server/worker:" + worker.getName() + "> Sending boot code to bunny");
+	CachedFile bootcode = microServer.getBootcode();
+	try
+	{
+	    long start = System.nanoTime();
+	    CachedFile.Content content = bootcode.getContent();
+	    long loaded = System.nanoTime();
+	    worker.recordPhase(Route.ENCODE_PHASE, loaded - start);
+	    if (content != null)
+		new CachedFileHTTPResponse(outStream, content, request);
+	    else
+		// Bootcode file is missing, letting the bunny know it is not found
+		new LocalFileHTTPResponse(outStream, bootcode.getFile());
+	    worker.recordPhase(Route.SEND_PHASE, System.nanoTime() - loaded);
+	}
+	catch (IOException e)
+	{
+	    microServer.getLogger().debug(() -> "<jNab/server/worker:" + worker.getName() + "> Failed to send bootcode to bunny");
+	}
+	finally
+	{
+	    microServer.getAdmissionController().release(AdmissionController.BOOTCODE_ROUTE);
+	}
+    }
+}
@@ -0,0 +1,41 @@
+package io.github.ankon.jnabserver.core.server;
+
+import io.github.ankon.jnabserver.core.metrics.Counter;
+
+import java.io.OutputStream;
+
+/**
+ * Output stream to a client connection, counting the bytes actually handed to the connection (including those written asynchronously,
+ * after the worker is done with the request).
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+abstract class ByteCountingOutputStream extends OutputStream
+{
+    /**
+     * Counter of sent bytes (<tt>null</tt> if bytes are not counted yet).
+     */
+    private volatile Counter bytesSent;
+
+    /**
+     * Setting the counter of bytes sent from now on.
+     *
+     * @param bytesSent the counter of sent bytes (e.g. the one of the route of the request).
+     */
+    void countTo(Counter bytesSent)
+    {
+	this.bytesSent = bytesSent;
+    }
+
+    /**
+     * Counting bytes handed to the connection.
+     *
+     * @param length the number of bytes.
+     */
+    protected final void count(long length)
+    {
+	Counter bytesSent = this.bytesSent;
+	if (bytesSent != null) bytesSent.add(length);
+    }
+}
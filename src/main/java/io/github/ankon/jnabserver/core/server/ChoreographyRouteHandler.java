@@ -0,0 +1,59 @@
+package io.github.ankon.jnabserver.core.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import io.github.ankon.jnabserver.core.choreography.Choreography;
+import io.github.ankon.jnabserver.core.exceptions.NoSuchChoreographyException;
+import io.github.ankon.jnabserver.core.protocol.ChoreographyHTTPResponse;
+import io.github.ankon.jnabserver.core.protocol.HTTPRequest;
+
+/**
+ * Handler sending a choreography of the library to a bunny (<tt>/chorlibrary/&lt;name&gt;</tt>).
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class ChoreographyRouteHandler implements RouteHandler
+{
+    /**
+     * Prefix of choreography requests, followed by the name of the choreography.
+     */
+    public final static String PREFIX = "/chorlibrary/";
+
+    /**
+     * @see RouteHandler#handle(HTTPRequest, OutputStream, Worker)
+     */
+    public void handle(HTTPRequest request, OutputStream outStream, Worker worker)
+    {
+	MicroServer microServer = worker.getMicroServer();
+
+	// Retrieving choreography
+	String choreographyName = request.getURLParam("requestfile").substring(PREFIX.length());
+	Choreography choreography = null;
+	try
+	{
+	    choreography = microServer.getChoregraphyLibrary().getChoreography(choreographyName);
+	}
+	catch (NoSuchChoreographyException e)
+	{
+	    microServer.getLogger().debug(
+		    () -> "<jNab/server/worker:" + worker.getName() + "> bunny asked an unknown choreography (" + choreographyName + ")");
+	    return;
+	}
+
+	microServer.getLogger().debug(
+		() -> "<jNab/server/worker:" + worker.getName() + "> sending choreography (" + choreographyName + ") to bunny");
+	try
+	{
+	    long start = System.nanoTime();
+	    new ChoreographyHTTPResponse(outStream, choreography);
+	    worker.recordPhase(Route.SEND_PHASE, System.nanoTime() - start);
+	}
+	catch (IOException e)
+	{
+	    microServer.getLogger().debug(
+		    () -> "<jNab/server/worker:" + worker.getName() + "> failed to send choreography (" + choreographyName + ") to bunny");
+	}
+    }
+}
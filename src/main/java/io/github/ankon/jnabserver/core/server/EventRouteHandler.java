@@ -0,0 +1,133 @@
+package io.github.ankon.jnabserver.core.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import io.github.ankon.jnabserver.core.bunny.Bunny;
+import io.github.ankon.jnabserver.core.exceptions.NoSuchBunnyException;
+import io.github.ankon.jnabserver.core.logging.Tracer;
+import io.github.ankon.jnabserver.core.profiling.RequestProfiler;
+import io.github.ankon.jnabserver.core.protocol.HTTPRequest;
+import io.github.ankon.jnabserver.core.protocol.Packet;
+import io.github.ankon.jnabserver.core.protocol.PacketHTTPResponse;
+
+/**
+ * Handler processing an event notified by a bunny (ping, rfid, record, ...), sending it the next packet in its queue
+ * (<tt>/vl/p4.jsp</tt>, <tt>/vl/rfid.jsp</tt>, <tt>/vl/record.jsp</tt>).
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class EventRouteHandler implements RouteHandler
+{
+    /**
+     * @see RouteHandler#handle(HTTPRequest, OutputStream, Worker)
+     */
+    public void handle(HTTPRequest request, OutputStream outStream, Worker worker)
+    {
+	MicroServer microServer = worker.getMicroServer();
+
+	// Checking if serial number seems correct
+	String serialNumber = request.getURLParam("sn");
+	if (serialNumber == null)
+	{
+	    microServer.getLogger().debug(
+		    () -> "<jNab/server/worker:" + worker.getName() + "> Unable to find valid serial number in request, ignoring it");
+	    return;
+	}
+
+	if (!worker.admit(AdmissionController.EVENT_ROUTE, outStream)) return;
+
+	try
+	{
+	    this.processEvent(request, serialNumber, outStream, worker);
+	}
+	finally
+	{
+	    microServer.getAdmissionController().release(AdmissionController.EVENT_ROUTE);
+	}
+    }
+
+    /**
+     * Internal method processing an event notified by a bunny.
+     *
+     * @param r the request notifying the event.
+     * @param serialNumber the serial number of the bunny.
+     * @param outStream the stream used to write the response.
+     * @param worker the worker processing the request.
+     */
+    private void processEvent(HTTPRequest r, String serialNumber, OutputStream outStream, Worker worker)
+    {
+	MicroServer microServer = worker.getMicroServer();
+	Bunny bunny = null;
+
+	// Retrieving bunny, or adding a new one
+	try
+	{
+	    bunny = microServer.getBurrow().getBunny(serialNumber);
+	}
+	catch (NoSuchBunnyException e)
+	{
+	    microServer.getLogger().info(
+		    () -> "<jNab/server/worker:" + worker.getName() + "> Adding the bunny whose serial number is " + serialNumber
+			    + " to the burrow");
+	    bunny = new Bunny(serialNumber);
+	    microServer.getBurrow().addBunny(bunny);
+	}
+
+	// Processing request
+	microServer.getLogger().debug(() -> "<jNab/server/worker:" + worker.getName() + "> Processing request");
+	long start = System.nanoTime();
+	bunny.handleRequest(r);
+	worker.recordPhase(Route.PLUGIN_PHASE, System.nanoTime() - start);
+
+	// Sending the first packet in queue to the bunny
+	try
+	{
+	    start = System.nanoTime();
+	    Object encodeEvent = RequestProfiler.begin(RequestProfiler.PACKET_ENCODED_EVENT);
+	    Packet packet = bunny.getNextPacket();
+	    ByteBuffer response;
+
+	    if (packet == null)
+	    {
+		int pingInterval = bunny.getPingInterval();
+		microServer.getLogger().debug(
+			() -> "<jNab/server/worker:" + worker.getName() + "> Packet to send is a default packet (ping interval "
+				+ pingInterval + ")");
+
+		// If there was no packet in the list, a default packet is returned (already encoded).
+		response = ByteBuffer.wrap(PacketHTTPResponse.getDefaultResponse(pingInterval));
+	    }
+	    else
+	    {
+		microServer.getLogger().debug(() -> "<jNab/server/worker:" + worker.getName() + "> Sending packet:\n" + packet);
+		response = PacketHTTPResponse.encodeToPooledBuffer(packet);
+	    }
+
+	    int length = response.remaining();
+	    RequestProfiler.packetEncoded(encodeEvent, serialNumber, length, packet == null);
+	    long encoded = System.nanoTime();
+	    worker.recordPhase(Route.ENCODE_PHASE, encoded - start);
+	    try
+	    {
+		new PacketHTTPResponse(outStream, response);
+		worker.recordPhase(Route.SEND_PHASE, System.nanoTime() - encoded);
+		bunny.getStatistics().responseSent(length);
+		microServer.getTracer().trace(serialNumber,
+			() -> "Response sent (" + (packet == null ? "default packet" : packet.toString()) + "):\n"
+				+ Tracer.toHexDump(Arrays.copyOfRange(response.array(), response.position(), response.limit())));
+	    }
+	    finally
+	    {
+		PacketHTTPResponse.releasePooledBuffer(response);
+	    }
+	}
+	catch (IOException e)
+	{
+	    microServer.getLogger().debug(() -> "<jNab/server/worker:" + worker.getName() + "> Failed to send packet to bunny");
+	}
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.ankon.jnabserver.core.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import io.github.ankon.jnabserver.core.cache.CachedFile;
+import io.github.ankon.jnabserver.core.protocol.CachedFileHTTPResponse;
+import io.github.ankon.jnabserver.core.protocol.HTTPRequest;
+import io.github.ankon.jnabserver.core.protocol.LocalFileHTTPResponse;
+
+/**
+ * Handler sending a local file to a bunny (default route), from the file cache when possible.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class LocalFileRouteHandler implements RouteHandler
+{
+    /**
+     * @see RouteHandler#handle(HTTPRequest, OutputStream, Worker)
+     */
+    public void handle(HTTPRequest request, OutputStream outStream, Worker worker)
+    {
+	MicroServer microServer = worker.getMicroServer();
+
+	String requestFile = request.getURLParam("requestfile");
+	if (requestFile.length() == 0)
+	{
+	    microServer.getLogger().debug(() -> "<jNab/server/worker:" + worker.getName() + "> malformed local file request");
+	    return;
+	}
+	String fileName = requestFile.substring(1);
+
+	if (!worker.admit(AdmissionController.LOCAL_FILE_ROUTE, outStream)) return;
+
+	// Sending local file
+	microServer.getLogger().debug(() -> "<jNab/server/worker:" + worker.getName() + "> sending local file (" + fileName + ") to bunny");
+	try
+	{
+	    File file = new File(fileName);
+	    long start = System.nanoTime();
+	    CachedFile.Content content = microServer.getFileCache().getContent(file);
+	    long loaded = System.nanoTime();
+	    worker.recordPhase(Route.ENCODE_PHASE, loaded - start);
+	    if (content != null)
+		new CachedFileHTTPResponse(outStream, content, request);
+	    else
+		// File is missing or can not be cached, reading it from disk
+		new LocalFileHTTPResponse(outStream, file);
+	    worker.recordPhase(Route.SEND_PHASE, System.nanoTime() - loaded);
+	}
+	catch (IOException e)
+	{
+	    microServer.getLogger().debug(() -> "<jNab/server/worker:" + worker.getName() + "> failed to send local file to bunny");
+	}
+	finally
+	{
+	    microServer.getAdmissionController().release(AdmissionController.LOCAL_FILE_ROUTE);
+	}
+    }
+}
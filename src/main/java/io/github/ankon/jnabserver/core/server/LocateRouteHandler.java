@@ -0,0 +1,36 @@
+package io.github.ankon.jnabserver.core.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import io.github.ankon.jnabserver.core.protocol.HTTPRequest;
+import io.github.ankon.jnabserver.core.protocol.LocateHTTPResponse;
+
+/**
+ * Handler sending the location (IP/port) of the server to a bunny (<tt>/vl/locate.jsp</tt>).
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class LocateRouteHandler implements RouteHandler
+{
+    /**
+     * @see RouteHandler#handle(HTTPRequest, OutputStream, Worker)
+     */
+    public void handle(HTTPRequest request, OutputStream outStream, Worker worker)
+    {
+	MicroServer microServer = worker.getMicroServer();
+	microServer.getLogger().info(() -> "<jNab/server/worker:" + worker.getName() + "> Sending logging information");
+	try
+	{
+	    long start = System.nanoTime();
+	    new LocateHTTPResponse(outStream, microServer.getAddress(), microServer.getPort());
+	    worker.recordPhase(Route.SEND_PHASE, System.nanoTime() - start);
+	}
+	catch (IOException e)
+	{
+	    microServer.getLogger().debug(
+		    () -> "<jNab/server/worker:" + worker.getName() + "> Failed to send location information to bunny");
+	}
+    }
+}
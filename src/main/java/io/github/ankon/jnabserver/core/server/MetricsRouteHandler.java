@@ -0,0 +1,42 @@
+package io.github.ankon.jnabserver.core.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import io.github.ankon.jnabserver.core.protocol.HTTPRequest;
+import io.github.ankon.jnabserver.core.protocol.MetricsHTTPResponse;
+
+/**
+ * Handler sending the metrics of the server to a monitoring system (<tt>/metrics</tt>).
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class MetricsRouteHandler implements RouteHandler
+{
+    /**
+     * Path of the metrics route.
+     */
+    public final static String PATH = "/metrics";
+
+    /**
+     * @see RouteHandler#handle(HTTPRequest, OutputStream, Worker)
+     */
+    public void handle(HTTPRequest request, OutputStream outStream, Worker worker)
+    {
+	MicroServer microServer = worker.getMicroServer();
+	try
+	{
+	    long start = System.nanoTime();
+	    byte[] metrics = microServer.getMetrics().render();
+	    long rendered = System.nanoTime();
+	    worker.recordPhase(Route.ENCODE_PHASE, rendered - start);
+	    new MetricsHTTPResponse(outStream, metrics);
+	    worker.recordPhase(Route.SEND_PHASE, System.nanoTime() - rendered);
+	}
+	catch (IOException e)
+	{
+	    microServer.getLogger().debug(() -> "<jNab/server/worker:" + worker.getName() + "> Failed to send metrics");
+	}
+    }
+}
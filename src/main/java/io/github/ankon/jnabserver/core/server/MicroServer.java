@@ -2,14 +2,39 @@ package io.github.ankon.jnabserver.core.server;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.github.ankon.jnabserver.core.bunny.Burrow;
+import io.github.ankon.jnabserver.core.cache.CachedFile;
+import io.github.ankon.jnabserver.core.cache.FileCache;
 import io.github.ankon.jnabserver.core.choreography.ChoreographyLibrary;
+import io.github.ankon.jnabserver.core.logging.Logger;
+import io.github.ankon.jnabserver.core.logging.Tracer;
+import io.github.ankon.jnabserver.core.metrics.Counter;
+import io.github.ankon.jnabserver.core.metrics.MetricsRegistry;
+import io.github.ankon.jnabserver.core.plugins.PluginCounters;
 import io.github.ankon.jnabserver.core.plugins.PluginFactory;
+import io.github.ankon.jnabserver.core.plugins.PluginMonitor;
+import io.github.ankon.jnabserver.core.profiling.RequestProfiler;
+import io.github.ankon.jnabserver.core.protocol.AbstractHTTPResponse;
+import io.github.ankon.jnabserver.core.protocol.HTTPRequest;
+import io.github.ankon.jnabserver.core.protocol.PacingScheduler;
+import io.github.ankon.jnabserver.core.protocol.RequestBody;
 
 /**
  * Front-end server.
@@ -21,6 +46,42 @@ import io.github.ankon.jnabserver.core.plugins.PluginFactory;
  */
 public class MicroServer extends Thread
 {
+    /**
+     * Engine handling each client connection with a dedicated thread.
+     */
+    public final static String THREAD_ENGINE = "thread";
+
+    /**
+     * Engine handling client connections with non-blocking selector loops.
+     */
+    public final static String NIO_ENGINE = "nio";
+
+    /**
+     * Engine handling each client connection with a dedicated virtual thread (requires a JVM supporting virtual threads, the
+     * <tt>THREAD_ENGINE</tt> being used instead if not).
+     */
+    public final static String VIRTUAL_THREAD_ENGINE = "virtual";
+
+    /**
+     * Engine handling client connections with a bounded pool of threads, connections being shed when the pool and its queue are full.
+     */
+    public final static String POOL_ENGINE = "pool";
+
+    /**
+     * Default maximum number of workers run concurrently by the <tt>POOL_ENGINE</tt>.
+     */
+    public final static int DEFAULT_MAX_WORKERS = 64;
+
+    /**
+     * Default maximum number of connections waiting for a worker when using the <tt>POOL_ENGINE</tt>.
+     */
+    public final static int DEFAULT_WORKER_QUEUE_SIZE = 256;
+
+    /**
+     * Default delay, in seconds, after which bunnies whose requests have been shed are told to retry.
+     */
+    public final static int DEFAULT_RETRY_INTERVAL = 5;
+
     /**
      * IP address to which the server is bound.
      */
@@ -41,6 +102,42 @@ public class MicroServer extends Thread
      */
     private boolean isRunning;
 
+    /**
+     * Engine used to handle client connections (either <tt>THREAD_ENGINE</tt>, <tt>VIRTUAL_THREAD_ENGINE</tt>, <tt>POOL_ENGINE</tt> or
+     * <tt>NIO_ENGINE</tt>).
+     */
+    private String engine;
+
+    /**
+     * Executor running workers, or <tt>null</tt> if each worker is started as a platform thread.
+     */
+    private ExecutorService workerExecutor;
+
+    /**
+     * Maximum number of workers run concurrently by the <tt>POOL_ENGINE</tt>.
+     */
+    private int maxWorkers;
+
+    /**
+     * Maximum number of connections waiting for a worker when using the <tt>POOL_ENGINE</tt>.
+     */
+    private int workerQueueSize;
+
+    /**
+     * Delay, in seconds, after which bunnies whose requests have been shed are told to retry.
+     */
+    private int retryInterval;
+
+    /**
+     * Admission controller limiting concurrent requests per route class.
+     */
+    private AdmissionController admissionController;
+
+    /**
+     * Scheduler pacing responses sent to bunnies (<tt>null</tt> meaning that each worker paces its own response).
+     */
+    private PacingScheduler pacingScheduler;
+
     /**
      * Burrows of bunnies.
      */
@@ -56,6 +153,26 @@ public class MicroServer extends Thread
      */
     private File resourcesPath;
 
+    /**
+     * Bootcode sent to bunnies, cached in memory.
+     */
+    private volatile CachedFile bootcode;
+
+    /**
+     * Indicator used to know if the bootcode is cached off-heap.
+     */
+    private boolean directBootcode;
+
+    /**
+     * Cache of local files sent to bunnies.
+     */
+    private FileCache fileCache;
+
+    /**
+     * Table of routes processing requests.
+     */
+    private RouteTable routeTable;
+
     /**
      * Path where to find plugins jar files
      */
@@ -67,19 +184,39 @@ public class MicroServer extends Thread
     private ChoreographyLibrary choreographyLibrary;
 
     /**
-     * Error logging stream.
+     * Logger used by the server (and by bunnies of its burrow).
+     */
+    private Logger logger;
+
+    /**
+     * Tracer recording the activity of selected bunnies.
+     */
+    private Tracer tracer;
+
+    /**
+     * Registry of the metrics exported by the server.
+     */
+    private MetricsRegistry metrics;
+
+    /**
+     * Monitor timing plugin calls.
+     */
+    private PluginMonitor pluginMonitor;
+
+    /**
+     * Number of workers processing a request.
      */
-    private PrintStream errorLogging;
+    private AtomicInteger activeWorkers;
 
     /**
-     * Info logging stream.
+     * Number of accepted client connections.
      */
-    private PrintStream infoLogging;
+    private Counter acceptedConnections;
 
     /**
-     * Debug logging stream.
+     * Capture of incoming requests (<tt>null</tt> if requests are not captured).
      */
-    private PrintStream debugLogging;
+    private volatile TrafficCapture trafficCapture;
 
     /**
      * Creating a new server instance, bound on a given IP address and listening to a given port (server is not started).
@@ -96,15 +233,110 @@ public class MicroServer extends Thread
 	this.address = address;
 	this.keepRunning = true;
 	this.isRunning = false;
+	this.engine = THREAD_ENGINE;
+	this.workerExecutor = null;
+	this.maxWorkers = DEFAULT_MAX_WORKERS;
+	this.workerQueueSize = DEFAULT_WORKER_QUEUE_SIZE;
+	this.retryInterval = DEFAULT_RETRY_INTERVAL;
+	this.admissionController = new AdmissionController();
+	this.pacingScheduler = null;
 	this.resourcesPath = resourcesPath;
+	this.directBootcode = false;
+	this.bootcode = new CachedFile(new File(this.resourcesPath, "bootcode.bin"), this.directBootcode);
+	this.fileCache = new FileCache(FileCache.DEFAULT_MAX_SIZE);
+	this.routeTable = createDefaultRouteTable();
 	this.pluginsPath = pluginsPath;
 	this.pluginFactory = new PluginFactory(this.pluginsPath);
 	this.burrow = new Burrow();
 	this.burrow.setMicroServer(this);
 	this.choreographyLibrary = new ChoreographyLibrary();
-	this.errorLogging = null;
-	this.infoLogging = null;
-	this.debugLogging = null;
+	this.logger = new Logger();
+	this.tracer = new Tracer();
+	this.metrics = new MetricsRegistry();
+	this.pluginMonitor = new PluginMonitor(this.logger);
+	this.activeWorkers = new AtomicInteger();
+	this.registerMetrics();
+    }
+
+    /**
+     * Internal method creating the table of routes processing requests sent by bunnies.
+     * 
+     * @return a new route table, local files being served by default.
+     */
+    private static RouteTable createDefaultRouteTable()
+    {
+	RouteTable routeTable = new RouteTable(new Route("file", new LocalFileRouteHandler()));
+	routeTable.register("/vl/bc.jsp", new Route("bootcode", new BootcodeRouteHandler()));
+	routeTable.register("/vl/locate.jsp", new Route("locate", new LocateRouteHandler()));
+	EventRouteHandler eventRouteHandler = new EventRouteHandler();
+	routeTable.register("/vl/p4.jsp", new Route("ping", eventRouteHandler));
+	routeTable.register("/vl/rfid.jsp", new Route("rfid", eventRouteHandler));
+	routeTable.register("/vl/record.jsp", new Route("record", eventRouteHandler));
+	routeTable.registerPrefix(ChoreographyRouteHandler.PREFIX, new Route("choreography", new ChoreographyRouteHandler()));
+	routeTable.register(MetricsRouteHandler.PATH, new Route("metrics", new MetricsRouteHandler()));
+	return routeTable;
+    }
+
+    /**
+     * Internal method registering the metrics exported by the server. Most of them are sampled from existing counters when rendered, so
+     * that they cost nothing on the hot path.
+     */
+    private void registerMetrics()
+    {
+	MetricsRegistry metrics = this.metrics;
+
+	// Connections and workers
+	this.acceptedConnections = metrics.counter("jnab_connections_accepted_total", "Number of accepted client connections.");
+	metrics.counter("jnab_connections_shed_total", "Number of connections shed for lack of worker.", null, null,
+		() -> this.admissionController.getRejectedConnections());
+	for (int route = 0; route < AdmissionController.ROUTE_NAMES.length; route++)
+	{
+	    int admissionRoute = route;
+	    metrics.counter("jnab_requests_shed_total", "Number of requests shed by admission control.", "class",
+		    AdmissionController.ROUTE_NAMES[route], () -> this.admissionController.getRejectedRequests(admissionRoute));
+	}
+	metrics.gauge("jnab_workers_active", "Number of workers processing a request.", () -> this.activeWorkers.get());
+
+	// Routes, including the ones registered later on
+	this.routeTable.setRouteListener(this::registerRouteMetrics);
+	for (Route route : this.routeTable.getRoutes())
+	    this.registerRouteMetrics(route);
+
+	// Bunnies
+	metrics.gauge("jnab_bunnies", "Number of bunnies in the burrow.", () -> this.burrow.getBunnyCount());
+	metrics.gauge("jnab_queued_packets", "Number of packets waiting to be sent to bunnies.", () -> this.burrow.getQueuedPacketCount());
+	metrics.gauge("jnab_queued_packets_max", "Largest number of packets waiting to be sent to a single bunny.",
+		() -> this.burrow.getMaxQueuedPacketCount());
+
+	// File cache
+	metrics.counter("jnab_file_cache_hits_total", "Number of files served from the cache.", null, null,
+		() -> this.fileCache.getHits());
+	metrics.counter("jnab_file_cache_misses_total", "Number of files loaded from the disk.", null, null,
+		() -> this.fileCache.getMisses());
+	metrics.counter("jnab_file_cache_evictions_total", "Number of files evicted from the cache.", null, null,
+		() -> this.fileCache.getEvictions());
+	metrics.gauge("jnab_file_cache_size_bytes", "Total size of cached files.", () -> this.fileCache.getSize());
+	metrics.gauge("jnab_file_cache_entries", "Number of cached files.", () -> this.fileCache.getEntryCount());
+
+	// Logging
+	metrics.counter("jnab_log_dropped_messages_total", "Number of log messages dropped by the asynchronous appender.", null, null,
+		() -> this.logger.getDroppedMessages());
+    }
+
+    /**
+     * Internal method registering the metrics exported for a route (N.B. request counts and latencies are reset along with route metrics).
+     * A route registered with the name of another one replaces its metrics.
+     *
+     * @param route the route.
+     */
+    private void registerRouteMetrics(Route route)
+    {
+	MetricsRegistry metrics = this.metrics;
+	metrics.counter("jnab_route_requests_total", "Number of requests processed, per route.", "route", route.getName(),
+		() -> route.getRequestCount());
+	metrics.counter("jnab_route_sent_bytes_total", "Number of bytes sent in response to requests, per route.", "route",
+		route.getName(), () -> route.getBytesSent().get());
+	metrics.summary("jnab_route_latency_seconds", "Latency of requests, per route.", "route", route.getName(), route.getLatency());
     }
 
     /**
@@ -115,50 +347,192 @@ public class MicroServer extends Thread
 	this.isRunning = true;
 	this.keepRunning = true;
 
+	if (this.pacingScheduler != null)
+	{
+	    this.pacingScheduler.start();
+	    AbstractHTTPResponse.setPacingScheduler(this.pacingScheduler);
+	}
+
+	if (this.engine.equals(NIO_ENGINE))
+	    this.runNIOFrontEnd();
+	else
+	{
+	    if (this.engine.equals(VIRTUAL_THREAD_ENGINE))
+	    {
+		this.workerExecutor = createVirtualThreadExecutor();
+		if (this.workerExecutor == null)
+		{
+		    this.logger.info("<jNab/server> Virtual threads are not supported by this JVM, using the thread engine");
+		}
+	    }
+	    else if (this.engine.equals(POOL_ENGINE)) this.workerExecutor = this.createBoundedExecutor();
+
+	    this.runThreadFrontEnd();
+
+	    if (this.workerExecutor != null)
+	    {
+		this.workerExecutor.shutdown();
+		this.workerExecutor = null;
+	    }
+	}
+
+	if (this.pacingScheduler != null)
+	{
+	    AbstractHTTPResponse.setPacingScheduler(null);
+	    this.pacingScheduler.shutdown();
+	}
+
+	// Requests are still captured if the server is restarted, but records must not wait in the buffer meanwhile
+	TrafficCapture capture = this.trafficCapture;
+	if (capture != null) capture.flush();
+
+	this.isRunning = false;
+
+	this.logger.info("<jNab/server> Server stopped");
+	return;
+    }
+
+    /**
+     * Internal method creating an executor starting a new virtual thread for each task.
+     * 
+     * @return an executor starting a new virtual thread for each task, or <tt>null</tt> if virtual threads are not supported by the JVM.
+     */
+    private static ExecutorService createVirtualThreadExecutor()
+    {
+	// Looking the factory method up at runtime, so that the server still runs on JVMs without virtual threads
+	try
+	{
+	    Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+	    return (ExecutorService) factory.invoke(null);
+	}
+	catch (Exception e)
+	{
+	    return null;
+	}
+    }
+
+    /**
+     * Internal method creating the bounded executor used by the <tt>POOL_ENGINE</tt>.
+     * 
+     * @return a new executor, running at most <tt>maxWorkers</tt> workers and queueing at most <tt>workerQueueSize</tt> others.
+     */
+    private ExecutorService createBoundedExecutor()
+    {
+	final AtomicInteger workerCount = new AtomicInteger();
+	ThreadPoolExecutor executor = new ThreadPoolExecutor(this.maxWorkers, this.maxWorkers, 60, TimeUnit.SECONDS,
+		new ArrayBlockingQueue<Runnable>(Math.max(1, this.workerQueueSize)), new ThreadFactory()
+		{
+		    public Thread newThread(Runnable r)
+		    {
+			Thread t = new Thread(r, "jNab-worker-" + workerCount.incrementAndGet());
+			t.setPriority(NORM_PRIORITY - 1);
+			return t;
+		    }
+		});
+	executor.allowCoreThreadTimeOut(true);
+	return executor;
+    }
+
+    /**
+     * Internal method shedding a connection that could not be handed to a worker, by immediately telling the client to retry later.
+     * 
+     * @param socket the socket used to communicate with the client.
+     */
+    private void shedConnection(Socket socket)
+    {
+	byte[] response = this.shedConnection(socket.getRemoteSocketAddress());
+
+	// Writing the response directly (i.e. without throttling) as the accepting thread must not be delayed
+	try
+	{
+	    socket.getOutputStream().write(response);
+	}
+	catch (IOException e)
+	{}
+	try
+	{
+	    socket.close();
+	}
+	catch (IOException e)
+	{}
+    }
+
+    /**
+     * Accounting for a connection shed for lack of worker, and building the response telling the client to retry later.
+     * 
+     * @param remoteAddress the remote address of the client.
+     * @return the raw response to send before closing the connection.
+     */
+    byte[] shedConnection(Object remoteAddress)
+    {
+	this.admissionController.connectionRejected();
+	this.logger.debug(() -> "<jNab/server> no worker available, shedding connection from " + remoteAddress);
+	return ("HTTP/1.0 503 Service Unavailable\r\nRetry-After: " + this.retryInterval + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Internal method serving clients using the NIO front-end.
+     */
+    private void runNIOFrontEnd()
+    {
+	try
+	{
+	    new NIOFrontEnd(this).serve();
+	}
+	catch (IOException e)
+	{
+	    this.logger.error(() -> "<jNab/server> Server execution failure : can't bind to port " + this.port);
+	}
+    }
+
+    /**
+     * Internal method serving clients using a thread (either a platform one, a virtual one or one from a bounded pool) per connection.
+     */
+    private void runThreadFrontEnd()
+    {
 	ServerSocket server_socket = null;
 
 	// Creating a ServerSocket to listen for clients
 	try
 	{
+	    // N.B. the server socket is obtained from a (blocking) channel, so that client sockets come with a channel
+	    // workers can use to transfer files directly
+	    server_socket = ServerSocketChannel.open().socket();
 	    if (this.address.equals(""))
-		server_socket = new ServerSocket(this.port);
+		server_socket.bind(new InetSocketAddress(this.port));
 	    else
-	    {
-		server_socket = new ServerSocket();
 		server_socket.bind(new InetSocketAddress(this.address, this.port));
-	    }
-	    try
-	    {
-		this.infoLogging.println("<jNab/server> Server started and listening to " + this.address + ":" + this.port);
-	    }
-	    catch (NullPointerException e)
-	    {}
+	    this.logger.info(() -> "<jNab/server> Server started and listening to " + this.address + ":" + this.port);
 
 	    // Loop until server is claimed to be stopped
 	    while (this.keepRunning)
 	    {
 		// Waiting for clients
 		Socket client_socket = server_socket.accept();
+		this.connectionAccepted();
+		RequestProfiler.requestAccepted(client_socket.getRemoteSocketAddress(), this.engine);
 
-		try
-		{
-		    this.debugLogging.println("<jNab/server> new connection from " + client_socket.getRemoteSocketAddress());
-		}
-		catch (NullPointerException e)
-		{}
+		this.logger.debug(() -> "<jNab/server> new connection from " + client_socket.getRemoteSocketAddress());
 
 		// Starting a new thread handling client connection
-		new Worker(client_socket, this).start();
+		if (this.workerExecutor != null)
+		{
+		    try
+		    {
+			this.workerExecutor.execute(new Worker(client_socket, this));
+		    }
+		    catch (RejectedExecutionException e)
+		    {
+			this.shedConnection(client_socket);
+		    }
+		}
+		else
+		    new Worker(client_socket, this).start();
 	    }
 	}
 	catch (IOException e)
 	{
-	    try
-	    {
-		this.errorLogging.println("<jNab/server> Server execution failure : can't bind to port " + this.port);
-	    }
-	    catch (NullPointerException e2)
-	    {}
+	    this.logger.error(() -> "<jNab/server> Server execution failure : can't bind to port " + this.port);
 
 	}
 
@@ -169,16 +543,6 @@ public class MicroServer extends Thread
 	}
 	catch (IOException e)
 	{}
-
-	this.isRunning = false;
-
-	try
-	{
-	    this.infoLogging.println("<jNab/server> Server stopped");
-	}
-	catch (NullPointerException e)
-	{}
-	return;
     }
 
     /**
@@ -186,12 +550,7 @@ public class MicroServer extends Thread
      */
     public void stopServer()
     {
-	try
-	{
-	    this.infoLogging.println("<jNab/server> Stopping server");
-	}
-	catch (NullPointerException e)
-	{}
+	this.logger.info("<jNab/server> Stopping server");
 
 	this.keepRunning = false;
 
@@ -207,6 +566,112 @@ public class MicroServer extends Thread
 	{}
     }
 
+    /**
+     * Checking if the server has to continue its execution (i.e. it has not been claimed to be stopped).
+     * 
+     * @return <tt>true</tt> if the server has to continue its execution, <tt>false</tt> if not.
+     */
+    boolean mustKeepRunning()
+    {
+	return this.keepRunning;
+    }
+
+    /**
+     * Setting the engine used to handle client connections. Changing the engine takes effect the next time the server is started.
+     * 
+     * @param engine the engine used to handle client connections, either <tt>THREAD_ENGINE</tt>, <tt>VIRTUAL_THREAD_ENGINE</tt>,
+     *            <tt>POOL_ENGINE</tt> or <tt>NIO_ENGINE</tt> (any other value meaning <tt>THREAD_ENGINE</tt>).
+     */
+    public void setEngine(String engine)
+    {
+	this.engine = engine;
+    }
+
+    /**
+     * Getting the engine used to handle client connections.
+     * 
+     * @return the engine used to handle client connections.
+     */
+    public String getEngine()
+    {
+	return this.engine;
+    }
+
+    /**
+     * Setting the size of the bounded pool used by the <tt>POOL_ENGINE</tt> (the queue size also bounding the requests waiting for a
+     * handler of the <tt>NIO_ENGINE</tt>). Changing the size takes effect the next time the server is started.
+     * 
+     * @param maxWorkers the maximum number of workers run concurrently.
+     * @param queueSize the maximum number of connections waiting for a worker.
+     */
+    public void setWorkerPoolSize(int maxWorkers, int queueSize)
+    {
+	this.maxWorkers = maxWorkers;
+	this.workerQueueSize = queueSize;
+    }
+
+    /**
+     * Getting the maximum number of connections waiting for a worker (of the <tt>POOL_ENGINE</tt>, or for a handler of the
+     * <tt>NIO_ENGINE</tt>).
+     * 
+     * @return the maximum number of waiting connections.
+     */
+    int getWorkerQueueSize()
+    {
+	return this.workerQueueSize;
+    }
+
+    /**
+     * Setting the delay after which bunnies whose requests have been shed are told to retry.
+     * 
+     * @param retryInterval the delay, in seconds, after which bunnies whose requests have been shed are told to retry.
+     */
+    public void setRetryInterval(int retryInterval)
+    {
+	this.retryInterval = retryInterval;
+    }
+
+    /**
+     * Getting the delay after which bunnies whose requests have been shed are told to retry.
+     * 
+     * @return the delay, in seconds, after which bunnies whose requests have been shed are told to retry.
+     */
+    public int getRetryInterval()
+    {
+	return this.retryInterval;
+    }
+
+    /**
+     * Getting the admission controller limiting concurrent requests per route class.
+     * 
+     * @return the admission controller used by the server.
+     */
+    public AdmissionController getAdmissionController()
+    {
+	return this.admissionController;
+    }
+
+    /**
+     * Setting the scheduler pacing responses sent to bunnies. The scheduler is started and stopped along with the server, changing it takes
+     * effect the next time the server is started.
+     * 
+     * @param pacingScheduler the scheduler pacing responses, or <tt>null</tt> to let each worker pace its own response.
+     */
+    public void setPacingScheduler(PacingScheduler pacingScheduler)
+    {
+	this.pacingScheduler = pacingScheduler;
+    }
+
+    /**
+     * Getting the scheduler pacing responses sent to bunnies.
+     * 
+     * @return the scheduler pacing responses, or <tt>null</tt> if each worker paces its own response.
+     */
+    public PacingScheduler getPacingScheduler()
+    {
+	return this.pacingScheduler;
+    }
+
     /**
      * Getting the status of the server.
      * 
@@ -252,7 +717,8 @@ public class MicroServer extends Thread
      */
     public String toString()
     {
-	StringBuffer result = new StringBuffer("jNab front-end server, bound to " + this.address + ":" + this.port);
+	StringBuffer result = new StringBuffer("jNab front-end server (" + this.engine + " engine), bound to " + this.address + ":"
+		+ this.port);
 	if (this.isRunning)
 	    result.append(", started");
 	else
@@ -288,6 +754,48 @@ public class MicroServer extends Thread
     public void setResourcePath(File resourcePath)
     {
 	this.resourcesPath = resourcePath;
+	this.bootcode = new CachedFile(new File(this.resourcesPath, "bootcode.bin"), this.directBootcode);
+    }
+
+    /**
+     * Setting whether the bootcode is cached off-heap (i.e. in a direct buffer) or in the heap.
+     * 
+     * @param direct <tt>true</tt> if the bootcode has to be cached off-heap, <tt>false</tt> if not.
+     */
+    public void setDirectBootcode(boolean direct)
+    {
+	this.directBootcode = direct;
+	this.bootcode = new CachedFile(new File(this.resourcesPath, "bootcode.bin"), this.directBootcode);
+    }
+
+    /**
+     * Getting the bootcode sent to bunnies, cached in memory (and reloaded when the bootcode file is modified).
+     * 
+     * @return the cached bootcode.
+     */
+    public CachedFile getBootcode()
+    {
+	return this.bootcode;
+    }
+
+    /**
+     * Getting the cache of local files sent to bunnies.
+     * 
+     * @return the cache of local files.
+     */
+    public FileCache getFileCache()
+    {
+	return this.fileCache;
+    }
+
+    /**
+     * Getting the table of routes processing requests, where new routes can be registered (before the server is started).
+     * 
+     * @return the route table.
+     */
+    public RouteTable getRouteTable()
+    {
+	return this.routeTable;
     }
 
     /**
@@ -319,17 +827,17 @@ public class MicroServer extends Thread
      */
     public void setErrorLoggingStream(PrintStream stream)
     {
-	this.errorLogging = stream;
+	this.logger.setStream(Logger.ERROR, stream);
     }
 
     /**
      * Getting the error logging stream.
      * 
-     * @return the error logging stream.
+     * @return the error logging stream, or <tt>null</tt> if error messages are not logged.
      */
     public PrintStream getErrorLoggingStream()
     {
-	return this.errorLogging;
+	return this.logger.getStream(Logger.ERROR);
     }
 
     /**
@@ -339,17 +847,17 @@ public class MicroServer extends Thread
      */
     public void setInfoLoggingStream(PrintStream stream)
     {
-	this.infoLogging = stream;
+	this.logger.setStream(Logger.INFO, stream);
     }
 
     /**
      * Getting the info logging stream.
      * 
-     * @return the info logging stream.
+     * @return the info logging stream, or <tt>null</tt> if informative messages are not logged.
      */
     public PrintStream getInfoLoggingStream()
     {
-	return this.infoLogging;
+	return this.logger.getStream(Logger.INFO);
     }
 
     /**
@@ -359,16 +867,205 @@ public class MicroServer extends Thread
      */
     public void setDebugLoggingStream(PrintStream stream)
     {
-	this.debugLogging = stream;
+	this.logger.setStream(Logger.DEBUG, stream);
     }
 
     /**
      * Getting the debug logging stream.
      * 
-     * @return the debug logging stream.
+     * @return the debug logging stream, or <tt>null</tt> if debug messages are not logged.
      */
     public PrintStream getDebugLoggingStream()
     {
-	return this.debugLogging;
+	return this.logger.getStream(Logger.DEBUG);
+    }
+
+    /**
+     * Getting the logger used by the server.
+     * 
+     * @return the logger used by the server.
+     */
+    public Logger getLogger()
+    {
+	return this.logger;
+    }
+
+    /**
+     * Getting the registry of the metrics exported by the server (on the <tt>/metrics</tt> route).
+     * 
+     * @return the metrics registry of the server.
+     */
+    public MetricsRegistry getMetrics()
+    {
+	return this.metrics;
+    }
+
+    /**
+     * Notifying that a connection has been accepted.
+     */
+    void connectionAccepted()
+    {
+	this.acceptedConnections.increment();
+    }
+
+    /**
+     * Notifying that a worker has started processing a request.
+     */
+    void workerStarted()
+    {
+	this.activeWorkers.incrementAndGet();
+    }
+
+    /**
+     * Notifying that a worker is done with its request.
+     */
+    void workerFinished()
+    {
+	this.activeWorkers.decrementAndGet();
+    }
+
+    /**
+     * Getting the number of workers processing a request.
+     * 
+     * @return the number of active workers.
+     */
+    public int getActiveWorkerCount()
+    {
+	return this.activeWorkers.get();
+    }
+
+    /**
+     * Getting the monitor timing plugin calls.
+     * 
+     * @return the plugin monitor of the server.
+     */
+    public PluginMonitor getPluginMonitor()
+    {
+	return this.pluginMonitor;
+    }
+
+    /**
+     * Getting (registering them if needed) the counters of the calls to a plugin, to be resolved once per plugin instance.
+     * 
+     * @param pluginName the name of the plugin.
+     * @return the counters of the calls to the plugin.
+     */
+    public PluginCounters getPluginCounters(String pluginName)
+    {
+	return new PluginCounters(
+		this.metrics.counter("jnab_plugin_calls_total", "Number of plugin calls, per plugin.", "plugin", pluginName),
+		this.metrics.timeCounter("jnab_plugin_seconds_total", "Time spent in plugin calls, per plugin.", "plugin", pluginName),
+		this.metrics.counter("jnab_plugin_slow_calls_total", "Number of slow plugin calls, per plugin.", "plugin", pluginName));
+    }
+
+    /**
+     * Accounting for a call to a plugin.
+     * 
+     * @param counters the counters of the calls to the plugin (see {@link #getPluginCounters(String)}).
+     * @param pluginName the name of the plugin.
+     * @param callback the name of the callback (e.g. <tt>onPing</tt>).
+     * @param serialNumber the serial number of the bunny the plugin belongs to.
+     * @param time the time spent in the plugin, in nanoseconds.
+     */
+    public void recordPluginCall(PluginCounters counters, String pluginName, String callback, String serialNumber, long time)
+    {
+	counters.called(time, this.pluginMonitor.record(pluginName, callback, serialNumber, time));
+    }
+
+    /**
+     * Getting the tracer recording the activity of selected bunnies.
+     * 
+     * @return the tracer used by the server.
+     */
+    public Tracer getTracer()
+    {
+	return this.tracer;
+    }
+
+    /**
+     * Starting to capture incoming requests into a file (see {@link TrafficCapture}), replacing the running capture if any.
+     * 
+     * @param file the capture file (records being appended if it already exists).
+     * @param captureBodies <tt>true</tt> if bodies of requests are captured, <tt>false</tt> if only their length is.
+     * @throws IOException if the file can not be opened, or is not a capture file.
+     */
+    public void startTrafficCapture(File file, boolean captureBodies) throws IOException
+    {
+	TrafficCapture capture = new TrafficCapture(file, TrafficCapture.DEFAULT_MAX_SIZE, captureBodies);
+	this.stopTrafficCapture();
+	this.trafficCapture = capture;
+	this.logger.info("<jNab/server> Capturing requests " + (captureBodies ? "" : "(without bodies) ") + "into " + file);
+    }
+
+    /**
+     * Stopping the capture of incoming requests.
+     * 
+     * @return the stopped capture, or <tt>null</tt> if requests were not captured.
+     */
+    public TrafficCapture stopTrafficCapture()
+    {
+	TrafficCapture capture = this.trafficCapture;
+	if (capture == null) return null;
+	this.trafficCapture = null;
+	capture.close();
+	this.logger.info("<jNab/server> Capture of requests stopped (" + capture.getRecordCount() + " requests captured into "
+		+ capture.getFile() + ")");
+	return capture;
+    }
+
+    /**
+     * Getting the capture of incoming requests.
+     * 
+     * @return the running capture, or <tt>null</tt> if requests are not captured.
+     */
+    public TrafficCapture getTrafficCapture()
+    {
+	return this.trafficCapture;
+    }
+
+    /**
+     * Capturing an incoming request, if requests are captured. Its body, if captured, is recorded as it is read. The capture is stopped
+     * once it can not record requests anymore.
+     * 
+     * @param serialNumber the serial number of the bunny (<tt>null</tt> if none).
+     * @param request the request, whose body has not been read yet.
+     */
+    void captureRequest(String serialNumber, HTTPRequest request)
+    {
+	TrafficCapture capture = this.trafficCapture;
+	if (capture == null) return;
+
+	RequestBody body = request.getBody();
+	int bodyLength = (body == null) ? 0 : body.getLength();
+	boolean recorded;
+	if (bodyLength > 0 && capture.isCapturingBodies())
+	{
+	    OutputStream bodyRecorder = capture.recordWithBody(serialNumber, request.getRawHeader(), bodyLength);
+	    recorded = bodyRecorder != null;
+	    try
+	    {
+		if (recorded) body.tee(bodyRecorder);
+	    }
+	    catch (IOException e)
+	    {
+		// Not expected, the body being read only after the request is captured: recording the request without its body
+		try
+		{
+		    bodyRecorder.close();
+		}
+		catch (IOException f)
+		{
+		    // Not thrown by body recorders
+		}
+	    }
+	}
+	else
+	    recorded = capture.record(serialNumber, request.getRawHeader(), bodyLength);
+
+	if (!recorded && this.trafficCapture == capture)
+	{
+	    this.logger.info("<jNab/server> Capture file " + capture.getFile() + " is full or can not be written");
+	    this.stopTrafficCapture();
+	}
     }
 }
@@ -0,0 +1,774 @@
+package io.github.ankon.jnabserver.core.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.ankon.jnabserver.core.protocol.AsynchronousSink;
+
+/**
+ * Non-blocking client connection handled by a selector loop of the NIO front-end.<br/>
+ *
+ * The header of the request is accumulated until complete, the request being then handed to a worker while its body (as announced by the
+ * <tt>Content-length</tt> header field) is streamed, reading being suspended while the worker is late consuming it. The response is
+ * written by the worker through an output stream queueing data, that the selector loop flushes to the channel when it is writable
+ * (writers waiting while too much data is pending, so that slow clients do not hold whole responses on the heap). Closing the connection
+ * only takes effect once all paced transfers to the connection are complete and all queued data has been written.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+class NIOConnection implements Closeable
+{
+    /**
+     * Initial size of the request buffer.
+     */
+    private final static int INITIAL_BUFFER_SIZE = 1024;
+
+    /**
+     * Maximum size of a request header (matching the limit of the request parser).
+     */
+    private final static int MAX_HEADER_SIZE = 16384;
+
+    /**
+     * Size of the buffer where the request body is read.
+     */
+    private final static int BODY_BUFFER_SIZE = 8192;
+
+    /**
+     * Maximum number of body bytes waiting to be consumed by the worker, beyond which reading is suspended.
+     */
+    private final static int MAX_BUFFERED_BODY = 64 * 1024;
+
+    /**
+     * Name of the header field holding the length of the body (in lower case).
+     */
+    private final static char[] CONTENT_LENGTH_FIELD = "content-length".toCharArray();
+
+    /**
+     * Maximum number of response bytes waiting to be written, beyond which writers wait until the client catches up.
+     */
+    private final static int MAX_PENDING_BYTES = 64 * 1024;
+
+    /**
+     * Front-end from which the connection has been accepted.
+     */
+    private NIOFrontEnd frontEnd;
+
+    /**
+     * Selector loop handling the connection.
+     */
+    private SelectorLoop loop;
+
+    /**
+     * Channel used to communicate with the client.
+     */
+    private SocketChannel channel;
+
+    /**
+     * Key of the channel in the selector of the loop.
+     */
+    private SelectionKey key;
+
+    /**
+     * Buffer where the request header is accumulated, then where the body is read (<tt>null</tt> once the whole request has been read).
+     */
+    private ByteBuffer requestBuffer;
+
+    /**
+     * Index in the request buffer where the scan of the header resumes.
+     */
+    private int scanOffset;
+
+    /**
+     * Index in the request buffer of the start of the header line being scanned.
+     */
+    private int lineStart;
+
+    /**
+     * Length of the request body, as announced by the header scanned so far.
+     */
+    private int contentLength;
+
+    /**
+     * Number of body bytes remaining to be read.
+     */
+    private long bodyRemaining;
+
+    /**
+     * Stream where the worker reads the request (<tt>null</tt> until the header is complete).
+     */
+    private RequestInputStream requestStream;
+
+    /**
+     * Response data waiting to be written.
+     */
+    private Queue<ByteBuffer> pendingData;
+
+    /**
+     * Number of response bytes waiting to be written.
+     */
+    private AtomicInteger pendingBytes;
+
+    /**
+     * Lock used by writers to wait until pending response data has been written.
+     */
+    private Object capacityLock;
+
+    /**
+     * Indicator used to know if the connection has to be closed once pending data has been written.
+     */
+    private volatile boolean closeRequested;
+
+    /**
+     * Number of paced transfers to the connection in progress.
+     */
+    private AtomicInteger pendingTransfers;
+
+    /**
+     * Stream used by the worker to write the response.
+     */
+    private OutputStream outputStream;
+
+    /**
+     * Date of the last data read from or written to the client, in nanoseconds (as given by {@link System#nanoTime()}).
+     */
+    private long lastActivity;
+
+    /**
+     * Creating a new connection.
+     *
+     * @param frontEnd the front-end from which the connection has been accepted.
+     * @param loop the selector loop handling the connection.
+     * @param channel the channel used to communicate with the client.
+     * @param key the key of the channel in the selector of the loop.
+     */
+    NIOConnection(NIOFrontEnd frontEnd, SelectorLoop loop, SocketChannel channel, SelectionKey key)
+    {
+	this.frontEnd = frontEnd;
+	this.loop = loop;
+	this.channel = channel;
+	this.key = key;
+	this.requestBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+	this.scanOffset = 0;
+	this.lineStart = 0;
+	this.contentLength = 0;
+	this.bodyRemaining = 0;
+	this.requestStream = null;
+	this.pendingData = new ConcurrentLinkedQueue<ByteBuffer>();
+	this.pendingBytes = new AtomicInteger();
+	this.capacityLock = new Object();
+	this.closeRequested = false;
+	this.pendingTransfers = new AtomicInteger();
+	this.outputStream = new ResponseOutputStream();
+	this.lastActivity = System.nanoTime();
+    }
+
+    /**
+     * Getting the remote address of the client, as a string.
+     *
+     * @return the remote address of the client.
+     */
+    String getRemoteAddress()
+    {
+	return String.valueOf(this.channel.socket().getRemoteSocketAddress());
+    }
+
+    /**
+     * Getting the stream used to write the response.
+     *
+     * @return the stream used to write the response.
+     */
+    OutputStream getOutputStream()
+    {
+	return this.outputStream;
+    }
+
+    /**
+     * Reading available request data (called by the selector loop).
+     */
+    void onReadable()
+    {
+	// The whole request has been read, extra data is left unread
+	if (this.requestBuffer == null) return;
+
+	int read;
+	try
+	{
+	    read = this.channel.read(this.requestBuffer);
+	}
+	catch (IOException e)
+	{
+	    read = -1;
+	}
+
+	if (read == -1)
+	{
+	    // Client gave up (the worker, if any, then reads a truncated body)
+	    this.closeChannel();
+	    return;
+	}
+	if (read > 0) this.lastActivity = System.nanoTime();
+
+	if (this.requestStream == null)
+	    this.readHeader();
+	else
+	    this.readBody();
+    }
+
+    /**
+     * Internal method handling header data, handing the request to a worker as soon as its header is complete.
+     */
+    private void readHeader()
+    {
+	int headerEnd = this.scanHeader();
+
+	if (this.contentLength < 0)
+	{
+	    this.closeChannel();
+	    return;
+	}
+
+	if (headerEnd == -1)
+	{
+	    // Header is incomplete, growing the buffer if needed
+	    if (this.requestBuffer.hasRemaining()) return;
+	    if (this.requestBuffer.capacity() >= MAX_HEADER_SIZE)
+	    {
+		this.closeChannel();
+		return;
+	    }
+	    ByteBuffer newBuffer = ByteBuffer.allocate(Math.min(MAX_HEADER_SIZE, this.requestBuffer.capacity() * 2));
+	    this.requestBuffer.flip();
+	    newBuffer.put(this.requestBuffer);
+	    this.requestBuffer = newBuffer;
+	    return;
+	}
+
+	// Header is complete, the body (if any) being streamed to the worker as it is received
+	long requestLength = (long) headerEnd + this.contentLength;
+	int received = (int) Math.min(this.requestBuffer.position(), requestLength);
+	this.bodyRemaining = requestLength - received;
+	this.requestStream = new RequestInputStream();
+	this.requestStream.append(Arrays.copyOf(this.requestBuffer.array(), received));
+	if (this.bodyRemaining > 0)
+	{
+	    this.requestBuffer = ByteBuffer.allocate(BODY_BUFFER_SIZE);
+	    this.requestBuffer.limit((int) Math.min(BODY_BUFFER_SIZE, this.bodyRemaining));
+	}
+	else
+	{
+	    this.requestBuffer = null;
+	    this.requestStream.finish();
+	}
+	this.updateInterest();
+	this.frontEnd.dispatch(this, this.requestStream);
+    }
+
+    /**
+     * Internal method handing body data to the worker.
+     */
+    private void readBody()
+    {
+	this.requestBuffer.flip();
+	int length = this.requestBuffer.remaining();
+	if (length > 0) this.requestStream.append(Arrays.copyOf(this.requestBuffer.array(), length));
+	this.bodyRemaining -= length;
+
+	if (this.bodyRemaining > 0)
+	{
+	    this.requestBuffer.clear();
+	    this.requestBuffer.limit((int) Math.min(BODY_BUFFER_SIZE, this.bodyRemaining));
+	}
+	else
+	{
+	    // Request is complete, no more reads are expected
+	    this.requestBuffer = null;
+	    this.requestStream.finish();
+	}
+	this.updateInterest();
+    }
+
+    /**
+     * Internal method scanning header data received since the previous call, line by line, looking for the content length and for the
+     * end of the header.
+     *
+     * @return the length of the header, or -1 if the header is not complete yet.
+     */
+    private int scanHeader()
+    {
+	byte[] data = this.requestBuffer.array();
+	int limit = this.requestBuffer.position();
+
+	for (; this.scanOffset < limit; this.scanOffset++)
+	{
+	    if (data[this.scanOffset] != '\n') continue;
+	    int lineEnd = (this.scanOffset > this.lineStart && data[this.scanOffset - 1] == '\r') ? this.scanOffset - 1 : this.scanOffset;
+
+	    // End of header fields (the first line being the request line)
+	    if (this.lineStart > 0 && lineEnd == this.lineStart) return this.scanOffset + 1;
+	    if (this.lineStart > 0) this.scanHeaderField(data, this.lineStart, lineEnd);
+	    this.lineStart = this.scanOffset + 1;
+	}
+	return -1;
+    }
+
+    /**
+     * Internal method recording the content length, if a header field holds it (an invalid value meaning that there is no body, a negative
+     * one that the request must be rejected).
+     *
+     * @param data the buffer holding the header.
+     * @param start the start of the header field.
+     * @param end the end of the header field (excluding line terminator).
+     */
+    private void scanHeaderField(byte[] data, int start, int end)
+    {
+	int colon = start;
+	while (colon < end && data[colon] != ':')
+	    colon++;
+	if (colon == end) return;
+
+	// Comparing the (trimmed) field name, ignoring case
+	int nameStart = skipSpaces(data, start, colon);
+	int nameEnd = colon;
+	while (nameEnd > nameStart && data[nameEnd - 1] <= ' ')
+	    nameEnd--;
+	if (nameEnd - nameStart != CONTENT_LENGTH_FIELD.length) return;
+	for (int i = 0; i < CONTENT_LENGTH_FIELD.length; i++)
+	    if (Character.toLowerCase((char) data[nameStart + i]) != CONTENT_LENGTH_FIELD[i]) return;
+
+	// Parsing the (trimmed) value
+	int valueStart = skipSpaces(data, colon + 1, end);
+	int valueEnd = end;
+	while (valueEnd > valueStart && data[valueEnd - 1] <= ' ')
+	    valueEnd--;
+	boolean negative = (valueStart < valueEnd && data[valueStart] == '-');
+	int digitStart = (negative || (valueStart < valueEnd && data[valueStart] == '+')) ? valueStart + 1 : valueStart;
+	long value = 0;
+	for (int i = digitStart; i < valueEnd; i++)
+	{
+	    if (data[i] < '0' || data[i] > '9' || value > Integer.MAX_VALUE)
+	    {
+		this.contentLength = 0;
+		return;
+	    }
+	    value = value * 10 + (data[i] - '0');
+	}
+	if (digitStart == valueEnd || value > Integer.MAX_VALUE)
+	    this.contentLength = 0;
+	else
+	    this.contentLength = negative ? (value == 0 ? 0 : -1) : (int) value;
+    }
+
+    /**
+     * Internal method skipping spaces.
+     *
+     * @param data the buffer holding the header.
+     * @param start the index where to start.
+     * @param end the index where to stop.
+     * @return the index of the first character which is not a space (or <tt>end</tt>).
+     */
+    private static int skipSpaces(byte[] data, int start, int end)
+    {
+	while (start < end && data[start] >= 0 && data[start] <= ' ')
+	    start++;
+	return start;
+    }
+
+    /**
+     * Updating the operations the connection is interested in (called by the selector loop): reading the request until complete (unless
+     * the worker is late consuming its body), and writing pending response data (or closing the connection).
+     */
+    void updateInterest()
+    {
+	if (!this.key.isValid()) return;
+	int ops = 0;
+	if (this.requestBuffer != null && (this.requestStream == null || !this.requestStream.suspendIfFull())) ops |= SelectionKey.OP_READ;
+	if (!this.pendingData.isEmpty() || (this.closeRequested && this.pendingTransfers.get() == 0)) ops |= SelectionKey.OP_WRITE;
+	this.key.interestOps(ops);
+    }
+
+    /**
+     * Writing pending response data (called by the selector loop).
+     */
+    void onWritable()
+    {
+	boolean drained = false;
+	try
+	{
+	    ByteBuffer buffer;
+	    while ((buffer = this.pendingData.peek()) != null)
+	    {
+		if (this.channel.write(buffer) > 0) this.lastActivity = System.nanoTime();
+		// Socket buffer is full, waiting for the next write readiness
+		if (buffer.hasRemaining()) break;
+		this.pendingData.poll();
+		this.pendingBytes.addAndGet(-buffer.limit());
+		drained = true;
+	    }
+	}
+	catch (IOException e)
+	{
+	    this.closeChannel();
+	    return;
+	}
+
+	if (drained) this.signalCapacity();
+	if (!this.pendingData.isEmpty()) return;
+
+	if (this.closeRequested && this.pendingTransfers.get() == 0)
+	    this.closeChannel();
+	else
+	    this.updateInterest();
+    }
+
+    /**
+     * Closing the connection if it has been waiting for the client (to send request data, or to accept response data) for too long
+     * (called by the selector loop). Connections waiting for their worker (e.g. a slow plugin) or between two paced writes are not idle.
+     *
+     * @param now the current date, in nanoseconds (as given by {@link System#nanoTime()}).
+     * @param timeout the maximum idle time, in nanoseconds.
+     * @return <tt>true</tt> if the connection has been closed, <tt>false</tt> if not.
+     */
+    boolean closeIfIdle(long now, long timeout)
+    {
+	if (!this.key.isValid() || this.key.interestOps() == 0 || now - this.lastActivity < timeout) return false;
+	this.closeChannel();
+	return true;
+    }
+
+    /**
+     * Shedding the request, for lack of handler (called by the selector loop): the request is not read any further, and the connection
+     * is closed once the given response has been written.
+     *
+     * @param response the raw response telling the client to retry later.
+     */
+    void shed(byte[] response)
+    {
+	this.requestBuffer = null;
+	if (this.requestStream != null) this.requestStream.finish();
+	this.pendingBytes.addAndGet(response.length);
+	this.pendingData.add(ByteBuffer.wrap(response));
+	this.closeRequested = true;
+	this.updateInterest();
+    }
+
+    /**
+     * Internal method closing the channel immediately.
+     */
+    private void closeChannel()
+    {
+	this.key.cancel();
+	this.pendingData.clear();
+	this.pendingBytes.set(0);
+	try
+	{
+	    this.channel.close();
+	}
+	catch (IOException e)
+	{}
+	this.signalCapacity();
+	if (this.requestStream != null) this.requestStream.finish();
+    }
+
+    /**
+     * Internal method waking up writers waiting until pending response data has been written.
+     */
+    private void signalCapacity()
+    {
+	synchronized (this.capacityLock)
+	{
+	    this.capacityLock.notifyAll();
+	}
+    }
+
+    /**
+     * Internal method waiting until the amount of pending response data allows queueing more (or until the connection is closed).
+     *
+     * @throws IOException if the connection has been closed, or if the thread has been interrupted while waiting.
+     */
+    private void awaitCapacity() throws IOException
+    {
+	if (this.pendingBytes.get() < MAX_PENDING_BYTES) return;
+	synchronized (this.capacityLock)
+	{
+	    while (this.pendingBytes.get() >= MAX_PENDING_BYTES && this.channel.isOpen())
+	    {
+		try
+		{
+		    this.capacityLock.wait();
+		}
+		catch (InterruptedException e)
+		{
+		    Thread.currentThread().interrupt();
+		    throw new InterruptedIOException("Interrupted while waiting for the client");
+		}
+	    }
+	}
+	this.checkWritable();
+    }
+
+    /**
+     * Internal method queueing response data to be written by the selector loop.
+     *
+     * @param buffer the buffer holding the data (which must not be modified afterwards).
+     */
+    private void queue(ByteBuffer buffer)
+    {
+	this.pendingBytes.addAndGet(buffer.remaining());
+	this.pendingData.add(buffer);
+	this.loop.requestUpdate(this);
+    }
+
+    /**
+     * Internal method checking if response data can still be written to the connection.
+     *
+     * @throws IOException if the connection has been closed.
+     */
+    private void checkWritable() throws IOException
+    {
+	if ((this.closeRequested && this.pendingTransfers.get() == 0) || !this.channel.isOpen()) throw new IOException("Connection closed");
+    }
+
+    /**
+     * Closing the connection, once all paced transfers are complete and all pending response data has been written.
+     *
+     * @see java.io.Closeable#close()
+     */
+    public void close()
+    {
+	this.closeRequested = true;
+	this.loop.requestUpdate(this);
+    }
+
+    /**
+     * Output stream queueing response data to be written by the selector loop. It is also exposed as an asynchronous sink, so that paced
+     * transfers go on once the worker is done with the connection.<br/>
+     *
+     * Writes block while too much data is pending, so that a slow client does not get a whole response copied on the heap.
+     */
+    private class ResponseOutputStream extends ByteCountingOutputStream implements AsynchronousSink
+    {
+	/**
+	 * @see java.io.OutputStream#write(int)
+	 */
+	public void write(int b) throws IOException
+	{
+	    this.write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	/**
+	 * @see java.io.OutputStream#write(byte[], int, int)
+	 */
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+	    checkWritable();
+
+	    // Queueing large writes piecewise, waiting for the client to catch up in between
+	    while (len > 0)
+	    {
+		int length = Math.min(len, MAX_PENDING_BYTES);
+		awaitCapacity();
+		queue(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + length)));
+		this.count(length);
+		off += length;
+		len -= length;
+	    }
+	}
+
+	/**
+	 * @see java.nio.channels.WritableByteChannel#write(java.nio.ByteBuffer)
+	 */
+	public int write(ByteBuffer src) throws IOException
+	{
+	    checkWritable();
+	    int length = src.remaining();
+	    if (length == 0) return 0;
+	    awaitCapacity();
+	    ByteBuffer copy = ByteBuffer.allocate(length);
+	    copy.put(src);
+	    copy.flip();
+	    queue(copy);
+	    this.count(length);
+	    return length;
+	}
+
+	/**
+	 * @see io.github.ankon.jnabserver.core.protocol.AsynchronousSink#isCongested()
+	 */
+	public boolean isCongested()
+	{
+	    return pendingBytes.get() >= MAX_PENDING_BYTES;
+	}
+
+	/**
+	 * @see java.nio.channels.Channel#isOpen()
+	 */
+	public boolean isOpen()
+	{
+	    return (!closeRequested || pendingTransfers.get() > 0) && channel.isOpen();
+	}
+
+	/**
+	 * @see io.github.ankon.jnabserver.core.protocol.AsynchronousSink#retain()
+	 */
+	public void retain()
+	{
+	    pendingTransfers.incrementAndGet();
+	}
+
+	/**
+	 * @see io.github.ankon.jnabserver.core.protocol.AsynchronousSink#release()
+	 */
+	public void release()
+	{
+	    pendingTransfers.decrementAndGet();
+	    // Letting the selector loop close the connection if it has been requested meanwhile
+	    loop.requestUpdate(NIOConnection.this);
+	}
+    }
+
+    /**
+     * Stream where the worker reads the request, fed by the selector loop as data is received.
+     */
+    private class RequestInputStream extends InputStream
+    {
+	/**
+	 * Received data waiting to be read.
+	 */
+	private ArrayDeque<ByteBuffer> chunks;
+
+	/**
+	 * Number of received bytes waiting to be read.
+	 */
+	private int buffered;
+
+	/**
+	 * Indicator used to know if the whole request has been received (or if the connection has been closed).
+	 */
+	private boolean finished;
+
+	/**
+	 * Indicator used to know if reading has been suspended because too much data is waiting to be read.
+	 */
+	private boolean suspended;
+
+	/**
+	 * Creating a new, empty, request stream.
+	 */
+	private RequestInputStream()
+	{
+	    this.chunks = new ArrayDeque<ByteBuffer>();
+	    this.buffered = 0;
+	    this.finished = false;
+	    this.suspended = false;
+	}
+
+	/**
+	 * Appending received data (called by the selector loop).
+	 *
+	 * @param data the received data.
+	 */
+	private synchronized void append(byte[] data)
+	{
+	    this.chunks.add(ByteBuffer.wrap(data));
+	    this.buffered += data.length;
+	    this.notifyAll();
+	}
+
+	/**
+	 * Notifying that no more data will be received (called by the selector loop).
+	 */
+	private synchronized void finish()
+	{
+	    this.finished = true;
+	    this.notifyAll();
+	}
+
+	/**
+	 * Suspending reading if too much data is waiting to be read (called by the selector loop). Reading is resumed by the loop once the
+	 * worker has caught up.
+	 *
+	 * @return <tt>true</tt> if reading is suspended, <tt>false</tt> if not.
+	 */
+	private synchronized boolean suspendIfFull()
+	{
+	    this.suspended = (this.buffered >= MAX_BUFFERED_BODY);
+	    return this.suspended;
+	}
+
+	/**
+	 * @see java.io.InputStream#read()
+	 */
+	public int read() throws IOException
+	{
+	    byte[] b = new byte[1];
+	    return (this.read(b, 0, 1) == -1) ? -1 : (b[0] & 0xFF);
+	}
+
+	/**
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+	    if (len == 0) return 0;
+
+	    int read = 0;
+	    boolean resume = false;
+	    synchronized (this)
+	    {
+		while (this.chunks.isEmpty() && !this.finished)
+		{
+		    try
+		    {
+			this.wait();
+		    }
+		    catch (InterruptedException e)
+		    {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the client");
+		    }
+		}
+		if (this.chunks.isEmpty()) return -1;
+
+		while (read < len && !this.chunks.isEmpty())
+		{
+		    ByteBuffer chunk = this.chunks.peek();
+		    int length = Math.min(len - read, chunk.remaining());
+		    chunk.get(b, off + read, length);
+		    read += length;
+		    if (!chunk.hasRemaining()) this.chunks.poll();
+		}
+		this.buffered -= read;
+
+		if (this.suspended && this.buffered < MAX_BUFFERED_BODY)
+		{
+		    this.suspended = false;
+		    resume = true;
+		}
+	    }
+
+	    // Letting the selector loop read more data
+	    if (resume) loop.requestUpdate(NIOConnection.this);
+	    return read;
+	}
+
+	/**
+	 * @see java.io.InputStream#available()
+	 */
+	public synchronized int available()
+	{
+	    return this.buffered;
+	}
+    }
+}
@@ -0,0 +1,182 @@
+package io.github.ankon.jnabserver.core.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.ankon.jnabserver.core.profiling.RequestProfiler;
+
+/**
+ * Event-loop based front-end, used by the micro server when the <tt>nio</tt> engine is selected.<br/>
+ *
+ * Connections are accepted by the micro server thread and spread over a set of selector loops (one per available processor), that read
+ * requests and write responses without blocking. Once the header of a request has been read, the request is handed to a small pool of
+ * handler threads running the usual {@link Worker} logic, its body being streamed as it is received.<br/>
+ *
+ * As with the <tt>pool</tt> engine, requests waiting for a handler are bounded by the worker queue size of the micro server, requests
+ * beyond being shed (a 503 response telling the client to retry later). Connections making no progress while waiting for their client are
+ * closed after {@link #IDLE_TIMEOUT} nanoseconds.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class NIOFrontEnd
+{
+    /**
+     * Number of handler threads created for each selector loop.
+     */
+    private final static int HANDLERS_PER_LOOP = 8;
+
+    /**
+     * Maximum time, in nanoseconds, a connection may wait for its client (to send request data, or to accept response data).
+     */
+    final static long IDLE_TIMEOUT = 30000000000L;
+
+    /**
+     * Micro server using this front-end.
+     */
+    private MicroServer microServer;
+
+    /**
+     * Selector loops handling client connections.
+     */
+    private SelectorLoop[] loops;
+
+    /**
+     * Pool of threads processing complete requests.
+     */
+    private ThreadPoolExecutor handlers;
+
+    /**
+     * Index of the selector loop that will handle the next accepted connection.
+     */
+    private int nextLoop;
+
+    /**
+     * Creating a new NIO front-end instance, whose number of selector loops is the number of available processors.
+     *
+     * @param microServer the micro server using this front-end.
+     */
+    public NIOFrontEnd(MicroServer microServer)
+    {
+	this.microServer = microServer;
+	this.loops = new SelectorLoop[Runtime.getRuntime().availableProcessors()];
+	this.nextLoop = 0;
+    }
+
+    /**
+     * Binding the front-end and serving clients until the micro server is claimed to be stopped.
+     *
+     * @throws IOException if the front-end could not be bound.
+     */
+    public void serve() throws IOException
+    {
+	ServerSocketChannel serverChannel = ServerSocketChannel.open();
+
+	try
+	{
+	    if (this.microServer.getAddress().equals(""))
+		serverChannel.socket().bind(new InetSocketAddress(this.microServer.getPort()));
+	    else
+		serverChannel.socket().bind(new InetSocketAddress(this.microServer.getAddress(), this.microServer.getPort()));
+
+	    // Starting selector loops and handlers
+	    final AtomicInteger handlerCount = new AtomicInteger();
+	    int handlerThreads = HANDLERS_PER_LOOP * this.loops.length;
+	    this.handlers = new ThreadPoolExecutor(handlerThreads, handlerThreads, 0, TimeUnit.SECONDS,
+		    new ArrayBlockingQueue<Runnable>(Math.max(1, this.microServer.getWorkerQueueSize())), new ThreadFactory()
+		    {
+			public Thread newThread(Runnable r)
+			{
+			    Thread t = new Thread(r, "jNab-nio-handler-" + handlerCount.incrementAndGet());
+			    t.setDaemon(true);
+			    return t;
+			}
+		    });
+	    for (int i = 0; i < this.loops.length; i++)
+	    {
+		this.loops[i] = new SelectorLoop(this, i);
+		this.loops[i].start();
+	    }
+
+	    this.microServer.getLogger().info(
+		    () -> "<jNab/server> Server started (nio engine, " + this.loops.length + " loops) and listening to "
+			    + this.microServer.getAddress() + ":" + this.microServer.getPort());
+
+	    // Loop until server is claimed to be stopped
+	    while (this.microServer.mustKeepRunning())
+	    {
+		// Waiting for clients (the server channel is kept in blocking mode)
+		SocketChannel channel = serverChannel.accept();
+		this.microServer.connectionAccepted();
+		RequestProfiler.requestAccepted(channel.socket().getRemoteSocketAddress(), MicroServer.NIO_ENGINE);
+
+		if (!this.microServer.mustKeepRunning())
+		{
+		    channel.close();
+		    break;
+		}
+
+		this.microServer.getLogger().debug(() -> "<jNab/server> new connection from " + channel.socket().getRemoteSocketAddress());
+
+		// Spreading connections over selector loops
+		this.loops[this.nextLoop].register(channel);
+		this.nextLoop = (this.nextLoop + 1) % this.loops.length;
+	    }
+	}
+	finally
+	{
+	    for (SelectorLoop loop : this.loops)
+		if (loop != null) loop.shutdown();
+	    if (this.handlers != null) this.handlers.shutdown();
+
+	    try
+	    {
+		serverChannel.close();
+	    }
+	    catch (IOException e)
+	    {}
+	}
+    }
+
+    /**
+     * Handing a request whose header has been read to a handler thread.
+     *
+     * @param connection the connection from which the request is read.
+     * @param request the stream where to read the raw request data (header and body).
+     */
+    void dispatch(NIOConnection connection, InputStream request)
+    {
+	Worker worker = new Worker(connection.getRemoteAddress(), request, connection.getOutputStream(), connection, this.microServer);
+	try
+	{
+	    this.handlers.execute(worker);
+	}
+	catch (RejectedExecutionException e)
+	{
+	    // Either the front-end is being shut down, or too many requests are waiting for a handler
+	    if (this.handlers.isShutdown())
+		connection.close();
+	    else
+		connection.shed(this.microServer.shedConnection(connection.getRemoteAddress()));
+	}
+    }
+
+    /**
+     * Getting the micro server using this front-end.
+     *
+     * @return the micro server using this front-end.
+     */
+    MicroServer getMicroServer()
+    {
+	return this.microServer;
+    }
+}
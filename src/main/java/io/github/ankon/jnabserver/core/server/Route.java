@@ -0,0 +1,229 @@
+package io.github.ankon.jnabserver.core.server;
+
+import io.github.ankon.jnabserver.core.metrics.Counter;
+import io.github.ankon.jnabserver.core.metrics.Histogram;
+
+/**
+ * Route of the micro server, i.e. a named handler along with the latencies of its requests (as a whole, and per phase). A route may be
+ * registered for several paths of the route table, its statistics then covering all of them.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class Route
+{
+    /**
+     * Phase during which the request is read and parsed.
+     */
+    public final static int PARSE_PHASE = 0;
+
+    /**
+     * Phase during which plugins process the request.
+     */
+    public final static int PLUGIN_PHASE = 1;
+
+    /**
+     * Phase during which the response is encoded (or loaded, for files).
+     */
+    public final static int ENCODE_PHASE = 2;
+
+    /**
+     * Phase during which the response is sent (or handed over to the pacing scheduler, which sends it afterwards).
+     */
+    public final static int SEND_PHASE = 3;
+
+    /**
+     * Names of phases, indexed by phase.
+     */
+    public final static String[] PHASE_NAMES = { "parse", "plugin", "encode", "send" };
+
+    /**
+     * Name of the route (also used to select the upload rate of its responses).
+     */
+    private String name;
+
+    /**
+     * Handler processing requests sent to the route.
+     */
+    private RouteHandler handler;
+
+    /**
+     * Latencies of requests (from the beginning of parsing to the end of processing), in nanoseconds.
+     */
+    private Histogram latency;
+
+    /**
+     * Latencies of each phase of requests, in nanoseconds, indexed by phase.
+     */
+    private Histogram[] phaseLatencies;
+
+    /**
+     * Date from which latencies are recorded, in milliseconds since the epoch.
+     */
+    private volatile long since;
+
+    /**
+     * Number of bytes sent in response to requests (never reset, as exported to monitoring systems).
+     */
+    private Counter bytesSent;
+
+    /**
+     * Creating a new route.
+     *
+     * @param name the name of the route.
+     * @param handler the handler processing requests sent to the route.
+     */
+    public Route(String name, RouteHandler handler)
+    {
+	this.name = name;
+	this.handler = handler;
+	this.latency = new Histogram();
+	this.phaseLatencies = new Histogram[PHASE_NAMES.length];
+	for (int phase = 0; phase < PHASE_NAMES.length; phase++)
+	    this.phaseLatencies[phase] = new Histogram();
+	this.since = System.currentTimeMillis();
+	this.bytesSent = new Counter();
+    }
+
+    /**
+     * Getting the name of the route.
+     *
+     * @return the name of the route.
+     */
+    public String getName()
+    {
+	return this.name;
+    }
+
+    /**
+     * Getting the handler processing requests sent to the route.
+     *
+     * @return the handler of the route.
+     */
+    public RouteHandler getHandler()
+    {
+	return this.handler;
+    }
+
+    /**
+     * Recording the latency of a request.
+     *
+     * @param time the time spent processing the request, in nanoseconds.
+     */
+    void record(long time)
+    {
+	this.latency.record(time);
+    }
+
+    /**
+     * Recording the latency of a phase of a request.
+     *
+     * @param phase the phase (e.g. {@link #PARSE_PHASE}).
+     * @param time the time spent in the phase, in nanoseconds.
+     */
+    public void recordPhase(int phase, long time)
+    {
+	this.phaseLatencies[phase].record(time);
+    }
+
+    /**
+     * Getting the latencies of requests (from the beginning of parsing to the end of processing).
+     *
+     * @return the histogram of latencies, in nanoseconds.
+     */
+    public Histogram getLatency()
+    {
+	return this.latency;
+    }
+
+    /**
+     * Getting the latencies of a phase of requests.
+     *
+     * @param phase the phase (e.g. {@link #PARSE_PHASE}).
+     * @return the histogram of latencies, in nanoseconds.
+     */
+    public Histogram getPhaseLatency(int phase)
+    {
+	return this.phaseLatencies[phase];
+    }
+
+    /**
+     * Getting the number of requests processed.
+     *
+     * @return the number of requests processed.
+     */
+    public long getRequestCount()
+    {
+	return this.latency.getCount();
+    }
+
+    /**
+     * Getting the total time spent processing requests.
+     *
+     * @return the total time spent processing requests, in nanoseconds.
+     */
+    public long getTotalTime()
+    {
+	return this.latency.getSum();
+    }
+
+    /**
+     * Getting the average time spent processing a request.
+     *
+     * @return the average time spent processing a request, in nanoseconds (0 if no request has been processed).
+     */
+    public long getAverageTime()
+    {
+	return this.latency.getMean();
+    }
+
+    /**
+     * Getting the longest time spent processing a request.
+     *
+     * @return the longest time spent processing a request, in nanoseconds.
+     */
+    public long getMaxTime()
+    {
+	return this.latency.getMax();
+    }
+
+    /**
+     * Getting the counter of bytes sent in response to requests.
+     *
+     * @return the counter of bytes sent in response to requests.
+     */
+    public Counter getBytesSent()
+    {
+	return this.bytesSent;
+    }
+
+    /**
+     * Getting the throughput of the route since latencies are recorded.
+     *
+     * @return the number of requests processed per second.
+     */
+    public double getThroughput()
+    {
+	long elapsed = Math.max(1, System.currentTimeMillis() - this.since);
+	return this.latency.getCount() * 1000.0 / elapsed;
+    }
+
+    /**
+     * Discarding recorded latencies.
+     */
+    public void resetMetrics()
+    {
+	this.latency.reset();
+	for (Histogram histogram : this.phaseLatencies)
+	    histogram.reset();
+	this.since = System.currentTimeMillis();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+	return this.name;
+    }
+}
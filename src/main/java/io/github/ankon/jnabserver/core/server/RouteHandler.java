@@ -0,0 +1,23 @@
+package io.github.ankon.jnabserver.core.server;
+
+import java.io.OutputStream;
+
+import io.github.ankon.jnabserver.core.protocol.HTTPRequest;
+
+/**
+ * Interface for handlers processing requests sent to a route of the micro server (see {@link RouteTable}).
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public interface RouteHandler
+{
+    /**
+     * Processing a request, sending the response to the client. The connection is closed by the worker once the handler returns.
+     *
+     * @param request the request to process.
+     * @param outStream the stream used to write the response.
+     * @param worker the worker processing the request (giving access to the micro server).
+     */
+    public void handle(HTTPRequest request, OutputStream outStream, Worker worker);
+}
@@ -0,0 +1,239 @@
+package io.github.ankon.jnabserver.core.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Table mapping requested files to the routes processing them.<br/>
+ *
+ * Routes are either registered for an exact path (e.g. <tt>/vl/p4.jsp</tt>), or for a path prefix (e.g. <tt>/chorlibrary/</tt>), the
+ * longest matching prefix winning. Requests matching no path are processed by the default route. Exact paths are looked up in a hash map
+ * and prefixes in a trie, so that dispatching a request costs a single lookup whatever the number of routes.<br/>
+ *
+ * Routes are meant to be registered at startup: each registration rebuilds the lookup structures, which are then published as a whole so
+ * that lookups never block. A listener can be notified of registered routes, e.g. to export their metrics.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class RouteTable
+{
+    /**
+     * Routes registered for exact paths, indexed by path (never modified once published).
+     */
+    private volatile Map<String, Route> exactRoutes;
+
+    /**
+     * Root of the trie of routes registered for path prefixes (never modified once published).
+     */
+    private volatile Node prefixRoutes;
+
+    /**
+     * Routes registered for path prefixes, indexed by prefix (used to rebuild the trie).
+     */
+    private LinkedHashMap<String, Route> prefixes;
+
+    /**
+     * Route processing requests matching no path.
+     */
+    private volatile Route defaultRoute;
+
+    /**
+     * Listener notified of registered routes (<tt>null</tt> if none).
+     */
+    private volatile Consumer<Route> routeListener;
+
+    /**
+     * Creating a new (empty) route table.
+     *
+     * @param defaultRoute the route processing requests matching no path.
+     */
+    public RouteTable(Route defaultRoute)
+    {
+	this.exactRoutes = new HashMap<String, Route>();
+	this.prefixRoutes = new Node();
+	this.prefixes = new LinkedHashMap<String, Route>();
+	this.defaultRoute = defaultRoute;
+	this.routeListener = null;
+    }
+
+    /**
+     * Setting the listener notified of the routes registered from now on (either for a path, a prefix, or as default route).
+     *
+     * @param listener the listener, or <tt>null</tt> for none.
+     */
+    public void setRouteListener(Consumer<Route> listener)
+    {
+	this.routeListener = listener;
+    }
+
+    /**
+     * Registering a route for an exact path, replacing the route previously registered for this path if any.
+     *
+     * @param path the path (e.g. <tt>/vl/p4.jsp</tt>).
+     * @param route the route processing requests for this path.
+     */
+    public synchronized void register(String path, Route route)
+    {
+	HashMap<String, Route> exactRoutes = new HashMap<String, Route>(this.exactRoutes);
+	exactRoutes.put(path, route);
+	this.exactRoutes = exactRoutes;
+	this.notifyRouteListener(route);
+    }
+
+    /**
+     * Registering a route for a path prefix, replacing the route previously registered for this prefix if any.
+     *
+     * @param prefix the path prefix (e.g. <tt>/chorlibrary/</tt>).
+     * @param route the route processing requests whose path starts with this prefix (unless a longer prefix or an exact path matches).
+     */
+    public synchronized void registerPrefix(String prefix, Route route)
+    {
+	this.prefixes.put(prefix, route);
+
+	Node root = new Node();
+	for (Map.Entry<String, Route> entry : this.prefixes.entrySet())
+	{
+	    Node node = root;
+	    String key = entry.getKey();
+	    for (int i = 0; i < key.length(); i++)
+		node = node.getOrAddChild(key.charAt(i));
+	    node.route = entry.getValue();
+	}
+	this.prefixRoutes = root;
+	this.notifyRouteListener(route);
+    }
+
+    /**
+     * Setting the route processing requests matching no path.
+     *
+     * @param route the default route.
+     */
+    public void setDefaultRoute(Route route)
+    {
+	this.defaultRoute = route;
+	this.notifyRouteListener(route);
+    }
+
+    /**
+     * Getting the route processing requests matching no path.
+     *
+     * @return the default route.
+     */
+    public Route getDefaultRoute()
+    {
+	return this.defaultRoute;
+    }
+
+    /**
+     * Getting the route processing a request.
+     *
+     * @param path the requested file (<tt>null</tt> if none).
+     * @return the route registered for this path, or for its longest registered prefix, or the default route (also for a <tt>null</tt>
+     *         path).
+     */
+    public Route getRoute(String path)
+    {
+	if (path == null) return this.defaultRoute;
+
+	Route route = this.exactRoutes.get(path);
+	if (route != null) return route;
+
+	Node node = this.prefixRoutes;
+	route = node.route;
+	for (int i = 0; i < path.length(); i++)
+	{
+	    node = node.getChild(path.charAt(i));
+	    if (node == null) break;
+	    if (node.route != null) route = node.route;
+	}
+	return (route != null) ? route : this.defaultRoute;
+    }
+
+    /**
+     * Getting all registered routes (each route being listed once, even if registered for several paths).
+     *
+     * @return the registered routes, the default route being listed last.
+     */
+    public synchronized List<Route> getRoutes()
+    {
+	List<Route> routes = new ArrayList<Route>();
+	for (Route route : this.exactRoutes.values())
+	    if (!routes.contains(route)) routes.add(route);
+	for (Route route : this.prefixes.values())
+	    if (!routes.contains(route)) routes.add(route);
+	routes.remove(this.defaultRoute);
+	routes.add(this.defaultRoute);
+	return routes;
+    }
+
+    /**
+     * Internal method notifying the listener of a registered route, if any.
+     *
+     * @param route the registered route.
+     */
+    private void notifyRouteListener(Route route)
+    {
+	Consumer<Route> listener = this.routeListener;
+	if (listener != null) listener.accept(route);
+    }
+
+    /**
+     * Node of the trie of path prefixes.
+     */
+    private static class Node
+    {
+	/**
+	 * Characters leading to child nodes.
+	 */
+	private char[] keys = new char[0];
+
+	/**
+	 * Child nodes, in the same order as their characters.
+	 */
+	private Node[] children = new Node[0];
+
+	/**
+	 * Route registered for the prefix ending at this node (<tt>null</tt> if none).
+	 */
+	private Route route;
+
+	/**
+	 * Getting a child node.
+	 *
+	 * @param key the character leading to the child node.
+	 * @return the child node, or <tt>null</tt> if there is none.
+	 */
+	private Node getChild(char key)
+	{
+	    // Paths have few distinct characters at each position, a linear scan is faster than hashing
+	    for (int i = 0; i < this.keys.length; i++)
+		if (this.keys[i] == key) return this.children[i];
+	    return null;
+	}
+
+	/**
+	 * Getting a child node, adding it if needed.
+	 *
+	 * @param key the character leading to the child node.
+	 * @return the child node.
+	 */
+	private Node getOrAddChild(char key)
+	{
+	    Node child = this.getChild(key);
+	    if (child != null) return child;
+
+	    child = new Node();
+	    this.keys = Arrays.copyOf(this.keys, this.keys.length + 1);
+	    this.keys[this.keys.length - 1] = key;
+	    this.children = Arrays.copyOf(this.children, this.children.length + 1);
+	    this.children[this.children.length - 1] = child;
+	    return child;
+	}
+    }
+}
@@ -0,0 +1,196 @@
+package io.github.ankon.jnabserver.core.server;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Thread multiplexing non-blocking client connections of the NIO front-end.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+class SelectorLoop extends Thread
+{
+    /**
+     * Interval between two checks of idle connections, in milliseconds.
+     */
+    private final static long IDLE_CHECK_INTERVAL = 1000;
+
+    /**
+     * Front-end from which the loop has been created.
+     */
+    private NIOFrontEnd frontEnd;
+
+    /**
+     * Selector used to wait for I/O readiness.
+     */
+    private Selector selector;
+
+    /**
+     * Accepted channels waiting to be registered to the selector.
+     */
+    private Queue<SocketChannel> pendingRegistrations;
+
+    /**
+     * Connections whose interest has to be updated (having data to write, more request data to read, or waiting to be closed).
+     */
+    private Queue<NIOConnection> pendingUpdates;
+
+    /**
+     * Indicator used to notify if the loop has to continue its execution.
+     */
+    private volatile boolean keepRunning;
+
+    /**
+     * Creating a new selector loop.
+     *
+     * @param frontEnd the front-end from which the loop has been created.
+     * @param index the index of the loop, used to name the thread.
+     * @throws IOException if the selector could not be opened.
+     */
+    SelectorLoop(NIOFrontEnd frontEnd, int index) throws IOException
+    {
+	super("jNab-nio-loop-" + index);
+	this.setDaemon(true);
+	this.frontEnd = frontEnd;
+	this.selector = Selector.open();
+	this.pendingRegistrations = new ConcurrentLinkedQueue<SocketChannel>();
+	this.pendingUpdates = new ConcurrentLinkedQueue<NIOConnection>();
+	this.keepRunning = true;
+    }
+
+    /**
+     * Handing an accepted channel to the loop.
+     *
+     * @param channel the accepted channel.
+     */
+    void register(SocketChannel channel)
+    {
+	this.pendingRegistrations.add(channel);
+	this.selector.wakeup();
+    }
+
+    /**
+     * Notifying the loop that the interest of a connection has to be updated (e.g. it has data to write, or has to be closed).
+     *
+     * @param connection the connection to notify about.
+     */
+    void requestUpdate(NIOConnection connection)
+    {
+	this.pendingUpdates.add(connection);
+	this.selector.wakeup();
+    }
+
+    /**
+     * Stopping the loop, closing all its connections.
+     */
+    void shutdown()
+    {
+	this.keepRunning = false;
+	this.selector.wakeup();
+    }
+
+    /**
+     * Internal method closing the connections idle for too long.
+     *
+     * @param now the current date, in nanoseconds (as given by {@link System#nanoTime()}).
+     */
+    private void closeIdleConnections(long now)
+    {
+	for (SelectionKey key : this.selector.keys())
+	{
+	    NIOConnection connection = (NIOConnection) key.attachment();
+	    if (connection != null && connection.closeIfIdle(now, NIOFrontEnd.IDLE_TIMEOUT))
+	    {
+		this.frontEnd.getMicroServer().getLogger().debug(
+			() -> "<jNab/server> closing idle connection from " + connection.getRemoteAddress());
+	    }
+	}
+    }
+
+    /**
+     * @see Thread#run()
+     */
+    public void run()
+    {
+	long lastIdleCheck = System.nanoTime();
+	try
+	{
+	    while (this.keepRunning)
+	    {
+		this.selector.select(IDLE_CHECK_INTERVAL);
+
+		// Registering accepted channels
+		SocketChannel channel;
+		while ((channel = this.pendingRegistrations.poll()) != null)
+		{
+		    try
+		    {
+			channel.configureBlocking(false);
+			SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ);
+			key.attach(new NIOConnection(this.frontEnd, this, channel, key));
+		    }
+		    catch (IOException e)
+		    {
+			try
+			{
+			    channel.close();
+			}
+			catch (IOException e2)
+			{}
+		    }
+		}
+
+		// Updating interest of connections that have been notified about
+		NIOConnection connection;
+		while ((connection = this.pendingUpdates.poll()) != null)
+		    connection.updateInterest();
+
+		// Processing ready connections
+		Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+		while (keys.hasNext())
+		{
+		    SelectionKey key = keys.next();
+		    keys.remove();
+		    connection = (NIOConnection) key.attachment();
+		    if (key.isValid() && key.isReadable()) connection.onReadable();
+		    if (key.isValid() && key.isWritable()) connection.onWritable();
+		}
+
+		// Closing connections whose client does not make progress anymore
+		long now = System.nanoTime();
+		if (now - lastIdleCheck >= IDLE_CHECK_INTERVAL * 1000000)
+		{
+		    lastIdleCheck = now;
+		    this.closeIdleConnections(now);
+		}
+	    }
+	}
+	catch (IOException e)
+	{
+	    this.frontEnd.getMicroServer().getLogger().error(() -> "<jNab/server> Selector loop failure: " + e.getMessage());
+	}
+
+	// Closing remaining connections
+	for (SelectionKey key : this.selector.keys())
+	{
+	    try
+	    {
+		key.channel().close();
+	    }
+	    catch (IOException e)
+	    {}
+	}
+	try
+	{
+	    this.selector.close();
+	}
+	catch (IOException e)
+	{}
+    }
+}
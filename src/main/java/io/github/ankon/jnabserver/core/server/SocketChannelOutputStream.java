@@ -0,0 +1,94 @@
+package io.github.ankon.jnabserver.core.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+
+import io.github.ankon.jnabserver.core.protocol.DirectChannelSink;
+
+/**
+ * Output stream writing to a blocking socket channel, and exposing the channel itself so that responses can transfer file content
+ * directly to the socket (without copying it to the heap).
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+class SocketChannelOutputStream extends ByteCountingOutputStream implements DirectChannelSink
+{
+    /**
+     * Channel where to write data (in blocking mode).
+     */
+    private SocketChannel channel;
+
+    /**
+     * Creating a new stream writing to a blocking socket channel.
+     *
+     * @param channel the channel where to write data.
+     */
+    SocketChannelOutputStream(SocketChannel channel)
+    {
+	this.channel = channel;
+    }
+
+    /**
+     * @see java.io.OutputStream#write(int)
+     */
+    public void write(int b) throws IOException
+    {
+	this.write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    /**
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+	ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+	while (buffer.hasRemaining())
+	    this.channel.write(buffer);
+	this.count(len);
+    }
+
+    /**
+     * @see java.nio.channels.WritableByteChannel#write(java.nio.ByteBuffer)
+     */
+    public int write(ByteBuffer src) throws IOException
+    {
+	int written = this.channel.write(src);
+	this.count(written);
+	return written;
+    }
+
+    /**
+     * @see io.github.ankon.jnabserver.core.protocol.DirectChannelSink#getChannel()
+     */
+    public WritableByteChannel getChannel()
+    {
+	return this.channel;
+    }
+
+    /**
+     * @see io.github.ankon.jnabserver.core.protocol.DirectChannelSink#transferred(long)
+     */
+    public void transferred(long length)
+    {
+	this.count(length);
+    }
+
+    /**
+     * @see java.nio.channels.Channel#isOpen()
+     */
+    public boolean isOpen()
+    {
+	return this.channel.isOpen();
+    }
+
+    /**
+     * @see java.io.OutputStream#close()
+     */
+    public void close() throws IOException
+    {
+	this.channel.close();
+    }
+}
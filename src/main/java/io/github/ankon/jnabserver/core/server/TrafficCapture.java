@@ -0,0 +1,692 @@
+package io.github.ankon.jnabserver.core.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Capture of the requests received by the server, written to an append-only file so that production traffic can be replayed later (e.g.
+ * reboot storms or RFID bursts).<br/>
+ *
+ * The file starts with a magic number, followed by a record per request: date of reception (in microseconds since the epoch), serial
+ * number of the bunny (empty if none), raw header of the request, length of its body, and the body itself (e.g. a voice recording) if
+ * captured. Bodies are captured as they are read by the server (small ones in memory, larger ones in a temporary file), the record being
+ * written once the whole body has been read: records of requests with a body may thus be slightly out of order. Bodies can be left
+ * out of the capture (for the sake of size or privacy), a replay then sending a dummy body of the same length. Records are buffered, and
+ * flushed at least every second. The capture stops by itself once the file reaches its maximum size, or if it can not be written.
+ *
+ * @author Sylvain Gizard
+ * @author Sebastien Jean
+ */
+public class TrafficCapture implements Closeable
+{
+    /**
+     * Magic number starting capture files ("jNC" and format version 2).
+     */
+    private final static int MAGIC = 0x6A4E4302;
+
+    /**
+     * Magic number starting capture files of format version 1, whose records have no body.
+     */
+    private final static int MAGIC_V1 = 0x6A4E4301;
+
+    /**
+     * Default maximum size of capture files, in bytes.
+     */
+    public final static long DEFAULT_MAX_SIZE = 1024L * 1024 * 1024;
+
+    /**
+     * Maximum delay between two flushes of the capture file, in nanoseconds.
+     */
+    private final static long FLUSH_INTERVAL = 1000000000L;
+
+    /**
+     * Maximum size of bodies kept in memory until recorded (larger ones being written to a temporary file).
+     */
+    private final static int MEMORY_THRESHOLD = 64 * 1024;
+
+    /**
+     * Size of the buffer used to copy bodies from temporary files.
+     */
+    private final static int COPY_BUFFER_SIZE = 8192;
+
+    /**
+     * Capture file.
+     */
+    private File file;
+
+    /**
+     * Stream where to write records (<tt>null</tt> once the capture is stopped).
+     */
+    private DataOutputStream out;
+
+    /**
+     * Maximum size of the capture file, in bytes.
+     */
+    private long maxSize;
+
+    /**
+     * Size of the capture file, in bytes (counting records still buffered).
+     */
+    private long size;
+
+    /**
+     * Whether bodies of requests are captured.
+     */
+    private boolean captureBodies;
+
+    /**
+     * Number of records written so far.
+     */
+    private long recordCount;
+
+    /**
+     * Reference of the microsecond dates of records, in microseconds since the epoch.
+     */
+    private long epochOrigin;
+
+    /**
+     * Reference of the microsecond dates of records, in nanoseconds (as given by {@link System#nanoTime()}).
+     */
+    private long nanoOrigin;
+
+    /**
+     * Date of the last flush, in nanoseconds (as given by {@link System#nanoTime()}).
+     */
+    private long lastFlush;
+
+    /**
+     * Starting a new capture, appending records to a file (created if it does not exist).
+     *
+     * @param file the capture file.
+     * @param maxSize the maximum size of the capture file, in bytes.
+     * @param captureBodies <tt>true</tt> if bodies of requests are captured, <tt>false</tt> if only their length is.
+     * @throws IOException if the file can not be opened, or is not a capture file of the current format.
+     */
+    public TrafficCapture(File file, long maxSize, boolean captureBodies) throws IOException
+    {
+	this.file = file;
+	this.maxSize = maxSize;
+	this.captureBodies = captureBodies;
+	this.recordCount = 0;
+	this.epochOrigin = System.currentTimeMillis() * 1000;
+	this.nanoOrigin = System.nanoTime();
+	this.lastFlush = this.nanoOrigin;
+
+	if (file.length() > 0)
+	{
+	    try (DataInputStream in = new DataInputStream(new FileInputStream(file)))
+	    {
+		if (in.readInt() != MAGIC) throw new IOException(file + " is not a capture file of the current format");
+	    }
+	}
+	this.size = file.length();
+	OutputStream fileStream = new BufferedOutputStream(new FileOutputStream(file, true), 65536);
+	this.out = new DataOutputStream(new FilterOutputStream(fileStream)
+	{
+	    public void write(int b) throws IOException
+	    {
+		this.out.write(b);
+		TrafficCapture.this.size++;
+	    }
+
+	    public void write(byte[] b, int off, int len) throws IOException
+	    {
+		this.out.write(b, off, len);
+		TrafficCapture.this.size += len;
+	    }
+	});
+	if (this.size == 0) this.out.writeInt(MAGIC);
+    }
+
+    /**
+     * Getting the capture file.
+     *
+     * @return the capture file.
+     */
+    public File getFile()
+    {
+	return this.file;
+    }
+
+    /**
+     * Getting the number of records written so far.
+     *
+     * @return the number of records.
+     */
+    public synchronized long getRecordCount()
+    {
+	return this.recordCount;
+    }
+
+    /**
+     * Testing if bodies of requests are captured.
+     *
+     * @return <tt>true</tt> if bodies are captured, <tt>false</tt> if only their length is.
+     */
+    public boolean isCapturingBodies()
+    {
+	return this.captureBodies;
+    }
+
+    /**
+     * Testing if the capture is still running.
+     *
+     * @return <tt>true</tt> if requests are captured, <tt>false</tt> if the capture has been stopped.
+     */
+    public synchronized boolean isCapturing()
+    {
+	return this.out != null;
+    }
+
+    /**
+     * Recording a request, without its body.
+     *
+     * @param serialNumber the serial number of the bunny (<tt>null</tt> if none).
+     * @param header the raw header of the request.
+     * @param bodyLength the length of the body of the request, in bytes.
+     * @return <tt>true</tt> if the request has been recorded, <tt>false</tt> if the capture is (or has just been) stopped, because the
+     *         maximum size of the file has been reached or the file could not be written.
+     */
+    public boolean record(String serialNumber, byte[] header, int bodyLength)
+    {
+	return this.record(System.nanoTime(), serialNumber, header, bodyLength, null);
+    }
+
+    /**
+     * Recording a request along with its body, which is written to the returned stream as it is read. The request is recorded once the
+     * stream is closed (without its body if the whole body has not been written, e.g. if the stream is closed right away).
+     *
+     * @param serialNumber the serial number of the bunny (<tt>null</tt> if none).
+     * @param header the raw header of the request.
+     * @param bodyLength the length of the body of the request, in bytes.
+     * @return the stream where to write the body, or <tt>null</tt> if the capture is stopped.
+     */
+    public synchronized OutputStream recordWithBody(String serialNumber, byte[] header, int bodyLength)
+    {
+	if (this.out == null) return null;
+	return new BodyRecorder(System.nanoTime(), serialNumber, header, bodyLength);
+    }
+
+    /**
+     * Internal method writing a record.
+     *
+     * @param date the date the request was received, in nanoseconds (as given by {@link System#nanoTime()}).
+     * @param serialNumber the serial number of the bunny (<tt>null</tt> if none).
+     * @param header the raw header of the request.
+     * @param bodyLength the length of the body of the request, in bytes.
+     * @param body the stream where to read the <tt>bodyLength</tt> bytes of the body of the request (<tt>null</tt> if not captured).
+     * @return <tt>true</tt> if the request has been recorded, <tt>false</tt> if the capture is (or has just been) stopped.
+     */
+    private synchronized boolean record(long date, String serialNumber, byte[] header, int bodyLength, InputStream body)
+    {
+	if (this.out == null) return false;
+
+	long now = System.nanoTime();
+	try
+	{
+	    if (this.size > this.maxSize)
+	    {
+		this.close();
+		return false;
+	    }
+	    this.out.writeLong(this.epochOrigin + (date - this.nanoOrigin) / 1000);
+	    this.out.writeUTF(serialNumber == null ? "" : serialNumber);
+	    this.out.writeInt(header.length);
+	    this.out.write(header);
+	    this.out.writeInt(bodyLength);
+	    this.out.writeBoolean(body != null);
+	    if (body != null)
+	    {
+		byte[] buffer = new byte[Math.min(bodyLength, COPY_BUFFER_SIZE)];
+		for (int remaining = bodyLength; remaining > 0;)
+		{
+		    int read = body.read(buffer, 0, Math.min(remaining, buffer.length));
+		    if (read == -1) throw new IOException("Captured body is truncated");
+		    this.out.write(buffer, 0, read);
+		    remaining -= read;
+		}
+	    }
+	    this.recordCount++;
+
+	    if (now - this.lastFlush > FLUSH_INTERVAL)
+	    {
+		this.out.flush();
+		this.lastFlush = now;
+	    }
+	    return true;
+	}
+	catch (IOException e)
+	{
+	    this.close();
+	    return false;
+	}
+    }
+
+    /**
+     * Flushing the records written so far to the capture file.
+     */
+    public synchronized void flush()
+    {
+	if (this.out == null) return;
+	try
+	{
+	    this.out.flush();
+	}
+	catch (IOException e)
+	{
+	    this.close();
+	}
+    }
+
+    /**
+     * Stopping the capture, closing the capture file.
+     */
+    public synchronized void close()
+    {
+	if (this.out == null) return;
+	try
+	{
+	    this.out.close();
+	}
+	catch (IOException e)
+	{
+	    // Ignoring the exception
+	}
+	this.out = null;
+    }
+
+    /**
+     * Stream collecting the body of a request (in memory if small enough, otherwise in a temporary file), recording the request once
+     * closed.
+     */
+    private class BodyRecorder extends OutputStream
+    {
+	/**
+	 * Date the request was received, in nanoseconds (as given by {@link System#nanoTime()}).
+	 */
+	private long date;
+
+	/**
+	 * Serial number of the bunny (<tt>null</tt> if none).
+	 */
+	private String serialNumber;
+
+	/**
+	 * Raw header of the request.
+	 */
+	private byte[] header;
+
+	/**
+	 * Length of the body of the request, in bytes.
+	 */
+	private int bodyLength;
+
+	/**
+	 * Content of the body, if small enough to be kept in memory.
+	 */
+	private byte[] data;
+
+	/**
+	 * Temporary file holding the body, if too large to be kept in memory (<tt>null</tt> until the first write).
+	 */
+	private File spillFile;
+
+	/**
+	 * Stream writing the temporary file, if any.
+	 */
+	private OutputStream spillStream;
+
+	/**
+	 * Number of bytes of the body collected so far.
+	 */
+	private int count;
+
+	/**
+	 * Whether the body can no longer be collected (the temporary file could not be written).
+	 */
+	private boolean failed;
+
+	/**
+	 * Whether the request has been recorded.
+	 */
+	private boolean closed;
+
+	/**
+	 * Creating a new body recorder.
+	 *
+	 * @param date the date the request was received, in nanoseconds (as given by {@link System#nanoTime()}).
+	 * @param serialNumber the serial number of the bunny (<tt>null</tt> if none).
+	 * @param header the raw header of the request.
+	 * @param bodyLength the length of the body of the request, in bytes.
+	 */
+	private BodyRecorder(long date, String serialNumber, byte[] header, int bodyLength)
+	{
+	    this.date = date;
+	    this.serialNumber = serialNumber;
+	    this.header = header;
+	    this.bodyLength = bodyLength;
+	    this.data = (bodyLength <= MEMORY_THRESHOLD) ? new byte[bodyLength] : null;
+	    this.count = 0;
+	    this.failed = false;
+	    this.closed = false;
+	}
+
+	/**
+	 * @see java.io.OutputStream#write(int)
+	 */
+	public void write(int b) throws IOException
+	{
+	    this.write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	/**
+	 * @see java.io.OutputStream#write(byte[], int, int)
+	 */
+	public synchronized void write(byte[] b, int off, int len) throws IOException
+	{
+	    // Data beyond the announced length is not part of the body
+	    len = Math.max(0, Math.min(len, this.bodyLength - this.count));
+	    if (this.closed || this.failed || len == 0) return;
+
+	    if (this.data != null)
+		System.arraycopy(b, off, this.data, this.count, len);
+	    else
+	    {
+		try
+		{
+		    if (this.spillStream == null)
+		    {
+			this.spillFile = File.createTempFile("jNab-capture", ".tmp");
+			this.spillStream = new BufferedOutputStream(new FileOutputStream(this.spillFile), COPY_BUFFER_SIZE);
+		    }
+		    this.spillStream.write(b, off, len);
+		}
+		catch (IOException e)
+		{
+		    // The request is recorded without its body
+		    this.failed = true;
+		    this.deleteSpillFile();
+		    throw e;
+		}
+	    }
+	    this.count += len;
+	}
+
+	/**
+	 * @see java.io.OutputStream#close()
+	 */
+	public synchronized void close()
+	{
+	    if (this.closed) return;
+	    this.closed = true;
+
+	    InputStream body = null;
+	    try
+	    {
+		if (!this.failed && this.count == this.bodyLength)
+		{
+		    if (this.data != null)
+			body = new ByteArrayInputStream(this.data);
+		    else if (this.spillStream != null)
+		    {
+			this.spillStream.close();
+			this.spillStream = null;
+			body = new BufferedInputStream(new FileInputStream(this.spillFile), COPY_BUFFER_SIZE);
+		    }
+		}
+	    }
+	    catch (IOException e)
+	    {
+		// The request is recorded without its body
+		body = null;
+	    }
+
+	    try
+	    {
+		TrafficCapture.this.record(this.date, this.serialNumber, this.header, this.bodyLength, body);
+	    }
+	    finally
+	    {
+		if (body != null)
+		{
+		    try
+		    {
+			body.close();
+		    }
+		    catch (IOException e)
+		    {
+			// Ignoring the exception, the body has been recorded
+		    }
+		}
+		this.data = null;
+		this.deleteSpillFile();
+	    }
+	}
+
+	/**
+	 * Internal method closing and deleting the temporary file holding the body, if any.
+	 */
+	private void deleteSpillFile()
+	{
+	    if (this.spillStream != null)
+	    {
+		try
+		{
+		    this.spillStream.close();
+		}
+		catch (IOException e)
+		{
+		    // Ignoring the exception, the file is deleted anyway
+		}
+		this.spillStream = null;
+	    }
+	    if (this.spillFile != null)
+	    {
+		this.spillFile.delete();
+		this.spillFile = null;
+	    }
+	}
+    }
+
+    /**
+     * Reader of a capture file, returning captured requests in order of writing (see {@link TrafficCapture} for the order of requests
+     * with a body).
+     */
+    public static class Reader implements Closeable
+    {
+	/**
+	 * Stream where to read records.
+	 */
+	private DataInputStream in;
+
+	/**
+	 * Whether records hold the body of requests (i.e. the file is not of format version 1).
+	 */
+	private boolean withBodies;
+
+	/**
+	 * Opening a capture file.
+	 *
+	 * @param file the capture file.
+	 * @throws IOException if the file can not be opened, or is not a capture file (of any format version).
+	 */
+	public Reader(File file) throws IOException
+	{
+	    this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+	    try
+	    {
+		int magic = this.in.readInt();
+		if (magic != MAGIC && magic != MAGIC_V1) throw new IOException(file + " is not a capture file");
+		this.withBodies = magic == MAGIC;
+	    }
+	    catch (IOException e)
+	    {
+		this.in.close();
+		throw e;
+	    }
+	}
+
+	/**
+	 * Reading the next captured request.
+	 *
+	 * @return the next request, or <tt>null</tt> at the end of the file (a truncated last record, e.g. written while the server was
+	 *         killed, being ignored).
+	 * @throws IOException if the file can not be read.
+	 */
+	public CapturedRequest next() throws IOException
+	{
+	    try
+	    {
+		long timestamp = this.in.readLong();
+		String serialNumber = this.in.readUTF();
+		byte[] header = new byte[this.in.readInt()];
+		this.in.readFully(header);
+		int bodyLength = this.in.readInt();
+		byte[] body = null;
+		if (this.withBodies && this.in.readBoolean())
+		{
+		    body = new byte[bodyLength];
+		    this.in.readFully(body);
+		}
+		return new CapturedRequest(timestamp, serialNumber.isEmpty() ? null : serialNumber, header, bodyLength, body);
+	    }
+	    catch (EOFException e)
+	    {
+		return null;
+	    }
+	}
+
+	/**
+	 * @see java.io.Closeable#close()
+	 */
+	public void close() throws IOException
+	{
+	    this.in.close();
+	}
+    }
+
+    /**
+     * Request read from a capture file.
+     */
+    public static class CapturedRequest
+    {
+	/**
+	 * Date the request was received, in microseconds since the epoch.
+	 */
+	private long timestamp;
+
+	/**
+	 * Serial number of the bunny (<tt>null</tt> if none).
+	 */
+	private String serialNumber;
+
+	/**
+	 * Raw header of the request.
+	 */
+	private byte[] header;
+
+	/**
+	 * Length of the body of the request, in bytes.
+	 */
+	private int bodyLength;
+
+	/**
+	 * Body of the request (<tt>null</tt> if not captured).
+	 */
+	private byte[] body;
+
+	/**
+	 * Creating a new captured request.
+	 *
+	 * @param timestamp the date the request was received, in microseconds since the epoch.
+	 * @param serialNumber the serial number of the bunny (<tt>null</tt> if none).
+	 * @param header the raw header of the request.
+	 * @param bodyLength the length of the body of the request, in bytes.
+	 * @param body the body of the request (<tt>null</tt> if not captured).
+	 */
+	private CapturedRequest(long timestamp, String serialNumber, byte[] header, int bodyLength, byte[] body)
+	{
+	    this.timestamp = timestamp;
+	    this.serialNumber = serialNumber;
+	    this.header = header;
+	    this.bodyLength = bodyLength;
+	    this.body = body;
+	}
+
+	/**
+	 * Getting the date the request was received.
+	 *
+	 * @return the date, in microseconds since the epoch.
+	 */
+	public long getTimestamp()
+	{
+	    return this.timestamp;
+	}
+
+	/**
+	 * Getting the serial number of the bunny.
+	 *
+	 * @return the serial number, or <tt>null</tt> if the request had none.
+	 */
+	public String getSerialNumber()
+	{
+	    return this.serialNumber;
+	}
+
+	/**
+	 * Getting the raw header of the request.
+	 *
+	 * @return the raw header.
+	 */
+	public byte[] getHeader()
+	{
+	    return this.header;
+	}
+
+	/**
+	 * Getting the length of the body of the request.
+	 *
+	 * @return the length of the body, in bytes.
+	 */
+	public int getBodyLength()
+	{
+	    return this.bodyLength;
+	}
+
+	/**
+	 * Getting the body of the request.
+	 *
+	 * @return the body, or <tt>null</tt> if it has not been captured.
+	 */
+	public byte[] getBody()
+	{
+	    return this.body;
+	}
+
+	/**
+	 * Building the raw request to replay: the captured header, followed by the captured body (or by a dummy body of the captured
+	 * length, if the body has not been captured).
+	 *
+	 * @return the raw request.
+	 */
+	public byte[] toByteArray()
+	{
+	    byte[] request = new byte[this.header.length + this.bodyLength];
+	    System.arraycopy(this.header, 0, request, 0, this.header.length);
+	    if (this.body != null) System.arraycopy(this.body, 0, request, this.header.length, this.bodyLength);
+	    return request;
+	}
+    }
+}
@@ -1,63 +1,124 @@
 package io.github.ankon.jnabserver.core.server;
 
-import java.io.File;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.util.NoSuchElementException;
 
-import io.github.ankon.jnabserver.core.bunny.Bunny;
-import io.github.ankon.jnabserver.core.choreography.Choreography;
 import io.github.ankon.jnabserver.core.exceptions.MalformedRequestException;
-import io.github.ankon.jnabserver.core.exceptions.NoSuchBunnyException;
-import io.github.ankon.jnabserver.core.exceptions.NoSuchChoreographyException;
-import io.github.ankon.jnabserver.core.protocol.AmbientBlock;
-import io.github.ankon.jnabserver.core.protocol.ChoreographyHTTPResponse;
+import io.github.ankon.jnabserver.core.logging.Tracer;
+import io.github.ankon.jnabserver.core.profiling.RequestProfiler;
+import io.github.ankon.jnabserver.core.protocol.AbstractHTTPResponse;
 import io.github.ankon.jnabserver.core.protocol.HTTPRequest;
-import io.github.ankon.jnabserver.core.protocol.LocalFileHTTPResponse;
-import io.github.ankon.jnabserver.core.protocol.LocateHTTPResponse;
-import io.github.ankon.jnabserver.core.protocol.Packet;
 import io.github.ankon.jnabserver.core.protocol.PacketHTTPResponse;
-import io.github.ankon.jnabserver.core.protocol.PingIntervalBlock;
+import io.github.ankon.jnabserver.core.protocol.PacingScheduler;
+import io.github.ankon.jnabserver.core.protocol.ServiceUnavailableHTTPResponse;
 
 /**
- * Thread handling a client connection.
+ * Task handling a client connection. Depending on the engine used by the micro server, a worker is either run by a dedicated thread, or
+ * by an executor (pooled threads, virtual threads, NIO front-end handlers).
  * 
  * @author Juha-Pekka Rajaniemi
  * @author Ville Antila
  * @author Sylvain Gizard
  * @author Sebastien Jean
  */
-public class Worker extends Thread
+public class Worker implements Runnable
 {
     /**
-     * Socket used to communicate with the client.
+     * Name of the worker (remote address of the client).
+     */
+    private String name;
+
+    /**
+     * Socket used to communicate with the client (<tt>null</tt> if the connection is not socket based).
      */
     private Socket clientSocket;
 
+    /**
+     * Connection to close once the request has been processed.
+     */
+    private Closeable connection;
+
+    /**
+     * Stream used to read the request, or <tt>null</tt> if it has to be retrieved from the client socket.
+     */
+    private InputStream inStream;
+
+    /**
+     * Stream used to write the response, or <tt>null</tt> if it has to be retrieved from the client socket.
+     */
+    private OutputStream outStream;
+
     /**
      * Micro server from which the worker has been created.
      */
     private MicroServer microServer;
 
     /**
-     * Creating a new thread handling a client connection.
+     * Route of the request being processed (<tt>null</tt> until the request is parsed).
+     */
+    private Route route;
+
+    /**
+     * Creating a new worker handling a client connection.
      * 
      * @param socket the socket used to communicate with the client.
      * @param microServer the micro server from which this worker has been created.
      */
     public Worker(Socket socket, MicroServer microServer)
     {
-	// Thread name is remote socket address
-	super(socket.getRemoteSocketAddress().toString());
+	// Worker name is remote socket address
+	this.name = socket.getRemoteSocketAddress().toString();
 
 	this.clientSocket = socket;
+	this.connection = socket;
 	this.microServer = microServer;
+    }
+
+    /**
+     * Creating a new worker handling a client connection whose streams are already available (e.g. a connection managed by the NIO
+     * front-end).
+     * 
+     * @param name the name of the worker (remote address of the client).
+     * @param in the stream where to read the request.
+     * @param out the stream where to write the response.
+     * @param connection the connection to close once the request has been processed.
+     * @param microServer the micro server from which this worker has been created.
+     */
+    public Worker(String name, InputStream in, OutputStream out, Closeable connection, MicroServer microServer)
+    {
+	this.name = name;
+
+	this.clientSocket = null;
+	this.connection = connection;
+	this.inStream = in;
+	this.outStream = out;
+	this.microServer = microServer;
+    }
+
+    /**
+     * Starting a dedicated thread running the worker (as done by the legacy <tt>thread</tt> engine).
+     */
+    public void start()
+    {
+	Thread thread = new Thread(this, this.name);
 
 	// Setting the thread priority down so that the ServerSocket
 	// will be responsive to new clients.
-	this.setPriority(NORM_PRIORITY - 1);
+	thread.setPriority(Thread.NORM_PRIORITY - 1);
+	thread.start();
+    }
+
+    /**
+     * Getting the name of the worker.
+     * 
+     * @return the name of the worker (remote address of the client).
+     */
+    public String getName()
+    {
+	return this.name;
     }
 
     /**
@@ -65,313 +126,190 @@ public class Worker extends Thread
      */
     private void closeClientSocket()
     {
+	PacingScheduler scheduler = AbstractHTTPResponse.getPacingScheduler();
+	if (scheduler != null) scheduler.unbind();
+
+	try
+	{
+	    this.connection.close();
+	}
+	catch (IOException e)
+	{}
+    }
+
+    /**
+     * Checking if a request can be processed, given its route class. If not, the request is shed by telling the bunny to
+     * retry later (i.e. a default packet with a short ping interval is sent in response to events, and a 503 error for other requests).
+     * Each admitted request must be notified to be complete to the admission controller.
+     * 
+     * @param route the route class of the request (see {@link AdmissionController}).
+     * @param outStream the stream used to write the response.
+     * @return <tt>true</tt> if the request is admitted, <tt>false</tt> if it has been shed.
+     */
+    public boolean admit(int route, OutputStream outStream)
+    {
+	if (this.microServer.getAdmissionController().tryAcquire(route)) return true;
+
+	this.microServer.getLogger().debug(
+		() -> "<jNab/server/worker:" + this.getName() + "> Too many concurrent " + AdmissionController.ROUTE_NAMES[route]
+			+ " requests, shedding request");
+
 	try
 	{
-	    this.clientSocket.close();
+	    if (route == AdmissionController.EVENT_ROUTE)
+		new PacketHTTPResponse(outStream, PacketHTTPResponse.getDefaultResponse(this.microServer.getRetryInterval()));
+	    else
+		new ServiceUnavailableHTTPResponse(outStream, this.microServer.getRetryInterval());
 	}
 	catch (IOException e)
 	{}
+	return false;
     }
 
     /**
-     * @see Thread#run()
+     * @see Runnable#run()
      */
     public void run()
     {
-	InputStream inStream = null;
-	OutputStream outStream = null;
+	this.microServer.workerStarted();
+	try
+	{
+	    this.processRequest();
+	}
+	catch (RuntimeException e)
+	{
+	    // E.g. a failing plugin, or a request missing a parameter
+	    this.microServer.getLogger().error("<jNab/server/worker:" + this.getName() + "> Unable to process request: " + e);
+	}
+	finally
+	{
+	    // Closing the connection whatever happens, which also unbinds the pacing of the thread
+	    this.closeClientSocket();
+	    this.microServer.workerFinished();
+	}
+    }
+
+    /**
+     * Internal method reading, processing and answering the request (the connection being closed by the caller).
+     */
+    private void processRequest()
+    {
+	InputStream inStream = this.inStream;
+	OutputStream outStream = this.outStream;
 
 	try
 	{
 	    // Getting the input stream used to read from client socket
-	    inStream = this.clientSocket.getInputStream();
+	    if (inStream == null) inStream = this.clientSocket.getInputStream();
 
-	    // Getting the output stream used to write to client socket
-	    outStream = this.clientSocket.getOutputStream();
+	    // Getting the output stream used to write to client socket (using its channel if available)
+	    if (outStream == null)
+	    {
+		if (this.clientSocket.getChannel() != null)
+		    outStream = new SocketChannelOutputStream(this.clientSocket.getChannel());
+		else
+		    outStream = this.clientSocket.getOutputStream();
+	    }
 	}
 	catch (IOException e2)
 	{
-	    try
-	    {
-		this.microServer.getDebugLoggingStream().println(
-			"<jNab/server/worker:" + this.getName() + "> Unable to communicate with remote client");
-	    }
-	    catch (NullPointerException e3)
-	    {}
-	    this.closeClientSocket();
+	    this.microServer.getLogger().debug(
+		    () -> "<jNab/server/worker:" + this.getName() + "> Unable to communicate with remote client");
 	    return;
 	}
 
 	// Creating a request object to wrap incoming HTTP request
-	HTTPRequest r = null;
+	long start = System.nanoTime();
+	Object parseEvent = RequestProfiler.begin(RequestProfiler.REQUEST_PARSED_EVENT);
+	HTTPRequest r;
 	try
 	{
 	    r = new HTTPRequest(inStream);
 	}
 	catch (MalformedRequestException e1)
 	{
-	    try
-	    {
-		this.microServer.getDebugLoggingStream().println("<jNab/server/worker:" + this.getName() + "> Malformed request");
-	    }
-	    catch (NullPointerException e3)
-	    {}
-	    this.closeClientSocket();
+	    this.microServer.getLogger().debug(() -> "<jNab/server/worker:" + this.getName() + "> Malformed request");
 	    return;
 	}
 
 	try
 	{
-	    this.microServer.getDebugLoggingStream().println("<jNab/server/worker:" + this.getName() + "> Request received:\n" + r);
-	}
-	catch (NullPointerException e3)
-	{}
-
-	// Processing request
-
-	// Case 1: bunny asks for its bootcode
-	if (r.getURLParam("requestfile").equals("/vl/bc.jsp"))
-	{
-	    try
-	    {
-		this.microServer.getInfoLoggingStream().println("<jNab/server/worker:" + this.getName() + "> Sending boot code to bunny");
-	    }
-	    catch (NullPointerException e3)
-	    {}
-	    File bootcodeFile = new File(this.microServer.getResourcesPath(), "bootcode.bin");
-	    try
-	    {
-		new LocalFileHTTPResponse(outStream, bootcodeFile);
-	    }
-	    catch (IOException e)
-	    {
-		try
-		{
-		    this.microServer.getDebugLoggingStream().println(
-			    "<jNab/server/worker:" + this.getName() + "> Failed to send bootcode to bunny");
-		}
-		catch (NullPointerException e3)
-		{}
-	    }
+	    this.routeRequest(r, outStream, start, parseEvent);
 	}
-
-	// Case 2: bunny asks for location
-
-	else if (r.getURLParam("requestfile").equals("/vl/locate.jsp"))
+	finally
 	{
-	    // Sending the IP/port of the server
-	    try
-	    {
-		this.microServer.getInfoLoggingStream().println("<jNab/server/worker:" + this.getName() + "> Sending logging information");
-	    }
-	    catch (NullPointerException e3)
-	    {}
-	    try
-	    {
-		new LocateHTTPResponse(outStream, this.microServer.getAddress(), this.microServer.getPort());
-	    }
-	    catch (IOException e)
-	    {
-		try
-		{
-		    this.microServer.getDebugLoggingStream().println(
-			    "<jNab/server/worker:" + this.getName() + "> Failed to send location information to bunny");
-		}
-		catch (NullPointerException e3)
-		{}
-	    }
+	    // Discarding the unread part of the body whatever the route (otherwise closing the connection would reset it, and the client
+	    // would lose the response), and deleting the body if it has been spilled to disk
+	    if (r.getBody() != null) r.getBody().release();
 	}
+    }
 
-	// Case 3: bunny notifies an event (ping, rfid, record, ...)
-
-	else if (r.getURLParam("requestfile").equals("/vl/p4.jsp") || r.getURLParam("requestfile").equals("/vl/rfid.jsp")
-		|| r.getURLParam("requestfile").equals("/vl/record.jsp"))
-	{
-	    // Retrieving bunny from the serial number included in the request
-	    Bunny bunny = null;
+    /**
+     * Internal method routing a parsed request to its handler.
+     * 
+     * @param r the request.
+     * @param outStream the stream used to write the response.
+     * @param start the date the request started to be read, in nanoseconds (as given by {@link System#nanoTime()}).
+     * @param parseEvent the profiling event of the parsing of the request.
+     */
+    private void routeRequest(HTTPRequest r, OutputStream outStream, long start, Object parseEvent)
+    {
+	String serialNumber = r.getURLParam("sn");
+	long bodyLength = (r.getBody() == null) ? 0 : r.getBody().getLength();
+	RequestProfiler.requestParsed(parseEvent, r.getURLParam("requestfile"), serialNumber, bodyLength);
+	this.microServer.captureRequest(serialNumber, r);
 
-	    String serialNumber = null;
+	this.microServer.getLogger().debug(() -> "<jNab/server/worker:" + this.getName() + "> Request received:\n" + r);
 
-	    // Checking if serial number seems correct
-	    try
-	    {
-		serialNumber = r.getURLParam("sn");
-	    }
-	    catch (NoSuchElementException e)
-	    {
-		try
-		{
-		    this.microServer.getDebugLoggingStream().println(
-			    "<jNab/server/worker:" + this.getName() + "> Unable to find valid serial number in request, ignoring it");
-		}
-		catch (NullPointerException e3)
-		{}
-		this.closeClientSocket();
-		return;
-	    }
+	long parsed = System.nanoTime();
 
-	    // Retrieving bunny, or adding a new one
-	    try
-	    {
-		bunny = this.microServer.getBurrow().getBunny(serialNumber);
-	    }
-	    catch (NoSuchBunnyException e)
-	    {
-		try
-		{
-		    this.microServer.getInfoLoggingStream().println(
-			    "<jNab/server/worker:" + this.getName() + "> Adding the bunny whose serial number is " + serialNumber
-				    + " to the burrow");
-		}
-		catch (NullPointerException e3)
-		{}
-		bunny = new Bunny(serialNumber);
-		this.microServer.getBurrow().addBunny(bunny);
-	    }
+	// Looking up the route of the request
+	Route route = this.microServer.getRouteTable().getRoute(r.getURLParam("requestfile"));
+	route.recordPhase(Route.PARSE_PHASE, parsed - start);
+	this.route = route;
+	if (outStream instanceof ByteCountingOutputStream) ((ByteCountingOutputStream) outStream).countTo(route.getBytesSent());
+	Tracer tracer = this.microServer.getTracer();
+	tracer.trace(serialNumber, () -> "Request received by worker " + this.getName() + " (" + route.getName() + " route):\n" + r);
 
-	    // Processing request
-	    try
-	    {
-		this.microServer.getDebugLoggingStream().println("<jNab/server/worker:" + this.getName() + "> Processing request");
-	    }
-	    catch (NullPointerException e3)
-	    {}
-	    bunny.handleRequest(r);
+	// Binding the route and the bunny to this thread, so that responses are paced at their upload rate
+	PacingScheduler scheduler = AbstractHTTPResponse.getPacingScheduler();
+	if (scheduler != null) scheduler.bind(route.getName(), serialNumber);
 
-	    // Sending the first packet in queue to the bunny
-	    try
-	    {
-		Packet packet = bunny.getNextPacket();
-
-		if (packet == null)
-		{
-		    try
-		    {
-			this.microServer.getDebugLoggingStream().println(
-				"<jNab/server/worker:" + this.getName() + "> Packet to send is a default packet");
-		    }
-		    catch (Exception e)
-		    {}
-
-		    // If there was no packet in the list, a default packet is returned.
-		    packet = new Packet();
-		    packet.addBlock(new PingIntervalBlock(bunny.getPingInterval()));
-		    packet.addBlock(new AmbientBlock());
-		}
-
-		try
-		{
-		    this.microServer.getDebugLoggingStream().println(
-			    "<jNab/server/worker:" + this.getName() + "> Sending packet:\n" + packet);
-		}
-		catch (Exception e)
-		{}
-		new PacketHTTPResponse(outStream, packet);
-	    }
-	    catch (IOException e)
-	    {
-		try
-		{
-		    this.microServer.getDebugLoggingStream().println(
-			    "<jNab/server/worker:" + this.getName() + "> Failed to send packet to bunny");
-		}
-		catch (NullPointerException e3)
-		{}
-	    }
+	// Processing request
+	Object routeEvent = RequestProfiler.begin(RequestProfiler.REQUEST_ROUTED_EVENT);
+	try
+	{
+	    route.getHandler().handle(r, outStream, this);
 	}
-
-	// Case 4: bunny asks for a choreography
-	else if (r.getURLParam("requestfile").startsWith("/chorlibrary/"))
+	finally
 	{
-	    // Retrieving choreography
-	    String choreographyName = r.getURLParam("requestfile").substring(13);
-	    Choreography choreography = null;
-	    try
-	    {
-		choreography = this.microServer.getChoregraphyLibrary().getChoreography(choreographyName);
-	    }
-	    catch (NoSuchChoreographyException e)
-	    {
-		try
-		{
-		    this.microServer.getDebugLoggingStream().println(
-			    "<jNab/server/worker:" + this.getName() + "> bunny asked an unknown choreography (" + choreographyName + ")");
-		}
-		catch (NullPointerException e3)
-		{}
-		this.closeClientSocket();
-		return;
-	    }
-
-	    try
-	    {
-		this.microServer.getDebugLoggingStream().println(
-			"<jNab/server/worker:" + this.getName() + "> sending choreography (" + choreographyName + ") to bunny");
-	    }
-	    catch (NullPointerException e3)
-	    {}
-	    try
-	    {
-		new ChoreographyHTTPResponse(outStream, choreography);
-	    }
-	    catch (IOException e)
-	    {
-		try
-		{
-		    this.microServer.getDebugLoggingStream().println(
-			    "<jNab/server/worker:" + this.getName() + "> failed to send choreography (" + choreographyName + ") to bunny");
-		}
-		catch (NullPointerException e3)
-		{}
-	    }
+	    RequestProfiler.requestRouted(routeEvent, route.getName(), serialNumber);
+	    long time = System.nanoTime() - start;
+	    route.record(time);
+	    tracer.trace(serialNumber, () -> "Request processed in " + time / 1000 + " us (parsed in " + (parsed - start) / 1000 + " us)");
+	    this.route = null;
 	}
+    }
 
-	/*
-	 * Case 5: (default) bunny asks for a local file
-	 */
-	else
-	{
-	    String fileName = null;
-	    try
-	    {
-		fileName = r.getURLParam("requestfile").substring(1);
-	    }
-	    catch (NoSuchElementException e)
-	    {
-		try
-		{
-		    this.microServer.getDebugLoggingStream().println(
-			    "<jNab/server/worker:" + this.getName() + "> malformed local file request");
-		}
-		catch (NullPointerException e3)
-		{}
-		this.closeClientSocket();
-		return;
-	    }
+    /**
+     * Recording the latency of a phase of the request being processed, on its route.
+     * 
+     * @param phase the phase (e.g. {@link Route#PLUGIN_PHASE}).
+     * @param time the time spent in the phase, in nanoseconds.
+     */
+    public void recordPhase(int phase, long time)
+    {
+	Route route = this.route;
+	if (route != null) route.recordPhase(phase, time);
+    }
 
-	    // Sending local file
-	    try
-	    {
-		this.microServer.getDebugLoggingStream().println(
-			"<jNab/server/worker:" + this.getName() + "> sending local file (" + fileName + ") to bunny");
-	    }
-	    catch (NullPointerException e3)
-	    {}
-	    try
-	    {
-		new LocalFileHTTPResponse(outStream, new File(fileName));
-	    }
-	    catch (IOException e)
-	    {
-		try
-		{
-		    this.microServer.getDebugLoggingStream().println(
-			    "<jNab/server/worker:" + this.getName() + "> failed to send local file to bunny");
-		}
-		catch (NullPointerException e3)
-		{}
-	    }
-	}
-	this.closeClientSocket();
+    /**
+     * Getting the micro server from which the worker has been created.
+     * 
+     * @return the micro server processing the request.
+     */
+    public MicroServer getMicroServer()
+    {
+	return this.microServer;
     }
 }
@@ -1,6 +1,7 @@
 package io.github.ankon.jnabserver.ext.configuration;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
@@ -8,16 +9,28 @@ import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 import io.github.ankon.jnabserver.core.bunny.Bunny;
 import io.github.ankon.jnabserver.core.bunny.Burrow;
+import io.github.ankon.jnabserver.core.bunny.BunnyStatistics;
+import io.github.ankon.jnabserver.core.cache.FileCache;
 import io.github.ankon.jnabserver.core.exceptions.NoSuchBunnyException;
 import io.github.ankon.jnabserver.core.exceptions.NoSuchPluginException;
 import io.github.ankon.jnabserver.core.exceptions.PluginCreationException;
+import io.github.ankon.jnabserver.core.logging.Logger;
+import io.github.ankon.jnabserver.core.logging.Tracer;
+import io.github.ankon.jnabserver.core.metrics.Histogram;
 import io.github.ankon.jnabserver.core.plugins.AbstractPlugin;
+import io.github.ankon.jnabserver.core.plugins.PluginMonitor;
+import io.github.ankon.jnabserver.core.protocol.PacingScheduler;
+import io.github.ankon.jnabserver.core.server.AdmissionController;
 import io.github.ankon.jnabserver.core.server.MicroServer;
+import io.github.ankon.jnabserver.core.server.Route;
+import io.github.ankon.jnabserver.core.server.TrafficCapture;
 import io.github.ankon.jnabserver.ext.persistency.Serializer;
 
 /**
@@ -43,6 +56,11 @@ public class ServerConfigurationServer extends Thread
      */
     private final static int SERVER_SHUTDOWN = 2;
 
+    /**
+     * Number of bunnies listed by the "INFO burrow" command.
+     */
+    private final static int BUSIEST_BUNNIES = 10;
+
     /**
      * Micro server to configure.
      */
@@ -99,13 +117,7 @@ public class ServerConfigurationServer extends Thread
 	}
 	catch (IOException e)
 	{
-	    try
-	    {
-		this.microServer.getErrorLoggingStream().println(
-			"<JNab configuration server> unable to create/bind configuration service socket");
-	    }
-	    catch (NullPointerException e2)
-	    {}
+	    this.microServer.getLogger().error("<JNab configuration server> unable to create/bind configuration service socket");
 	    return;
 	}
 
@@ -120,12 +132,7 @@ public class ServerConfigurationServer extends Thread
 	    }
 	    catch (IOException e)
 	    {
-		try
-		{
-		    this.microServer.getErrorLoggingStream().println("<JNab configuration server> client connection failure");
-		}
-		catch (NullPointerException e2)
-		{}
+		this.microServer.getLogger().error("<JNab configuration server> client connection failure");
 		continue;
 	    }
 
@@ -143,12 +150,7 @@ public class ServerConfigurationServer extends Thread
 	    }
 	    catch (IOException e)
 	    {
-		try
-		{
-		    this.microServer.getDebugLoggingStream().println("<JNab configuration server> client communication failure");
-		}
-		catch (NullPointerException e2)
-		{}
+		this.microServer.getLogger().debug("<JNab configuration server> client communication failure");
 
 		try
 		{
@@ -226,13 +228,86 @@ public class ServerConfigurationServer extends Thread
 	    if (cmd.equals("INFO server"))
 	    {
 		ps.println("Server bound to (" + this.microServer.getAddress() + "," + this.microServer.getPort() + ")");
+		ps.println("Engine: " + this.microServer.getEngine());
+		AdmissionController admissionController = this.microServer.getAdmissionController();
+		ps.println("Rejected connections: " + admissionController.getRejectedConnections());
+		for (int route = 0; route < AdmissionController.ROUTE_NAMES.length; route++)
+		    ps.println("Shed " + AdmissionController.ROUTE_NAMES[route] + " requests: " + admissionController.getRejectedRequests(route));
+		PacingScheduler pacingScheduler = this.microServer.getPacingScheduler();
+		if (pacingScheduler == null)
+		    ps.println("Pacing: per worker");
+		else
+		{
+		    ps.println("Pacing: default rate " + pacingScheduler.getDefaultRate() + " bytes/s");
+		    ps.println("Paced transfers: " + pacingScheduler.getActiveTransfers() + " active, " + pacingScheduler.getCompletedTransfers()
+			    + " completed");
+		    ps.println("Paced bytes: " + pacingScheduler.getBytesSent() + " (" + pacingScheduler.getThroughput() + " bytes/s overall, "
+			    + pacingScheduler.getAverageTransferRate() + " bytes/s per transfer)");
+		}
+		FileCache fileCache = this.microServer.getFileCache();
+		ps.println("File cache: " + fileCache.getEntryCount() + " files, " + fileCache.getSize() + "/" + fileCache.getMaxSize() + " bytes");
+		ps.println("File cache requests: " + fileCache.getHits() + " hits, " + fileCache.getMisses() + " misses, "
+			+ fileCache.getEvictions() + " evictions");
+		Logger logger = this.microServer.getLogger();
+		ps.println("Logging: level " + Logger.LEVEL_NAMES[logger.getLevel()] + ", "
+			+ (logger.isAsynchronous() ? "asynchronous" : "synchronous") + ", " + logger.getDroppedMessages() + " dropped messages");
+		TrafficCapture capture = this.microServer.getTrafficCapture();
+		ps.println("Capture: "
+			+ ((capture == null) ? "off" : capture.getRecordCount() + " requests captured into " + capture.getFile()
+				+ (capture.isCapturingBodies() ? "" : " (without bodies)")));
+		for (Route route : this.microServer.getRouteTable().getRoutes())
+		    ps.println("Route " + route.getName() + ": " + route.getRequestCount() + " requests, " + route.getAverageTime() / 1000
+			    + " us average, " + route.getMaxTime() / 1000 + " us max");
 		return KEEP_ALIVE;
 
 	    }
+	    else if (cmd.equals("INFO metrics"))
+	    {
+		return this.handleInfoMetricsCommand(ps);
+	    }
+	    else if (cmd.equals("RESET metrics"))
+	    {
+		for (Route route : this.microServer.getRouteTable().getRoutes())
+		    route.resetMetrics();
+		ps.println("OK");
+		return KEEP_ALIVE;
+	    }
+	    else if (cmd.equals("INFO plugins"))
+	    {
+		return this.handleInfoPluginsCommand(ps);
+	    }
+	    else if (cmd.equals("RESET plugins"))
+	    {
+		this.microServer.getPluginMonitor().reset();
+		ps.println("OK");
+		return KEEP_ALIVE;
+	    }
+	    else if (cmd.startsWith("SET plugin slow threshold: "))
+	    {
+		return this.handleSetPluginSlowThresholdCommand(cmd.substring(cmd.indexOf(':') + 1).trim(), ps);
+	    }
+	    else if (cmd.startsWith("CAPTURE start: "))
+	    {
+		return this.handleCaptureStartCommand(cmd.substring(cmd.indexOf(':') + 1).trim(), true, ps);
+	    }
+	    else if (cmd.startsWith("CAPTURE start without bodies: "))
+	    {
+		return this.handleCaptureStartCommand(cmd.substring(cmd.indexOf(':') + 1).trim(), false, ps);
+	    }
+	    else if (cmd.equals("CAPTURE stop"))
+	    {
+		TrafficCapture capture = this.microServer.stopTrafficCapture();
+		ps.println((capture == null) ? "KO (no running capture)" : "OK (" + capture.getRecordCount() + " requests captured)");
+		return KEEP_ALIVE;
+	    }
 	    else if (cmd.equals("INFO bunnies"))
 	    {
 		return this.handleInfoBunniesCommand(ps);
 	    }
+	    else if (cmd.equals("INFO burrow"))
+	    {
+		return this.handleInfoBurrowCommand(ps);
+	    }
 	    else if (cmd.startsWith("INFO bunny: "))
 	    {
 		return this.handleInfoBunnyCommand(cmd.substring(cmd.indexOf(':') + 1).trim(), ps);
@@ -261,14 +336,35 @@ public class ServerConfigurationServer extends Thread
 	    {
 		return this.handleSaveBunnyCommand(cmd.substring(cmd.indexOf(':') + 1).trim(), ps);
 	    }
+	    else if (cmd.startsWith("TRACE bunny: "))
+	    {
+		return this.handleTraceBunnyCommand(cmd.substring(cmd.indexOf(':') + 1).trim(), ps);
+	    }
+	    else if (cmd.equals("TRACE bunnies"))
+	    {
+		Set<String> tracedBunnies = this.microServer.getTracer().getTracedBunnies();
+		ps.println("" + tracedBunnies.size() + " bunnies currently traced :");
+		for (String serialNumber : tracedBunnies)
+		    ps.println(serialNumber);
+		return KEEP_ALIVE;
+	    }
 	    else if (cmd.equals("HELP"))
 	    {
 		ps.println("Available commands:");
 		ps.println("  SHUTDOWN server                                   - Shuts down the server");
 		ps.println("  SHUTDOWN client / QUIT / EXIT                     - Disconnects the client from the server");
 		ps.println("  INFO server                                       - Display server information");
+		ps.println("  INFO metrics                                      - Display request latencies per route");
+		ps.println("  RESET metrics                                     - Discard recorded request latencies");
+		ps.println("  INFO plugins                                      - Display plugin call latencies, slowest plugins first");
+		ps.println("  RESET plugins                                     - Discard recorded plugin call latencies");
+		ps.println("  SET plugin slow threshold: <ms>                   - Change the duration from which plugin calls are logged");
+		ps.println("  CAPTURE start: <file>                             - Capture incoming requests into a file, for replay");
+		ps.println("  CAPTURE start without bodies: <file>              - Capture incoming requests, leaving out their bodies");
+		ps.println("  CAPTURE stop                                      - Stop capturing incoming requests");
 		ps.println("  INFO bunnies                                      - List of bunnies");
 		ps.println("  INFO bunny: <mac>                                 - Info for specific bunny");
+		ps.println("  INFO burrow                                       - Aggregated bunny statistics and busiest bunnies");
 		ps.println("  SET bunny name: <mac> <name>                      - Update bunny name");
 		ps.println("  SET bunny ping interval: <mac> <interval>         - Change ping interval");
 		ps.println("  ADD bunny plugin: <mac> <plugin-name>             - Add plugin for bunny");
@@ -276,6 +372,9 @@ public class ServerConfigurationServer extends Thread
 		ps.println("    <mac> <plugin-name> <param-name> <param-value>  - Update plugin parameter for bunny");
 		ps.println("  REMOVE bunny plugin: <mac> <plugin-name>          - Remove plugin from bunny");
 		ps.println("  SAVE bunny: <mac>                                 - Save bunny settings");
+		ps.println("  TRACE bunny: <mac> on|off                         - Switch bunny tracing on or off");
+		ps.println("  TRACE bunny: <mac> dump|clear                     - Display or discard bunny traces");
+		ps.println("  TRACE bunnies                                     - List of traced bunnies");
 		return KEEP_ALIVE;
 	    }
 	    else
@@ -501,6 +600,74 @@ public class ServerConfigurationServer extends Thread
 	return KEEP_ALIVE;
     }
 
+    /**
+     * Internal method processing "TRACE bunny:" command.
+     * 
+     * @param cmdParameters the parameters of the command (i.e. the substring after ':').
+     * @param ps the character stream where to write command processing output.
+     * @return a connection state indication, either <tt>KEEP_ALIVE</tt>, <tt>CLIENT_SHUTDOWN</tt> or <tt>SERVER_SHUTDOWN</tt>.
+     */
+    private int handleTraceBunnyCommand(String cmdParameters, PrintStream ps)
+    {
+	int indexOfSpace = cmdParameters.indexOf(' ');
+	if (indexOfSpace == -1)
+	{
+	    ps.println("KO (syntax error)");
+	    return KEEP_ALIVE;
+	}
+	String bunnySerial = cmdParameters.substring(0, indexOfSpace).trim();
+	String action = cmdParameters.substring(indexOfSpace).trim();
+
+	// Bunnies not in the burrow yet can be traced, in order to investigate their first requests
+	Tracer tracer = this.microServer.getTracer();
+	if (action.equals("on"))
+	    tracer.enable(bunnySerial);
+	else if (action.equals("off"))
+	    tracer.disable(bunnySerial);
+	else if (action.equals("clear"))
+	    tracer.clear(bunnySerial);
+	else if (action.equals("dump"))
+	{
+	    for (String entry : tracer.dump(bunnySerial))
+		ps.println(entry);
+	}
+	else
+	{
+	    ps.println("KO (syntax error)");
+	    return KEEP_ALIVE;
+	}
+	ps.println("OK");
+	return KEEP_ALIVE;
+    }
+
+    /**
+     * Internal method processing "CAPTURE start:" and "CAPTURE start without bodies:" commands.
+     * 
+     * @param cmdParameters the parameters of the command (i.e. the substring after ':').
+     * @param captureBodies <tt>true</tt> if bodies of requests are captured, <tt>false</tt> if only their length is.
+     * @param ps the character stream where to write command processing output.
+     * @return a connection state indication, either <tt>KEEP_ALIVE</tt>, <tt>CLIENT_SHUTDOWN</tt> or <tt>SERVER_SHUTDOWN</tt>.
+     */
+    private int handleCaptureStartCommand(String cmdParameters, boolean captureBodies, PrintStream ps)
+    {
+	if (cmdParameters.isEmpty())
+	{
+	    ps.println("KO (syntax error)");
+	    return KEEP_ALIVE;
+	}
+
+	try
+	{
+	    this.microServer.startTrafficCapture(new File(cmdParameters), captureBodies);
+	    ps.println("OK");
+	}
+	catch (IOException e)
+	{
+	    ps.println("KO (capture file failure)");
+	}
+	return KEEP_ALIVE;
+    }
+
     /**
      * Internal method processing "SET bunny name:" command.
      * 
@@ -547,6 +714,14 @@ public class ServerConfigurationServer extends Thread
 	    Bunny bunny = this.microServer.getBurrow().getBunny(cmdParameters);
 	    ps.println("Name: " + bunny.getName());
 	    ps.println("Ping interval: " + bunny.getPingInterval());
+	    BunnyStatistics statistics = bunny.getStatistics();
+	    if (statistics.getLastSeen() == 0)
+		ps.println("Last seen: never");
+	    else
+		ps.println("Last seen: " + (System.currentTimeMillis() - statistics.getLastSeen()) / 1000 + " s ago");
+	    ps.println("Observed ping period: " + statistics.getPingPeriod() + " ms");
+	    ps.println("Queued packets: " + bunny.getQueuedPacketCount() + " (" + statistics.getMaxQueuedPackets() + " max)");
+	    printStatistics(statistics, ps);
 	    Set<AbstractPlugin> plugins = bunny.getPlugins();
 	    ps.println("" + plugins.size() + " plugins: ");
 
@@ -563,6 +738,144 @@ public class ServerConfigurationServer extends Thread
 	return KEEP_ALIVE;
     }
 
+    /**
+     * Internal method processing "INFO burrow" command, listing the bunnies spending the most time in plugins.
+     * 
+     * @param ps the character stream where to write command processing output.
+     * @return a connection state indication, either <tt>KEEP_ALIVE</tt>, <tt>CLIENT_SHUTDOWN</tt> or <tt>SERVER_SHUTDOWN</tt>.
+     */
+    private int handleInfoBurrowCommand(PrintStream ps)
+    {
+	Burrow burrow = this.microServer.getBurrow();
+	BunnyStatistics total = burrow.getStatistics();
+	List<Bunny> bunnies;
+	synchronized (burrow.getBunnies())
+	{
+	    bunnies = new ArrayList<Bunny>(burrow.getBunnies());
+	}
+	ps.println("" + bunnies.size() + " bunnies, " + burrow.getQueuedPacketCount() + " queued packets (" + total.getMaxQueuedPackets()
+		+ " max per bunny)");
+	printStatistics(total, ps);
+
+	bunnies.sort((b1, b2) -> Long.compare(b2.getStatistics().getPluginTime(), b1.getStatistics().getPluginTime()));
+	ps.println("Busiest bunnies:");
+	for (Bunny bunny : bunnies.subList(0, Math.min(BUSIEST_BUNNIES, bunnies.size())))
+	{
+	    BunnyStatistics statistics = bunny.getStatistics();
+	    ps.println("  " + bunny.getSerialNumber() + " (" + bunny.getName() + "): "
+		    + percentage(statistics.getPluginTime(), total.getPluginTime()) + " of plugin time, "
+		    + percentage(statistics.getPingCount(), total.getPingCount()) + " of pings, "
+		    + percentage(statistics.getBytesSent(), total.getBytesSent()) + " of bytes sent, ping period "
+		    + statistics.getPingPeriod() + " ms");
+	}
+	return KEEP_ALIVE;
+    }
+
+    /**
+     * Internal method printing the counters of bunny statistics.
+     * 
+     * @param statistics the statistics of a bunny, or aggregated ones.
+     * @param ps the character stream where to write command processing output.
+     */
+    private static void printStatistics(BunnyStatistics statistics, PrintStream ps)
+    {
+	ps.println("Requests: " + statistics.getPingCount() + " pings, " + statistics.getEventCount() + " events, "
+		+ statistics.getRecordCount() + " records");
+	ps.println("Bytes sent: " + statistics.getBytesSent());
+	ps.println("Plugin calls: " + statistics.getPluginCallCount() + " (" + statistics.getPluginTime() / 1000 + " us)");
+    }
+
+    /**
+     * Internal method formatting the share of a value in a total.
+     * 
+     * @param value the value.
+     * @param total the total.
+     * @return the share of the value, as a percentage.
+     */
+    private static String percentage(long value, long total)
+    {
+	return (total == 0) ? "0%" : String.format("%.1f%%", value * 100.0 / total);
+    }
+
+    /**
+     * Internal method processing "INFO plugins" command, listing plugins by decreasing cumulative call time.
+     * 
+     * @param ps the character stream where to write command processing output.
+     * @return a connection state indication, either <tt>KEEP_ALIVE</tt>, <tt>CLIENT_SHUTDOWN</tt> or <tt>SERVER_SHUTDOWN</tt>.
+     */
+    private int handleInfoPluginsCommand(PrintStream ps)
+    {
+	PluginMonitor pluginMonitor = this.microServer.getPluginMonitor();
+	ps.println("Slow threshold: " + pluginMonitor.getSlowThreshold() + " ms");
+	for (PluginMonitor.PluginTiming timing : pluginMonitor.getTimings())
+	{
+	    ps.println("Plugin " + timing.getPluginName() + ": " + timing.getCallCount() + " calls, " + timing.getTotalTime() / 1000
+		    + " us total, " + timing.getSlowCallCount() + " slow calls");
+	    for (String callback : timing.getCallbacks())
+	    {
+		Histogram latency = timing.getLatency(callback);
+		ps.println("  " + callback + ": " + latency.getCount() + " calls, " + formatLatencies(latency));
+	    }
+	}
+	return KEEP_ALIVE;
+    }
+
+    /**
+     * Internal method processing "SET plugin slow threshold:" command.
+     * 
+     * @param cmdParameters the parameters of the command (i.e. the substring after ':').
+     * @param ps the character stream where to write command processing output.
+     * @return a connection state indication, either <tt>KEEP_ALIVE</tt>, <tt>CLIENT_SHUTDOWN</tt> or <tt>SERVER_SHUTDOWN</tt>.
+     */
+    private int handleSetPluginSlowThresholdCommand(String cmdParameters, PrintStream ps)
+    {
+	try
+	{
+	    this.microServer.getPluginMonitor().setSlowThreshold(Integer.parseInt(cmdParameters));
+	    ps.println("OK");
+	}
+	catch (NumberFormatException e)
+	{
+	    ps.println("KO (invalid threshold)");
+	}
+	return KEEP_ALIVE;
+    }
+
+    /**
+     * Internal method processing "INFO metrics" command.
+     * 
+     * @param ps the character stream where to write command processing output.
+     * @return a connection state indication, either <tt>KEEP_ALIVE</tt>, <tt>CLIENT_SHUTDOWN</tt> or <tt>SERVER_SHUTDOWN</tt>.
+     */
+    private int handleInfoMetricsCommand(PrintStream ps)
+    {
+	for (Route route : this.microServer.getRouteTable().getRoutes())
+	{
+	    ps.println("Route " + route.getName() + ": " + route.getRequestCount() + " requests ("
+		    + String.format("%.1f", route.getThroughput()) + " requests/s)");
+	    if (route.getRequestCount() == 0) continue;
+	    ps.println("  total   " + formatLatencies(route.getLatency()));
+	    for (int phase = 0; phase < Route.PHASE_NAMES.length; phase++)
+	    {
+		Histogram latency = route.getPhaseLatency(phase);
+		if (latency.getCount() > 0) ps.println("  " + String.format("%-7s ", Route.PHASE_NAMES[phase]) + formatLatencies(latency));
+	    }
+	}
+	return KEEP_ALIVE;
+    }
+
+    /**
+     * Internal method formatting the percentiles of a latency histogram.
+     * 
+     * @param latency the histogram of latencies, in nanoseconds.
+     * @return the formatted percentiles, in microseconds.
+     */
+    private static String formatLatencies(Histogram latency)
+    {
+	return "p50=" + latency.getValueAtPercentile(50) / 1000 + " us, p99=" + latency.getValueAtPercentile(99) / 1000 + " us, p99.9="
+		+ latency.getValueAtPercentile(99.9) / 1000 + " us, max=" + latency.getMax() / 1000 + " us";
+    }
+
     /**
      * Internal method processing "INFO bunnies" command.
      * 
@@ -1,13 +1,14 @@
 package io.github.ankon.jnabserver.ext.helperPlugins;
 
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
 
-import io.github.ankon.jnabserver.core.events.RecordEventListener;
+import io.github.ankon.jnabserver.core.events.RecordStreamEventListener;
 import io.github.ankon.jnabserver.core.plugins.AbstractPlugin;
 import io.github.ankon.jnabserver.core.protocol.MessageBlock;
 import io.github.ankon.jnabserver.core.protocol.Packet;
 import io.github.ankon.jnabserver.core.protocol.PingIntervalBlock;
+import io.github.ankon.jnabserver.core.protocol.RequestBody;
 
 /**
  * Plugin echoing on a bunny the sound that has been previously recorded (on the same bunny).
@@ -16,7 +17,7 @@ import io.github.ankon.jnabserver.core.protocol.PingIntervalBlock;
  * @author Sylvain Gizard
  * @author Sebastien Jean
  */
-public class EchoPlugin extends AbstractPlugin implements RecordEventListener
+public class EchoPlugin extends AbstractPlugin implements RecordStreamEventListener
 {
     /**
      * Plugin name.
@@ -39,17 +40,16 @@ public class EchoPlugin extends AbstractPlugin implements RecordEventListener
     /**
      * Echoing the recorded voice.
      * 
-     * @see RecordEventListener#onSimpleRecord(byte[])
+     * @see RecordStreamEventListener#onSimpleRecord(RequestBody)
      */
-    public void onSimpleRecord(byte[] data)
+    public void onSimpleRecord(RequestBody data)
     {
+	if (data == null) return;
+
 	// Writing data to echo-<MAC>.wav
 	try
 	{
-	    FileOutputStream fos = new FileOutputStream("echo" + this.bunny.getSerialNumber() + ".wav");
-	    for (int element : data)
-		fos.write(element);
-	    fos.close();
+	    data.writeTo(new File("echo" + this.bunny.getSerialNumber() + ".wav"));
 	}
 	catch (IOException e)
 	{
@@ -67,9 +67,9 @@ public class EchoPlugin extends AbstractPlugin implements RecordEventListener
     }
 
     /**
-     * @see io.github.ankon.jnabserver.core.events.RecordEventListener#onDoubleRecord(byte[])
+     * @see io.github.ankon.jnabserver.core.events.RecordStreamEventListener#onDoubleRecord(RequestBody)
      */
-    public void onDoubleRecord(byte[] data)
+    public void onDoubleRecord(RequestBody data)
     {}
 
 }
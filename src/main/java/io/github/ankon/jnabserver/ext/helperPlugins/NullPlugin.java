@@ -4,9 +4,10 @@ import io.github.ankon.jnabserver.core.events.ClickEventListener;
 import io.github.ankon.jnabserver.core.events.EarsEventListener;
 import io.github.ankon.jnabserver.core.events.PingEventListener;
 import io.github.ankon.jnabserver.core.events.RFIDEventListener;
-import io.github.ankon.jnabserver.core.events.RecordEventListener;
+import io.github.ankon.jnabserver.core.events.RecordStreamEventListener;
 import io.github.ankon.jnabserver.core.events.StopEventListener;
 import io.github.ankon.jnabserver.core.plugins.AbstractPlugin;
+import io.github.ankon.jnabserver.core.protocol.RequestBody;
 
 /**
  * Plugin capturing every event but doing nothing !
@@ -14,8 +15,8 @@ import io.github.ankon.jnabserver.core.plugins.AbstractPlugin;
  * @author Sylvain Gizard
  * @author Sebastien Jean
  */
-public class NullPlugin extends AbstractPlugin implements ClickEventListener, EarsEventListener, PingEventListener, RecordEventListener,
-	RFIDEventListener, StopEventListener
+public class NullPlugin extends AbstractPlugin implements ClickEventListener, EarsEventListener, PingEventListener,
+	RecordStreamEventListener, RFIDEventListener, StopEventListener
 {
 
     /**
@@ -55,9 +56,9 @@ public class NullPlugin extends AbstractPlugin implements ClickEventListener, Ea
     {}
 
     /**
-     * @see io.github.ankon.jnabserver.core.events.RecordEventListener#onSimpleRecord(byte[])
+     * @see io.github.ankon.jnabserver.core.events.RecordStreamEventListener#onSimpleRecord(RequestBody)
      */
-    public void onSimpleRecord(byte[] data)
+    public void onSimpleRecord(RequestBody data)
     {}
 
     /**
@@ -79,9 +80,9 @@ public class NullPlugin extends AbstractPlugin implements ClickEventListener, Ea
     {}
 
     /**
-     * @see io.github.ankon.jnabserver.core.events.RecordEventListener#onDoubleRecord(byte[])
+     * @see io.github.ankon.jnabserver.core.events.RecordStreamEventListener#onDoubleRecord(RequestBody)
      */
-    public void onDoubleRecord(byte[] data)
+    public void onDoubleRecord(RequestBody data)
     {}
 
     /**
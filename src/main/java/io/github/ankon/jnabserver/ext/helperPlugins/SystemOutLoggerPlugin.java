@@ -4,9 +4,10 @@ import io.github.ankon.jnabserver.core.events.ClickEventListener;
 import io.github.ankon.jnabserver.core.events.EarsEventListener;
 import io.github.ankon.jnabserver.core.events.PingEventListener;
 import io.github.ankon.jnabserver.core.events.RFIDEventListener;
-import io.github.ankon.jnabserver.core.events.RecordEventListener;
+import io.github.ankon.jnabserver.core.events.RecordStreamEventListener;
 import io.github.ankon.jnabserver.core.events.StopEventListener;
 import io.github.ankon.jnabserver.core.plugins.AbstractPlugin;
+import io.github.ankon.jnabserver.core.protocol.RequestBody;
 
 /**
  * Plugin capturing every event and just logging them on standard output
@@ -15,7 +16,7 @@ import io.github.ankon.jnabserver.core.plugins.AbstractPlugin;
  * @author Sebastien Jean
  */
 public class SystemOutLoggerPlugin extends AbstractPlugin implements ClickEventListener, EarsEventListener, PingEventListener,
-	RecordEventListener, RFIDEventListener, StopEventListener
+	RecordStreamEventListener, RFIDEventListener, StopEventListener
 {
 
     /**
@@ -61,17 +62,17 @@ public class SystemOutLoggerPlugin extends AbstractPlugin implements ClickEventL
     }
 
     /**
-     * @see io.github.ankon.jnabserver.core.events.RecordEventListener#onSimpleRecord(byte[])
+     * @see io.github.ankon.jnabserver.core.events.RecordStreamEventListener#onSimpleRecord(RequestBody)
      */
-    public void onSimpleRecord(byte[] data)
+    public void onSimpleRecord(RequestBody data)
     {
 	System.out.println("<SystemOutLoggerPlugin> single-click record event received");
     }
 
     /**
-     * @see io.github.ankon.jnabserver.core.events.RecordEventListener#onDoubleRecord(byte[])
+     * @see io.github.ankon.jnabserver.core.events.RecordStreamEventListener#onDoubleRecord(RequestBody)
      */
-    public void onDoubleRecord(byte[] data)
+    public void onDoubleRecord(RequestBody data)
     {
 	System.out.println("<SystemOutLoggerPlugin> double-click record event received");
     }
@@ -1,14 +1,15 @@
 package io.github.ankon.jnabserver.ext.helperPlugins;
 
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
 
-import io.github.ankon.jnabserver.core.events.RecordEventListener;
+import io.github.ankon.jnabserver.core.events.RecordStreamEventListener;
 import io.github.ankon.jnabserver.core.exceptions.NoSuchBunnyException;
 import io.github.ankon.jnabserver.core.plugins.AbstractPlugin;
 import io.github.ankon.jnabserver.core.protocol.MessageBlock;
 import io.github.ankon.jnabserver.core.protocol.Packet;
 import io.github.ankon.jnabserver.core.protocol.PingIntervalBlock;
+import io.github.ankon.jnabserver.core.protocol.RequestBody;
 
 /**
  * Plugin echoing on another bunny what has been recorded on the bunny to which this plugin is attached.
@@ -17,7 +18,7 @@ import io.github.ankon.jnabserver.core.protocol.PingIntervalBlock;
  * @author Sylvain Gizard
  * @author Sebastien Jean
  */
-public class TalkiePlugin extends AbstractPlugin implements RecordEventListener
+public class TalkiePlugin extends AbstractPlugin implements RecordStreamEventListener
 {
     /**
      * Plugin name.
@@ -40,21 +41,17 @@ public class TalkiePlugin extends AbstractPlugin implements RecordEventListener
     /**
      * Echoing the recorded message on the buddy bunny.
      * 
-     * @see RecordEventListener#onSimpleRecord(byte[])
+     * @see RecordStreamEventListener#onSimpleRecord(RequestBody)
      */
-    public void onSimpleRecord(byte[] data)
+    public void onSimpleRecord(RequestBody data)
     {
 	String receiver = this.getParameterValue("receiver");
-	if (receiver == null) return;
+	if (receiver == null || data == null) return;
 
 	// Saving the recorded audio
 	try
 	{
-	    FileOutputStream fos = new FileOutputStream("message" + receiver + ".wav");
-	    for (int element : data)
-		fos.write(element);
-
-	    fos.close();
+	    data.writeTo(new File("message" + receiver + ".wav"));
 	}
 	catch (IOException e)
 	{
@@ -80,8 +77,8 @@ public class TalkiePlugin extends AbstractPlugin implements RecordEventListener
     }
 
     /**
-     * @see io.github.ankon.jnabserver.core.events.RecordEventListener#onDoubleRecord(byte[])
+     * @see io.github.ankon.jnabserver.core.events.RecordStreamEventListener#onDoubleRecord(RequestBody)
      */
-    public void onDoubleRecord(byte[] data)
+    public void onDoubleRecord(RequestBody data)
     {}
 }
@@ -3,8 +3,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 
+import io.github.ankon.jnabserver.core.cache.FileCache;
+import io.github.ankon.jnabserver.core.logging.Logger;
+import io.github.ankon.jnabserver.core.plugins.PluginMonitor;
+import io.github.ankon.jnabserver.core.protocol.HTTPRequest;
+import io.github.ankon.jnabserver.core.protocol.PacingScheduler;
+import io.github.ankon.jnabserver.core.server.AdmissionController;
 import io.github.ankon.jnabserver.core.server.MicroServer;
 import io.github.ankon.jnabserver.ext.configuration.ServerConfigurationServer;
 import io.github.ankon.jnabserver.ext.persistency.Serializer;
@@ -24,6 +32,36 @@ public class jNab
      */
     public final static String DEFAULT_SERVER_PORT = "8080";
 
+    /**
+     * Default value for the engine used by the server to handle client connections.
+     */
+    public final static String DEFAULT_SERVER_ENGINE = MicroServer.THREAD_ENGINE;
+
+    /**
+     * Default maximum number of bootcode requests processed concurrently.
+     */
+    public final static String DEFAULT_BOOTCODE_LIMIT = "16";
+
+    /**
+     * Default maximum number of local file requests processed concurrently.
+     */
+    public final static String DEFAULT_LOCAL_FILE_LIMIT = "64";
+
+    /**
+     * Default maximum number of event requests processed concurrently (0 meaning unlimited).
+     */
+    public final static String DEFAULT_EVENT_LIMIT = "0";
+
+    /**
+     * Default number of writer threads of the pacing scheduler (0 meaning that each worker paces its own response).
+     */
+    public final static String DEFAULT_PACING_THREADS = String.valueOf(PacingScheduler.DEFAULT_WRITER_THREADS);
+
+    /**
+     * Default level of logged messages.
+     */
+    public final static String DEFAULT_LOG_LEVEL = Logger.LEVEL_NAMES[Logger.DEBUG];
+
     /**
      * Default value for the port to which the configuration server is bound.
      */
@@ -44,12 +82,57 @@ public class jNab
      */
     private final static String DEFAULT_PLUGIN_PATH = "files/plugins";
 
+    /**
+     * Names of the server properties (without the <tt>jNab.</tt> prefix), that can be set in the configuration file or overridden by
+     * command-line arguments.
+     */
+    private final static String[] PROPERTY_NAMES = { "server.ip", "server.port", "server.engine", "server.workers", "server.queue",
+	    "server.retry", "server.limit.bootcode", "server.limit.files", "server.limit.events", "server.limit.body",
+	    "server.pacing.threads", "server.pacing.rate", "server.pacing.routes", "server.pacing.bunnies", "server.bootcode.direct",
+	    "server.cache.size", "server.log.level", "server.log.buffer", "server.plugin.slow", "server.capture",
+	    "server.capture.bodies", "conf.ip", "conf.port", "serializedfiles.root", "resources.root", "plugins.root" };
+
     /**
      * Running an instance of MicroServer. Server properties are set by loading <tt>jNab.conf</tt> configuration file. Loaded properties can
      * be overridden by command line arguments. Command-lines arguments can be either :
      * <ul>
      * <li>-server.ip=<i>value</i></li> for setting/overriding server's binding ip
      * <li>-server.port=<i>value</i></li> for setting/overriding server's binding port
+     * <li>-server.engine=<i>value</i></li> for setting/overriding server's connection handling engine (<tt>thread</tt>, <tt>virtual</tt>,
+     * <tt>pool</tt> or <tt>nio</tt>)
+     * <li>-server.workers=<i>value</i></li> for setting/overriding the maximum number of workers of the <tt>pool</tt> engine
+     * <li>-server.queue=<i>value</i></li> for setting/overriding the maximum number of connections waiting for a worker of the <tt>pool</tt>
+     * engine (or for a handler of the <tt>nio</tt> engine)
+     * <li>-server.retry=<i>value</i></li> for setting/overriding the delay, in seconds, after which bunnies whose requests have been shed
+     * retry
+     * <li>-server.limit.bootcode=<i>value</i></li> for setting/overriding the maximum number of bootcode requests processed concurrently
+     * <li>-server.limit.files=<i>value</i></li> for setting/overriding the maximum number of local file requests processed concurrently
+     * <li>-server.limit.events=<i>value</i></li> for setting/overriding the maximum number of event requests processed concurrently (0
+     * meaning unlimited)
+     * <li>-server.limit.body=<i>value</i></li> for setting/overriding the maximum size, in bytes, of request bodies (e.g. recorded voice
+     * data)
+     * <li>-server.pacing.threads=<i>value</i></li> for setting/overriding the number of writer threads of the pacing scheduler (0 meaning
+     * that each worker paces its own response)
+     * <li>-server.pacing.rate=<i>value</i></li> for setting/overriding the default upload rate, in bytes per second
+     * <li>-server.pacing.routes=<i>value</i></li> for setting/overriding upload rates per route, as a comma-separated list of
+     * <i>route</i>:<i>rate</i> (routes being <tt>bootcode</tt>, <tt>locate</tt>, <tt>ping</tt>, <tt>rfid</tt>, <tt>record</tt>,
+     * <tt>choreography</tt> and <tt>file</tt>)
+     * <li>-server.pacing.bunnies=<i>value</i></li> for setting/overriding upload rates per bunny, as a comma-separated list of
+     * <i>serial number</i>:<i>rate</i>
+     * <li>-server.bootcode.direct=<i>value</i></li> for setting/overriding whether the bootcode is cached off-heap (<tt>true</tt> or
+     * <tt>false</tt>)
+     * <li>-server.cache.size=<i>value</i></li> for setting/overriding the maximum size, in kilobytes, of the cache of local files (0 meaning
+     * that local files are always read from disk)
+     * <li>-server.log.level=<i>value</i></li> for setting/overriding the most detailed level of logged messages (<tt>error</tt>,
+     * <tt>info</tt> or <tt>debug</tt>)
+     * <li>-server.log.buffer=<i>value</i></li> for setting/overriding the maximum number of log messages waiting to be written by the
+     * logging thread (0 meaning that messages are written by the threads logging them)
+     * <li>-server.plugin.slow=<i>value</i></li> for setting/overriding the duration, in milliseconds, from which plugin calls are logged as
+     * slow (0 meaning that slow calls are not detected)
+     * <li>-server.capture=<i>value</i></li> for setting/overriding the file where incoming requests are captured, to be replayed later
+     * (empty meaning that requests are not captured)
+     * <li>-server.capture.bodies=<i>value</i></li> for setting/overriding whether bodies of captured requests (i.e. voice recordings)
+     * are captured too (<tt>false</tt> meaning that only their length is, e.g. for privacy reasons)
      * <li>-conf.ip=<i>value</i></li> for setting/overriding configuration server's binding ip
      * <li>-conf.port=<i>value</i></li> for setting/overriding configuration server's binding port
      * <li>-serializedfiles.root=<i>value</i></li> for setting/overriding serialization root path
@@ -65,6 +148,25 @@ public class jNab
 	// Setting system properties to default values
 	System.setProperty("jNab.server.ip", "");
 	System.setProperty("jNab.server.port", DEFAULT_SERVER_PORT);
+	System.setProperty("jNab.server.engine", DEFAULT_SERVER_ENGINE);
+	System.setProperty("jNab.server.workers", String.valueOf(MicroServer.DEFAULT_MAX_WORKERS));
+	System.setProperty("jNab.server.queue", String.valueOf(MicroServer.DEFAULT_WORKER_QUEUE_SIZE));
+	System.setProperty("jNab.server.retry", String.valueOf(MicroServer.DEFAULT_RETRY_INTERVAL));
+	System.setProperty("jNab.server.limit.bootcode", DEFAULT_BOOTCODE_LIMIT);
+	System.setProperty("jNab.server.limit.files", DEFAULT_LOCAL_FILE_LIMIT);
+	System.setProperty("jNab.server.limit.events", DEFAULT_EVENT_LIMIT);
+	System.setProperty("jNab.server.limit.body", String.valueOf(HTTPRequest.DEFAULT_MAX_BODY_SIZE));
+	System.setProperty("jNab.server.pacing.threads", DEFAULT_PACING_THREADS);
+	System.setProperty("jNab.server.pacing.rate", String.valueOf(PacingScheduler.DEFAULT_RATE));
+	System.setProperty("jNab.server.pacing.routes", "");
+	System.setProperty("jNab.server.pacing.bunnies", "");
+	System.setProperty("jNab.server.bootcode.direct", "false");
+	System.setProperty("jNab.server.cache.size", String.valueOf(FileCache.DEFAULT_MAX_SIZE / 1024));
+	System.setProperty("jNab.server.log.level", DEFAULT_LOG_LEVEL);
+	System.setProperty("jNab.server.log.buffer", String.valueOf(Logger.DEFAULT_BUFFER_SIZE));
+	System.setProperty("jNab.server.plugin.slow", String.valueOf(PluginMonitor.DEFAULT_SLOW_THRESHOLD));
+	System.setProperty("jNab.server.capture", "");
+	System.setProperty("jNab.server.capture.bodies", "true");
 	System.setProperty("jNab.conf.ip", "");
 	System.setProperty("jNab.conf.port", DEFAULT_CONF_PORT);
 	System.setProperty("jNab.serializedfiles.root", DEFAULT_SERIALIZATION_PATH);
@@ -88,65 +190,65 @@ public class jNab
 	}
 
 	// Re-setting system properties with properties loaded from configuration file
-
-	String property = null;
-
-	property = properties.getProperty("jNab.server.ip");
-	if (property != null) System.setProperty("jNab.server.ip", property);
-
-	property = properties.getProperty("jNab.server.port");
-	if (property != null) System.setProperty("jNab.server.port", property);
-
-	property = properties.getProperty("jNab.conf.ip");
-	if (property != null) System.setProperty("jNab.conf.ip", property);
-
-	property = properties.getProperty("jNab.conf.port");
-	if (property != null) System.setProperty("jNab.conf.port", property);
-
-	property = properties.getProperty("jNab.serializedfiles.root");
-	if (property != null) System.setProperty("jNab.serializedfiles.root", property);
-
-	property = properties.getProperty("jNab.resources.root");
-	if (property != null) System.setProperty("jNab.resources.root", property);
-
-	property = properties.getProperty("jNab.plugins.root");
-	if (property != null) System.setProperty("jNab.plugins.root", property);
+	for (String propertyName : PROPERTY_NAMES)
+	{
+	    String property = properties.getProperty("jNab." + propertyName);
+	    if (property != null) System.setProperty("jNab." + propertyName, property);
+	}
 
 	// Re-setting system properties with properties overridden by command-line arguments
-
 	for (String parameter : args)
 	{
-	    if (parameter.startsWith("-server.ip=")) System.setProperty("jNab.server.ip", parameter.substring(parameter.indexOf('=') + 1));
-	    if (parameter.startsWith("-server.port="))
-		System.setProperty("jNab.server.port", parameter.substring(parameter.indexOf('=') + 1));
-	    if (parameter.startsWith("-conf.ip=")) System.setProperty("jNab.conf.ip", parameter.substring(parameter.indexOf('=') + 1));
-	    if (parameter.startsWith("-conf.port=")) System.setProperty("jNab.conf.port", parameter.substring(parameter.indexOf('=') + 1));
-	    if (parameter.startsWith("-serializedfiles.root="))
-		System.setProperty("jNab.serializedfiles.root", parameter.substring(parameter.indexOf('=') + 1));
-	    if (parameter.startsWith("-resources.root="))
-		System.setProperty("jNab.resources.root", parameter.substring(parameter.indexOf('=') + 1));
-	    if (parameter.startsWith("-plugins.root="))
-		System.setProperty("jNab.plugins.root", parameter.substring(parameter.indexOf('=') + 1));
+	    for (String propertyName : PROPERTY_NAMES)
+	    {
+		if (parameter.startsWith("-" + propertyName + "="))
+		    System.setProperty("jNab." + propertyName, parameter.substring(parameter.indexOf('=') + 1));
+	    }
 	}
 
 	// Binding and starting server
 	String serverAddress = System.getProperty("jNab.server.ip");
-	int serverPort = 0;
-	try
-	{
-	    serverPort = Integer.parseInt(System.getProperty("jNab.server.port"));
-	}
-	catch (NumberFormatException e1)
-	{
-	    System.err.println("<jNab> Server port has an invalid value, exiting...");
-	    System.exit(-1);
-	}
+	int serverPort = getIntProperty("jNab.server.port", "Server port");
 
 	File resourcesPath = new File(System.getProperty("jNab.resources.root"));
 	File pluginsPath = new File(System.getProperty("jNab.plugins.root"));
 
 	// Creating (but not starting yet) a micro server instance
-	MicroServer microServer = new MicroServer(serverAddress, serverPort, resourcesPath, pluginsPath);
+	final MicroServer microServer = new MicroServer(serverAddress, serverPort, resourcesPath, pluginsPath);
+	microServer.setEngine(System.getProperty("jNab.server.engine"));
+	microServer.setWorkerPoolSize(getIntProperty("jNab.server.workers", "Worker count"), getIntProperty("jNab.server.queue",
+		"Worker queue size"));
+	microServer.setRetryInterval(getIntProperty("jNab.server.retry", "Retry interval"));
+	microServer.getAdmissionController().setLimit(AdmissionController.BOOTCODE_ROUTE,
+		getIntProperty("jNab.server.limit.bootcode", "Bootcode request limit"));
+	microServer.getAdmissionController().setLimit(AdmissionController.LOCAL_FILE_ROUTE,
+		getIntProperty("jNab.server.limit.files", "Local file request limit"));
+	microServer.getAdmissionController().setLimit(AdmissionController.EVENT_ROUTE,
+		getIntProperty("jNab.server.limit.events", "Event request limit"));
+	HTTPRequest.setMaxBodySize(getIntProperty("jNab.server.limit.body", "Request body limit"));
+
+	microServer.setDirectBootcode(Boolean.parseBoolean(System.getProperty("jNab.server.bootcode.direct")));
+	microServer.getFileCache().setMaxSize(getIntProperty("jNab.server.cache.size", "File cache size") * 1024L);
+	microServer.getPluginMonitor().setSlowThreshold(getIntProperty("jNab.server.plugin.slow", "Slow plugin threshold"));
+
+	// Creating the pacing scheduler, if enabled
+	int pacingThreads = getIntProperty("jNab.server.pacing.threads", "Pacing thread count");
+	if (pacingThreads > 0)
+	{
+	    PacingScheduler pacingScheduler = new PacingScheduler(pacingThreads);
+	    int pacingRate = getIntProperty("jNab.server.pacing.rate", "Upload rate");
+	    if (pacingRate <= 0)
+	    {
+		System.err.println("<jNab> Upload rate has an invalid value, exiting...");
+		System.exit(-1);
+	    }
+	    pacingScheduler.setDefaultRate(pacingRate);
+	    for (Map.Entry<String, Integer> entry : getRatesProperty("jNab.server.pacing.routes", "Route upload rates").entrySet())
+		pacingScheduler.setRouteRate(entry.getKey(), entry.getValue());
+	    for (Map.Entry<String, Integer> entry : getRatesProperty("jNab.server.pacing.bunnies", "Bunny upload rates").entrySet())
+		pacingScheduler.setBunnyRate(entry.getKey(), entry.getValue());
+	    microServer.setPacingScheduler(pacingScheduler);
+	}
 
 	// Creating a serialization service instance
 	Serializer serializer = new Serializer(new File(System.getProperty("jNab.serializedfiles.root")));
@@ -160,6 +262,22 @@ public class jNab
 	System.out.println("<jNab> Reading serialized bunnies");
 	serializer.loadBunnies(microServer.getBurrow(), microServer.getPluginFactory());
 
+	// Capturing incoming requests, if requested
+	String captureFile = System.getProperty("jNab.server.capture");
+	if (!captureFile.isEmpty())
+	{
+	    try
+	    {
+		boolean captureBodies = Boolean.parseBoolean(System.getProperty("jNab.server.capture.bodies"));
+		microServer.startTrafficCapture(new File(captureFile), captureBodies);
+	    }
+	    catch (IOException e)
+	    {
+		System.err.println("<jNab> Capture file " + captureFile + " can not be opened, exiting...");
+		System.exit(-1);
+	    }
+	}
+
 	// Starting micro server
 	microServer.start();
 
@@ -167,28 +285,83 @@ public class jNab
 	microServer.setDebugLoggingStream(System.out);
 	microServer.setErrorLoggingStream(System.err);
 	microServer.setInfoLoggingStream(System.out);
+	int logLevel = Logger.getLevel(System.getProperty("jNab.server.log.level"));
+	if (logLevel == -1)
+	{
+	    System.err.println("<jNab> Log level has an invalid value, exiting...");
+	    System.exit(-1);
+	}
+	final Logger logger = microServer.getLogger();
+	logger.setLevel(logLevel);
+	logger.setAsynchronous(getIntProperty("jNab.server.log.buffer", "Log buffer size"));
+
+	// Writing buffered log messages before exiting
+	Runtime.getRuntime().addShutdownHook(new Thread()
+	{
+	    public void run()
+	    {
+		microServer.stopTrafficCapture();
+		logger.shutdown();
+	    }
+	});
 
 	System.out.println("<jNab> Server properties settings:");
-	System.out.println("<jNab> jNab.server.ip = " + System.getProperty("jNab.server.ip"));
-	System.out.println("<jNab> jNab.server.port = " + System.getProperty("jNab.server.port"));
-	System.out.println("<jNab> jNab.conf.ip = " + System.getProperty("jNab.conf.ip"));
-	System.out.println("<jNab> jNab.conf.port = " + System.getProperty("jNab.conf.port"));
-	System.out.println("<jNab> jNab.serializedfiles.root = " + System.getProperty("jNab.serializedfiles.root"));
-	System.out.println("<jNab> jNab.resources.root = " + System.getProperty("jNab.resources.root"));
-	System.out.println("<jNab> jNab.plugins.root = " + System.getProperty("jNab.plugins.root"));
+	for (String propertyName : PROPERTY_NAMES)
+	    System.out.println("<jNab> jNab." + propertyName + " = " + System.getProperty("jNab." + propertyName));
 
 	// Binding and starting a server configuration server
 	String confAddress = System.getProperty("jNab.conf.ip");
-	int confPort = 0;
+	int confPort = getIntProperty("jNab.conf.port", "Configuration port");
+	new ServerConfigurationServer(confAddress, confPort, microServer, serializer).start();
+    }
+
+    /**
+     * Internal method reading an integer system property, exiting if its value is invalid.
+     * 
+     * @param name the name of the system property.
+     * @param description the description of the property, used in the error message.
+     * @return the value of the property.
+     */
+    private static int getIntProperty(String name, String description)
+    {
 	try
 	{
-	    confPort = Integer.parseInt(System.getProperty("jNab.conf.port"));
+	    return Integer.parseInt(System.getProperty(name));
 	}
-	catch (NumberFormatException e1)
+	catch (NumberFormatException e)
 	{
-	    System.err.println("<jNab> Configuration port has an invalid value, exiting...");
+	    System.err.println("<jNab> " + description + " has an invalid value, exiting...");
 	    System.exit(-1);
+	    return 0;
 	}
-	new ServerConfigurationServer(confAddress, confPort, microServer, serializer).start();
+    }
+
+    /**
+     * Internal method reading a system property holding a comma-separated list of <i>name</i>:<i>rate</i> pairs, exiting if its value is
+     * invalid.
+     * 
+     * @param name the name of the system property.
+     * @param description the description of the property, used in the error message.
+     * @return the rates, indexed by name.
+     */
+    private static Map<String, Integer> getRatesProperty(String name, String description)
+    {
+	Map<String, Integer> rates = new LinkedHashMap<String, Integer>();
+	for (String pair : System.getProperty(name).split(","))
+	{
+	    if (pair.trim().length() == 0) continue;
+	    int colon = pair.lastIndexOf(':');
+	    try
+	    {
+		if (colon == -1) throw new NumberFormatException(pair);
+		rates.put(pair.substring(0, colon).trim(), Integer.parseInt(pair.substring(colon + 1).trim()));
+	    }
+	    catch (NumberFormatException e)
+	    {
+		System.err.println("<jNab> " + description + " has an invalid value, exiting...");
+		System.exit(-1);
+	    }
+	}
+	return rates;
     }
 }